@@ -15,17 +15,26 @@ package net.kyou;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
+import net.kyou.data.AbstractDataDocument;
 import net.kyou.data.DataDocument;
 import net.kyou.data.SchemaDocument;
 import net.kyou.data.DataDocument.IDataSerializer;
 import net.kyou.data.SchemaDocument.ISchemaSerializer;
 import net.kyou.data.XmlSerializer;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
 import net.kyou.pack.PackService;
+import net.kyou.pack.PreparedPacker;
 import net.kyou.pack.StyleSpecification;
+import net.kyou.pack.UnpackService;
 import net.kyou.pack.param.ParamFactory;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteOutputStreamPool;
 
 /**
  * kyou的入口类，提供kyou的基本功能
@@ -167,9 +176,149 @@ public class Kyou {
      *            组包样式定义
      * @return 组包出来的报文
      */
-    public byte[] pack(DataDocument data, SchemaDocument schema, StyleSpecification style) {
-        KyouByteOutputStream s = new KyouByteOutputStream();
+    public byte[] pack(AbstractDataDocument data, SchemaDocument schema, StyleSpecification style) {
+        KyouByteOutputStreamPool pool = KyouByteOutputStreamPool.local();
+        KyouByteOutputStream s = pool.borrow();
+        try {
+            PackService.__document(schema, data, style, s);
+            return s.export();
+        } finally {
+            pool.release(s);
+        }
+    }
+    
+    /**
+     * 执行组包过程，并将组包出来的报文写入指定的流
+     * <p>
+     * 组包的过程中会把已经确定的字节分块写入流中，只有长度等尚待回填的部分才会暂时保留在内存中，适用于组包很大的报文。
+     * </p>
+     * 
+     * @param data
+     *            被组包的数据
+     * @param schema
+     *            被组包的数据依赖的结构
+     * @param style
+     *            组包样式定义
+     * @param out
+     *            输出流
+     */
+    public void pack(AbstractDataDocument data, SchemaDocument schema, StyleSpecification style, OutputStream out) {
+        KyouByteOutputStream s = new KyouByteOutputStream(out);
+        PackService.__document(schema, data, style, s);
+        s.flush();
+    }
+    
+    /**
+     * 执行组包过程，并将组包出来的报文写入指定的通道
+     * 
+     * @param data
+     *            被组包的数据
+     * @param schema
+     *            被组包的数据依赖的结构
+     * @param style
+     *            组包样式定义
+     * @param channel
+     *            输出通道
+     * @see #pack(AbstractDataDocument, SchemaDocument, StyleSpecification, OutputStream)
+     */
+    public void pack(AbstractDataDocument data, SchemaDocument schema, StyleSpecification style, WritableByteChannel channel) {
+        if (channel == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        
+        this.pack(data, schema, style, Channels.newOutputStream(channel));
+    }
+    
+    /**
+     * 执行组包过程，并将组包出来的报文直接写入指定的缓冲区
+     * <p>
+     * 报文从缓冲区的position开始写入。如果缓冲区的剩余空间足够，则写入后缓冲区的position移到报文的末尾；
+     * 否则缓冲区的position保持不变（但position到limit之间的内容可能已被改写），并返回还需要多少字节的空间，调用者可以换一个更大的缓冲区重试。
+     * </p>
+     * 
+     * @param data
+     *            被组包的数据
+     * @param schema
+     *            被组包的数据依赖的结构
+     * @param style
+     *            组包样式定义
+     * @param target
+     *            目标缓冲区，可以是堆缓冲区或直接缓冲区
+     * @return 0表示组包成功，大于0表示缓冲区的剩余空间不足，值为还需要的字节数
+     */
+    public int pack(AbstractDataDocument data, SchemaDocument schema, StyleSpecification style, ByteBuffer target) {
+        KyouByteOutputStream s = new KyouByteOutputStream(target);
         PackService.__document(schema, data, style, s);
-        return s.export();
+        return PackService.__target(s, target);
+    }
+    
+    /**
+     * 执行拆包过程
+     * 
+     * @param bytes
+     *            被拆包的报文
+     * @param schema
+     *            报文的结构
+     * @param style
+     *            组包样式定义
+     * @return 拆包得到的报文数据
+     */
+    public DataDocument unpack(byte[] bytes, SchemaDocument schema, StyleSpecification style) {
+        if (bytes == null)
+            throw new KyouException(KyouErr.Unpack.EmptyBuffer);
+        
+        return UnpackService.__document(schema, ByteBuffer.wrap(bytes), style);
+    }
+    
+    /**
+     * 执行拆包过程
+     * <p>
+     * 从缓冲区的当前位置开始解析，直到缓冲区的limit为止。拆包过程直接读取缓冲区，不会复制报文的字节。
+     * </p>
+     * 
+     * @param buffer
+     *            被拆包的报文
+     * @param schema
+     *            报文的结构
+     * @param style
+     *            组包样式定义
+     * @return 拆包得到的报文数据
+     */
+    public DataDocument unpack(ByteBuffer buffer, SchemaDocument schema, StyleSpecification style) {
+        return UnpackService.__document(schema, buffer, style);
+    }
+    
+    /**
+     * 根据报文结构和组包样式定义准备一个组包器
+     * <p>
+     * 组包器会预先为各个报文元素选定样式单元，适用于使用相同的报文结构和组包样式定义反复进行组包的场合。<br/>
+     * 返回的组包器可以在多个线程之间共享。
+     * </p>
+     * 
+     * @param schema
+     *            被组包的数据依赖的结构
+     * @param style
+     *            组包样式定义
+     * @return 组包器
+     */
+    public PreparedPacker prepare(SchemaDocument schema, StyleSpecification style) {
+        return new PreparedPacker(schema, style);
+    }
+    
+    /**
+     * 根据报文结构和组包样式定义准备一个组包器，并可选地为其生成专用的组包代码
+     * <p>
+     * 生成代码需要运行时环境中提供Java编译器（即运行在JDK而不是JRE上）。
+     * </p>
+     * 
+     * @param schema
+     *            被组包的数据依赖的结构
+     * @param style
+     *            组包样式定义
+     * @param codegen
+     *            是否生成专用的组包代码
+     * @return 组包器
+     */
+    public PreparedPacker prepare(SchemaDocument schema, StyleSpecification style, boolean codegen) {
+        return new PreparedPacker(schema, style, codegen);
     }
 }
@@ -0,0 +1,77 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.data;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * 报文数据的公共基类
+ * <p>
+ * 只规定按路径存取报文数据的方式，不规定报文数据如何存放。以路径为键存放在map中的为{@link DataDocument}，
+ * 按照报文元素在报文结构中的位置存放的为{@link SlotDataDocument}。组包时两者可以互换使用。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public abstract class AbstractDataDocument {
+    /**
+     * 取出与某个路径对应的值。如果不存在指定的路径则返回null。
+     * 
+     * @param path
+     *            路径
+     * @return 报文数据中与指定的路径对应的值
+     */
+    public abstract String get(DPath path);
+    
+    /**
+     * 设置与某个路径对应的值
+     * 
+     * @param path
+     *            路径
+     * @param value
+     *            值
+     */
+    abstract void put(DPath path, String value);
+    
+    /**
+     * 获取报文数据中的所有键值对
+     * 
+     * @return 按照放入的顺序排列的所有键值对
+     */
+    abstract Map<DPath, String> entries();
+    
+    /**
+     * 获取某个指定数组元素的子元素的路径列表
+     * <p>
+     * <li>如果该元素不存在或不是一个数组元素则返回null</li>
+     * <li>如果该元素是一个数组，则返回该数组的所有元素。如果该数组长度为0则返回一个空数组。</li>
+     * </p>
+     * 
+     * @param path
+     *            要列出子元素的数组元素的路径
+     * @return 返回期望的子元素路径列表
+     */
+    public abstract DPath[] elements(DPath path);
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\r\n<data>\r\n");
+        
+        for (Entry<DPath, String> entry : this.entries().entrySet())
+            builder.append("<").append(entry.getKey()).append(">").append(entry.getValue()).append("</").append(entry.getKey()).append(">").append("\r\n");
+        
+        return builder.append("</data>").toString();
+    }
+}
@@ -13,6 +13,10 @@
  */
 package net.kyou.data;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
 
@@ -20,6 +24,18 @@ import org.apache.commons.lang.StringUtils;
 
 /**
  * 描述报文数据的路径
+ * <p>
+ * 路径以树的形式组织，每个路径都指向其父路径。通过{@link #child(String)}和{@link #child(int)}得到的子路径会被缓存在父路径中，
+ * 之后再取同一个子路径时直接返回缓存的对象，不再分配新的对象，也不再拼接字符串。<br/>
+ * 每个路径的哈希值在创建时预先计算好，比较两个路径时先比较是否为同一个对象，因此使用缓存的路径作为map的键时查找的开销很小。
+ * </p>
+ * <p>
+ * 缓存是全局的，从{@link #root}或解析出的路径开始，在整个进程中共享，缓存的路径不会被清除。<br/>
+ * 因此缓存的数量是有上限的：数组元素的下标只缓存前{@value #MAX_CACHED_INDEX}个，其它名称每个路径最多缓存{@value #MAX_CACHED_NAMES}个，
+ * 整个进程中所有路径缓存的子路径加起来最多{@value #MAX_CACHED}个。<br/>
+ * 超出上限时每次都返回一个新的未缓存的路径，仍然与缓存的路径相等，只是失去了缓存带来的好处。达到总数上限后不会再缓存任何新的子路径，
+ * 因此用不断变化的名称取子路径不会无限占用内存，但之后出现的路径即使是常用的也不会被缓存。
+ * </p>
  * 
  * @author nuclearg
  */
@@ -27,16 +43,53 @@ public class DPath {
     /**
      * 预定义的DPath根节点，表示报文根元素
      */
-    public static final DPath root = new DPath("#");
+    public static final DPath root = new DPath(null, "#");
     
     /**
-     * 该DPath的全路径形式
+     * 按下标缓存的数组元素的最大数量
+     */
+    private static final int MAX_CACHED_INDEX = 65536;
+    /**
+     * 每个路径按名称缓存的子路径的最大数量，不包括按下标缓存的数组元素
+     */
+    private static final int MAX_CACHED_NAMES = 1024;
+    /**
+     * 整个进程中缓存的子路径的最大数量
      */
-    private final String dpath;
+    private static final int MAX_CACHED = 1 << 18;
     /**
-     * 该DPath的各个段
+     * 整个进程中已缓存的子路径的数量
      */
-    private final String[] segments;
+    private static final AtomicInteger cached = new AtomicInteger();
+    
+    /**
+     * 父路径，如果是最顶层的路径则为null
+     */
+    private final DPath parent;
+    /**
+     * 该路径的最后一段
+     */
+    private final String name;
+    /**
+     * 该路径的段数
+     */
+    private final int depth;
+    /**
+     * 预先计算好的哈希值
+     */
+    private final int hash;
+    /**
+     * 该DPath的全路径形式，在第一次使用时拼接
+     */
+    private volatile String dpath;
+    /**
+     * 已缓存的子路径，如果还没有则为null
+     */
+    private volatile ConcurrentMap<String, DPath> children;
+    /**
+     * 按下标缓存的数组元素的路径，如果还没有则为null
+     */
+    private volatile DPath[] elements;
     
     /**
      * 初始化一个DPath实例
@@ -48,19 +101,33 @@ public class DPath {
         if (StringUtils.isEmpty(dpath))
             throw new KyouException(KyouErr.DPath.EmptyDPath);
         
+        String[] segments = StringUtils.split(dpath, '.');
+        
+        // 父路径使用缓存的路径
+        DPath parent = null;
+        for (int i = 0; i < segments.length - 1; i++)
+            parent = parent != null ? parent.child(segments[i]) : segments[i].equals(root.name) ? root : new DPath(null, segments[i]);
+        
+        this.parent = parent;
+        this.name = segments[segments.length - 1];
+        this.depth = parent != null ? parent.depth + 1 : 1;
+        this.hash = hash(parent, this.name);
         this.dpath = dpath;
-        this.segments = StringUtils.split(dpath, '.');
     }
     
     /**
      * 初始化一个DPath实例
      * 
-     * @param segments
-     *            DPath的分段形式
+     * @param parent
+     *            父路径
+     * @param name
+     *            最后一段的名称
      */
-    private DPath(String[] segments) {
-        this.segments = segments;
-        this.dpath = StringUtils.join(segments, '.');
+    private DPath(DPath parent, String name) {
+        this.parent = parent;
+        this.name = name;
+        this.depth = parent != null ? parent.depth + 1 : 1;
+        this.hash = hash(parent, name);
     }
     
     /**
@@ -69,7 +136,7 @@ public class DPath {
      * @return 报文元素的名称
      */
     public String name() {
-        return this.segments[this.segments.length - 1];
+        return this.name;
     }
     
     /**
@@ -80,24 +147,79 @@ public class DPath {
      * @return 描述该子节点的DPath实例
      */
     public DPath child(String name) {
-        String[] segments = new String[this.segments.length + 1];
-        System.arraycopy(this.segments, 0, segments, 0, this.segments.length);
-        segments[this.segments.length] = name;
-        return new DPath(segments);
+        // 数组元素按下标缓存
+        int index = index(name);
+        if (index >= 0)
+            return this.child(index);
+        
+        ConcurrentMap<String, DPath> children = this.children;
+        if (children == null)
+            synchronized (this) {
+                if ((children = this.children) == null)
+                    this.children = children = new ConcurrentHashMap<String, DPath>(4);
+            }
+        
+        DPath child = children.get(name);
+        if (child != null)
+            return child;
+        
+        child = new DPath(this, name);
+        if (children.size() >= MAX_CACHED_NAMES || !reserve())
+            return child;
+        DPath exist = children.putIfAbsent(name, child);
+        if (exist == null)
+            return child;
+        
+        // 其它线程已经缓存了同一个子路径，归还占用的数量
+        cached.decrementAndGet();
+        return exist;
+    }
+    
+    /**
+     * 获取一个描述当前路径的某个数组元素的DPath实例
+     * <p>
+     * 与child(String.valueOf(index))相同，但已缓存的数组元素的路径可以直接按下标取得。
+     * </p>
+     * 
+     * @param index
+     *            数组元素的下标
+     * @return 描述该数组元素的DPath实例
+     */
+    public DPath child(int index) {
+        DPath[] elements = this.elements;
+        if (elements != null && index >= 0 && index < elements.length && elements[index] != null)
+            return elements[index];
+        
+        if (index < 0 || index >= MAX_CACHED_INDEX)
+            return new DPath(this, String.valueOf(index));
+        
+        synchronized (this) {
+            elements = this.elements;
+            if (elements != null && index < elements.length && elements[index] != null)
+                return elements[index];
+            if (!reserve())
+                return new DPath(this, String.valueOf(index));
+            
+            if (elements == null || elements.length <= index) {
+                DPath[] _elements = new DPath[Math.min(MAX_CACHED_INDEX, Math.max(index + 1, elements == null ? 8 : elements.length * 2))];
+                if (elements != null)
+                    System.arraycopy(elements, 0, _elements, 0, elements.length);
+                elements = _elements;
+            }
+            DPath child = new DPath(this, String.valueOf(index));
+            elements[index] = child;
+            this.elements = elements;
+            return child;
+        }
     }
     
     /**
      * 获取一个描述该路径的父元素路径的DPath实例
      * 
-     * @return 描述该路径的父元素路径的DPath实例。如果已经是根元素则返回自身
+     * @return 描述该路径的父元素路径的DPath实例。如果已经是最顶层的路径则返回自身
      */
     public DPath parent() {
-        if (this.isRoot())
-            return this;
-        
-        String[] segments = new String[this.segments.length - 1];
-        System.arraycopy(this.segments, 0, segments, 0, segments.length);
-        return new DPath(segments);
+        return this.parent != null ? this.parent : this;
     }
     
     /**
@@ -106,15 +228,24 @@ public class DPath {
      * @return 该路径是否指向报文根节点
      */
     public boolean isRoot() {
-        return this.dpath.equals("#");
+        return this.parent == null && this.name.equals(root.name);
+    }
+    
+    /**
+     * 获取该路径的各个段
+     * 
+     * @return 该路径的各个段
+     */
+    String[] segments() {
+        String[] segments = new String[this.depth];
+        for (DPath path = this; path != null; path = path.parent)
+            segments[path.depth - 1] = path.name;
+        return segments;
     }
     
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + this.dpath.hashCode();
-        return result;
+        return this.hash;
     }
     
     @Override
@@ -126,13 +257,69 @@ public class DPath {
         if (getClass() != obj.getClass())
             return false;
         DPath other = (DPath) obj;
-        if (!this.dpath.equals(other.dpath))
+        if (this.hash != other.hash || this.depth != other.depth)
             return false;
+        
+        // 逐段比较，直到遇到同一个父路径为止
+        for (DPath path = this; path != other; path = path.parent, other = other.parent)
+            if (!path.name.equals(other.name))
+                return false;
         return true;
     }
     
     @Override
     public String toString() {
-        return this.dpath;
+        String dpath = this.dpath;
+        if (dpath == null)
+            this.dpath = dpath = StringUtils.join(this.segments(), '.');
+        return dpath;
+    }
+    
+    /**
+     * 获取整个进程中已缓存的子路径的数量
+     * 
+     * @return 已缓存的子路径的数量
+     */
+    static int cached() {
+        return cached.get();
+    }
+    
+    /**
+     * 占用一个缓存的子路径的数量
+     * 
+     * @return 如果还没有达到整个进程的上限则为true，否则为false，此时不应缓存子路径
+     */
+    private static boolean reserve() {
+        if (cached.incrementAndGet() <= MAX_CACHED)
+            return true;
+        cached.decrementAndGet();
+        return false;
+    }
+    
+    /**
+     * 如果名称是可以按下标缓存的数组元素的下标则返回该下标
+     * 
+     * @return 数组元素的下标，如果不是则为-1
+     */
+    private static int index(String name) {
+        int len = name.length();
+        if (len == 0 || len > 5 || (name.charAt(0) == '0' && len > 1))
+            return -1;
+        
+        int index = 0;
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            index = index * 10 + (c - '0');
+        }
+        return index < MAX_CACHED_INDEX ? index : -1;
+    }
+    
+    /**
+     * 计算路径的哈希值
+     */
+    private static int hash(DPath parent, String name) {
+        return (parent != null ? parent.hash * 31 : 1) + name.hashCode();
     }
 }
@@ -0,0 +1,143 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.data;
+
+/**
+ * {@link SlotDataDocument}中的数据块
+ * <p>
+ * 整篇报文有一个数据块，每个数组元素也各有一个数据块。数据块中的值按照报文元素的{@link SchemaItem#slot()}存放在一个数组中，存取时不需要计算哈希值。<br/>
+ * 数组元素本身的值（即数组元素的个数）存放在数组所在的数据块中，各个数组元素的数据块则挂在数组所在的数据块下。<br/>
+ * 字段数组（&lt;field array='true'&gt;）的各个数组元素的数据块只有一个位置，存放该数组元素的值，通过{@link #value()}存取。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public class DataBlock {
+    /**
+     * 各个报文元素的值
+     */
+    final String[] values;
+    /**
+     * 各个数组的各个数组元素的数据块，按照数组的位置存放，如果数据块中没有数组则为null
+     */
+    private DataBlock[][] elements;
+    
+    /**
+     * 初始化一个数据块
+     * 
+     * @param size
+     *            数据块的大小
+     */
+    DataBlock(int size) {
+        this.values = new String[size];
+    }
+    
+    /**
+     * 获取某个报文元素的值
+     * 
+     * @param item
+     *            报文元素，必须属于当前数据块
+     * @return 报文元素的值，如果没有值则为null
+     */
+    public String get(SchemaItem item) {
+        return this.values[item.slot];
+    }
+    
+    /**
+     * 设置某个报文元素的值
+     * 
+     * @param item
+     *            报文元素，必须属于当前数据块
+     * @param value
+     *            报文元素的值
+     */
+    void set(SchemaItem item, String value) {
+        this.values[item.slot] = value;
+    }
+    
+    /**
+     * 获取字段数组的数组元素的值
+     * 
+     * @return 数组元素的值，如果没有值则为null。当前数据块必须是字段数组的某个数组元素的数据块
+     */
+    public String value() {
+        return this.values[0];
+    }
+    
+    /**
+     * 设置字段数组的数组元素的值
+     * 
+     * @param value
+     *            数组元素的值。当前数据块必须是字段数组的某个数组元素的数据块
+     */
+    void value(String value) {
+        this.values[0] = value;
+    }
+    
+    /**
+     * 获取某个数组元素的数据块
+     * 
+     * @param array
+     *            数组，必须属于当前数据块
+     * @param index
+     *            数组元素的下标
+     * @return 数组元素的数据块，如果不存在则为null
+     */
+    public DataBlock element(SchemaItem array, int index) {
+        if (this.elements == null || this.elements[array.slot] == null)
+            return null;
+        
+        DataBlock[] blocks = this.elements[array.slot];
+        return index >= 0 && index < blocks.length ? blocks[index] : null;
+    }
+    
+    /**
+     * 获取某个数组已分配的数组元素的数据块的个数
+     * 
+     * @param array
+     *            数组，必须属于当前数据块
+     * @return 不超过该数的下标都可能有数据块，其中可能有未创建的（为null）
+     */
+    int elementCapacity(SchemaItem array) {
+        if (this.elements == null || this.elements[array.slot] == null)
+            return 0;
+        return this.elements[array.slot].length;
+    }
+    
+    /**
+     * 获取某个数组元素的数据块，如果不存在则创建一个
+     * 
+     * @param array
+     *            数组，必须属于当前数据块，可以是结构数组或字段数组
+     * @param index
+     *            数组元素的下标
+     * @return 数组元素的数据块
+     */
+    DataBlock createElement(SchemaItem array, int index) {
+        if (this.elements == null)
+            this.elements = new DataBlock[this.values.length][];
+        
+        DataBlock[] blocks = this.elements[array.slot];
+        if (blocks == null || blocks.length <= index) {
+            DataBlock[] _blocks = new DataBlock[Math.max(index + 1, blocks == null ? 4 : blocks.length * 2)];
+            if (blocks != null)
+                System.arraycopy(blocks, 0, _blocks, 0, blocks.length);
+            this.elements[array.slot] = blocks = _blocks;
+        }
+        
+        if (blocks[index] == null)
+            blocks[index] = new DataBlock(array instanceof SchemaStruct ? ((SchemaStruct) array).blockSize : 1);
+        return blocks[index];
+    }
+}
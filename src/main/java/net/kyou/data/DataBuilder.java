@@ -28,7 +28,7 @@ public class DataBuilder {
     /**
      * 
      */
-    private final DataDocument data;
+    private final AbstractDataDocument data;
     
     /**
      * 
@@ -44,7 +44,7 @@ public class DataBuilder {
      * @param schema
      * @param data
      */
-    public DataBuilder(SchemaDocument schema, DataDocument data) {
+    public DataBuilder(SchemaDocument schema, AbstractDataDocument data) {
         this.schema = schema;
         this.data = this.load(data, schema);
     }
@@ -73,7 +73,7 @@ public class DataBuilder {
     public void value(DPath path, String value) {
         this.checkExists(path);
         
-        this.data.map.put(path, value);
+        this.data.put(path, value);
     }
     
     /**
@@ -107,6 +107,24 @@ public class DataBuilder {
      * @return
      */
     public DataDocument export() {
+        if (this.data instanceof DataDocument)
+            return (DataDocument) this.data;
+        
+        // 与报文结构绑定的报文数据，转换为以路径为键的形式
+        DataDocument data = new DataDocument();
+        data.map.putAll(this.data.entries());
+        return data;
+    }
+    
+    /**
+     * 获取正在编辑的报文数据本身
+     * <p>
+     * 与{@link #export()}不同，如果编辑的是{@link SlotDataDocument}则直接返回它，不做转换。
+     * </p>
+     * 
+     * @return 正在编辑的报文数据
+     */
+    public AbstractDataDocument document() {
         return this.data;
     }
     
@@ -165,7 +183,7 @@ public class DataBuilder {
      * @param schema
      * @return
      */
-    private DataDocument load(DataDocument data, SchemaDocument schema) {
+    private AbstractDataDocument load(AbstractDataDocument data, SchemaDocument schema) {
         return data;
     }
 }
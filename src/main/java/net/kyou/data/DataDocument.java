@@ -17,7 +17,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.LinkedHashMap;
-import java.util.Map.Entry;
+import java.util.Map;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
@@ -34,11 +34,14 @@ import net.kyou.exception.KyouException;
  * <p>
  * 为了避免将内部状态弄乱，始终应当使用DataBuilder类对DataDocument的实例进行修改。
  * </p>
+ * <p>
+ * 如果报文结构是固定的，可以使用{@link SlotDataDocument}，按照报文元素在报文结构中的位置存放报文数据，以减少查找的开销和内存占用。两者的公共基类为{@link AbstractDataDocument}。
+ * </p>
  * 
  * @author nuclearg
  * @see SchemaDocument
  */
-public class DataDocument implements Serializable {
+public class DataDocument extends AbstractDataDocument implements Serializable {
     private static final long serialVersionUID = -2294014881411235540L;
     
     /**
@@ -54,28 +57,22 @@ public class DataDocument implements Serializable {
      */
     final LinkedHashMap<DPath, String> map = new LinkedHashMap<DPath, String>();
     
-    /**
-     * 取出与某个路径对应的值。如果不存在指定的路径则返回null。
-     * 
-     * @param path
-     *            路径
-     * @return 报文数据中与指定的路径对应的值
-     */
+    @Override
     public String get(DPath path) {
         return this.map.get(path);
     }
     
-    /**
-     * 获取某个指定数组元素的子元素的路径列表
-     * <p>
-     * <li>如果该元素不存在或不是一个数组元素则返回null</li>
-     * <li>如果该元素是一个数组，则返回该数组的所有元素。如果该数组长度为0则返回一个空数组。</li>
-     * </p>
-     * 
-     * @param path
-     *            要列出子元素的数组元素的路径
-     * @return 返回期望的子元素路径列表
-     */
+    @Override
+    void put(DPath path, String value) {
+        this.map.put(path, value);
+    }
+    
+    @Override
+    Map<DPath, String> entries() {
+        return this.map;
+    }
+    
+    @Override
     public DPath[] elements(DPath path) {
         if (!this.map.containsKey(path))
             return null;
@@ -97,21 +94,11 @@ public class DataDocument implements Serializable {
         // 拼出各个数组元素
         DPath[] children = new DPath[count];
         for (int i = 0; i < count; i++)
-            children[i] = path.child(String.valueOf(i));
+            children[i] = path.child(i);
         
         return children;
     }
     
-    @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\r\n<data>\r\n");
-        
-        for (Entry<DPath, String> entry : this.map.entrySet())
-            builder.append("<").append(entry.getKey()).append(">").append(entry.getValue()).append("</").append(entry.getKey()).append(">").append("\r\n");
-        
-        return builder.append("</data>").toString();
-    }
-    
     /**
      * 报文数据（{@link DataDocument}）的序列化/反序列化接口
      * 
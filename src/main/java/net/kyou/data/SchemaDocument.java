@@ -41,6 +41,35 @@ import net.kyou.exception.KyouException;
  * @see DataDocument
  */
 public class SchemaDocument extends SchemaStruct {
+    /**
+     * 报文结构是否已经冻结
+     */
+    private volatile boolean frozen;
+    
+    /**
+     * 冻结报文结构
+     * <p>
+     * 冻结时为每个报文元素分配其值在数据块中的位置（{@link SchemaItem#slot()}），之后可以使用{@link SlotDataDocument}按位置存取报文数据。<br/>
+     * 冻结之后不能再向报文结构中添加或移除元素。重复冻结不进行任何操作。
+     * </p>
+     */
+    public synchronized void freeze() {
+        if (this.frozen)
+            return;
+        
+        this.blockSize = this.layout(0);
+        this.frozen = true;
+    }
+    
+    /**
+     * 判断报文结构是否已经冻结
+     * 
+     * @return 报文结构是否已经冻结
+     */
+    public boolean frozen() {
+        return this.frozen;
+    }
+    
     @Override
     public void foreach(ISchemaVisitor visitor) {
         try {
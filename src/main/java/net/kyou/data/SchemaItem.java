@@ -38,6 +38,16 @@ public abstract class SchemaItem {
      */
     SchemaStruct parent;
     
+    /**
+     * 该报文元素的值在所属的数据块中的位置
+     * <p>
+     * 在报文结构冻结时分配，冻结之前为-1
+     * </p>
+     * 
+     * @see SchemaDocument#freeze()
+     */
+    int slot = -1;
+    
     /**
      * 获取该报文元素的某个指定的属性
      * <p>
@@ -106,6 +116,19 @@ public abstract class SchemaItem {
         return this.attrs.get(Attrs.NAME);
     }
     
+    /**
+     * 获取该报文元素的值在所属的数据块中的位置
+     * <p>
+     * 不在数组中的报文元素属于整篇报文的数据块，数组中的报文元素属于各个数组元素各自的数据块。
+     * </p>
+     * 
+     * @return 该报文元素在数据块中的位置，如果报文结构尚未冻结则为-1
+     * @see DataBlock
+     */
+    public int slot() {
+        return this.slot;
+    }
+    
     /**
      * 从该节点出发遍历报文结构树的各子节点并执行指定的操作
      * <p>
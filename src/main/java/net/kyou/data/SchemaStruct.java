@@ -22,6 +22,10 @@ import net.kyou.exception.KyouException;
 
 public class SchemaStruct extends SchemaItem implements Iterable<SchemaItem> {
     private final Map<String, SchemaItem> map = new LinkedHashMap<String, SchemaItem>();
+    /**
+     * 如果该结构是一个数组（或整篇报文），则为各个数组元素的数据块的大小
+     */
+    int blockSize;
     
     @Override
     public void foreach(ISchemaVisitor visitor) {
@@ -81,6 +85,7 @@ public class SchemaStruct extends SchemaItem implements Iterable<SchemaItem> {
             throw new KyouException(KyouErr.Schema.AddDocumentAsChild, "parent: " + this + " child: " + item);
         if (item.name() == null)
             throw new KyouException(KyouErr.Schema.EmptySchemaItemName, "parent: " + this + " child: " + item);
+        this.checkFrozen();
         
         // 判断完毕，执行实际的add操作
         this.unsafeAdd(item);
@@ -111,6 +116,8 @@ public class SchemaStruct extends SchemaItem implements Iterable<SchemaItem> {
      *            将被移除的子元素的名称
      */
     public void remove(String name) {
+        this.checkFrozen();
+        
         this.map.remove(name);
     }
     
@@ -127,6 +134,43 @@ public class SchemaStruct extends SchemaItem implements Iterable<SchemaItem> {
         return (T) this.map.get(name);
     }
     
+    /**
+     * 为该结构中的各个元素分配在数据块中的位置
+     * <p>
+     * 数组的子元素属于各个数组元素自己的数据块，从0开始重新分配。字段数组的数组元素的值存放在数组元素自己的数据块的0号位置，见{@link DataBlock#value()}。
+     * </p>
+     * 
+     * @param next
+     *            下一个可用的位置
+     * @return 分配完毕后下一个可用的位置
+     */
+    int layout(int next) {
+        for (SchemaItem item : this.map.values()) {
+            item.slot = next++;
+            
+            if (item instanceof SchemaStruct) {
+                SchemaStruct stru = (SchemaStruct) item;
+                if (stru.attrb(Attrs.ARRAY))
+                    stru.blockSize = stru.layout(0);
+                else
+                    next = stru.layout(next);
+            }
+        }
+        return next;
+    }
+    
+    /**
+     * 检查所属的报文结构是否已经冻结，冻结之后不能再修改
+     */
+    private void checkFrozen() {
+        SchemaItem item = this;
+        while (item.parent != null && item.parent != item)
+            item = item.parent;
+        
+        if (item instanceof SchemaDocument && ((SchemaDocument) item).frozen())
+            throw new KyouException(KyouErr.Schema.SchemaFrozen, "parent: " + this.name());
+    }
+    
     @Override
     public String toString() {
         StringBuffer buffer = new StringBuffer();
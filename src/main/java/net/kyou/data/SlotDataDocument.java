@@ -0,0 +1,258 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+/**
+ * 与报文结构绑定的报文数据
+ * <p>
+ * 报文数据不再以路径为键存放在map中，而是按照各个报文元素在冻结后的报文结构中分配到的位置（{@link SchemaItem#slot()}）存放在数据块（{@link DataBlock}）中。
+ * 组包时可以沿着报文结构逐层取得数据块，按位置直接取值，不需要拼接路径和计算哈希值，占用的内存也比map少得多。<br/>
+ * 通过路径存取值时会沿着报文结构逐段查找，因此只能存取报文结构中存在的元素。
+ * </p>
+ * <p>
+ * 报文数据中，数组元素本身的值为数组元素的个数。
+ * </p>
+ * <p>
+ * 与{@link DataDocument}不同，该类没有实现{@link java.io.Serializable}，因为其中引用的报文结构不能序列化。
+ * </p>
+ * 
+ * @author nuclearg
+ * @see SchemaDocument#freeze()
+ */
+public class SlotDataDocument extends AbstractDataDocument {
+    /**
+     * 报文结构
+     */
+    private final SchemaDocument schema;
+    /**
+     * 整篇报文的数据块
+     */
+    private final DataBlock root;
+    
+    /**
+     * 初始化一篇空的报文数据
+     * <p>
+     * 如果报文结构尚未冻结则会将其冻结。
+     * </p>
+     * 
+     * @param schema
+     *            报文结构
+     */
+    public SlotDataDocument(SchemaDocument schema) {
+        schema.freeze();
+        
+        this.schema = schema;
+        this.root = new DataBlock(schema.blockSize);
+    }
+    
+    /**
+     * 将一篇报文数据转换为与报文结构绑定的形式
+     * 
+     * @param schema
+     *            报文结构
+     * @param data
+     *            报文数据，其中的路径必须都在报文结构中存在
+     */
+    public SlotDataDocument(SchemaDocument schema, AbstractDataDocument data) {
+        this(schema);
+        
+        for (Entry<DPath, String> entry : data.entries().entrySet())
+            this.put(entry.getKey(), entry.getValue());
+    }
+    
+    /**
+     * 获取报文结构
+     * 
+     * @return 报文结构
+     */
+    public SchemaDocument schema() {
+        return this.schema;
+    }
+    
+    /**
+     * 获取整篇报文的数据块
+     * 
+     * @return 整篇报文的数据块
+     */
+    public DataBlock root() {
+        return this.root;
+    }
+    
+    @Override
+    public String get(DPath path) {
+        Location location = this.locate(path, false);
+        if (location == null || location.item == null)
+            return null;
+        
+        return location.element ? location.block.value() : location.block.get(location.item);
+    }
+    
+    @Override
+    void put(DPath path, String value) {
+        Location location = this.locate(path, true);
+        if (location == null)
+            throw new KyouException(KyouErr.Data.PathNotExist, path.toString());
+        
+        if (location.element)
+            location.block.value(value);
+        else if (location.item != null)
+            location.block.set(location.item, value);
+        else if (value != null)
+            // 报文根元素和数组元素本身没有值
+            throw new KyouException(KyouErr.Data.PathNotEditable, path.toString());
+    }
+    
+    @Override
+    public DPath[] elements(DPath path) {
+        Location location = this.locate(path, false);
+        if (location == null || location.item == null || location.element || !location.item.attrb(Attrs.ARRAY))
+            return null;
+        
+        String value = location.block.get(location.item);
+        if (value == null)
+            return null;
+        
+        int count;
+        try {
+            count = Integer.parseInt(value);
+        } catch (Exception ex) {
+            throw new KyouException(KyouErr.Data.ArrayElementCountParseFail, "path: " + path + ", value: " + value, ex);
+        }
+        
+        DPath[] children = new DPath[count];
+        for (int i = 0; i < count; i++)
+            children[i] = path.child(i);
+        return children;
+    }
+    
+    @Override
+    Map<DPath, String> entries() {
+        Map<DPath, String> entries = new LinkedHashMap<DPath, String>();
+        entries(this.schema, this.root, DPath.root, entries);
+        return entries;
+    }
+    
+    /**
+     * 按照报文结构的顺序列出某个结构中的所有值
+     */
+    private static void entries(SchemaStruct stru, DataBlock block, DPath path, Map<DPath, String> entries) {
+        for (SchemaItem item : stru) {
+            DPath child = path.child(item.name());
+            
+            String value = block.get(item);
+            if (value != null)
+                entries.put(child, value);
+            
+            if (item.attrb(Attrs.ARRAY)) {
+                // 只设置了后面的数组元素时，前面的数组元素没有数据块
+                for (int i = 0; i < block.elementCapacity(item); i++) {
+                    DataBlock element = block.element(item, i);
+                    if (element == null)
+                        continue;
+                    
+                    if (item instanceof SchemaStruct)
+                        entries((SchemaStruct) item, element, child.child(i), entries);
+                    else if (element.value() != null)
+                        // 字段数组的数组元素的值存放在数组元素自己的数据块中
+                        entries.put(child.child(i), element.value());
+                }
+            } else if (item instanceof SchemaStruct)
+                entries((SchemaStruct) item, block, child, entries);
+        }
+    }
+    
+    /**
+     * 沿着报文结构查找某个路径对应的数据块和报文元素
+     * 
+     * @param path
+     *            路径
+     * @param create
+     *            数组元素的数据块不存在时是否创建
+     * @return 路径对应的数据块和报文元素，如果路径在报文结构中不存在则为null
+     */
+    private Location locate(DPath path, boolean create) {
+        String[] segments = path.segments();
+        if (!segments[0].equals(DPath.root.name()))
+            return null;
+        
+        DataBlock block = this.root;
+        SchemaItem item = this.schema;
+        boolean element = false;
+        
+        for (int i = 1; i < segments.length; i++) {
+            if (item != this.schema && item.attrb(Attrs.ARRAY) && !element) {
+                // 数组的下一段是数组元素的下标
+                int index;
+                try {
+                    index = Integer.parseInt(segments[i]);
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+                if (index < 0)
+                    return null;
+                
+                block = create ? block.createElement(item, index) : block.element(item, index);
+                if (block == null)
+                    return null;
+                
+                element = true;
+                continue;
+            }
+            
+            if (!(item instanceof SchemaStruct))
+                return null;
+            item = ((SchemaStruct) item).get(segments[i]);
+            if (item == null)
+                return null;
+            
+            element = false;
+        }
+        
+        // 结构数组的数组元素本身没有值，字段数组的数组元素的值存放在数组元素自己的数据块中
+        if (item == this.schema || element && item instanceof SchemaStruct)
+            return new Location(block, null, false);
+        return new Location(block, item, element);
+    }
+    
+    /**
+     * 某个路径在报文数据中的位置
+     */
+    private static class Location {
+        /**
+         * 数据块
+         */
+        final DataBlock block;
+        /**
+         * 报文元素，如果路径指向报文根元素或结构数组的数组元素本身则为null
+         */
+        final SchemaItem item;
+        /**
+         * 路径是否指向字段数组的数组元素，此时值存放在block的{@link DataBlock#value()}中
+         */
+        final boolean element;
+        
+        Location(DataBlock block, SchemaItem item, boolean element) {
+            this.block = block;
+            this.item = item;
+            this.element = element;
+        }
+    }
+}
@@ -169,9 +169,9 @@ public class XmlSerializer implements ISchemaSerializer, IDataSerializer {
         final StringBuffer buffer = new StringBuffer();
         try {
             buffer.append("<?xml version=\"1.0\" encoding=\"utf-8\"?><data>");
-            for (DPath path : doc.map.keySet()) {
-                String n = KyouXmlUtils.xmlEncode(path.toString().substring(2));
-                String v = KyouXmlUtils.xmlEncode(doc.get(path));
+            for (Entry<DPath, String> entry : doc.entries().entrySet()) {
+                String n = KyouXmlUtils.xmlEncode(entry.getKey().toString().substring(2));
+                String v = KyouXmlUtils.xmlEncode(entry.getValue());
                 buffer.append("<").append(n).append(">").append(v).append("</").append(n).append(">");
             }
             
@@ -123,6 +123,33 @@ public class DQuery {
      * @return 该报文元素是否符合DQuery的描述
      */
     public boolean matches(SchemaItem schema, DPath path) {
+        return this.matches(schema, path, false);
+    }
+    
+    /**
+     * 判断某个报文元素是否有可能符合当前DQuery实例的描述
+     * <p>
+     * 与{@link #matches(SchemaItem, DPath)}的区别在于会忽略数组下标等与路径有关的约束条件，只根据报文结构进行判断。<br/>
+     * 如果该函数返回false，则无论报文元素的实际路径是什么，{@link #matches(SchemaItem, DPath)}都一定会返回false。
+     * </p>
+     * 
+     * @param schema
+     *            报文元素的Schema
+     * @param path
+     *            报文元素路径
+     * @return 该报文元素是否有可能符合DQuery的描述
+     */
+    public boolean mayMatch(SchemaItem schema, DPath path) {
+        return this.matches(schema, path, true);
+    }
+    
+    /**
+     * 判断某个报文元素是否符合当前DQuery实例的描述
+     * 
+     * @param staticOnly
+     *            是否只检查与路径无关的约束条件
+     */
+    private boolean matches(SchemaItem schema, DPath path, boolean staticOnly) {
         // 从后往前进行匹配，把所有DQuery都视作浮动匹配
         for (int i = this.segments.size() - 1; i >= 0; i--) {
             DQuerySegment segment = this.segments.get(i);
@@ -156,7 +183,7 @@ public class DQuery {
             
             // 检查该段的各个约束条件
             for (DQueryRestriction restriction : segment.restrictions)
-                if (!restriction.matches(schema, path))
+                if (!(staticOnly && !restriction.isStatic()) && !restriction.matches(schema, path))
                     return false;
             
             // 将schema向父级推一级
@@ -167,6 +194,22 @@ public class DQuery {
         return true;
     }
     
+    /**
+     * 判断当前DQuery的匹配结果是否只取决于报文结构
+     * <p>
+     * 如果DQuery中含有数组下标或函数之类的约束条件，则其匹配结果还与报文元素的实际路径有关，无法在组包之前预先确定。
+     * </p>
+     * 
+     * @return 当前DQuery的匹配结果是否只取决于报文结构
+     */
+    public boolean isStatic() {
+        for (DQuerySegment segment : this.segments)
+            for (DQueryRestriction restriction : segment.restrictions)
+                if (!restriction.isStatic())
+                    return false;
+        return true;
+    }
+    
     /**
      * 解析DQuery字符串，解析成一系列的DQuery段。
      */
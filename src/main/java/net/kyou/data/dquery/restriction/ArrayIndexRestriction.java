@@ -66,6 +66,11 @@ class ArrayIndexRestriction extends DQueryRestriction {
         }
     }
     
+    @Override
+    public boolean isStatic() {
+        return false;
+    }
+    
     /**
      * 从约束条件字符串中解析出下一个数组下标
      */
@@ -36,6 +36,18 @@ public abstract class DQueryRestriction {
      */
     public abstract boolean matches(SchemaItem schema, DPath path);
     
+    /**
+     * 判断该约束条件的匹配结果是否只取决于报文结构
+     * <p>
+     * 默认返回true。如果约束条件需要检查报文元素的路径（例如数组下标），派生类应当返回false。
+     * </p>
+     * 
+     * @return 该约束条件的匹配结果是否只取决于报文结构
+     */
+    public boolean isStatic() {
+        return true;
+    }
+    
     /**
      * 解析约束条件
      * 
@@ -83,6 +83,11 @@ class FuncRestriction extends DQueryRestriction {
         return this.value.equals(this.func.calc(schema, path));
     }
     
+    @Override
+    public boolean isStatic() {
+        return false;
+    }
+    
     @Override
     public String toString() {
         return "!" + this.func.name() + "=" + this.value;
@@ -118,6 +118,13 @@ public final class KyouErr implements Serializable {
          */
         public static class ByteStream {
             public static final KyouErr IllegalBackspaceNum = new KyouErr();
+            public static final KyouErr IllegalPatch = new KyouErr();
+            public static final KyouErr IllegalPosition = new KyouErr();
+            public static final KyouErr IllegalChunkSize = new KyouErr();
+            public static final KyouErr IllegalFlush = new KyouErr();
+            public static final KyouErr IllegalExport = new KyouErr();
+            public static final KyouErr ReadOnlyTarget = new KyouErr();
+            public static final KyouErr IllegalDigest = new KyouErr();
         }
         
         /**
@@ -144,6 +151,8 @@ public final class KyouErr implements Serializable {
         
         public static final KyouErr InvalidSchemaBuilderArguments = new KyouErr();
         
+        public static final KyouErr SchemaFrozen = new KyouErr();
+        
         /**
          * 对Schema进行序列化/反序列化时发生的错误
          */
@@ -303,6 +312,9 @@ public final class KyouErr implements Serializable {
         public static final KyouErr NoStyleUnitSuitable = new KyouErr();
         
         public static final KyouErr ParseStringToIntFail = new KyouErr();
+        public static final KyouErr ParseStringToFloatFail = new KyouErr();
+        public static final KyouErr NumberOutOfRange = new KyouErr();
+        public static final KyouErr ValueTooLong = new KyouErr();
         
         public static final KyouErr RequireSchemaStruct = new KyouErr();
         public static final KyouErr RequireSchemaField = new KyouErr();
@@ -313,6 +325,29 @@ public final class KyouErr implements Serializable {
         
         public static final KyouErr FieldNotFound = new KyouErr();
         
+        public static final KyouErr InvalidBitmapField = new KyouErr();
+        public static final KyouErr BitmapUnavailable = new KyouErr();
+        public static final KyouErr ChecksumUnavailable = new KyouErr();
+        
         public static final KyouErr InvalidRefId = new KyouErr();
     }
+    
+    /**
+     * 进行拆包相关操作时发生的错误
+     */
+    public static class Unpack {
+        public static final KyouErr EmptyBuffer = new KyouErr();
+        
+        public static final KyouErr UnpackFail = new KyouErr();
+        
+        public static final KyouErr UnsupportedParam = new KyouErr();
+        
+        public static final KyouErr TextMismatch = new KyouErr();
+        public static final KyouErr UnexpectedEnd = new KyouErr();
+        public static final KyouErr TrailingBytes = new KyouErr();
+        public static final KyouErr ParseIntFail = new KyouErr();
+        public static final KyouErr ValueTooLong = new KyouErr();
+        public static final KyouErr ChecksumUnavailable = new KyouErr();
+        public static final KyouErr ChecksumMismatch = new KyouErr();
+    }
 }
@@ -0,0 +1,462 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.kyou.data.SchemaItem;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.param.Param;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouRuntimeUtils;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 组包代码生成器
+ * <p>
+ * 根据执行计划生成一个专用的Java类，每个报文元素对应一个静态方法，各个段被展开成直接写入字节流的语句，之后使用
+ * {@link KyouRuntimeUtils#compile(String, String, Class, Class...)}编译并装载。<br/>
+ * 参数和表达式通过{@link Param#generate(PackCodegen)}和{@link Expr#__generate(PackCodegen)}生成自身的代码，
+ * 不支持代码生成的参数会退化为在生成的代码中调用{@link Param#export(PackContext, KyouByteOutputStream)}。
+ * </p>
+ * <p>
+ * 生成的代码中可以使用如下变量：
+ * <li>k：常量表，类型为Object[]，通过{@link #constant(Object, Class)}放入</li>
+ * <li>c：整篇报文的组包上下文</li>
+ * <li>p：当前报文元素的路径</li>
+ * <li>s：字节流</li>
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public class PackCodegen {
+    private static final Logger logger = Logger.getLogger(PackCodegen.class);
+    
+    /**
+     * 生成的类的编号
+     */
+    private static final AtomicInteger counter = new AtomicInteger();
+    
+    /**
+     * 生成的类的名称
+     */
+    private final String name;
+    /**
+     * 常量表
+     */
+    private final List<Object> constants = new ArrayList<Object>();
+    /**
+     * 常量在常量表中的位置
+     */
+    private final Map<Object, Integer> constantIds = new IdentityHashMap<Object, Integer>();
+    /**
+     * 各个执行计划对应的组包方法的编号
+     */
+    private final Map<PackPlan, Integer> items = new IdentityHashMap<PackPlan, Integer>();
+    /**
+     * 各个执行计划对应的子元素组包方法的编号
+     */
+    private final Map<PackPlan, Integer> members = new IdentityHashMap<PackPlan, Integer>();
+    /**
+     * 已生成的临时组包子元素的方法的名称
+     */
+    private final Set<String> memberHelpers = new HashSet<String>();
+    /**
+     * 尚未生成的组包方法
+     */
+    private final LinkedList<PackPlan> pending = new LinkedList<PackPlan>();
+    /**
+     * 生成的各个方法
+     */
+    private final StringBuilder methods = new StringBuilder();
+    
+    /**
+     * 当前正在生成代码的报文元素的执行计划
+     */
+    private PackPlan plan;
+    /**
+     * 当前正在生成的段的前置语句
+     */
+    private final StringBuilder block = new StringBuilder();
+    /**
+     * 当前段中已声明的局部变量的数量
+     */
+    private int locals;
+    /**
+     * 当前报文元素是否需要一个完整的组包上下文
+     */
+    private boolean requireContext;
+    /**
+     * 当前报文元素的样式单元中引用子元素组包结果的次数
+     */
+    private int memberRefs;
+    /**
+     * 当前报文元素的子元素组包出来的字节是否保存在变量m中供各个参数共用
+     */
+    private boolean memo;
+    
+    /**
+     * 为指定的执行计划生成组包代码
+     * 
+     * @param plan
+     *            整篇报文的执行计划
+     */
+    PackCodegen(PackPlan plan) {
+        this.name = "KyouGeneratedPacker" + counter.incrementAndGet();
+        
+        this.item(plan);
+        while (!this.pending.isEmpty())
+            this.generate(this.pending.removeFirst());
+    }
+    
+    /**
+     * 获取生成的完整源代码
+     * 
+     * @return 生成的源代码
+     */
+    String code() {
+        StringBuilder code = new StringBuilder();
+        code.append("public class ").append(this.name).append(" {\n");
+        code.append("public static void ").append(this.name).append("(Object[] k, net.kyou.pack.PackContext c, net.kyou.util.KyouByteOutputStream s) {\n");
+        code.append("item0(k, c, c.path, s);\n");
+        code.append("}\n");
+        code.append(this.methods);
+        code.append("}\n");
+        return code.toString();
+    }
+    
+    /**
+     * 编译生成的代码
+     * 
+     * @return 指向生成的组包方法的指针
+     */
+    Method compile() {
+        String code = this.code();
+        logger.debug("Pack code generated. name: " + this.name + ", code: " + code);
+        
+        return KyouRuntimeUtils.compile(code, this.name, null, Object[].class, PackContext.class, KyouByteOutputStream.class);
+    }
+    
+    /**
+     * 获取生成的代码使用的常量表
+     * 
+     * @return 常量表
+     */
+    Object[] constants() {
+        return this.constants.toArray();
+    }
+    
+    /**
+     * 获取当前正在生成代码的报文元素的Schema
+     * 
+     * @return 当前报文元素的Schema
+     */
+    public SchemaItem schema() {
+        return this.plan.schema;
+    }
+    
+    /**
+     * 获取生成的代码中表示字节流的变量名
+     * 
+     * @return 字节流的变量名
+     */
+    public String stream() {
+        return "s";
+    }
+    
+    /**
+     * 获取生成的代码中表示当前报文元素路径的变量名
+     * 
+     * @return 路径的变量名
+     */
+    public String path() {
+        return "p";
+    }
+    
+    /**
+     * 获取生成的代码中表示报文数据的表达式
+     * 
+     * @return 报文数据的表达式
+     */
+    public String data() {
+        return "c.data";
+    }
+    
+    /**
+     * 获取生成的代码中表示当前报文元素的组包上下文的变量名
+     * <p>
+     * 仅在需要调用不支持代码生成的参数或表达式时使用。
+     * </p>
+     * 
+     * @return 组包上下文的变量名
+     */
+    public String context() {
+        this.requireContext = true;
+        return "x";
+    }
+    
+    /**
+     * 将一个常量放入常量表
+     * 
+     * @param value
+     *            常量
+     * @param type
+     *            在生成的代码中引用该常量时使用的类型，必须是可以公开访问的类型
+     * @return 在生成的代码中引用该常量的表达式
+     */
+    public String constant(Object value, Class<?> type) {
+        return "((" + type.getCanonicalName() + ") k[" + this.constantId(value) + "])";
+    }
+    
+    /**
+     * 在当前段的前置语句中声明一个局部变量
+     * 
+     * @param type
+     *            变量类型
+     * @param init
+     *            变量的初始值
+     * @return 变量名
+     */
+    public String local(String type, String init) {
+        String name = "v" + this.locals++;
+        this.block.append(type).append(" ").append(name).append(" = ").append(init).append(";\n");
+        return name;
+    }
+    
+    /**
+     * 向当前段的前置语句中添加一条语句
+     * 
+     * @param code
+     *            语句
+     */
+    public void statement(String code) {
+        this.block.append(code).append("\n");
+    }
+    
+    /**
+     * 放弃当前段中已生成的前置语句
+     * <p>
+     * 用于参数或表达式不支持代码生成，需要退化为解释执行的场合。
+     * </p>
+     */
+    public void discard() {
+        this.block.setLength(0);
+    }
+    
+    /**
+     * 获取对当前报文元素的子元素执行组包过程的表达式
+     * <p>
+     * 子元素临时组包到字节流的末尾，复制出来后再回退掉。如果参数可以直接输出子元素组包的字节，应使用{@link #writeMember()}。
+     * </p>
+     * 
+     * @return 结果类型为byte[]的表达式
+     */
+    public String member() {
+        if (this.memo)
+            return "(m != null ? m : (m = " + this.memberHelper("bytes", "byte[]") + "(k, c, p, s)))";
+        return this.memberHelper("bytes", "byte[]") + "(k, c, p, s)";
+    }
+    
+    /**
+     * 获取当前报文元素的子元素组包出来的字节数的表达式
+     * <p>
+     * 子元素临时组包到字节流的末尾，取得字节数后再回退掉，不复制字节。
+     * </p>
+     * 
+     * @return 结果类型为long的表达式
+     */
+    public String memberLength() {
+        if (this.memo)
+            return "(long) " + this.member() + ".length";
+        return this.memberHelper("length", "long") + "(k, c, p, s)";
+    }
+    
+    /**
+     * 获取对当前报文元素的子元素执行组包过程，并将结果直接写入字节流的语句
+     * 
+     * @return 生成的语句
+     */
+    public String writeMember() {
+        if (this.memo)
+            return "if (m != null) s.write(m); else m = " + this.memberHelper("copy", "byte[]") + "(k, c, p, s);";
+        return "member" + this.memberId() + "(k, c, p, s);";
+    }
+    
+    /**
+     * 获取当前报文元素的子元素组包方法的编号，如果这些方法尚未生成则生成之
+     */
+    private int memberId() {
+        this.memberRefs++;
+        
+        Integer id = this.members.get(this.plan);
+        if (id == null) {
+            id = this.members.size();
+            this.members.put(this.plan, id);
+            this.generateMember(this.plan, id);
+        }
+        return id;
+    }
+    
+    /**
+     * 获取临时组包当前报文元素的子元素的方法的名称，如果该方法尚未生成则生成之
+     * <p>
+     * 与{@link PackService#__member(PackContext)}相同，子元素临时组包到字节流的末尾，复制出字节（bytes）或取得字节数（length）后再回退掉。
+     * copy则把子元素留在流中，只复制出字节供之后的参数使用。
+     * </p>
+     */
+    private String memberHelper(String kind, String type) {
+        int id = this.memberId();
+        String name = kind + id;
+        if (!this.memberHelpers.add(name))
+            return name;
+        
+        StringBuilder body = new StringBuilder();
+        body.append("private static ").append(type).append(" ").append(name).append("(Object[] k, net.kyou.pack.PackContext c, net.kyou.data.DPath p, net.kyou.util.KyouByteOutputStream s) {\n");
+        body.append("int start = s.size();\n");
+        body.append("s.hold(start);\n");
+        body.append("member").append(id).append("(k, c, p, s);\n");
+        body.append("int length = s.size() - start;\n");
+        if (!kind.equals("length")) {
+            body.append("byte[] bytes = new byte[length];\n");
+            body.append("s.view(start).get(bytes);\n");
+        }
+        if (!kind.equals("copy"))
+            body.append("s.backspace(length);\n");
+        body.append("s.release(start);\n");
+        body.append("return ").append(kind.equals("length") ? "length" : "bytes").append(";\n");
+        body.append("}\n");
+        this.methods.append(body);
+        return name;
+    }
+    
+    /**
+     * 获取某个报文元素的组包方法的名称，如果该方法尚未生成则将其放入待生成的列表
+     */
+    private String item(PackPlan plan) {
+        Integer id = this.items.get(plan);
+        if (id == null) {
+            id = this.items.size();
+            this.items.put(plan, id);
+            this.pending.add(plan);
+        }
+        return "item" + id;
+    }
+    
+    /**
+     * 生成某个报文元素的组包方法
+     */
+    private void generate(PackPlan plan) {
+        this.plan = plan;
+        this.memo = false;
+        
+        StringBuilder body = this.body(plan);
+        if (this.memberRefs > 1 || this.requireContext && this.memberRefs > 0) {
+            // 子元素被多个参数引用，或者退化为解释执行的参数可能在等待回填子元素的长度，子元素只组包一次，各个参数共用其结果
+            this.memo = true;
+            body = this.body(plan);
+        }
+        
+        this.methods.append("private static void ").append(this.item(plan)).append("(Object[] k, net.kyou.pack.PackContext c, net.kyou.data.DPath p, net.kyou.util.KyouByteOutputStream s) {\n");
+        if (this.requireContext)
+            this.methods.append("net.kyou.pack.PackContext x = net.kyou.pack.PackService.__context(k[").append(this.constantId(plan)).append("], p, c);\n");
+        if (this.memo)
+            this.methods.append("byte[] m = null;\n");
+        this.methods.append(body);
+        this.methods.append("}\n");
+    }
+    
+    /**
+     * 生成某个报文元素的组包方法的方法体
+     */
+    private StringBuilder body(PackPlan plan) {
+        this.requireContext = false;
+        this.memberRefs = 0;
+        
+        StringBuilder body = new StringBuilder();
+        
+        boolean interpret = plan.style == null || traverse(plan.style);
+        if (interpret)
+            // 无法预先确定样式单元，在运行时选择；或者有参数需要参与子元素的遍历过程（如iso8583-bitmap）
+            body.append("net.kyou.pack.PackService.__item(").append(this.context()).append(", s);\n");
+        else
+            for (Segment segment : plan.style.segments) {
+                this.block.setLength(0);
+                this.locals = 0;
+                
+                String code = segment.generate(this);
+                body.append("{\n").append(this.block).append(code).append("\n}\n");
+            }
+        
+        // 退化为解释执行的参数可能在等待回填子元素的长度
+        if (!interpret && this.requireContext)
+            body.append("net.kyou.pack.PackService.__flush(x").append(this.memo ? ", m" : "").append(");\n");
+        
+        return body;
+    }
+    
+    /**
+     * 判断样式单元中是否有需要参与子元素的遍历过程的段
+     */
+    private static boolean traverse(StyleItem style) {
+        for (Segment segment : style.segments)
+            if (segment.traverse())
+                return true;
+        return false;
+    }
+    
+    /**
+     * 生成对某个报文元素的子元素执行组包过程的方法，子元素直接组包到调用方的字节流中
+     */
+    private void generateMember(PackPlan plan, int id) {
+        StringBuilder body = new StringBuilder();
+        body.append("private static void member").append(id).append("(Object[] k, net.kyou.pack.PackContext c, net.kyou.data.DPath p, net.kyou.util.KyouByteOutputStream s) {\n");
+        if (plan.element != null) {
+            // 遍历该数组的各个项
+            body.append("int count = Integer.parseInt(c.data.get(p));\n");
+            body.append("for (int i = 0; i < count; i++)\n");
+            body.append(this.item(plan.element)).append("(k, c, p.child(i), s);\n");
+        } else if (plan.children != null)
+            // 遍历该结构的各个项
+            for (PackPlan child : plan.children)
+                body.append(this.item(child)).append("(k, c, p.child(").append(this.constant(child.schema.name(), String.class)).append("), s);\n");
+        else
+            body.append("throw new ").append(KyouException.class.getName()).append("(").append(KyouErr.class.getName()).append(".Pack.RequireSchemaStruct, p.toString());\n");
+        body.append("}\n");
+        this.methods.append(body);
+    }
+    
+    /**
+     * 获取某个常量在常量表中的位置
+     */
+    private int constantId(Object value) {
+        Integer id = this.constantIds.get(value);
+        if (id == null) {
+            id = this.constants.size();
+            this.constants.add(value);
+            this.constantIds.put(value, id);
+        }
+        return id;
+    }
+}
@@ -13,12 +13,31 @@
  */
 package net.kyou.pack;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.kyou.data.AbstractDataDocument;
 import net.kyou.data.DPath;
-import net.kyou.data.DataDocument;
+import net.kyou.data.DataBlock;
+import net.kyou.data.SchemaField;
 import net.kyou.data.SchemaItem;
+import net.kyou.data.SlotDataDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.param.Param;
+import net.kyou.util.IDigest;
+import net.kyou.util.KyouByteOutputStream;
 
 /**
  * 组包上下文 封闭了组包过程中会用到的一些上下文信息
+ * <p>
+ * 组包上下文同时也是遍历报文结构时使用的游标：整篇报文只使用一个组包上下文，进入子元素时通过{@link #enter(DPath, SchemaItem, PackPlan)}
+ * 将当前元素的状态压栈，离开时通过{@link #leave()}恢复，因此遍历报文时不需要为每个元素创建新的组包上下文。<br/>
+ * 表达式和参数通过{@link #path}、{@link #schema}等字段读取的总是当前正被组包的元素的信息。
+ * </p>
  * 
  * @author nuclearg
  */
@@ -35,11 +54,93 @@ public class PackContext {
     /**
      * 报文数据
      */
-    public final DataDocument data;
+    public final AbstractDataDocument data;
     /**
      * 组包样式定义
      */
     public final StyleSpecification spec;
+    /**
+     * 当前正被组包的元素的执行计划
+     * <p>
+     * 如果未使用预先生成的执行计划进行组包，则为null
+     * </p>
+     */
+    PackPlan plan;
+    /**
+     * 整篇报文的字节流
+     * <p>
+     * 表达式需要子元素组包出来的字节时（如lenb m），子元素会被临时组包到该流的末尾，表达式得到的是该流的一个视图。<br/>
+     * 如果为null则临时创建一个字节流
+     * </p>
+     */
+    final KyouByteOutputStream stream;
+    /**
+     * 当前正被组包的元素所属的数据块
+     * <p>
+     * 仅在报文数据为与当前报文结构绑定的{@link SlotDataDocument}时使用，否则为null
+     * </p>
+     */
+    private DataBlock block;
+    /**
+     * 当前正被组包的元素是否为数组元素本身
+     */
+    private boolean element;
+    /**
+     * 等待子元素组包完毕后回填的参数，从未登记过时为null
+     */
+    private List<Patch> patches;
+    /**
+     * 当前元素的子元素组包出来的字节数，尚未组包时为-1
+     */
+    private long length = -1;
+    /**
+     * 在当前元素内缓存的表达式的计算结果，下标为表达式在样式单元中分配到的编号，从未缓存过时为null
+     */
+    private Object[] cache;
+    /**
+     * 是否在组包当前元素的子元素时记录各个ISO 8583域是否出现
+     */
+    private boolean mapped;
+    /**
+     * 已出现的1~64域，最高位对应第1域
+     */
+    private long primary;
+    /**
+     * 已出现的65~128域，最高位对应第65域
+     */
+    private long secondary;
+    /**
+     * 整篇报文的组包上下文，为其它元素创建的组包上下文通过它共享整篇报文的状态
+     */
+    private final PackContext document;
+    /**
+     * 整篇报文中正在计算的校验和，以校验和的编号为键，如果没有则为null。只在整篇报文的组包上下文中使用
+     */
+    private Map<Long, Tap> taps;
+    /**
+     * 各个祖先元素的状态，下标为0的是整篇报文
+     */
+    private Frame[] frames;
+    /**
+     * 已压栈的祖先元素的数量
+     */
+    private int depth;
+    
+    /**
+     * 初始化一个组包上下文实例
+     * 
+     * @param path
+     *            当前正被组包的元素的路径
+     * @param schema
+     *            当前正被组包的元素的Schema信息
+     * @param data
+     *            报文数据
+     * @param spec
+     *            组包样式定义
+     */
+    PackContext(DPath path, SchemaItem schema, AbstractDataDocument data, StyleSpecification spec) {
+        this(path, schema, data, spec, null, null);
+    }
     
     /**
      * 初始化一个组包上下文实例
@@ -52,11 +153,441 @@ public class PackContext {
      *            报文数据
      * @param spec
      *            组包样式定义
+     * @param plan
+     *            当前正被组包的元素的执行计划
+     * @param stream
+     *            整篇报文的字节流
      */
-    PackContext(DPath path, SchemaItem schema, DataDocument data, StyleSpecification spec) {
+    PackContext(DPath path, SchemaItem schema, AbstractDataDocument data, StyleSpecification spec, PackPlan plan, KyouByteOutputStream stream) {
+        this(path, schema, data, spec, plan, stream, root(path, schema, data), false, null);
+    }
+    
+    /**
+     * 初始化一个组包上下文实例
+     */
+    private PackContext(DPath path, SchemaItem schema, AbstractDataDocument data, StyleSpecification spec, PackPlan plan, KyouByteOutputStream stream, DataBlock block, boolean element, PackContext document) {
         this.path = path;
         this.schema = schema;
         this.data = data;
         this.spec = spec;
+        this.plan = plan;
+        this.stream = stream;
+        this.block = block;
+        this.element = element;
+        this.document = document != null ? document : this;
+    }
+    
+    /**
+     * 如果报文数据是与报文结构绑定的，则取出整篇报文的数据块
+     */
+    private static DataBlock root(DPath path, SchemaItem schema, AbstractDataDocument data) {
+        if (!(data instanceof SlotDataDocument) || !path.isRoot())
+            return null;
+        
+        SlotDataDocument doc = (SlotDataDocument) data;
+        return doc.schema() == schema ? doc.root() : null;
+    }
+    
+    /**
+     * 为某个子元素创建组包上下文
+     * 
+     * @param path
+     *            子元素的路径
+     * @param schema
+     *            子元素的Schema信息
+     * @param plan
+     *            子元素的执行计划
+     * @return 子元素的组包上下文
+     */
+    PackContext child(DPath path, SchemaItem schema, PackPlan plan) {
+        return new PackContext(path, schema, this.data, this.spec, plan, this.stream, this.block, false, this.document);
+    }
+    
+    /**
+     * 进入当前元素的某个子元素
+     * <p>
+     * 当前元素的状态被压栈，之后组包上下文表示该子元素，直到调用{@link #leave()}为止。
+     * </p>
+     * 
+     * @param path
+     *            子元素的路径
+     * @param schema
+     *            子元素的Schema信息
+     * @param plan
+     *            子元素的执行计划
+     */
+    void enter(DPath path, SchemaItem schema, PackPlan plan) {
+        this.push(path, schema, plan, this.block, false);
+    }
+    
+    /**
+     * 进入当前数组的某个数组元素
+     * 
+     * @param index
+     *            数组元素的下标
+     * @param schema
+     *            数组元素的Schema信息
+     * @param plan
+     *            数组元素的执行计划
+     * @see #enter(DPath, SchemaItem, PackPlan)
+     */
+    void enter(int index, SchemaItem schema, PackPlan plan) {
+        DataBlock block = this.block != null ? this.block.element(this.schema, index) : null;
+        this.push(this.path.child(index), schema, plan, block, true);
+    }
+    
+    /**
+     * 离开当前元素，恢复到进入之前的元素
+     */
+    void leave() {
+        Frame frame = this.frames[--this.depth];
+        
+        this.path = frame.path;
+        this.schema = frame.schema;
+        this.plan = frame.plan;
+        this.block = frame.block;
+        this.element = frame.element;
+        this.length = frame.length;
+        this.mapped = frame.mapped;
+        this.primary = frame.primary;
+        this.secondary = frame.secondary;
+        
+        // 当前元素的容器留在栈帧中，供下次进入同一层的元素使用
+        List<Patch> patches = this.patches;
+        this.patches = frame.patches;
+        frame.patches = patches;
+        Object[] cache = this.cache;
+        this.cache = frame.cache;
+        frame.cache = cache;
+        
+        frame.clear();
+    }
+    
+    /**
+     * 将当前元素的状态压栈，并切换到指定的元素
+     */
+    private void push(DPath path, SchemaItem schema, PackPlan plan, DataBlock block, boolean element) {
+        if (this.frames == null)
+            this.frames = new Frame[8];
+        else if (this.depth == this.frames.length) {
+            Frame[] frames = new Frame[this.frames.length * 2];
+            System.arraycopy(this.frames, 0, frames, 0, this.frames.length);
+            this.frames = frames;
+        }
+        
+        Frame frame = this.frames[this.depth];
+        if (frame == null)
+            this.frames[this.depth] = frame = new Frame();
+        this.depth++;
+        
+        frame.path = this.path;
+        frame.schema = this.schema;
+        frame.plan = this.plan;
+        frame.block = this.block;
+        frame.element = this.element;
+        frame.length = this.length;
+        frame.mapped = this.mapped;
+        frame.primary = this.primary;
+        frame.secondary = this.secondary;
+        
+        this.path = path;
+        this.schema = schema;
+        this.plan = plan;
+        this.block = block;
+        this.element = element;
+        this.length = -1;
+        this.mapped = false;
+        this.primary = 0;
+        this.secondary = 0;
+        
+        // 与栈帧交换容器，重新使用上次在同一层的元素中创建的容器
+        List<Patch> patches = frame.patches;
+        frame.patches = this.patches;
+        this.patches = patches;
+        if (patches != null)
+            patches.clear();
+        Object[] cache = frame.cache;
+        frame.cache = this.cache;
+        this.cache = cache;
+        if (cache != null)
+            Arrays.fill(cache, null);
+    }
+    
+    /**
+     * 获取当前元素在报文数据中的值
+     * <p>
+     * 如果报文数据是与报文结构绑定的，则直接按照当前元素在数据块中的位置取值，否则按照路径取值。
+     * </p>
+     * 
+     * @return 当前元素的值，如果不存在则为null
+     */
+    public String value() {
+        if (this.block == null)
+            return this.data.get(this.path);
+        if (this.element)
+            // 字段数组的数组元素的值存放在数组元素自己的数据块中，结构数组的数组元素本身没有值
+            return this.schema instanceof SchemaField ? this.block.value() : null;
+        if (this.schema.slot() < 0)
+            return null;
+        
+        return this.block.get(this.schema);
+    }
+    
+    /**
+     * 登记一个等待当前元素的子元素组包完毕后回填的参数
+     * <p>
+     * 参数的值只取决于子元素组包出来的字节数（如lenb m）时，参数先在流中写入占位的字节，待子元素组包完毕、长度确定后再通过
+     * {@link Param#patch(long, PackContext, KyouByteOutputStream, int, int)}回填。
+     * </p>
+     * 
+     * @param param
+     *            等待回填的参数
+     * @param s
+     *            参数所在的字节流
+     * @param slot
+     *            占位的字节在流中的位置
+     * @param len
+     *            占位的字节数
+     */
+    public void defer(Param param, KyouByteOutputStream s, int slot, int len) {
+        if (this.patches == null)
+            this.patches = new ArrayList<Patch>(1);
+        this.patches.add(new Patch(param, s, slot, len));
+        
+        // 在回填之前占位的字节不能被输出
+        s.hold(slot);
+    }
+    
+    /**
+     * 获取当前元素的子元素组包出来的字节数
+     * 
+     * @return 子元素组包出来的字节数，如果子元素尚未组包则为-1
+     */
+    public long length() {
+        return this.length;
+    }
+    
+    /**
+     * 开始记录当前元素的各个子元素是否出现，用于输出ISO 8583位图
+     * <p>
+     * 子元素的名称以数字结尾时，该数字即为其域号。之后组包子元素时，有域号但没有值的域和数组会被跳过，组包出字节的子元素会被记入位图，
+     * 因此不需要为了确定位图而预先遍历一遍报文数据。位图可以在子元素组包完毕后通过{@link #primary()}和{@link #secondary()}取得。
+     * </p>
+     */
+    public void map() {
+        this.mapped = true;
+        this.primary = 0;
+        this.secondary = 0;
+    }
+    
+    /**
+     * 判断是否正在记录当前元素的各个子元素是否出现
+     * 
+     * @return 是否正在记录
+     */
+    boolean mapped() {
+        return this.mapped;
+    }
+    
+    /**
+     * 在位图中记下某个域已出现
+     * 
+     * @param field
+     *            域号，第1域表示副位图是否存在，因此只能为2~128
+     */
+    void mark(int field) {
+        if (field < 2 || field > 128)
+            throw new KyouException(KyouErr.Pack.InvalidBitmapField, "path: " + this.path + ", field: " + field);
+        
+        if (field <= 64)
+            this.primary |= 1L << (64 - field);
+        else
+            this.secondary |= 1L << (128 - field);
+    }
+    
+    /**
+     * 获取当前元素的子元素中已出现的1~64域
+     * 
+     * @return 主位图，最高位对应第1域
+     */
+    public long primary() {
+        return this.primary;
+    }
+    
+    /**
+     * 获取当前元素的子元素中已出现的65~128域
+     * 
+     * @return 副位图，最高位对应第65域
+     */
+    public long secondary() {
+        return this.secondary;
+    }
+    
+    /**
+     * 从流的末尾开始计算一个校验和
+     * <p>
+     * 校验和在之后的字节写入流时（或输出到目标流时）顺便更新，直到通过{@link #untap(long, KyouByteOutputStream)}取出为止，
+     * 因此不需要在组包完毕后再遍历一遍报文。校验和的编号在整篇报文中有效，可以跨越多个元素。
+     * </p>
+     * 
+     * @param id
+     *            校验和的编号
+     * @param s
+     *            字节流
+     * @param checksum
+     *            校验和
+     */
+    public void tap(long id, KyouByteOutputStream s, IDigest checksum) {
+        PackContext document = this.document;
+        if (document.taps == null)
+            document.taps = new HashMap<Long, Tap>(4);
+        if (document.taps.containsKey(id))
+            throw new KyouException(KyouErr.Pack.ChecksumUnavailable, "path: " + this.path + ", id: " + id + ", already started");
+        
+        int start = s.size();
+        s.tap(start, checksum);
+        document.taps.put(id, new Tap(s, start, checksum));
+    }
+    
+    /**
+     * 结束计算之前开始的某个校验和
+     * 
+     * @param id
+     *            校验和的编号
+     * @param s
+     *            字节流，必须与开始计算时的相同
+     * @return 从开始的位置到流的末尾的字节的校验和
+     */
+    public IDigest untap(long id, KyouByteOutputStream s) {
+        Tap tap = this.document.taps == null ? null : this.document.taps.remove(id);
+        if (tap == null || tap.s != s)
+            throw new KyouException(KyouErr.Pack.ChecksumUnavailable, "path: " + this.path + ", id: " + id + (tap == null ? ", not started" : ", stream changed"));
+        
+        // 范围内还有等待回填的字节时，校验和无法确定
+        for (int i = 0; i <= this.depth; i++) {
+            List<Patch> patches = i < this.depth ? this.frames[i].patches : this.patches;
+            if (patches != null)
+                for (Patch patch : patches)
+                    if (patch.s == s && patch.slot >= tap.start)
+                        throw new KyouException(KyouErr.Pack.ChecksumUnavailable, "path: " + this.path + ", id: " + id + ", deferred: " + patch.slot);
+        }
+        
+        s.untap(tap.checksum);
+        return tap.checksum;
+    }
+    
+    /**
+     * 获取在当前元素内缓存的某个表达式的计算结果
+     * 
+     * @param slot
+     *            表达式在样式单元中分配到的编号，见{@link StyleItem#__endpoint(String)}
+     * @return 缓存的计算结果，如果未缓存则为null
+     */
+    public Object cached(int slot) {
+        return this.cache == null || slot >= this.cache.length ? null : this.cache[slot];
+    }
+    
+    /**
+     * 在当前元素内缓存某个表达式的计算结果，供同一个样式单元中引用该表达式的其它参数使用
+     * 
+     * @param slot
+     *            表达式在样式单元中分配到的编号，见{@link StyleItem#__endpoint(String)}
+     * @param value
+     *            计算结果
+     */
+    public void cache(int slot, Object value) {
+        if (this.cache == null)
+            this.cache = new Object[Math.max(slot + 1, 4)];
+        else if (slot >= this.cache.length)
+            this.cache = Arrays.copyOf(this.cache, Math.max(slot + 1, this.cache.length * 2));
+        this.cache[slot] = value;
+    }
+    
+    /**
+     * 判断当前元素是否有等待回填的参数
+     * 
+     * @return 是否有等待回填的参数
+     */
+    boolean deferred() {
+        return this.patches != null && !this.patches.isEmpty();
+    }
+    
+    /**
+     * 根据子元素组包出来的字节数回填所有等待回填的参数
+     * 
+     * @param length
+     *            子元素组包出来的字节数
+     */
+    void resolve(long length) {
+        this.length = length;
+        
+        if (!this.deferred())
+            return;
+        
+        for (Patch patch : this.patches)
+            patch.param.patch(length, this, patch.s, patch.slot, patch.len);
+        this.patches.clear();
+    }
+    
+    /**
+     * 压栈保存的某个祖先元素的状态
+     * <p>
+     * patches和cache在压栈时保存祖先元素的容器，出栈后则保存刚离开的元素的容器，供下次进入同一层的元素清空后使用。
+     * </p>
+     */
+    private static class Frame {
+        DPath path;
+        SchemaItem schema;
+        PackPlan plan;
+        DataBlock block;
+        boolean element;
+        List<Patch> patches;
+        long length;
+        Object[] cache;
+        boolean mapped;
+        long primary;
+        long secondary;
+        
+        /**
+         * 清除对各个元素的引用，以便重新使用
+         */
+        void clear() {
+            this.path = null;
+            this.schema = null;
+            this.plan = null;
+            this.block = null;
+        }
+    }
+    
+    /**
+     * 正在计算的校验和
+     */
+    private static class Tap {
+        final KyouByteOutputStream s;
+        final int start;
+        final IDigest checksum;
+        
+        Tap(KyouByteOutputStream s, int start, IDigest checksum) {
+            this.s = s;
+            this.start = start;
+            this.checksum = checksum;
+        }
+    }
+    
+    /**
+     * 等待回填的参数
+     */
+    private static class Patch {
+        final Param param;
+        final KyouByteOutputStream s;
+        final int slot;
+        final int len;
+        
+        Patch(Param param, KyouByteOutputStream s, int slot, int len) {
+            this.param = param;
+            this.s = s;
+            this.slot = slot;
+            this.len = len;
+        }
     }
 }
@@ -0,0 +1,181 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.kyou.data.Attrs;
+import net.kyou.data.DPath;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaItem;
+import net.kyou.data.SchemaStruct;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+/**
+ * 组包执行计划
+ * <p>
+ * 在组包之前预先遍历报文结构，为每个报文元素选定样式单元，组包时直接按计划执行，不再对每个元素重新匹配DQuery。<br/>
+ * 对于数组元素，使用{@link DataDocument#ARRAY_PLACEHOLDER}作为其下标进行匹配。<br/>
+ * 如果某个样式单元的DQuery与路径有关（例如包含数组下标），则无法预先确定该元素的样式，此时会记录下所有可能匹配的样式单元，组包时再从中选择。
+ * </p>
+ * <p>
+ * 执行计划在构造完毕后不再改变，可以在多个线程之间共享。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+class PackPlan {
+    /**
+     * 该元素的Schema
+     */
+    final SchemaItem schema;
+    /**
+     * 预先选定的样式单元
+     * <p>
+     * 如果无法预先确定样式单元，则为null
+     * </p>
+     */
+    final StyleItem style;
+    /**
+     * 可能匹配当前元素的样式单元
+     * <p>
+     * 仅在{@link #style}为null时使用，组包时将按顺序从中选择第一个匹配的样式单元
+     * </p>
+     */
+    final StyleItem[] candidates;
+    /**
+     * 数组元素的执行计划
+     * <p>
+     * 仅当该元素是数组本身时不为null
+     * </p>
+     */
+    final PackPlan element;
+    /**
+     * 各个子元素的执行计划
+     * <p>
+     * 仅当该元素是结构（或结构数组中的元素）时不为null
+     * </p>
+     */
+    final PackPlan[] children;
+    /**
+     * 该元素作为ISO 8583域时的域号，即名称末尾的数字，如果名称不以数字结尾则为0
+     */
+    final int field;
+    
+    /**
+     * 为整篇报文生成执行计划
+     * 
+     * @param schema
+     *            报文结构
+     * @param spec
+     *            组包样式定义
+     */
+    PackPlan(SchemaItem schema, StyleSpecification spec) {
+        this(schema, DPath.root, spec, false);
+    }
+    
+    /**
+     * 为某个指定的报文元素生成执行计划
+     * 
+     * @param schema
+     *            报文元素的Schema
+     * @param path
+     *            报文元素的路径
+     * @param spec
+     *            组包样式定义
+     * @param array
+     *            该元素是否为数组本身
+     */
+    private PackPlan(SchemaItem schema, DPath path, StyleSpecification spec, boolean array) {
+        this.schema = schema;
+        this.field = field(schema.name());
+        
+        // 预先选择样式单元
+        List<StyleItem> candidates = new ArrayList<StyleItem>();
+        StyleItem style = null;
+        for (StyleItem item : spec.styles)
+            if (item.target.isStatic()) {
+                if (item.target.matches(schema, path)) {
+                    style = item;
+                    break;
+                }
+            } else if (item.target.mayMatch(schema, path))
+                candidates.add(item);
+        
+        if (candidates.isEmpty() && style != null) {
+            this.style = style;
+            this.candidates = null;
+        } else {
+            if (style != null)
+                candidates.add(style);
+            this.style = null;
+            this.candidates = candidates.toArray(new StyleItem[candidates.size()]);
+        }
+        
+        // 生成子元素的执行计划
+        if (array) {
+            this.element = new PackPlan(schema, path.child(DataDocument.ARRAY_PLACEHOLDER), spec, false);
+            this.children = null;
+        } else if (schema instanceof SchemaStruct) {
+            List<PackPlan> children = new ArrayList<PackPlan>();
+            for (SchemaItem item : (SchemaStruct) schema)
+                children.add(new PackPlan(item, path.child(item.name()), spec, item.attrb(Attrs.ARRAY)));
+            
+            this.element = null;
+            this.children = children.toArray(new PackPlan[children.size()]);
+        } else {
+            this.element = null;
+            this.children = null;
+        }
+    }
+    
+    /**
+     * 获取某个报文元素作为ISO 8583域时的域号
+     * 
+     * @param name
+     *            报文元素的名称，如f2、f002或2
+     * @return 名称末尾的数字（超过999时按999计，以便在位图中报错），如果名称不以数字结尾则为0
+     */
+    static int field(String name) {
+        if (name == null)
+            return 0;
+        
+        int field = 0;
+        for (int i = name.length() - 1, unit = 1; i >= 0 && name.charAt(i) >= '0' && name.charAt(i) <= '9'; i--, unit = Math.min(unit * 10, 1000))
+            field = Math.min(field + (name.charAt(i) - '0') * unit, 999);
+        return field;
+    }
+    
+    /**
+     * 为当前报文元素选择样式单元
+     * 
+     * @param schema
+     *            当前报文元素的Schema
+     * @param path
+     *            当前报文元素的路径
+     * @return 适合当前报文元素的样式单元
+     */
+    StyleItem select(SchemaItem schema, DPath path) {
+        if (this.style != null)
+            return this.style;
+        
+        for (StyleItem style : this.candidates)
+            if (style.target.matches(schema, path))
+                return style;
+        
+        throw new KyouException(KyouErr.Pack.NoStyleUnitSuitable, "path: " + path);
+    }
+}
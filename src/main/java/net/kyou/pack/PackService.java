@@ -13,10 +13,12 @@
  */
 package net.kyou.pack;
 
+import java.nio.ByteBuffer;
+
 import net.kyou.Kyou;
+import net.kyou.data.AbstractDataDocument;
 import net.kyou.data.Attrs;
 import net.kyou.data.DPath;
-import net.kyou.data.DataDocument;
 import net.kyou.data.SchemaItem;
 import net.kyou.data.SchemaStruct;
 import net.kyou.exception.KyouErr;
@@ -46,7 +48,7 @@ public class PackService {
      * @param s
      *            字节流
      */
-    public static void __document(SchemaItem schema, DataDocument data, StyleSpecification spec, KyouByteOutputStream s) {
+    public static void __document(SchemaItem schema, AbstractDataDocument data, StyleSpecification spec, KyouByteOutputStream s) {
         if (schema == null)
             throw new KyouException(KyouErr.Pack.EmptySchema);
         if (data == null)
@@ -56,7 +58,34 @@ public class PackService {
         if (s == null)
             throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
         
-        PackContext context = new PackContext(DPath.root, schema, data, spec);
+        PackContext context = new PackContext(DPath.root, schema, data, spec, null, s);
+        
+        try {
+            __item(context, s);
+        } catch (Exception ex) {
+            throw new KyouException(KyouErr.Pack.PackFail, "path: #", ex);
+        }
+    }
+    
+    /**
+     * 按照预先生成的执行计划对整个报文执行组包过程
+     * 
+     * @param plan
+     *            整篇报文的执行计划
+     * @param data
+     *            报文数据
+     * @param spec
+     *            组包样式定义
+     * @param s
+     *            字节流
+     */
+    static void __prepared(PackPlan plan, AbstractDataDocument data, StyleSpecification spec, KyouByteOutputStream s) {
+        if (data == null)
+            throw new KyouException(KyouErr.Pack.EmptyData);
+        if (s == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        
+        PackContext context = new PackContext(DPath.root, plan.schema, data, spec, plan, s);
         
         try {
             __item(context, s);
@@ -72,42 +101,204 @@ public class PackService {
      *            组包上下文
      */
     public static void __item(PackContext context, KyouByteOutputStream s) {
-        StyleItem style = select(context);
+        StyleItem style = context.plan != null ? context.plan.select(context.schema, context.path) : select(context);
         
         for (Segment segment : style.segments)
             segment.export(context, s);
+        
+        __flush(context);
+    }
+    
+    /**
+     * 回填当前元素中尚未回填的参数
+     * <p>
+     * 如果当前元素的样式单元中没有直接输出子元素的参数（如只有lenb m而没有m），则在此处单独对子元素组包一次以确定其长度。
+     * </p>
+     * 
+     * @param context
+     *            组包上下文
+     */
+    public static void __flush(PackContext context) {
+        if (context.deferred())
+            __member(context);
+    }
+    
+    /**
+     * 回填当前元素中尚未回填的参数
+     * <p>
+     * 用于生成的组包代码：如果生成的代码已经对子元素组包过，则直接使用其长度，不必再组包一次。
+     * </p>
+     * 
+     * @param context
+     *            组包上下文
+     * @param member
+     *            生成的代码中子元素组包出来的字节，如果尚未组包则为null
+     */
+    public static void __flush(PackContext context, byte[] member) {
+        if (member == null)
+            __flush(context);
+        else
+            context.resolve(member.length);
+    }
+    
+    /**
+     * 结束向目标缓冲区的组包过程
+     * <p>
+     * 如果组包出来的报文没有超出缓冲区的剩余空间，则将缓冲区的position移到报文的末尾。
+     * </p>
+     * 
+     * @param s
+     *            通过{@link KyouByteOutputStream#KyouByteOutputStream(ByteBuffer)}创建的字节流
+     * @param target
+     *            目标缓冲区
+     * @return 0表示组包成功，大于0表示缓冲区的剩余空间不足，值为还需要的字节数
+     */
+    public static int __target(KyouByteOutputStream s, ByteBuffer target) {
+        s.flush();
+        
+        int overflow = s.size() - target.remaining();
+        if (overflow > 0)
+            return overflow;
+        
+        target.position(target.position() + s.size());
+        return 0;
     }
     
     /**
      * 对某个报文元素的子元素执行组包过程
      * <p>
-     * <li>当该元素的array为true时会遍历该数组的各个元素</li>
+     * <li>当该元素的array为true且为数组本身（而非数组中的某个元素）时会遍历该数组的各个元素</li>
+     * <li>否则将假设当前元素为一个结构并遍历该结构的各个子元素</li>
+     * </p>
+     * 
+     * @param context
+     *            组包上下文
+     * @return 子元素组包出来的字节的视图，只应在下一次向字节流写入之前使用
+     */
+    public static ByteBuffer __member(PackContext context) {
+        // 临时组包到字节流的末尾，取出视图后再回退掉，不复制字节
+        KyouByteOutputStream s = context.stream != null ? context.stream : new KyouByteOutputStream();
+        int start = s.size();
+        s.hold(start);
+        
+        __member(context, s);
+        
+        ByteBuffer bytes = s.view(start);
+        s.backspace(s.size() - start);
+        s.release(start);
+        return bytes;
+    }
+    
+    /**
+     * 对某个报文元素的子元素执行组包过程，并将结果直接写入指定的字节流
+     * <p>
+     * <li>当该元素的array为true且为数组本身（而非数组中的某个元素）时会遍历该数组的各个元素</li>
      * <li>否则将假设当前元素为一个结构并遍历该结构的各个子元素</li>
      * </p>
      * 
      * @param context
      *            组包上下文
+     * @param s
+     *            字节流
      */
-    public static byte[] __member(PackContext context) {
-        KyouByteOutputStream s = new KyouByteOutputStream();
+    public static void __member(PackContext context, KyouByteOutputStream s) {
+        int start = s.size();
         
-        if (context.schema.attrb(Attrs.ARRAY)) {
+        if (context.plan != null)
+            // 按照执行计划进行遍历
+            member(context, context.plan, s);
+        else if (context.schema.attrb(Attrs.ARRAY) && context.path.name().equals(context.schema.name())) {
             // 遍历该数组的各个项
             
-            int count = Integer.parseInt(context.data.get(context.path));
-            for (int i = 0; i < count; i++)
-                __item(new PackContext(context.path.child(String.valueOf(i)), context.schema, context.data, context.spec), s);
+            int count = Integer.parseInt(context.value());
+            SchemaItem schema = context.schema;
+            for (int i = 0; i < count; i++) {
+                context.enter(i, schema, null);
+                __item(context, s);
+                context.leave();
+            }
         } else {
             // 遍历该结构的各个项
             if (!(context.schema instanceof SchemaStruct))
                 throw new KyouException(KyouErr.Pack.RequireSchemaStruct, context.path.toString());
             
             SchemaStruct stru = (SchemaStruct) context.schema;
+            boolean mapped = context.mapped();
             for (SchemaItem item : stru)
-                __item(new PackContext(context.path.child(item.name()), item, context.data, context.spec), s);
+                child(context, context.path.child(item.name()), item, null, mapped ? PackPlan.field(item.name()) : 0, s);
+        }
+        
+        // 子元素的长度已经确定，回填等待该长度的参数
+        context.resolve(s.size() - start);
+    }
+    
+    /**
+     * 按照执行计划对某个报文元素的子元素执行组包过程
+     */
+    private static void member(PackContext context, PackPlan plan, KyouByteOutputStream s) {
+        if (plan.element != null) {
+            // 遍历该数组的各个项
+            PackPlan element = plan.element;
+            
+            int count = Integer.parseInt(context.value());
+            for (int i = 0; i < count; i++) {
+                context.enter(i, element.schema, element);
+                __item(context, s);
+                context.leave();
+            }
+        } else {
+            // 遍历该结构的各个项
+            if (plan.children == null)
+                throw new KyouException(KyouErr.Pack.RequireSchemaStruct, context.path.toString());
+            
+            boolean mapped = context.mapped();
+            for (PackPlan child : plan.children)
+                child(context, context.path.child(child.schema.name()), child.schema, child, mapped ? child.field : 0, s);
+        }
+    }
+    
+    /**
+     * 对结构的某个子元素执行组包过程
+     * <p>
+     * 如果当前结构正在记录ISO 8583位图（见{@link PackContext#map()}），则有域号但没有值的域和数组会被跳过，组包出字节的子元素会被记入位图。
+     * </p>
+     * 
+     * @param field
+     *            子元素的域号，如果不需要记入位图则为0
+     */
+    private static void child(PackContext context, DPath path, SchemaItem schema, PackPlan plan, int field, KyouByteOutputStream s) {
+        context.enter(path, schema, plan);
+        
+        if (field > 0 && (!(schema instanceof SchemaStruct) || schema.attrb(Attrs.ARRAY)) && context.value() == null) {
+            context.leave();
+            return;
         }
         
-        return s.export();
+        int start = s.size();
+        __item(context, s);
+        context.leave();
+        
+        if (field > 0 && s.size() > start)
+            context.mark(field);
+    }
+    
+    /**
+     * 为生成的组包代码创建某个报文元素的组包上下文
+     * <p>
+     * 生成的代码在调用不支持代码生成的参数时需要一个完整的组包上下文。
+     * </p>
+     * 
+     * @param plan
+     *            报文元素的执行计划
+     * @param path
+     *            报文元素的路径
+     * @param context
+     *            整篇报文的组包上下文
+     * @return 该报文元素的组包上下文
+     */
+    public static PackContext __context(Object plan, DPath path, PackContext context) {
+        PackPlan _plan = (PackPlan) plan;
+        return context.child(path, _plan.schema, _plan);
     }
     
     /**
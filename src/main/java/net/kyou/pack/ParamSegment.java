@@ -13,6 +13,8 @@
  */
 package net.kyou.pack;
 
+import java.nio.ByteBuffer;
+
 import net.kyou.pack.param.Param;
 import net.kyou.util.KyouByteOutputStream;
 
@@ -27,4 +29,25 @@ class ParamSegment extends Segment {
     void export(PackContext context, KyouByteOutputStream s) {
         this.param.export(context, s);
     }
+    
+    @Override
+    String generate(PackCodegen g) {
+        String code = this.param.generate(g);
+        if (code != null)
+            return code;
+        
+        // 参数不支持代码生成，退化为解释执行
+        g.discard();
+        return g.constant(this.param, Param.class) + ".export(" + g.context() + ", " + g.stream() + ");";
+    }
+    
+    @Override
+    boolean traverse() {
+        return this.param.__traverse();
+    }
+    
+    @Override
+    void unpack(UnpackContext context, ByteBuffer buffer) {
+        this.param.unpack(context, buffer);
+    }
 }
@@ -0,0 +1,240 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import net.kyou.Kyou;
+import net.kyou.data.AbstractDataDocument;
+import net.kyou.data.DPath;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteOutputStreamPool;
+
+/**
+ * 预先准备好的组包器
+ * <p>
+ * 在构造时即根据报文结构和组包样式定义为每个报文元素选定样式单元，生成执行计划。之后每次组包时只需要读取报文数据并输出字节流，不再重复选择样式单元。<br/>
+ * 适用于使用相同的报文结构和组包样式定义反复进行组包的场合。<br/>
+ * 执行计划依赖于报文结构，因此构造时会冻结报文结构（{@link SchemaDocument#freeze()}），之后不能再向其中添加或移除元素。
+ * </p>
+ * <p>
+ * 如果启用了代码生成，则会进一步根据执行计划生成一个专用的类并编译装载，组包时直接调用生成的代码，省去逐个段、逐个参数的虚调用和装箱。<br/>
+ * 生成代码依赖于运行时环境中的Java编译器，参见{@link PackCodegen}。
+ * </p>
+ * <p>
+ * 同一个执行计划也可以用于拆包，参见{@link #unpack(ByteBuffer)}。
+ * </p>
+ * <p>
+ * 该类的实例在构造完毕后不再改变，可以在多个线程之间共享。
+ * </p>
+ * 
+ * @author nuclearg
+ * @see Kyou#prepare(SchemaDocument, StyleSpecification)
+ */
+public class PreparedPacker {
+    /**
+     * 报文结构
+     */
+    private final SchemaDocument schema;
+    /**
+     * 组包样式定义
+     */
+    private final StyleSpecification spec;
+    /**
+     * 执行计划
+     */
+    private final PackPlan plan;
+    /**
+     * 生成的组包方法，如果未启用代码生成则为null
+     */
+    private final Method method;
+    /**
+     * 生成的组包方法使用的常量表
+     */
+    private final Object[] constants;
+    
+    /**
+     * 初始化一个组包器
+     * 
+     * @param schema
+     *            报文结构
+     * @param spec
+     *            组包样式定义
+     */
+    public PreparedPacker(SchemaDocument schema, StyleSpecification spec) {
+        this(schema, spec, false);
+    }
+    
+    /**
+     * 初始化一个组包器
+     * 
+     * @param schema
+     *            报文结构
+     * @param spec
+     *            组包样式定义
+     * @param codegen
+     *            是否生成专用的组包代码
+     */
+    public PreparedPacker(SchemaDocument schema, StyleSpecification spec, boolean codegen) {
+        if (schema == null)
+            throw new KyouException(KyouErr.Pack.EmptySchema);
+        if (spec == null)
+            throw new KyouException(KyouErr.Pack.EmptySpecifcation);
+        
+        // 执行计划生成之后报文结构不能再改变
+        schema.freeze();
+        
+        this.schema = schema;
+        this.spec = spec;
+        this.plan = new PackPlan(schema, spec);
+        
+        if (codegen) {
+            PackCodegen g = new PackCodegen(this.plan);
+            this.method = g.compile();
+            this.constants = g.constants();
+        } else {
+            this.method = null;
+            this.constants = null;
+        }
+    }
+    
+    /**
+     * 执行组包过程
+     * 
+     * @param data
+     *            被组包的数据
+     * @return 组包出来的报文
+     */
+    public byte[] pack(AbstractDataDocument data) {
+        KyouByteOutputStreamPool pool = KyouByteOutputStreamPool.local();
+        KyouByteOutputStream s = pool.borrow();
+        try {
+            this.pack(data, s);
+            return s.export();
+        } finally {
+            pool.release(s);
+        }
+    }
+    
+    /**
+     * 执行组包过程，并将组包出来的报文分块写入指定的流
+     * 
+     * @param data
+     *            被组包的数据
+     * @param out
+     *            输出流
+     * @see Kyou#pack(AbstractDataDocument, SchemaDocument, StyleSpecification, OutputStream)
+     */
+    public void pack(AbstractDataDocument data, OutputStream out) {
+        KyouByteOutputStream s = new KyouByteOutputStream(out);
+        this.pack(data, s);
+        s.flush();
+    }
+    
+    /**
+     * 执行组包过程，并将组包出来的报文直接写入指定的缓冲区
+     * 
+     * @param data
+     *            被组包的数据
+     * @param target
+     *            目标缓冲区
+     * @return 0表示组包成功，大于0表示缓冲区的剩余空间不足，值为还需要的字节数
+     * @see Kyou#pack(AbstractDataDocument, SchemaDocument, StyleSpecification, ByteBuffer)
+     */
+    public int pack(AbstractDataDocument data, ByteBuffer target) {
+        KyouByteOutputStream s = new KyouByteOutputStream(target);
+        this.pack(data, s);
+        return PackService.__target(s, target);
+    }
+    
+    /**
+     * 执行组包过程，并将组包结果写入指定的字节流
+     * 
+     * @param data
+     *            被组包的数据
+     * @param s
+     *            字节流
+     */
+    public void pack(AbstractDataDocument data, KyouByteOutputStream s) {
+        if (this.method == null) {
+            PackService.__prepared(this.plan, data, this.spec, s);
+            return;
+        }
+        
+        if (data == null)
+            throw new KyouException(KyouErr.Pack.EmptyData);
+        if (s == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        
+        PackContext context = new PackContext(DPath.root, this.schema, data, this.spec, this.plan, s);
+        
+        try {
+            this.method.invoke(null, this.constants, context, s);
+        } catch (InvocationTargetException ex) {
+            throw new KyouException(KyouErr.Pack.PackFail, "path: #", ex.getCause());
+        } catch (Exception ex) {
+            throw new KyouException(KyouErr.Pack.PackFail, "path: #", ex);
+        }
+    }
+    
+    /**
+     * 执行拆包过程
+     * 
+     * @param bytes
+     *            被拆包的报文
+     * @return 拆包得到的报文数据
+     */
+    public DataDocument unpack(byte[] bytes) {
+        if (bytes == null)
+            throw new KyouException(KyouErr.Unpack.EmptyBuffer);
+        
+        return this.unpack(ByteBuffer.wrap(bytes));
+    }
+    
+    /**
+     * 执行拆包过程
+     * 
+     * @param buffer
+     *            被拆包的报文，从缓冲区的当前位置开始解析，直到缓冲区的limit为止
+     * @return 拆包得到的报文数据
+     */
+    public DataDocument unpack(ByteBuffer buffer) {
+        return UnpackService.__prepared(this.plan, this.schema, buffer, this.spec);
+    }
+    
+    /**
+     * 获取该组包器使用的报文结构
+     * 
+     * @return 报文结构
+     */
+    public SchemaDocument schema() {
+        return this.schema;
+    }
+    
+    /**
+     * 获取该组包器使用的组包样式定义
+     * 
+     * @return 组包样式定义
+     */
+    public StyleSpecification spec() {
+        return this.spec;
+    }
+}
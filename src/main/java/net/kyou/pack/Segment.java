@@ -13,10 +13,48 @@
  */
 package net.kyou.pack;
 
+import java.nio.ByteBuffer;
+
 import net.kyou.util.KyouByteOutputStream;
 
 abstract class Segment {
     
     abstract void export(PackContext context, KyouByteOutputStream s);
     
+    /**
+     * 生成将该段输出到流中的代码
+     * 
+     * @param g
+     *            组包代码生成器
+     * @return 生成的语句
+     */
+    abstract String generate(PackCodegen g);
+    
+    /**
+     * 判断该段是否需要参与当前元素的子元素的遍历过程，如果是则当前元素不能生成代码
+     * 
+     * @return 是否参与子元素的遍历过程
+     */
+    boolean traverse() {
+        return false;
+    }
+    
+    /**
+     * 从缓冲区的当前位置开始解析该段，解析完毕后缓冲区的position指向该段之后的位置
+     * 
+     * @param context
+     *            拆包上下文
+     * @param buffer
+     *            报文字节
+     */
+    abstract void unpack(UnpackContext context, ByteBuffer buffer);
+    
+    /**
+     * 获取该段固定输出的文本，用于确定在该段之前的长度不固定的参数的结束位置
+     * 
+     * @return 该段固定输出的文本，如果该段的输出不固定则返回null
+     */
+    byte[] delimiter() {
+        return null;
+    }
 }
@@ -15,7 +15,9 @@ package net.kyou.pack;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.kyou.data.dquery.DQuery;
 import net.kyou.exception.KyouErr;
@@ -53,6 +55,14 @@ public class StyleItem {
      * 段列表
      */
     final List<Segment> segments;
+    /**
+     * 各个端点表达式分配到的编号，相同的端点表达式共用一个编号
+     */
+    private final Map<String, Integer> endpoints = new HashMap<String, Integer>();
+    /**
+     * 各个编号的端点表达式在该样式单元的参数中出现的次数
+     */
+    private final List<Integer> counts = new ArrayList<Integer>();
     
     /**
      * 从XML中初始化一个StyleItem实例
@@ -127,4 +137,36 @@ public class StyleItem {
         
         this.segments = Collections.unmodifiableList(segments);
     }
+    
+    /**
+     * 登记该样式单元的参数中出现的一个端点表达式
+     * <p>
+     * 由端点表达式在初始化时调用，不应在用户代码中手工调用。
+     * </p>
+     * 
+     * @param endpoint
+     *            端点表达式的字符串形式
+     * @return 分配给该端点表达式的编号，在该样式单元内从0开始，用于在组包上下文中缓存其计算结果
+     */
+    public int __endpoint(String endpoint) {
+        Integer slot = this.endpoints.get(endpoint);
+        if (slot == null) {
+            slot = this.counts.size();
+            this.endpoints.put(endpoint, slot);
+            this.counts.add(0);
+        }
+        this.counts.set(slot, this.counts.get(slot) + 1);
+        return slot;
+    }
+    
+    /**
+     * 判断某个端点表达式是否被该样式单元中的多个参数引用
+     * 
+     * @param slot
+     *            由{@link #__endpoint(String)}分配的编号
+     * @return 是否被多个参数引用
+     */
+    public boolean __shared(int slot) {
+        return this.counts.get(slot) > 1;
+    }
 }
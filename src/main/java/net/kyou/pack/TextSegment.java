@@ -13,6 +13,10 @@
  */
 package net.kyou.pack;
 
+import java.nio.ByteBuffer;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
 import net.kyou.util.KyouByteOutputStream;
 
 class TextSegment extends Segment {
@@ -26,4 +30,28 @@ class TextSegment extends Segment {
     void export(PackContext context, KyouByteOutputStream s) {
         s.write(this.text);
     }
+    
+    @Override
+    String generate(PackCodegen g) {
+        return g.stream() + ".write(" + g.constant(this.text, byte[].class) + ");";
+    }
+    
+    @Override
+    void unpack(UnpackContext context, ByteBuffer buffer) {
+        if (buffer.remaining() < this.text.length)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", expect: " + new String(this.text));
+        
+        // 逐个字节与文本比较，不复制缓冲区
+        int position = buffer.position();
+        for (int i = 0; i < this.text.length; i++)
+            if (buffer.get(position + i) != this.text[i])
+                throw new KyouException(KyouErr.Unpack.TextMismatch, "position: " + (position + i) + ", expect: " + new String(this.text));
+        
+        buffer.position(position + this.text.length);
+    }
+    
+    @Override
+    byte[] delimiter() {
+        return this.text;
+    }
 }
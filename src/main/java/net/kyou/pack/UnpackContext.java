@@ -0,0 +1,399 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.kyou.data.DPath;
+import net.kyou.data.DataBuilder;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaDocument;
+import net.kyou.data.SchemaItem;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.util.IDigest;
+
+/**
+ * 拆包上下文 封闭了拆包过程中会用到的一些上下文信息
+ * <p>
+ * 拆包过程中解析出的各个值会按照解析的顺序记录下来，拆包完毕后统一写入{@link DataDocument}。<br/>
+ * 当尝试解析某个数组元素失败时，可以通过{@link #mark()}和{@link #reset(Mark)}撤销该次尝试中记录下的值，以及开始或结束的校验和。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public class UnpackContext {
+    /**
+     * 当前正被拆包的元素的路径
+     */
+    public final DPath path;
+    /**
+     * 当前正被拆包的元素的Schema信息
+     */
+    public final SchemaItem schema;
+    /**
+     * 组包样式定义
+     */
+    public final StyleSpecification spec;
+    /**
+     * 当前正被拆包的元素的执行计划
+     */
+    final PackPlan plan;
+    /**
+     * 紧跟在当前正被解析的参数后面的文本
+     * <p>
+     * 用于确定长度不固定的参数的结束位置。如果后面不是文本则为null
+     * </p>
+     */
+    byte[] delimiter;
+    /**
+     * 已解析出的值对应的路径
+     */
+    private final List<DPath> paths;
+    /**
+     * 已解析出的值
+     */
+    private final List<String> values;
+    /**
+     * 整篇报文中正在计算的校验和，以校验和的编号为键
+     */
+    private final Map<Long, Tap> taps;
+    /**
+     * 对校验和的开始和结束的记录，用于撤销某次尝试中对校验和的改动
+     */
+    private final List<TapChange> changes;
+    /**
+     * 创建该上下文时已记录的值的个数，之后记录的值是在解析当前元素的过程中得到的
+     */
+    private final int first;
+    /**
+     * 是否已解析出当前元素的ISO 8583位图
+     */
+    private boolean mapped;
+    /**
+     * 位图中的1~64域，最高位对应第1域
+     */
+    private long primary;
+    /**
+     * 位图中的65~128域，最高位对应第65域
+     */
+    private long secondary;
+    
+    /**
+     * 初始化一个整篇报文的拆包上下文
+     * 
+     * @param plan
+     *            整篇报文的执行计划
+     * @param spec
+     *            组包样式定义
+     */
+    UnpackContext(PackPlan plan, StyleSpecification spec) {
+        this(DPath.root, plan, spec, null, new ArrayList<DPath>(), new ArrayList<String>(), new HashMap<Long, Tap>(), new ArrayList<TapChange>());
+    }
+    
+    /**
+     * 初始化一个拆包上下文实例
+     */
+    private UnpackContext(DPath path, PackPlan plan, StyleSpecification spec, byte[] delimiter, List<DPath> paths, List<String> values, Map<Long, Tap> taps, List<TapChange> changes) {
+        this.path = path;
+        this.schema = plan.schema;
+        this.spec = spec;
+        this.plan = plan;
+        this.delimiter = delimiter;
+        this.paths = paths;
+        this.values = values;
+        this.taps = taps;
+        this.changes = changes;
+        this.first = values.size();
+    }
+    
+    /**
+     * 为某个子元素创建拆包上下文
+     * 
+     * @param path
+     *            子元素的路径
+     * @param plan
+     *            子元素的执行计划
+     * @return 子元素的拆包上下文
+     */
+    UnpackContext child(DPath path, PackPlan plan) {
+        return new UnpackContext(path, plan, this.spec, this.delimiter, this.paths, this.values, this.taps, this.changes);
+    }
+    
+    /**
+     * 获取紧跟在当前正被解析的参数后面的文本
+     * 
+     * @return 紧跟在当前参数后面的文本，如果后面不是文本则为null
+     */
+    public byte[] delimiter() {
+        return this.delimiter;
+    }
+    
+    /**
+     * 记录当前元素的ISO 8583位图
+     * <p>
+     * 之后拆包子元素时，有域号但没有出现在位图中的子元素会被跳过。
+     * </p>
+     * 
+     * @param primary
+     *            主位图，最高位对应第1域
+     * @param secondary
+     *            副位图，最高位对应第65域
+     */
+    public void map(long primary, long secondary) {
+        this.mapped = true;
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+    
+    /**
+     * 从缓冲区的当前位置开始计算一个校验和
+     * 
+     * @param id
+     *            校验和的编号，在整篇报文中有效
+     * @param buffer
+     *            当前正被拆包的缓冲区，可以是整篇报文的缓冲区的一部分
+     * @param checksum
+     *            校验和
+     */
+    public void tap(long id, ByteBuffer buffer, IDigest checksum) {
+        if (this.taps.containsKey(id))
+            throw new KyouException(KyouErr.Unpack.ChecksumUnavailable, "position: " + buffer.position() + ", id: " + id + ", already started");
+        this.changes.add(new TapChange(id, this.taps.put(id, new Tap(buffer, checksum))));
+    }
+    
+    /**
+     * 结束计算之前开始的某个校验和
+     * <p>
+     * 直接用缓冲区中从开始的位置到当前位置的字节更新校验和，基于数组的缓冲区不复制字节。
+     * </p>
+     * 
+     * @param id
+     *            校验和的编号
+     * @param buffer
+     *            整篇报文的缓冲区
+     * @return 从开始的位置到缓冲区的当前位置的字节的校验和
+     */
+    public IDigest untap(long id, ByteBuffer buffer) {
+        Tap tap = this.taps.remove(id);
+        if (tap == null)
+            throw new KyouException(KyouErr.Unpack.ChecksumUnavailable, "position: " + buffer.position() + ", id: " + id + ", not started");
+        this.changes.add(new TapChange(id, tap));
+        
+        // 子元素可能是在缓冲区的一部分上拆包的，按照底层数组中的下标计算范围
+        if (tap.array != null && buffer.hasArray() && buffer.array() == tap.array) {
+            int end = buffer.arrayOffset() + buffer.position();
+            if (end < tap.start)
+                throw new KyouException(KyouErr.Unpack.ChecksumUnavailable, "position: " + buffer.position() + ", id: " + id);
+            
+            tap.checksum.update(tap.array, tap.start, end - tap.start);
+            return tap.checksum;
+        }
+        
+        if (tap.buffer != buffer || buffer.position() < tap.start)
+            throw new KyouException(KyouErr.Unpack.ChecksumUnavailable, "position: " + buffer.position() + ", id: " + id + ", buffer changed");
+        
+        // 不是基于数组的缓冲区，分段复制到一个小数组中计算
+        ByteBuffer range = buffer.duplicate();
+        range.limit(buffer.position()).position(tap.start);
+        byte[] chunk = new byte[Math.min(range.remaining(), 256)];
+        while (range.hasRemaining()) {
+            int len = Math.min(range.remaining(), chunk.length);
+            range.get(chunk, 0, len);
+            tap.checksum.update(chunk, 0, len);
+        }
+        return tap.checksum;
+    }
+    
+    /**
+     * 判断当前元素的某个子元素是否需要拆包
+     * 
+     * @param field
+     *            子元素的域号，为0表示没有域号
+     * @return 如果没有位图、子元素没有域号或该域出现在位图中则为true
+     */
+    boolean present(int field) {
+        if (!this.mapped || field == 0)
+            return true;
+        if (field < 2 || field > 128)
+            return false;
+        
+        return field <= 64 ? (this.primary & 1L << (64 - field)) != 0 : (this.secondary & 1L << (128 - field)) != 0;
+    }
+    
+    /**
+     * 记录当前报文元素的值
+     * 
+     * @param value
+     *            解析出的值
+     */
+    public void value(String value) {
+        this.value(this.path, value);
+    }
+    
+    /**
+     * 记录某个报文元素的值
+     * 
+     * @param path
+     *            报文元素的路径
+     * @param value
+     *            解析出的值
+     * @return 该值的位置，可用于{@link #value(int, String)}
+     */
+    int value(DPath path, String value) {
+        this.paths.add(path);
+        this.values.add(value);
+        return this.values.size() - 1;
+    }
+    
+    /**
+     * 获取在解析当前元素的过程中为当前元素记录的值
+     * 
+     * @return 最近一次记录的当前元素的值，如果没有则为null
+     */
+    String recorded() {
+        for (int i = this.values.size() - 1; i >= this.first; i--)
+            if (this.paths.get(i).equals(this.path))
+                return this.values.get(i);
+        return null;
+    }
+    
+    /**
+     * 修改某个已记录的值
+     * 
+     * @param index
+     *            该值的位置
+     * @param value
+     *            新的值
+     */
+    void value(int index, String value) {
+        this.values.set(index, value);
+    }
+    
+    /**
+     * 获取当前已记录的值和校验和的状态
+     * 
+     * @return 当前的状态
+     */
+    Mark mark() {
+        return new Mark(this.values.size(), this.changes.size());
+    }
+    
+    /**
+     * 撤销在指定状态之后记录的值，以及开始或结束的校验和
+     * 
+     * @param mark
+     *            由{@link #mark()}返回的状态
+     */
+    void reset(Mark mark) {
+        while (this.values.size() > mark.values) {
+            this.paths.remove(this.paths.size() - 1);
+            this.values.remove(this.values.size() - 1);
+        }
+        
+        // 按照相反的顺序撤销，被结束的校验和重新开始计算
+        while (this.changes.size() > mark.changes) {
+            TapChange change = this.changes.remove(this.changes.size() - 1);
+            if (change.tap == null)
+                this.taps.remove(change.id);
+            else {
+                change.tap.checksum.reset();
+                this.taps.put(change.id, change.tap);
+            }
+        }
+    }
+    
+    /**
+     * 将已记录的值写入一篇新的报文数据
+     * 
+     * @param schema
+     *            报文结构
+     * @return 拆包得到的报文数据
+     */
+    DataDocument export(SchemaDocument schema) {
+        DataDocument data = new DataDocument();
+        DataBuilder builder = new DataBuilder(schema, data);
+        for (int i = 0; i < this.values.size(); i++)
+            builder.value(this.paths.get(i), this.values.get(i));
+        return data;
+    }
+    
+    /**
+     * 正在计算的校验和
+     */
+    private static class Tap {
+        /**
+         * 开始计算时的缓冲区
+         */
+        final ByteBuffer buffer;
+        /**
+         * 缓冲区的底层数组，如果没有则为null
+         */
+        final byte[] array;
+        /**
+         * 开始的位置，有底层数组时为数组中的下标，否则为缓冲区中的位置
+         */
+        final int start;
+        final IDigest checksum;
+        
+        Tap(ByteBuffer buffer, IDigest checksum) {
+            this.buffer = buffer;
+            this.array = buffer.hasArray() ? buffer.array() : null;
+            this.start = buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : buffer.position();
+            this.checksum = checksum;
+        }
+    }
+    
+    /**
+     * 已记录的值和校验和的状态
+     */
+    static class Mark {
+        /**
+         * 已记录的值的数量
+         */
+        final int values;
+        /**
+         * 对校验和的改动的数量
+         */
+        final int changes;
+        
+        Mark(int values, int changes) {
+            this.values = values;
+            this.changes = changes;
+        }
+    }
+    
+    /**
+     * 对某个校验和的开始或结束
+     */
+    private static class TapChange {
+        /**
+         * 校验和的编号
+         */
+        final long id;
+        /**
+         * 改动之前的校验和，如果之前没有则为null
+         */
+        final Tap tap;
+        
+        TapChange(long id, Tap tap) {
+            this.id = id;
+            this.tap = tap;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import net.kyou.Kyou;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+/**
+ * 拆包服务核心类 提供kyou的通用拆包服务
+ * <p>
+ * 拆包是组包的逆过程：使用与组包相同的报文结构和组包样式定义，按顺序匹配各个文本段、解析各个参数，并将解析出的值反向赋给参数的表达式，最终得到报文数据。<br/>
+ * 整个过程直接在{@link ByteBuffer}上进行，通过缓冲区的position作为游标，不会复制报文的字节。
+ * </p>
+ * <p>
+ * 如果数组的样式在m之前通过v解析出了数组的值（即元素个数），则按照该个数解析数组元素。<br/>
+ * 否则会逐个尝试解析数组元素，直到缓冲区耗尽，或某个元素因文本不匹配或报文提前结束而无法从当前位置开始为止；其它错误会直接抛出。
+ * </p>
+ * <p>
+ * <b>不应在用户代码中手工调用此类中的函数，请使用net.kyou.Kyou中的unpack方法。</b>
+ * </p>
+ * 
+ * @author nuclearg
+ * @see Kyou
+ */
+public class UnpackService {
+    /**
+     * 对整个报文执行拆包过程
+     * 
+     * @param schema
+     *            报文结构
+     * @param buffer
+     *            报文字节，将从缓冲区的当前位置开始解析，直到缓冲区的limit为止
+     * @param spec
+     *            组包样式定义
+     * @return 拆包得到的报文数据
+     */
+    public static DataDocument __document(SchemaDocument schema, ByteBuffer buffer, StyleSpecification spec) {
+        if (schema == null)
+            throw new KyouException(KyouErr.Pack.EmptySchema);
+        if (spec == null)
+            throw new KyouException(KyouErr.Pack.EmptySpecifcation);
+        
+        return __prepared(new PackPlan(schema, spec), schema, buffer, spec);
+    }
+    
+    /**
+     * 按照预先生成的执行计划对整个报文执行拆包过程
+     * 
+     * @param plan
+     *            整篇报文的执行计划
+     * @param schema
+     *            报文结构
+     * @param buffer
+     *            报文字节
+     * @param spec
+     *            组包样式定义
+     * @return 拆包得到的报文数据
+     */
+    static DataDocument __prepared(PackPlan plan, SchemaDocument schema, ByteBuffer buffer, StyleSpecification spec) {
+        if (buffer == null)
+            throw new KyouException(KyouErr.Unpack.EmptyBuffer);
+        
+        UnpackContext context = new UnpackContext(plan, spec);
+        
+        try {
+            __item(context, buffer);
+            
+            if (buffer.hasRemaining())
+                throw new KyouException(KyouErr.Unpack.TrailingBytes, "remaining: " + buffer.remaining());
+        } catch (Exception ex) {
+            throw new KyouException(KyouErr.Unpack.UnpackFail, "position: " + buffer.position(), ex);
+        }
+        
+        return context.export(schema);
+    }
+    
+    /**
+     * 对某个指定的报文元素执行拆包过程
+     * 
+     * @param context
+     *            拆包上下文
+     * @param buffer
+     *            报文字节
+     */
+    public static void __item(UnpackContext context, ByteBuffer buffer) {
+        StyleItem style = context.plan.select(context.schema, context.path);
+        
+        // 如果样式单元的最后一段是参数，则该参数的结束位置由外层的分隔符决定
+        byte[] delimiter = context.delimiter;
+        
+        List<Segment> segments = style.segments;
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                context.delimiter = i + 1 < segments.size() ? segments.get(i + 1).delimiter() : delimiter;
+                segments.get(i).unpack(context, buffer);
+            }
+        } finally {
+            context.delimiter = delimiter;
+        }
+    }
+    
+    /**
+     * 对某个报文元素的子元素执行拆包过程
+     * 
+     * @param context
+     *            拆包上下文
+     * @param buffer
+     *            报文字节
+     * @param whole
+     *            缓冲区是否恰好包含全部子元素<li>true - 子元素一直延续到缓冲区的末尾，不能有剩余的字节</li><li>false -
+     *            子元素之后可能还有其它内容，由紧跟在当前参数后面的文本确定子元素的结束位置</li>
+     */
+    public static void __member(UnpackContext context, ByteBuffer buffer, boolean whole) {
+        if (!whole) {
+            member(context, buffer);
+            return;
+        }
+        
+        byte[] delimiter = context.delimiter;
+        context.delimiter = null;
+        
+        try {
+            member(context, buffer);
+            if (buffer.hasRemaining())
+                throw new KyouException(KyouErr.Unpack.TrailingBytes, "path: " + context.path + ", remaining: " + buffer.remaining());
+        } finally {
+            context.delimiter = delimiter;
+        }
+    }
+    
+    /**
+     * 对某个报文元素的子元素执行拆包过程
+     */
+    private static void member(UnpackContext context, ByteBuffer buffer) {
+        PackPlan plan = context.plan;
+        
+        if (plan.element != null) {
+            // 如果数组的样式在子元素之前已经解析出了数组的值（如<int len='2'>s2i v</int>），则按照该值解析确定个数的数组元素
+            String recorded = context.recorded();
+            if (recorded != null) {
+                int count;
+                try {
+                    count = Integer.parseInt(recorded);
+                } catch (NumberFormatException ex) {
+                    throw new KyouException(KyouErr.Unpack.ParseIntFail, "path: " + context.path + ", count: " + recorded);
+                }
+                
+                for (int i = 0; i < count; i++)
+                    __item(context.child(context.path.child(i), plan.element), buffer);
+                return;
+            }
+            
+            // 遍历该数组的各个项，直到缓冲区耗尽或下一个元素不是从这里开始为止
+            int countIndex = context.value(context.path, null);
+            
+            int count = 0;
+            while (buffer.hasRemaining()) {
+                UnpackContext.Mark mark = context.mark();
+                int position = buffer.position();
+                
+                try {
+                    __item(context.child(context.path.child(count), plan.element), buffer);
+                } catch (KyouException ex) {
+                    // 只有文本不匹配或报文提前结束才说明数组已经结束，其它错误说明报文本身有问题
+                    if (ex.err != KyouErr.Unpack.TextMismatch && ex.err != KyouErr.Unpack.UnexpectedEnd)
+                        throw ex;
+                    
+                    buffer.position(position);
+                    context.reset(mark);
+                    break;
+                }
+                
+                // 没有消耗任何字节的数组元素没有意义，同时也避免死循环
+                if (buffer.position() == position) {
+                    context.reset(mark);
+                    break;
+                }
+                
+                count++;
+            }
+            
+            context.value(countIndex, String.valueOf(count));
+        } else {
+            // 遍历该结构的各个项
+            if (plan.children == null)
+                throw new KyouException(KyouErr.Pack.RequireSchemaStruct, context.path.toString());
+            
+            for (PackPlan child : plan.children)
+                if (context.present(child.field))
+                    __item(context.child(context.path.child(child.schema.name()), child), buffer);
+        }
+    }
+}
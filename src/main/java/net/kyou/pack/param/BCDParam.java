@@ -13,10 +13,16 @@
  */
 package net.kyou.pack.param;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
 import net.kyou.util.KyouByteOutputStream;
@@ -26,24 +32,333 @@ import org.w3c.dom.Element;
 /**
  * BCD码输出段
  * <p>
- * 将参数的计算结果以BCD码方式输出到流中
+ * 将参数的计算结果以BCD码方式输出到流中。参数的计算结果可以是整数，也可以是由数字组成的字符串（如卡号）。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>len：字节长度，必选</li>
+ * <li>form：形式，可选，可选值为packed、unpacked，默认为packed。packed每个字节存放两位数字，unpacked每个字节存放一位数字</li>
+ * <li>align：对齐方式，可选，可选值为left、right，默认为right</li>
+ * <li>filling：补位的半字节，可选，可选值为0~F，默认为0</li>
+ * <li>sign：符号，可选，可选值为none、trail，默认为none。trail在最后一个半字节中输出符号（C为正，D为负），只能用于packed</li>
  * </p>
  * 
  * @author nuclearg
  */
-@ParamTag(name = "bcd", type = ExprType.Integer)
+@ParamTag(name = "bcd", type = ExprType.Irrelevant)
 class BCDParam extends Param {
+    /**
+     * 从两位数字（0~99）到压缩BCD码字节的对照表
+     */
+    private static final byte[] PACK = new byte[100];
+    /**
+     * 从压缩BCD码字节到两位数字的对照表，两个半字节不都是数字的字节为-1
+     */
+    private static final byte[] UNPACK = new byte[256];
+    /**
+     * 非压缩BCD码中0~9这10个数字对应的字节
+     */
+    private static final byte[] DIGITS = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+    /**
+     * 10的0~18次幂
+     */
+    private static final long[] POW10 = new long[19];
+    static {
+        Arrays.fill(UNPACK, (byte) -1);
+        for (int i = 0; i < 100; i++) {
+            PACK[i] = (byte) (i / 10 << 4 | i % 10);
+            UNPACK[PACK[i] & 0xFF] = (byte) i;
+        }
+        
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+    
+    /**
+     * 常量 表示正数的符号半字节
+     */
+    private static final int SIGN_POSITIVE = 0xC;
+    /**
+     * 常量 表示负数的符号半字节
+     */
+    private static final int SIGN_NEGATIVE = 0xD;
+    /**
+     * 常量 表示无符号数的符号半字节
+     */
+    private static final int SIGN_UNSIGNED = 0xF;
+    
+    /**
+     * 输出的字节数
+     */
+    private final int len;
+    /**
+     * 形式<li>true - 压缩</li><li>false - 非压缩</li>
+     */
+    private final boolean packed;
+    /**
+     * 对齐方式<li>true - 左对齐</li><li>false - 右对齐</li>
+     */
+    private final boolean align;
+    /**
+     * 补位的半字节
+     */
+    private final int filling;
+    /**
+     * 是否在最后一个半字节中输出符号
+     */
+    private final boolean sign;
+    /**
+     * 半字节（非压缩时为字节）的个数
+     */
+    private final int slots;
+    /**
+     * 最多可以容纳的数字的位数
+     */
+    private final int capacity;
     
     /**
      * 初始化一个BCD码输出段
      */
     BCDParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
         super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <bcd len="6" form="packed" align="right" filling="0" sign="trail">xxx</bcd>
+         * </pre>
+         */
+        
+        // len
+        try {
+            this.len = Integer.parseInt(e.getAttribute("len"));
+            if (this.len <= 0)
+                throw new NumberFormatException();
+        } catch (NumberFormatException ex) {
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "len: " + e.getAttribute("len"));
+        }
+        
+        // form
+        if (!e.hasAttribute("form") || e.getAttribute("form").equals("packed"))
+            this.packed = true;
+        else if (e.getAttribute("form").equals("unpacked"))
+            this.packed = false;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "form: " + e.getAttribute("form"));
+        
+        // align
+        if (!e.hasAttribute("align") || e.getAttribute("align").equals("right"))
+            this.align = false;
+        else if (e.getAttribute("align").equals("left"))
+            this.align = true;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "align: " + e.getAttribute("align"));
+        
+        // filling
+        if (e.hasAttribute("filling")) {
+            String filling = e.getAttribute("filling");
+            this.filling = filling.length() == 1 ? Character.digit(filling.charAt(0), 16) : -1;
+            if (this.filling < 0)
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "filling: " + filling);
+        } else
+            this.filling = 0;
+        
+        // sign
+        if (!e.hasAttribute("sign") || e.getAttribute("sign").equals("none"))
+            this.sign = false;
+        else if (e.getAttribute("sign").equals("trail") && this.packed)
+            this.sign = true;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "sign: " + e.getAttribute("sign") + ", form: " + (this.packed ? "packed" : "unpacked"));
+        
+        this.slots = this.packed ? this.len * 2 : this.len;
+        this.capacity = this.sign ? this.slots - 1 : this.slots;
+    }
+    
+    @Override
+    protected void export(Object v, PackContext context, KyouByteOutputStream s) {
+        if (v instanceof Number)
+            this.export(((Number) v).longValue(), context, s);
+        else
+            this.export((String) v, s);
     }
     
     @Override
-   protected void export(Object v, PackContext context, KyouByteOutputStream s) {
-        // TODO Auto-generated method stub
+    protected void export(long num, PackContext context, KyouByteOutputStream s) {
+        if (num < 0 && !this.sign)
+            throw new KyouException(KyouErr.Pack.NumberOutOfRange, "value: " + num + ", unsigned");
         
+        // 按照负数计算，以免Long.MIN_VALUE取反后溢出
+        long m = num > 0 ? -num : num;
+        int n = 1;
+        while (n < POW10.length && m <= -POW10[n])
+            n++;
+        if (n > this.capacity)
+            throw new KyouException(KyouErr.Pack.NumberOutOfRange, "value: " + num + ", len: " + this.len);
+        
+        if (this.align || this.filling != 0)
+            this.export(m, null, n, num < 0, s);
+        else if (!this.packed)
+            // 右对齐补0的非压缩BCD码与十进制数字相同
+            s.writeDigits(num, this.len, DIGITS);
+        else
+            // 右对齐补0的压缩BCD码，每个字节通过一次除法取出两位数字再查表
+            for (int i = 0; i < this.len; i++) {
+                // 当前字节中的低位数字的幂
+                int e = this.capacity - 2 - 2 * i;
+                
+                if (e >= POW10.length)
+                    s.write(0);
+                else if (e >= 0)
+                    s.write(PACK[(int) -(m / POW10[e] % 100)]);
+                else
+                    // 最后一个字节的低位是符号
+                    s.write(PACK[(int) -(m % 10) * 10] | (num < 0 ? SIGN_NEGATIVE : SIGN_POSITIVE));
+            }
+    }
+    
+    /**
+     * 将由数字组成的字符串（可以带有符号）输出到流中
+     */
+    private void export(String str, KyouByteOutputStream s) {
+        boolean negative = false;
+        int start = 0;
+        if (this.sign && str.length() > 0 && (str.charAt(0) == '+' || str.charAt(0) == '-')) {
+            negative = str.charAt(0) == '-';
+            start = 1;
+        }
+        
+        int n = str.length() - start;
+        if (n == 0 && !this.align)
+            throw new KyouException(KyouErr.Pack.ParseStringToIntFail, "value: " + str);
+        for (int i = start; i < str.length(); i++)
+            if (str.charAt(i) < '0' || str.charAt(i) > '9')
+                throw new KyouException(KyouErr.Pack.ParseStringToIntFail, "value: " + str);
+        if (n > this.capacity)
+            throw new KyouException(KyouErr.Pack.NumberOutOfRange, "value: " + str + ", len: " + this.len);
+        
+        this.export(0, str, n, negative, s);
+    }
+    
+    /**
+     * 逐个半字节地输出，用于补位的半字节不是0或左对齐的情况
+     * 
+     * @param m
+     *            按照负数表示的整数，仅当str为null时有效
+     * @param str
+     *            最后n个字符为数字的字符串，为null时输出m
+     * @param n
+     *            数字的位数
+     * @param negative
+     *            是否为负数
+     */
+    private void export(long m, String str, int n, boolean negative, KyouByteOutputStream s) {
+        int start = this.align ? 0 : this.capacity - n;
+        
+        int high = 0;
+        for (int i = 0; i < this.slots; i++) {
+            int nibble;
+            if (i == this.capacity)
+                nibble = negative ? SIGN_NEGATIVE : SIGN_POSITIVE;
+            else if (i < start || i >= start + n)
+                nibble = this.filling;
+            else if (str != null)
+                nibble = str.charAt(str.length() - n + (i - start)) - '0';
+            else
+                nibble = (int) -(m / POW10[n - 1 - (i - start)] % 10);
+            
+            if (!this.packed)
+                s.write(nibble);
+            else if (i % 2 == 0)
+                high = nibble;
+            else
+                s.write(high << 4 | nibble);
+        }
+    }
+    
+    @Override
+    protected boolean fixed(PackContext context) {
+        return true;
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        if (buffer.remaining() < this.len)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + this.len);
+        
+        int position = buffer.position();
+        boolean string = this.type == ExprType.String;
+        StringBuilder str = string ? new StringBuilder(this.capacity + 1) : null;
+        long num = 0;
+        boolean negative = false;
+        
+        // 右对齐时跳过左边的补位，左对齐时遇到不是数字的补位即结束
+        boolean started = this.align;
+        boolean ended = false;
+        int b = 0;
+        for (int i = 0; i < this.slots; i++) {
+            if (!this.packed)
+                b = buffer.get() & 0xFF;
+            else if (i % 2 == 0) {
+                b = buffer.get() & 0xFF;
+                
+                // 两个半字节都是数字时查表一次取出两位
+                int pair = UNPACK[b];
+                if (pair >= 0 && started && !ended && i + 1 < this.capacity) {
+                    if (string)
+                        str.append((char) ('0' + pair / 10)).append((char) ('0' + pair % 10));
+                    else
+                        num = this.append(this.append(num, pair / 10, position), pair % 10, position);
+                    i++;
+                    continue;
+                }
+            }
+            int nibble = !this.packed ? b : i % 2 == 0 ? b >> 4 : b & 0xF;
+            
+            if (i == this.capacity) {
+                if (nibble != SIGN_POSITIVE && nibble != SIGN_NEGATIVE && nibble != SIGN_UNSIGNED)
+                    throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", sign: " + nibble);
+                negative = nibble == SIGN_NEGATIVE;
+                continue;
+            }
+            
+            if (!started) {
+                // 至少保留一位数字
+                if (nibble == this.filling && i < this.capacity - 1)
+                    continue;
+                started = true;
+            } else if (this.align && this.filling > 9 && (ended || nibble == this.filling)) {
+                if (nibble != this.filling)
+                    throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", nibble: " + nibble);
+                ended = true;
+                continue;
+            }
+            
+            if (nibble > 9)
+                throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", nibble: " + nibble);
+            if (string)
+                str.append((char) ('0' + nibble));
+            else
+                num = this.append(num, nibble, position);
+        }
+        
+        if (string)
+            return negative ? str.insert(0, '-').toString() : str.toString();
+        
+        if (!negative) {
+            if (num == Long.MIN_VALUE)
+                throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", len: " + this.len);
+            num = -num;
+        }
+        return num;
+    }
+    
+    /**
+     * 在按照负数累加的整数后面追加一位数字
+     */
+    private long append(long num, int digit, int position) {
+        if (num < Long.MIN_VALUE / 10 || num * 10 < Long.MIN_VALUE + digit)
+            throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", len: " + this.len);
+        return num * 10 - digit;
     }
 }
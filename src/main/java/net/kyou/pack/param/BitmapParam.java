@@ -0,0 +1,221 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteUtils;
+import net.kyou.util.KyouCharset;
+
+import org.w3c.dom.Element;
+
+/**
+ * ISO 8583位图输出段
+ * <p>
+ * 根据当前结构的哪些子元素出现，输出ISO 8583的主位图和副位图。各个域是否出现是在组包子元素的同一次遍历中记录下来的（见{@link PackContext#map()}），
+ * 位图先写入占位的字节，待子元素组包完毕后回填，不需要为了确定位图而预先遍历一遍报文数据。
+ * </p>
+ * <p>
+ * 子元素的名称以数字结尾时，该数字即为其域号，如f2、f039、128。有域号但没有值的域和数组不会被组包，也不会出现在位图中，没有域号的子元素照常组包。
+ * MTI等不属于位图的内容通常放在各个域所在的结构之外，如：
+ * 
+ * <pre>
+ * <style target="#.fields"><format>%%</format><iso8583-bitmap len="16">m</iso8583-bitmap><bytes>m</bytes></style>
+ * </pre>
+ * 
+ * 表达式应为m，并且位图必须在子元素之前输出。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>len：位图的字节数，可选，可选值为8、16，默认为8。为16时总是输出副位图并将第1位置为1，为8时不能出现65~128域</li>
+ * <li>form：输出形式，可选，可选值为binary、hex，默认为binary。hex按照整篇报文的编码输出两倍长度的大写十六进制字符</li>
+ * </p>
+ * 
+ * @author nuclearg
+ */
+@ParamTag(name = "iso8583-bitmap", type = ExprType.Bytes)
+class BitmapParam extends Param {
+    /**
+     * 十六进制字符
+     */
+    private static final String HEX = "0123456789ABCDEF";
+    
+    /**
+     * 位图的字节数
+     */
+    private final int len;
+    /**
+     * 输出形式<li>true - 十六进制字符</li><li>false - 二进制</li>
+     */
+    private final boolean hex;
+    /**
+     * 十六进制字符编码后的字节，二进制形式时为null
+     */
+    private final byte[] digits;
+    /**
+     * 从字节到十六进制字符的值的对照表，不是十六进制字符的字节为-1，二进制形式时为null
+     */
+    private final byte[] values;
+    
+    /**
+     * 初始化一个ISO 8583位图输出段
+     */
+    BitmapParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
+        super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <iso8583-bitmap len="16" form="hex">m</iso8583-bitmap>
+         * </pre>
+         */
+        
+        if (!e.hasAttribute("len") || e.getAttribute("len").equals("8"))
+            this.len = 8;
+        else if (e.getAttribute("len").equals("16"))
+            this.len = 16;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "len: " + e.getAttribute("len") + " expect: 8 | 16");
+        
+        if (!e.hasAttribute("form") || e.getAttribute("form").equals("binary"))
+            this.hex = false;
+        else if (e.getAttribute("form").equals("hex"))
+            this.hex = true;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "form: " + e.getAttribute("form"));
+        
+        if (!this.hex) {
+            this.digits = null;
+            this.values = null;
+            return;
+        }
+        
+        // 十六进制字符都必须能够查表编码为一个字节，拆包时同时接受小写字符
+        KyouCharset charset = KyouCharset.of(encoding);
+        this.digits = new byte[16];
+        this.values = new byte[256];
+        Arrays.fill(this.values, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            int b = charset.map(HEX.charAt(i));
+            if (b < 0)
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "form: hex, encoding: " + encoding);
+            this.digits[i] = (byte) b;
+            this.values[b] = (byte) i;
+            
+            int lower = charset.map(Character.toLowerCase(HEX.charAt(i)));
+            if (lower >= 0)
+                this.values[lower] = (byte) i;
+        }
+    }
+    
+    @Override
+    protected boolean write(Expr expr, PackContext context, KyouByteOutputStream s) {
+        // 子元素已经组包过，无法再得知各个域是否出现
+        if (context == null || context.length() >= 0)
+            throw new KyouException(KyouErr.Pack.BitmapUnavailable, context == null ? "iso8583-bitmap" : "path: " + context.path);
+        
+        // 先写入占位的字节，在遍历子元素的同时记录位图，子元素组包完毕后回填
+        context.map();
+        
+        int slot = s.size();
+        int size = this.hex ? this.len * 2 : this.len;
+        s.fill(0, size);
+        context.defer(this, s, slot, size);
+        return true;
+    }
+    
+    @Override
+    protected void export(Object v, PackContext context, KyouByteOutputStream s) {
+        // 位图总是由write()输出，不会计算表达式
+        throw new KyouException(KyouErr.Pack.BitmapUnavailable, "path: " + context.path);
+    }
+    
+    @Override
+    public boolean __traverse() {
+        return true;
+    }
+    
+    @Override
+    public void patch(long length, PackContext context, KyouByteOutputStream s, int slot, int len) {
+        long primary = context.primary();
+        long secondary = context.secondary();
+        
+        if (this.len == 8 && secondary != 0)
+            throw new KyouException(KyouErr.Pack.InvalidBitmapField, "path: " + context.path + ", field: " + (65 + Long.numberOfLeadingZeros(secondary)) + ", len: 8");
+        if (this.len == 16)
+            primary |= Long.MIN_VALUE;
+        
+        int start = s.size();
+        this.export(primary, s);
+        if (this.len == 16)
+            this.export(secondary, s);
+        s.patch(slot, len, start);
+    }
+    
+    /**
+     * 输出8个字节的位图
+     */
+    private void export(long bitmap, KyouByteOutputStream s) {
+        if (!this.hex) {
+            s.writeInt64(bitmap, true);
+            return;
+        }
+        
+        for (int shift = 60; shift >= 0; shift -= 4)
+            s.write(this.digits[(int) (bitmap >>> shift) & 0x0F]);
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        int size = this.hex ? this.len * 2 : this.len;
+        if (buffer.remaining() < size)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + size);
+        
+        // 记下位图，之后拆包子元素时跳过没有出现的域
+        long primary = this.read(buffer);
+        long secondary = this.len == 16 ? this.read(buffer) : 0;
+        context.map(primary, secondary);
+        
+        // 位图不对应任何报文元素的值
+        return null;
+    }
+    
+    /**
+     * 读取8个字节的位图
+     */
+    private long read(ByteBuffer buffer) {
+        if (!this.hex)
+            return KyouByteUtils.readInteger(buffer, 8, true);
+        
+        int position = buffer.position();
+        long bitmap = 0;
+        for (int i = 0; i < 16; i++) {
+            int value = this.values[buffer.get() & 0xFF];
+            if (value < 0)
+                throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", form: hex");
+            bitmap = bitmap << 4 | value;
+        }
+        return bitmap;
+    }
+}
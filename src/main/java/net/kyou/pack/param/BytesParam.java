@@ -13,25 +13,241 @@
  */
 package net.kyou.pack.param;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
 import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteUtils;
 
 import org.w3c.dom.Element;
 
+/**
+ * 字节数组输出段
+ * <p>
+ * 将参数的计算结果（如m、s2b v）原样输出到流中。计算结果可能是组包字节流的一个视图，直接从中复制，不会先复制出一个副本。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>len：字节长度，可选，指定时按照align和filling补齐或截断</li>
+ * <li>align：对齐方式，可选，可选值为left、right，默认为left</li>
+ * <li>filling：补位的字节，可选，两位十六进制数，默认为00</li>
+ * </p>
+ * 
+ * @author nuclearg
+ */
 @ParamTag(name = "bytes", type = ExprType.Bytes)
 class BytesParam extends Param {
+    /**
+     * 常量 表示长度不固定
+     */
+    private static final int LEN_AUTO = 0;
+    
+    /**
+     * 该段采用的编码
+     */
+    private final Charset encoding;
+    /**
+     * 长度
+     */
+    private final int len;
+    /**
+     * 对齐方式<li>true - 左对齐</li><li>false - 右对齐</li>
+     */
+    private final boolean align;
+    /**
+     * 补位的字节
+     */
+    private final int filling;
     
+    /**
+     * 初始化一个字节数组输出段
+     */
     BytesParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
         super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <bytes len="8" align="left" filling="ff">xxx</bytes>
+         * </pre>
+         */
+        
+        this.encoding = encoding;
+        
+        // len
+        if (e.hasAttribute("len"))
+            try {
+                this.len = Integer.parseInt(e.getAttribute("len"));
+                if (this.len <= 0)
+                    throw new NumberFormatException();
+            } catch (NumberFormatException ex) {
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "len: " + e.getAttribute("len"));
+            }
+        else
+            this.len = LEN_AUTO;
+        
+        // align
+        if (!e.hasAttribute("align") || e.getAttribute("align").equals("left"))
+            this.align = true;
+        else if (e.getAttribute("align").equals("right"))
+            this.align = false;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "align: " + e.getAttribute("align"));
+        
+        // filling
+        if (e.hasAttribute("filling"))
+            try {
+                if (e.getAttribute("filling").length() != 2)
+                    throw new NumberFormatException();
+                this.filling = Integer.parseInt(e.getAttribute("filling"), 16);
+            } catch (NumberFormatException ex) {
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "filling: " + e.getAttribute("filling"));
+            }
+        else
+            this.filling = 0;
     }
     
     @Override
     protected void export(Object v, PackContext context, KyouByteOutputStream s) {
-        // TODO
+        ByteBuffer bytes = (ByteBuffer) v;
+        int count = bytes.remaining();
+        
+        if (this.len == LEN_AUTO || count == this.len) {
+            s.write(bytes);
+            return;
+        }
+        
+        // 根据对齐方式截掉多余的部分或补位，只复制需要的部分
+        int n = Math.min(count, this.len);
+        if (this.align) {
+            s.write(bytes, 0, n);
+            s.fill(this.filling, this.len - n);
+        } else if (n == this.len)
+            s.write(bytes, count - n, n);
+        else {
+            // 值可能是字节流末尾之后的视图（如m），补位会覆盖它，因此先复制下来
+            ByteBuffer part = bytes.duplicate();
+            part.position(part.position() + count - n);
+            part = KyouByteUtils.copy(part);
+            
+            s.fill(this.filling, this.len - n);
+            s.write(part);
+        }
+    }
+    
+    @Override
+    protected boolean write(Expr expr, PackContext context, KyouByteOutputStream s) {
+        if (this.len != LEN_AUTO && !this.align)
+            return false;
+        
+        // 表达式直接写入流中（如m），左对齐时再截掉多余的部分或补位
+        int start = s.size();
+        if (this.len == LEN_AUTO)
+            return expr.__write(s, this.encoding, context);
+        
+        // 截掉之前这部分字节不能被输出到目标流中
+        s.hold(start);
+        if (!expr.__write(s, this.encoding, context)) {
+            s.release(start);
+            return false;
+        }
+        
+        int count = s.size() - start;
+        if (count > this.len)
+            s.backspace(count - this.len);
+        else
+            s.fill(this.filling, this.len - count);
+        s.release(start);
+        return true;
+    }
+    
+    @Override
+    protected boolean fixed(PackContext context) {
+        return this.len != LEN_AUTO;
+    }
+    
+    @Override
+    protected String generateWrite(Expr expr, PackCodegen g) {
+        if (this.len != LEN_AUTO && !this.align)
+            return null;
+        
+        // 与write相同，表达式直接写入流中，左对齐时再截掉多余的部分或补位
+        String write = expr.__generateWrite(this.encoding, g);
+        if (write == null || this.len == LEN_AUTO)
+            return write;
+        
+        String s = g.stream();
+        StringBuilder code = new StringBuilder();
+        code.append("int start = ").append(s).append(".size();");
+        code.append(s).append(".hold(start);");
+        code.append(write);
+        code.append("int count = ").append(s).append(".size() - start;");
+        code.append("if (count > ").append(this.len).append(") ").append(s).append(".backspace(count - ").append(this.len).append(");");
+        code.append("else ").append(s).append(".fill(").append(this.filling).append(", ").append(this.len).append(" - count);");
+        code.append(s).append(".release(start);");
+        return code.toString();
+    }
+    
+    @Override
+    protected String generate(String v, PackCodegen g) {
+        String bytes = g.local("byte[]", v);
+        String s = g.stream();
+        if (this.len == LEN_AUTO)
+            return s + ".write(" + bytes + ");";
+        
+        StringBuilder code = new StringBuilder();
+        code.append("int n = Math.min(").append(bytes).append(".length, ").append(this.len).append(");");
+        if (this.align) {
+            code.append(s).append(".write(").append(bytes).append(", 0, n);");
+            code.append(s).append(".fill(").append(this.filling).append(", ").append(this.len).append(" - n);");
+        } else {
+            code.append(s).append(".fill(").append(this.filling).append(", ").append(this.len).append(" - n);");
+            code.append(s).append(".write(").append(bytes).append(", ").append(bytes).append(".length - n, n);");
+        }
+        return code.toString();
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        int start = buffer.position();
+        int end;
+        if (this.len == LEN_AUTO) {
+            // 如果表达式可以直接从缓冲区中解析自身（如m），则不必先把字节切分出来
+            if (expr.__unpack(buffer, this.encoding, context))
+                return null;
+            
+            // 否则一直延续到紧跟在后面的文本或缓冲区的末尾
+            byte[] delimiter = context.delimiter();
+            end = delimiter == null ? buffer.limit() : KyouByteUtils.indexOf(buffer, delimiter);
+            if (end < 0)
+                throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + start + ", expect: " + new String(delimiter, this.encoding));
+        } else {
+            if (buffer.remaining() < this.len)
+                throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + start + ", len: " + this.len);
+            end = start + this.len;
+        }
+        buffer.position(end);
+        
+        // 根据对齐方式去掉补位的字节，返回与缓冲区共享的视图
+        if (this.len != LEN_AUTO)
+            if (this.align)
+                while (end > start && (buffer.get(end - 1) & 0xFF) == this.filling)
+                    end--;
+            else
+                while (start < end && (buffer.get(start) & 0xFF) == this.filling)
+                    start++;
+        
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(end);
+        bytes.position(start);
+        return bytes.slice();
     }
 }
@@ -0,0 +1,165 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.IDigest;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouCharset;
+
+import org.w3c.dom.Element;
+
+/**
+ * 校验和输出段
+ * <p>
+ * 输出从编号相同的{@link ChecksumStartParam}所在的位置到该段所在的位置之间的字节的校验和，表达式为校验和的编号。算法由起始标记指定，
+ * CRC32和Adler32输出4个字节的大尾整数，LRC输出1个字节，MAC输出算法给出的全部字节。<br/>
+ * 拆包时检查报文中的校验和是否与实际的字节吻合，校验和本身不对应任何报文元素的值。
+ * </p>
+ * <p>
+ * 起始标记与该段之间不能有等待回填的字节（如子元素的长度），否则无法确定校验和。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>len：输出的字节数，可选，默认为校验和的全部字节。小于校验和的字节数时只输出前面的部分，如MAC常用的前8个字节</li>
+ * <li>form：输出形式，可选，可选值为binary、hex，默认为binary。hex按照整篇报文的编码输出两倍长度的大写十六进制字符</li>
+ * </p>
+ * 
+ * @author nuclearg
+ */
+@ParamTag(name = "checksum", type = ExprType.Integer)
+class ChecksumParam extends Param {
+    /**
+     * 十六进制字符
+     */
+    private static final String HEX = "0123456789ABCDEF";
+    
+    /**
+     * 输出的字节数，为0表示输出校验和的全部字节
+     */
+    private final int len;
+    /**
+     * 十六进制字符编码后的字节，二进制形式时为null
+     */
+    private final byte[] digits;
+    
+    /**
+     * 初始化一个校验和输出段
+     */
+    ChecksumParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
+        super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <checksum len="8" form="hex">1</checksum>
+         * </pre>
+         */
+        
+        if (e.hasAttribute("len"))
+            try {
+                this.len = Integer.parseInt(e.getAttribute("len"));
+                if (this.len <= 0)
+                    throw new NumberFormatException();
+            } catch (NumberFormatException ex) {
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "len: " + e.getAttribute("len"));
+            }
+        else
+            this.len = 0;
+        
+        if (!e.hasAttribute("form") || e.getAttribute("form").equals("binary")) {
+            this.digits = null;
+            return;
+        }
+        if (!e.getAttribute("form").equals("hex"))
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "form: " + e.getAttribute("form"));
+        
+        // 十六进制字符都必须能够查表编码为一个字节
+        KyouCharset charset = KyouCharset.of(encoding);
+        this.digits = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            int b = charset.map(HEX.charAt(i));
+            if (b < 0)
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "form: hex, encoding: " + encoding);
+            this.digits[i] = (byte) b;
+        }
+    }
+    
+    @Override
+    protected void export(Object v, PackContext context, KyouByteOutputStream s) {
+        this.export((long) (Long) v, context, s);
+    }
+    
+    @Override
+    protected void export(long v, PackContext context, KyouByteOutputStream s) {
+        if (context == null)
+            throw new KyouException(KyouErr.Pack.ChecksumUnavailable, "checksum: " + v);
+        
+        byte[] digest = this.digest(context.untap(v, s));
+        if (digest == null)
+            throw new KyouException(KyouErr.Pack.ChecksumUnavailable, "path: " + context.path + ", id: " + v + ", len: " + this.len);
+        
+        if (this.digits == null) {
+            s.write(digest);
+            return;
+        }
+        for (byte b : digest) {
+            s.write(this.digits[b >>> 4 & 0x0F]);
+            s.write(this.digits[b & 0x0F]);
+        }
+    }
+    
+    /**
+     * 取出校验和中要输出的字节
+     * 
+     * @return 要输出的字节，如果校验和的字节数不足len则为null
+     */
+    private byte[] digest(IDigest checksum) {
+        byte[] digest = checksum.digest();
+        if (this.len == 0 || this.len == digest.length)
+            return digest;
+        return this.len < digest.length ? Arrays.copyOf(digest, this.len) : null;
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        long id = expr.__evalLong(null);
+        byte[] digest = this.digest(context.untap(id, buffer));
+        if (digest == null)
+            throw new KyouException(KyouErr.Unpack.ChecksumUnavailable, "position: " + buffer.position() + ", id: " + id + ", len: " + this.len);
+        
+        int size = this.digits == null ? digest.length : digest.length * 2;
+        if (buffer.remaining() < size)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + size);
+        
+        // 直接与缓冲区中的字节比较
+        int position = buffer.position();
+        for (byte b : digest)
+            if (this.digits == null ? buffer.get() != b : buffer.get() != this.digits[b >>> 4 & 0x0F] || buffer.get() != this.digits[b & 0x0F])
+                throw new KyouException(KyouErr.Unpack.ChecksumMismatch, "position: " + position + ", id: " + id);
+        
+        // 校验和不对应任何报文元素的值
+        return null;
+    }
+}
@@ -0,0 +1,246 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.IDigest;
+import net.kyou.util.KyouByteOutputStream;
+
+import org.w3c.dom.Element;
+
+/**
+ * 校验和的起始标记
+ * <p>
+ * 从该段所在的位置开始计算校验和，直到编号相同的{@link ChecksumParam}为止，由后者在其所在的位置输出校验和。表达式为校验和的编号，在整篇报文中有效，
+ * 因此起始标记和校验和可以位于不同的元素中，如：
+ * 
+ * <pre>
+ * <style target="#"><format>%%%%</format><str>v</str><checksum-start algorithm="crc32">1</checksum-start><bytes>m</bytes><checksum>1</checksum></style>
+ * </pre>
+ * 
+ * 校验和在之后的字节写入流的过程中逐步更新，不需要在组包完毕后再遍历一遍报文，也不会为此复制字节。拆包时则直接在报文的缓冲区上计算并与报文中的校验和比较。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>algorithm：算法，可选，默认为crc32。可选值为crc32、adler32、lrc（各字节的异或），以及{@link Mac}支持的算法，如HmacSHA256</li>
+ * <li>key：MAC的密钥，十六进制字符串，使用MAC时必填</li>
+ * </p>
+ * 
+ * @author nuclearg
+ */
+@ParamTag(name = "checksum-start", type = ExprType.Integer)
+class ChecksumStartParam extends Param {
+    /**
+     * 算法
+     */
+    private final String algorithm;
+    /**
+     * MAC的密钥，不使用MAC时为null
+     */
+    private final SecretKeySpec key;
+    /**
+     * 初始化完毕的MAC，每次计算时复制一份，不使用MAC时为null
+     */
+    private final Mac mac;
+    
+    /**
+     * 初始化一个校验和的起始标记
+     */
+    ChecksumStartParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
+        super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <checksum-start algorithm="HmacSHA256" key="0123456789ABCDEF">1</checksum-start>
+         * </pre>
+         */
+        
+        this.algorithm = e.hasAttribute("algorithm") ? e.getAttribute("algorithm") : "crc32";
+        
+        if (this.algorithm.equals("crc32") || this.algorithm.equals("adler32") || this.algorithm.equals("lrc")) {
+            this.key = null;
+            this.mac = null;
+            return;
+        }
+        
+        if (!e.hasAttribute("key"))
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "algorithm: " + this.algorithm + ", key required");
+        try {
+            this.key = new SecretKeySpec(key(e.getAttribute("key")), this.algorithm);
+            this.mac = Mac.getInstance(this.algorithm);
+            this.mac.init(this.key);
+        } catch (Exception ex) {
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "algorithm: " + this.algorithm + ", " + ex);
+        }
+    }
+    
+    /**
+     * 解析十六进制字符串形式的密钥
+     */
+    private static byte[] key(String hex) {
+        // 错误信息中不包含密钥本身
+        if (hex.length() == 0 || hex.length() % 2 != 0)
+            throw new IllegalArgumentException("key length: " + hex.length());
+        
+        byte[] key = new byte[hex.length() / 2];
+        for (int i = 0; i < key.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0)
+                throw new IllegalArgumentException("key: not hex");
+            key[i] = (byte) (high << 4 | low);
+        }
+        return key;
+    }
+    
+    /**
+     * 创建一个新的校验和
+     */
+    private IDigest create() {
+        if (this.mac == null)
+            if (this.algorithm.equals("crc32"))
+                return new IntDigest(new CRC32());
+            else if (this.algorithm.equals("adler32"))
+                return new IntDigest(new Adler32());
+            else
+                return new LrcDigest();
+        
+        // 复制初始化完毕的MAC比重新初始化要快，不支持复制的实现才重新初始化
+        try {
+            return new MacDigest((Mac) this.mac.clone());
+        } catch (CloneNotSupportedException ex) {
+            try {
+                Mac mac = Mac.getInstance(this.algorithm);
+                mac.init(this.key);
+                return new MacDigest(mac);
+            } catch (Exception e) {
+                throw new KyouException(KyouErr.Pack.ChecksumUnavailable, "algorithm: " + this.algorithm, e);
+            }
+        }
+    }
+    
+    @Override
+    protected void export(Object v, PackContext context, KyouByteOutputStream s) {
+        this.export((long) (Long) v, context, s);
+    }
+    
+    @Override
+    protected void export(long v, PackContext context, KyouByteOutputStream s) {
+        if (context == null)
+            throw new KyouException(KyouErr.Pack.ChecksumUnavailable, "checksum-start: " + v);
+        
+        // 不输出任何字节，只是从这里开始计算校验和
+        context.tap(v, s, this.create());
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        context.tap(expr.__evalLong(null), buffer, this.create());
+        return null;
+    }
+    
+    /**
+     * 结果为4个字节大尾整数的校验和，如CRC32
+     */
+    private static class IntDigest implements IDigest {
+        private final Checksum checksum;
+        
+        IntDigest(Checksum checksum) {
+            this.checksum = checksum;
+        }
+        
+        @Override
+        public void update(byte[] b, int off, int len) {
+            this.checksum.update(b, off, len);
+        }
+        
+        @Override
+        public void reset() {
+            this.checksum.reset();
+        }
+        
+        @Override
+        public byte[] digest() {
+            long v = this.checksum.getValue();
+            return new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v };
+        }
+    }
+    
+    /**
+     * LRC，即各个字节的异或，结果为1个字节
+     */
+    private static class LrcDigest implements IDigest {
+        private int lrc;
+        
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int lrc = this.lrc;
+            for (int i = off; i < off + len; i++)
+                lrc ^= b[i];
+            this.lrc = lrc & 0xFF;
+        }
+        
+        @Override
+        public void reset() {
+            this.lrc = 0;
+        }
+        
+        @Override
+        public byte[] digest() {
+            return new byte[] { (byte) this.lrc };
+        }
+    }
+    
+    /**
+     * 包装{@link Mac}的校验和
+     */
+    private static class MacDigest implements IDigest {
+        private final Mac mac;
+        
+        MacDigest(Mac mac) {
+            this.mac = mac;
+        }
+        
+        @Override
+        public void update(byte[] b, int off, int len) {
+            this.mac.update(b, off, len);
+        }
+        
+        @Override
+        public void reset() {
+            this.mac.reset();
+        }
+        
+        @Override
+        public byte[] digest() {
+            return this.mac.doFinal();
+        }
+    }
+}
@@ -13,36 +13,126 @@
  */
 package net.kyou.pack.param;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
 import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteUtils;
 
 import org.w3c.dom.Element;
 
 /**
  * 浮点数输出段
  * <p>
- * 将参数的计算结果以IEEE浮点数方式输出到流中
+ * 将参数的计算结果以IEEE浮点数方式输出到流中。参数的计算结果可以是整数，也可以是表示浮点数的字符串。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>len：字节长度，可选，可选值为4、8，默认为8</li>
+ * <li>endian：字节序，可选，可选值为big、small，默认值为small</li>
  * </p>
  * 
  * @author nuclearg
  */
-@ParamTag(name = "float", type = ExprType.String)
+@ParamTag(name = "float", type = ExprType.Irrelevant)
 class FloatParam extends Param {
+    /**
+     * 输出数据的字节数
+     */
+    private final int len;
+    /**
+     * endian方式<li>true - 大尾</li><li>false - 小尾</li>
+     */
+    private final boolean endian;
     
     /**
      * 初始化一个浮点数输出段
      */
     FloatParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
         super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <float len="4" endian="big">xxx</float>
+         * </pre>
+         */
+        
+        if (!e.hasAttribute("len") || e.getAttribute("len").equals("8"))
+            this.len = 8;
+        else if (e.getAttribute("len").equals("4"))
+            this.len = 4;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "len: " + e.getAttribute("len") + " expect: 4 | 8");
+        
+        this.endian = "big".equalsIgnoreCase(e.getAttribute("endian"));
     }
     
     @Override
     protected void export(Object v, PackContext context, KyouByteOutputStream s) {
-        // TODO
+        if (v instanceof Number) {
+            this.export(((Number) v).longValue(), context, s);
+            return;
+        }
+        
+        double value;
+        try {
+            value = Double.parseDouble((String) v);
+        } catch (NumberFormatException ex) {
+            throw new KyouException(KyouErr.Pack.ParseStringToFloatFail, "value: " + v, ex);
+        }
+        this.export(value, s);
+    }
+    
+    @Override
+    protected void export(long num, PackContext context, KyouByteOutputStream s) {
+        this.export((double) num, s);
+    }
+    
+    /**
+     * 将浮点数按照字节序直接写到流中，不需要先生成字节数组
+     */
+    private void export(double value, KyouByteOutputStream s) {
+        if (this.len == 4)
+            s.writeFloat((float) value, this.endian);
+        else
+            s.writeDouble(value, this.endian);
+    }
+    
+    @Override
+    protected boolean fixed(PackContext context) {
+        return true;
+    }
+    
+    @Override
+    protected String generate(String v, PackCodegen g) {
+        // 字符串解析失败时需要抛出KyouException，退化为解释执行
+        if (this.type != ExprType.Integer)
+            return null;
+        
+        if (this.len == 4)
+            return g.stream() + ".writeFloat((float) " + v + ", " + this.endian + ");";
+        return g.stream() + ".writeDouble((double) " + v + ", " + this.endian + ");";
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        if (buffer.remaining() < this.len)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + this.len);
+        
+        long bits = KyouByteUtils.readInteger(buffer, this.len, this.endian);
+        double value = this.len == 4 ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+        
+        if (this.type == ExprType.Integer)
+            return (long) value;
+        return this.len == 4 ? Float.toString((float) value) : Double.toString(value);
     }
 }
@@ -13,12 +13,16 @@
  */
 package net.kyou.pack.param;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
 import net.kyou.util.KyouByteOutputStream;
@@ -87,26 +91,55 @@ class IntegerParam extends Param {
     
     @Override
     protected void export(Object v, PackContext context, KyouByteOutputStream s) {
-        long num = (Long) v;
-        
-        // 将num写到流中
+        this.export(((Number) v).longValue(), context, s);
+    }
+    
+    @Override
+    protected void export(long num, PackContext context, KyouByteOutputStream s) {
+        // 按照字节序直接写到流中，不需要先生成字节数组
         switch (this.len) {
             case 1:
-                s.write(KyouByteUtils.writeInteger8(num));
+                s.write((int) num);
                 break;
             case 2:
-                s.write(KyouByteUtils.writeInteger16(num, this.endian));
+                s.writeInt16(num, this.endian);
                 break;
             case 4:
-                s.write(KyouByteUtils.writeInteger32(num, this.endian));
+                s.writeInt32(num, this.endian);
                 break;
             case 8:
-                s.write(KyouByteUtils.writeInteger64(num, this.endian));
+                s.writeInt64(num, this.endian);
                 break;
             default:
                 throw new KyouException(KyouErr.Unexpected, "len=" + this.len);
         }
         
-        logger.debug("integer writted. value: " + v);
+        logger.debug("integer writted. value: " + num);
+    }
+    
+    @Override
+    protected boolean fixed(PackContext context) {
+        return true;
+    }
+    
+    @Override
+    protected String generate(String v, PackCodegen g) {
+        String num = g.local("long", v);
+        
+        // 按照字节序直接写到流中
+        if (this.len == 1)
+            return g.stream() + ".write((int) " + num + ");";
+        return g.stream() + ".writeInt" + this.len * 8 + "(" + num + ", " + this.endian + ");";
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        if (buffer.remaining() < this.len)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + this.len);
+        
+        long num = KyouByteUtils.readInteger(buffer, this.len, this.endian);
+        
+        logger.debug("integer read. value: " + num);
+        return num;
     }
 }
@@ -0,0 +1,41 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.charset.Charset;
+
+import net.kyou.pack.StyleItem;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+
+import org.w3c.dom.Element;
+
+/**
+ * 三位长度的变长域输出段
+ * <p>
+ * 按照ISO 8583的LLLVAR方式，先输出三位十进制数字表示的长度，再输出参数的计算结果。参数与{@link LlvarParam}相同。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+@ParamTag(name = "lllvar", type = ExprType.Irrelevant)
+class LllvarParam extends LlvarParam {
+    
+    /**
+     * 初始化一个三位长度的变长域输出段
+     */
+    LllvarParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
+        super(e, encoding, style, exprFactory, 3);
+    }
+}
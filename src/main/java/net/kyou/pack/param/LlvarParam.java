@@ -0,0 +1,367 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteUtils;
+import net.kyou.util.KyouCharset;
+
+import org.w3c.dom.Element;
+
+/**
+ * 两位长度的变长域输出段
+ * <p>
+ * 按照ISO 8583的LLVAR方式，先输出两位十进制数字表示的长度，再输出参数的计算结果。值只编码一次，直接写入流中：先在流中预留长度前缀的字节，
+ * 写完值之后再根据实际写入的字节数回填长度前缀，同时检查是否超出了最大长度。三位长度的LLLVAR见{@link LllvarParam}。
+ * </p>
+ * <p>
+ * 参数的计算结果可以是字符串、字节数组或整数，长度按照值输出的字节数计算。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>prefix：长度前缀的形式，可选，可选值为ascii、bcd、binary，默认为ascii。ascii输出编码后的十进制数字；bcd输出压缩BCD码，binary输出大尾的二进制整数，
+ * 这两种形式的长度前缀在LLVAR中占1个字节，在LLLVAR中占2个字节</li>
+ * <li>max：值的最大字节数，可选，默认为长度前缀能够表示的最大值，即LLVAR为99，LLLVAR为999</li>
+ * <li>encoding：字符串和长度前缀的编码，可选，默认为整篇报文的编码</li>
+ * </p>
+ * 
+ * @author nuclearg
+ */
+@ParamTag(name = "llvar", type = ExprType.Irrelevant)
+class LlvarParam extends Param {
+    /**
+     * 常量 长度前缀为编码后的十进制数字
+     */
+    private static final int PREFIX_ASCII = 0;
+    /**
+     * 常量 长度前缀为压缩BCD码
+     */
+    private static final int PREFIX_BCD = 1;
+    /**
+     * 常量 长度前缀为大尾的二进制整数
+     */
+    private static final int PREFIX_BINARY = 2;
+    
+    /**
+     * 该段采用的编码
+     */
+    private final Charset encoding;
+    /**
+     * 该段采用的编码对应的查表编码的字符集
+     */
+    private final KyouCharset charset;
+    /**
+     * 长度前缀的形式
+     */
+    private final int prefix;
+    /**
+     * 长度前缀的字节数
+     */
+    private final int width;
+    /**
+     * 值的最大字节数
+     */
+    private final int max;
+    /**
+     * 0~9这10个数字编码后的字节，仅在长度前缀为ascii时使用
+     */
+    private final byte[] digits;
+    /**
+     * 从字节到数字的对照表，不是数字的字节为-1，仅在长度前缀为ascii时使用
+     */
+    private final byte[] values;
+    
+    /**
+     * 初始化一个两位长度的变长域输出段
+     */
+    LlvarParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
+        this(e, encoding, style, exprFactory, 2);
+    }
+    
+    /**
+     * 初始化一个变长域输出段
+     * 
+     * @param digits
+     *            长度的十进制位数，2或3
+     */
+    LlvarParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory, int digits) {
+        super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <llvar prefix="bcd" max="19">xxx</llvar>
+         * </pre>
+         */
+        
+        // encoding
+        if (e.hasAttribute("encoding"))
+            try {
+                this.encoding = Charset.forName(e.getAttribute("encoding"));
+            } catch (Exception ex) {
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "encoding: " + e.getAttribute("encoding"));
+            }
+        else
+            this.encoding = encoding;
+        this.charset = KyouCharset.of(this.encoding);
+        
+        // prefix
+        if (!e.hasAttribute("prefix") || e.getAttribute("prefix").equals("ascii"))
+            this.prefix = PREFIX_ASCII;
+        else if (e.getAttribute("prefix").equals("bcd"))
+            this.prefix = PREFIX_BCD;
+        else if (e.getAttribute("prefix").equals("binary"))
+            this.prefix = PREFIX_BINARY;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "prefix: " + e.getAttribute("prefix"));
+        this.width = this.prefix == PREFIX_ASCII ? digits : (digits + 1) / 2;
+        
+        // max
+        int limit = digits == 2 ? 99 : 999;
+        if (e.hasAttribute("max"))
+            try {
+                this.max = Integer.parseInt(e.getAttribute("max"));
+                if (this.max <= 0 || this.max > limit)
+                    throw new NumberFormatException();
+            } catch (NumberFormatException ex) {
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "max: " + e.getAttribute("max") + ", limit: " + limit);
+            }
+        else
+            this.max = limit;
+        
+        if (this.prefix != PREFIX_ASCII) {
+            this.digits = null;
+            this.values = null;
+            return;
+        }
+        
+        // 数字都必须能够查表编码为一个字节
+        this.digits = new byte[10];
+        this.values = new byte[256];
+        Arrays.fill(this.values, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            int b = this.charset.map((char) ('0' + i));
+            if (b < 0)
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "digit: " + i + ", encoding: " + this.encoding);
+            this.digits[i] = (byte) b;
+            this.values[b] = (byte) i;
+        }
+    }
+    
+    @Override
+    protected boolean write(Expr expr, PackContext context, KyouByteOutputStream s) {
+        // 先预留长度前缀，值直接写在其后，写完后回填。表达式可以直接写入流中时（如m）不必先计算出结果
+        int slot = s.reserve(this.width);
+        if (!expr.__write(s, this.encoding, context))
+            switch (this.type) {
+                case Integer:
+                    this.value(Long.toString(expr.__evalLong(context)), s);
+                    break;
+                case String:
+                    this.value(expr.__evalString(context), s);
+                    break;
+                case Bytes:
+                    s.write(expr.__evalBytes(context));
+                    break;
+                default:
+                    this.value(expr.__eval(context), s);
+            }
+        
+        this.prefix(slot, s);
+        return true;
+    }
+    
+    @Override
+    protected void export(Object v, PackContext context, KyouByteOutputStream s) {
+        int slot = s.reserve(this.width);
+        this.value(v, s);
+        this.prefix(slot, s);
+    }
+    
+    /**
+     * 将值写到流里，字符串只编码一次
+     */
+    private void value(Object v, KyouByteOutputStream s) {
+        if (v instanceof ByteBuffer) {
+            s.write((ByteBuffer) v);
+            return;
+        }
+        
+        String str = v instanceof String ? (String) v : String.valueOf(v);
+        int i = s.writeChars(str, 0, str.length(), this.charset);
+        if (i < str.length())
+            s.write(str, i, str.length(), this.encoding);
+    }
+    
+    /**
+     * 根据值实际写入的字节数回填长度前缀
+     * 
+     * @param slot
+     *            预留的长度前缀的位置，值紧跟在其后
+     */
+    private void prefix(int slot, KyouByteOutputStream s) {
+        int len = s.size() - slot - this.width;
+        if (len > this.max)
+            throw new KyouException(KyouErr.Pack.ValueTooLong, "len: " + len + ", max: " + this.max);
+        
+        int start = s.size();
+        switch (this.prefix) {
+            case PREFIX_ASCII:
+                s.writeDigits(len, this.width, this.digits);
+                break;
+            case PREFIX_BCD:
+                if (this.width == 2)
+                    s.write(len / 100);
+                s.write(len / 10 % 10 << 4 | len % 10);
+                break;
+            default:
+                if (this.width == 2)
+                    s.write(len >>> 8);
+                s.write(len & 0xFF);
+        }
+        s.patch(slot, this.width, start);
+    }
+    
+    @Override
+    protected String generate(String v, PackCodegen g) {
+        String s = g.stream();
+        
+        // 与export相同，先预留长度前缀，写完值之后再回填
+        StringBuilder code = new StringBuilder();
+        switch (this.type) {
+            case Bytes:
+                String bytes = g.local("byte[]", v);
+                code.append("int r = ").append(s).append(".reserve(").append(this.width).append(");");
+                code.append(s).append(".write(").append(bytes).append(");");
+                break;
+            case String:
+            case Integer:
+                String str = g.local("String", this.type == ExprType.Integer ? "Long.toString(" + v + ")" : v);
+                code.append("int r = ").append(s).append(".reserve(").append(this.width).append(");");
+                code.append("int i = ").append(s).append(".writeChars(").append(str).append(", 0, ").append(str).append(".length(), ").append(g.constant(this.charset, KyouCharset.class)).append(");");
+                code.append("if (i < ").append(str).append(".length()) ").append(s).append(".write(").append(str).append(", i, ").append(str).append(".length(), ").append(g.constant(this.encoding, Charset.class)).append(");");
+                break;
+            default:
+                return null;
+        }
+        return code.append(this.generatePrefix(g)).toString();
+    }
+    
+    @Override
+    protected String generateWrite(Expr expr, PackCodegen g) {
+        // 与write相同，表达式直接写在预留的长度前缀之后
+        String write = expr.__generateWrite(this.encoding, g);
+        if (write == null)
+            return null;
+        
+        StringBuilder code = new StringBuilder();
+        code.append("int r = ").append(g.stream()).append(".reserve(").append(this.width).append(");");
+        code.append(write);
+        return code.append(this.generatePrefix(g)).toString();
+    }
+    
+    /**
+     * 生成根据值实际写入的字节数回填长度前缀的代码，长度前缀预留在r处
+     */
+    private String generatePrefix(PackCodegen g) {
+        String s = g.stream();
+        
+        StringBuilder code = new StringBuilder();
+        code.append("int n = ").append(s).append(".size() - r - ").append(this.width).append(";");
+        code.append("if (n > ").append(this.max).append(") throw new ").append(KyouException.class.getName()).append("(").append(KyouErr.class.getName()).append(".Pack.ValueTooLong, \"len: \" + n + \", max: ").append(this.max).append("\");");
+        code.append("int t = ").append(s).append(".size();");
+        switch (this.prefix) {
+            case PREFIX_ASCII:
+                code.append(s).append(".writeDigits(n, ").append(this.width).append(", ").append(g.constant(this.digits, byte[].class)).append(");");
+                break;
+            case PREFIX_BCD:
+                if (this.width == 2)
+                    code.append(s).append(".write(n / 100);");
+                code.append(s).append(".write(n / 10 % 10 << 4 | n % 10);");
+                break;
+            default:
+                if (this.width == 2)
+                    code.append(s).append(".write(n >>> 8);");
+                code.append(s).append(".write(n & 0xFF);");
+        }
+        code.append(s).append(".patch(r, ").append(this.width).append(", t);");
+        return code.toString();
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        int position = buffer.position();
+        if (buffer.remaining() < this.width)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + position + ", len: " + this.width);
+        
+        // 解析长度前缀
+        int len = 0;
+        switch (this.prefix) {
+            case PREFIX_ASCII:
+                for (int i = 0; i < this.width; i++) {
+                    int digit = this.values[buffer.get() & 0xFF];
+                    if (digit < 0)
+                        throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", prefix: ascii");
+                    len = len * 10 + digit;
+                }
+                break;
+            case PREFIX_BCD:
+                for (int i = 0; i < this.width; i++) {
+                    int b = buffer.get() & 0xFF;
+                    if (b >>> 4 > 9 || (b & 0x0F) > 9)
+                        throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", prefix: bcd");
+                    len = len * 100 + (b >>> 4) * 10 + (b & 0x0F);
+                }
+                break;
+            default:
+                len = (int) KyouByteUtils.readInteger(buffer, this.width, true);
+        }
+        
+        if (len > this.max)
+            throw new KyouException(KyouErr.Unpack.ValueTooLong, "position: " + position + ", len: " + len + ", max: " + this.max);
+        if (buffer.remaining() < len)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + len);
+        
+        int end = buffer.position() + len;
+        if (this.type == ExprType.Bytes) {
+            // 返回与缓冲区共享的视图，如m会在其中拆包子元素
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.limit(end);
+            buffer.position(end);
+            return bytes.slice();
+        }
+        
+        String str = KyouByteUtils.readString(buffer, end, this.encoding);
+        if (this.type != ExprType.Integer)
+            return str;
+        
+        try {
+            return Long.parseLong(str);
+        } catch (NumberFormatException ex) {
+            throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", value: " + str);
+        }
+    }
+}
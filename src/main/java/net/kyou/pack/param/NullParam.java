@@ -13,10 +13,13 @@
  */
 package net.kyou.pack.param;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.pack.PackContext;
 import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
 import net.kyou.util.KyouByteOutputStream;
@@ -52,4 +55,10 @@ class NullParam extends Param {
         
         logger.debug("null writted. value: " + v);
     }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        // 不占用任何字节，也没有可以反向赋值的结果
+        return null;
+    }
 }
@@ -0,0 +1,360 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouCharset;
+
+import org.w3c.dom.Element;
+
+/**
+ * 十进制数字输出段
+ * <p>
+ * 将整数或十进制小数字符串以定长的十进制数字形式输出到流中，左边补0，如金额000000012345。数字直接写入流中，不生成中间的字符串。
+ * </p>
+ * <p>
+ * 参数：
+ * <li>len：输出的字符数（包括符号），必选</li>
+ * <li>scale：隐含的小数位数，可选，默认为0。整数视为已经乘过10<sup>scale</sup>，字符串按照小数点的位置换算，如scale为2时12.3输出为1230</li>
+ * <li>sign：符号，可选，可选值为none、lead、trail，默认为none。lead和trail在数字的前面或后面输出+或-，none不输出符号且不接受负数</li>
+ * <li>overflow：超出len时的处理方式，可选，可选值为error、truncate，默认为error。truncate只保留最低的几位数字</li>
+ * <li>encoding：数字和符号的编码，可选，默认为整篇报文的编码，数字和符号都必须编码为一个字节</li>
+ * </p>
+ * 
+ * @author nuclearg
+ */
+@ParamTag(name = "num", type = ExprType.Irrelevant)
+class NumericParam extends Param {
+    /**
+     * 常量 不输出符号
+     */
+    private static final int SIGN_NONE = 0;
+    /**
+     * 常量 在数字的前面输出符号
+     */
+    private static final int SIGN_LEAD = 1;
+    /**
+     * 常量 在数字的后面输出符号
+     */
+    private static final int SIGN_TRAIL = 2;
+    
+    /**
+     * 输出的字符数
+     */
+    private final int len;
+    /**
+     * 隐含的小数位数
+     */
+    private final int scale;
+    /**
+     * 符号的位置
+     */
+    private final int sign;
+    /**
+     * 超出len时的处理方式<li>true - 截断</li><li>false - 报错</li>
+     */
+    private final boolean truncate;
+    /**
+     * 数字的位数
+     */
+    private final int width;
+    /**
+     * 能够输出的最大的绝对值，如果任何整数都能输出（位数不少于19）则为0
+     */
+    private final long max;
+    /**
+     * 0~9这10个数字编码后的字节
+     */
+    private final byte[] digits;
+    /**
+     * 从字节到数字的对照表，不是数字的字节为-1
+     */
+    private final byte[] values;
+    /**
+     * 正号编码后的字节
+     */
+    private final int plus;
+    /**
+     * 负号编码后的字节
+     */
+    private final int minus;
+    
+    /**
+     * 初始化一个十进制数字输出段
+     */
+    NumericParam(Element e, Charset encoding, StyleItem style, ExprFactory exprFactory) {
+        super(e, encoding, style, exprFactory);
+        
+        /**
+         * <pre>
+         * <num len="12" scale="2" sign="lead" overflow="error">xxx</num>
+         * </pre>
+         */
+        
+        // encoding
+        if (e.hasAttribute("encoding"))
+            try {
+                encoding = Charset.forName(e.getAttribute("encoding"));
+            } catch (Exception ex) {
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "encoding: " + e.getAttribute("encoding"));
+            }
+        
+        // sign
+        if (!e.hasAttribute("sign") || e.getAttribute("sign").equals("none"))
+            this.sign = SIGN_NONE;
+        else if (e.getAttribute("sign").equals("lead"))
+            this.sign = SIGN_LEAD;
+        else if (e.getAttribute("sign").equals("trail"))
+            this.sign = SIGN_TRAIL;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "sign: " + e.getAttribute("sign"));
+        
+        // len
+        try {
+            this.len = Integer.parseInt(e.getAttribute("len"));
+            if (this.len <= (this.sign == SIGN_NONE ? 0 : 1))
+                throw new NumberFormatException();
+        } catch (NumberFormatException ex) {
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "len: " + e.getAttribute("len"));
+        }
+        
+        // scale
+        if (e.hasAttribute("scale"))
+            try {
+                this.scale = Integer.parseInt(e.getAttribute("scale"));
+                if (this.scale < 0 || this.scale > 18)
+                    throw new NumberFormatException();
+            } catch (NumberFormatException ex) {
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "scale: " + e.getAttribute("scale"));
+            }
+        else
+            this.scale = 0;
+        
+        // overflow
+        if (!e.hasAttribute("overflow") || e.getAttribute("overflow").equals("error"))
+            this.truncate = false;
+        else if (e.getAttribute("overflow").equals("truncate"))
+            this.truncate = true;
+        else
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "overflow: " + e.getAttribute("overflow"));
+        
+        this.width = this.sign == SIGN_NONE ? this.len : this.len - 1;
+        long max = 0;
+        for (int i = 0; i < this.width && this.width < 19; i++)
+            max = max * 10 + 9;
+        this.max = max;
+        
+        // 数字和符号都必须能够查表编码为一个字节
+        KyouCharset charset = KyouCharset.of(encoding);
+        this.digits = new byte[10];
+        this.values = new byte[256];
+        Arrays.fill(this.values, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            int b = charset.map((char) ('0' + i));
+            if (b < 0)
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "digit: " + i + ", encoding: " + encoding);
+            this.digits[i] = (byte) b;
+            this.values[b] = (byte) i;
+        }
+        this.plus = charset.map('+');
+        this.minus = charset.map('-');
+        if (this.sign != SIGN_NONE && (this.plus < 0 || this.minus < 0))
+            throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "sign: " + e.getAttribute("sign") + ", encoding: " + encoding);
+    }
+    
+    @Override
+    protected void export(Object v, PackContext context, KyouByteOutputStream s) {
+        if (v instanceof Number)
+            this.export(((Number) v).longValue(), context, s);
+        else
+            this.export(this.parse((String) v), context, s);
+    }
+    
+    @Override
+    protected void export(long num, PackContext context, KyouByteOutputStream s) {
+        if (num < 0 && this.sign == SIGN_NONE || !this.truncate && this.max > 0 && (num > this.max || num < -this.max))
+            throw new KyouException(KyouErr.Pack.NumberOutOfRange, "value: " + num + ", len: " + this.len + (this.sign == SIGN_NONE ? "" : ", signed"));
+        
+        if (this.sign == SIGN_LEAD)
+            s.write(num < 0 ? this.minus : this.plus);
+        s.writeDigits(num, this.width, this.digits);
+        if (this.sign == SIGN_TRAIL)
+            s.write(num < 0 ? this.minus : this.plus);
+    }
+    
+    /**
+     * 将十进制小数字符串按照scale换算为整数
+     * <p>
+     * 逐个字符累加，不生成中间的BigDecimal或字符串。超出scale的小数位只能是0。
+     * </p>
+     */
+    private long parse(String str) {
+        int i = 0;
+        boolean negative = false;
+        if (str.length() > 0 && (str.charAt(0) == '+' || str.charAt(0) == '-')) {
+            negative = str.charAt(0) == '-';
+            i++;
+        }
+        
+        // 按照负数累加，以免Long.MIN_VALUE溢出
+        long num = 0;
+        int count = 0;
+        int fraction = -1;
+        for (; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+                continue;
+            }
+            if (c < '0' || c > '9')
+                throw new KyouException(KyouErr.Pack.ParseStringToIntFail, "value: " + str);
+            
+            count++;
+            if (fraction >= 0 && ++fraction > this.scale) {
+                if (c != '0')
+                    throw new KyouException(KyouErr.Pack.ParseStringToIntFail, "value: " + str + ", scale: " + this.scale);
+                continue;
+            }
+            num = this.shift(num, c - '0', str);
+        }
+        if (count == 0)
+            throw new KyouException(KyouErr.Pack.ParseStringToIntFail, "value: " + str);
+        
+        // 补足小数位
+        for (int f = Math.max(fraction, 0); f < this.scale; f++)
+            num = this.shift(num, 0, str);
+        
+        if (negative)
+            return num;
+        if (num == Long.MIN_VALUE)
+            throw new KyouException(KyouErr.Pack.ParseStringToIntFail, "value: " + str);
+        return -num;
+    }
+    
+    /**
+     * 在按照负数累加的整数后面追加一位数字
+     */
+    private long shift(long num, int digit, String str) {
+        if (num < Long.MIN_VALUE / 10 || num * 10 < Long.MIN_VALUE + digit)
+            throw new KyouException(KyouErr.Pack.ParseStringToIntFail, "value: " + str);
+        return num * 10 - digit;
+    }
+    
+    @Override
+    protected boolean fixed(PackContext context) {
+        return true;
+    }
+    
+    @Override
+    protected String generate(String v, PackCodegen g) {
+        // 字符串需要按照scale换算，退化为解释执行
+        if (this.type != ExprType.Integer)
+            return null;
+        
+        String num = g.local("long", v);
+        String s = g.stream();
+        
+        // 与export相同的范围检查
+        boolean range = !this.truncate && this.max > 0;
+        StringBuilder code = new StringBuilder();
+        if (this.sign == SIGN_NONE || range) {
+            code.append("if (");
+            if (this.sign == SIGN_NONE)
+                code.append(num).append(" < 0").append(range ? " || " : "");
+            if (range)
+                code.append(num).append(" > ").append(this.max).append("L || ").append(num).append(" < -").append(this.max).append("L");
+            code.append(") throw new net.kyou.exception.KyouException(net.kyou.exception.KyouErr.Pack.NumberOutOfRange, \"value: \" + ").append(num);
+            code.append(" + \", len: ").append(this.len).append(this.sign == SIGN_NONE ? "" : ", signed").append("\");");
+        }
+        
+        String sign = s + ".write(" + num + " < 0 ? " + this.minus + " : " + this.plus + ");";
+        if (this.sign == SIGN_LEAD)
+            code.append(sign);
+        code.append(s).append(".writeDigits(").append(num).append(", ").append(this.width).append(", ").append(g.constant(this.digits, byte[].class)).append(");");
+        if (this.sign == SIGN_TRAIL)
+            code.append(sign);
+        return code.toString();
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        if (buffer.remaining() < this.len)
+            throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + this.len);
+        
+        int position = buffer.position();
+        boolean negative = false;
+        if (this.sign == SIGN_LEAD)
+            negative = this.sign(buffer.get(), position);
+        
+        // 按照负数累加，以免Long.MIN_VALUE溢出
+        long num = 0;
+        for (int i = 0; i < this.width; i++) {
+            int digit = this.values[buffer.get() & 0xFF];
+            if (digit < 0 || num < Long.MIN_VALUE / 10 || num * 10 < Long.MIN_VALUE + digit)
+                throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", len: " + this.len);
+            num = num * 10 - digit;
+        }
+        
+        if (this.sign == SIGN_TRAIL)
+            negative = this.sign(buffer.get(), position);
+        if (!negative) {
+            if (num == Long.MIN_VALUE)
+                throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", len: " + this.len);
+            num = -num;
+        }
+        
+        if (this.type != ExprType.String)
+            return num;
+        
+        // 字符串按照scale还原出小数点
+        String str = Long.toString(num);
+        if (this.scale == 0)
+            return str;
+        
+        StringBuilder buff = new StringBuilder(str.length() + this.scale + 2);
+        int start = num < 0 ? 1 : 0;
+        buff.append(str, 0, start);
+        for (int i = str.length() - start; i <= this.scale; i++)
+            buff.append('0');
+        buff.append(str, start, str.length());
+        buff.insert(buff.length() - this.scale, '.');
+        return buff.toString();
+    }
+    
+    /**
+     * 解析符号
+     * 
+     * @return 是否为负数
+     */
+    private boolean sign(byte b, int position) {
+        if ((b & 0xFF) == this.minus)
+            return true;
+        if ((b & 0xFF) == this.plus)
+            return false;
+        throw new KyouException(KyouErr.Unpack.ParseIntFail, "position: " + position + ", sign: " + (b & 0xFF));
+    }
+}
@@ -13,12 +13,15 @@
  */
 package net.kyou.pack.param;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.pack.param.expr.ExprTag;
@@ -41,6 +44,10 @@ public abstract class Param {
      * 本参数的表达式
      */
     private final Expr expr;
+    /**
+     * 本参数的表达式的计算结果类型，用于选择不需要装箱的计算方式
+     */
+    final ExprType type;
     
     /**
      * 初始化一个参数
@@ -66,10 +73,16 @@ public abstract class Param {
         
         if (expect != ExprType.Irrelevant && type != expect)
             throw new KyouException(KyouErr.StyleSpec.Expr.InvalidExprResultType, "expr:" + expr + ", type: " + type + ", requires: " + expect);
+        
+        this.type = type;
     }
     
     /**
      * 将参数的结果输出到流中
+     * <p>
+     * 结果的类型与表达式声明的类型一致：Integer为Long，String为String，Bytes为{@link java.nio.ByteBuffer}。<br/>
+     * Bytes类型的结果可能是s末尾之后的字节的视图（如m），向s写入任何字节都可能覆盖它，因此必须先读取结果再写入，或者先复制下来。
+     * </p>
      * 
      * @param v
      *            参数的计算结果
@@ -78,7 +91,214 @@ public abstract class Param {
      */
     protected abstract void export(Object v, PackContext context, KyouByteOutputStream s);
     
+    /**
+     * 将整数类型的参数的结果输出到流中
+     * <p>
+     * 默认将结果装箱后交给{@link #export(Object, PackContext, KyouByteOutputStream)}，接受整数的参数可以重写此方法以避免装箱。
+     * </p>
+     * 
+     * @param v
+     *            参数的计算结果
+     * @param context
+     *            组包上下文
+     */
+    protected void export(long v, PackContext context, KyouByteOutputStream s) {
+        this.export(Long.valueOf(v), context, s);
+    }
+    
     public void export(PackContext context, KyouByteOutputStream s) {
-        this.export(this.expr.__eval(context), context, s);
+        if (this.write(this.expr, context, s))
+            return;
+        if (this.measure(context, s))
+            return;
+        
+        // 按照表达式声明的类型计算，整数不需要装箱，管道表达式之间也不需要经过中间的字符串或包装类
+        switch (this.type) {
+            case Integer:
+                this.export(this.expr.__evalLong(context), context, s);
+                break;
+            case String:
+                this.export(this.expr.__evalString(context), context, s);
+                break;
+            case Bytes:
+                this.export(this.expr.__evalBytes(context), context, s);
+                break;
+            default:
+                this.export(this.expr.__eval(context), context, s);
+        }
+    }
+    
+    /**
+     * 判断该参数输出的字节数是否固定，与参数的值无关
+     * <p>
+     * 只有输出的字节数固定的参数才可以先写入占位的字节，之后再回填。默认为false，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param context
+     * @return 输出的字节数是否固定
+     */
+    protected boolean fixed(PackContext context) {
+        return false;
+    }
+    
+    /**
+     * 回填该参数的值
+     * 
+     * @param length
+     *            当前元素的子元素组包出来的字节数
+     * @param context
+     * @param s
+     *            参数所在的字节流
+     * @param slot
+     *            占位的字节在流中的位置
+     * @param len
+     *            占位的字节数
+     */
+    public void patch(long length, PackContext context, KyouByteOutputStream s, int slot, int len) {
+        // 先把实际的值输出到流的末尾，再移到占位的位置
+        int start = s.size();
+        this.export(this.expr.__measure(length, context), context, s);
+        s.patch(slot, len, start);
+    }
+    
+    /**
+     * 如果参数的值只取决于子元素组包出来的字节数，则直接使用已知的字节数，或先写入占位的字节，待子元素组包完毕后再回填
+     */
+    private boolean measure(PackContext context, KyouByteOutputStream s) {
+        if (context == null)
+            return false;
+        
+        // 子元素已经组包过，直接使用其长度
+        if (context.length() >= 0) {
+            Object v = this.expr.__measure(context.length(), context);
+            if (v == null)
+                return false;
+            
+            this.export(v, context, s);
+            return true;
+        }
+        
+        if (!this.fixed(context))
+            return false;
+        
+        Object placeholder = this.expr.__measure(0, context);
+        if (placeholder == null)
+            return false;
+        
+        int slot = s.size();
+        this.export(placeholder, context, s);
+        context.defer(this, s, slot, s.size() - slot);
+        return true;
+    }
+    
+    /**
+     * 尝试让表达式直接将结果写入流中，而不必先计算出表达式的结果
+     * <p>
+     * 默认不支持，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param expr
+     *            本参数的表达式
+     * @param context
+     * @param s
+     * @return 是否已写入。如果返回false则会计算表达式的结果并调用{@link #export(Object, PackContext, KyouByteOutputStream)}
+     */
+    protected boolean write(Expr expr, PackContext context, KyouByteOutputStream s) {
+        return false;
+    }
+    
+    /**
+     * 判断该参数是否需要参与当前元素的子元素的遍历过程
+     * <p>
+     * 参与遍历的参数（如iso8583-bitmap）需要在遍历子元素时记录信息，而生成的代码会直接遍历子元素，因此使用了这种参数的报文元素在生成的代码中会整体退化为解释执行。
+     * 默认为false，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @return 是否参与子元素的遍历过程
+     */
+    public boolean __traverse() {
+        return false;
+    }
+    
+    /**
+     * 生成将参数的结果输出到流中的代码
+     * <p>
+     * 默认不支持代码生成，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param v
+     *            计算表达式的代码，其类型与参数期望的表达式类型一致（Integer为long，String为String，Bytes为byte[]）
+     * @param g
+     *            组包代码生成器
+     * @return 生成的语句。如果不支持代码生成则返回null
+     */
+    protected String generate(String v, PackCodegen g) {
+        return null;
+    }
+    
+    /**
+     * 生成让表达式直接将结果写入流中的代码
+     * <p>
+     * 与{@link #write(Expr, PackContext, KyouByteOutputStream)}相对应。默认不支持，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param expr
+     *            本参数的表达式
+     * @param g
+     *            组包代码生成器
+     * @return 生成的语句。如果返回null则会生成计算表达式的结果并输出的代码
+     */
+    protected String generateWrite(Expr expr, PackCodegen g) {
+        return null;
+    }
+    
+    /**
+     * 生成计算表达式并将参数的结果输出到流中的代码
+     * 
+     * @param g
+     *            组包代码生成器
+     * @return 生成的语句。如果参数或表达式不支持代码生成则返回null
+     */
+    public String generate(PackCodegen g) {
+        String code = this.generateWrite(this.expr, g);
+        if (code != null)
+            return code;
+        
+        String v = this.expr.__generate(g);
+        if (v == null)
+            return null;
+        return this.generate(v, g);
+    }
+    
+    /**
+     * 从缓冲区中解析出参数的结果
+     * <p>
+     * 默认不支持拆包，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param expr
+     *            本参数的表达式，如果表达式可以直接从缓冲区中解析自身则可以通过{@link Expr#__unpack(ByteBuffer, Charset, UnpackContext)}交给表达式处理
+     * @param context
+     *            拆包上下文
+     * @param buffer
+     *            报文字节
+     * @return 解析出的参数的结果，将被反向赋给表达式。如果不需要赋值则返回null
+     */
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        throw new KyouException(KyouErr.Unpack.UnsupportedParam, this.getClass().getAnnotation(ParamTag.class).name());
+    }
+    
+    /**
+     * 从缓冲区中解析出参数的结果，并反向赋给表达式
+     * 
+     * @param context
+     *            拆包上下文
+     * @param buffer
+     *            报文字节
+     */
+    public void unpack(UnpackContext context, ByteBuffer buffer) {
+        Object v = this.unpack(this.expr, context, buffer);
+        if (v != null)
+            this.expr.__assign(v, context);
     }
 }
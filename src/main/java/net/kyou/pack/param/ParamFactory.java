@@ -49,11 +49,17 @@ public class ParamFactory {
         _classes.add(NullParam.class);
         
         _classes.add(IntegerParam.class);
+        _classes.add(NumericParam.class);
         _classes.add(StringParam.class);
         _classes.add(BytesParam.class);
         
         _classes.add(FloatParam.class);
         _classes.add(BCDParam.class);
+        _classes.add(BitmapParam.class);
+        _classes.add(LlvarParam.class);
+        _classes.add(LllvarParam.class);
+        _classes.add(ChecksumStartParam.class);
+        _classes.add(ChecksumParam.class);
         _classes.add(BackspaceParam.class);
         
         classes = Collections.unmodifiableList(_classes);
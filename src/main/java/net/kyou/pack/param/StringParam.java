@@ -13,16 +13,23 @@
  */
 package net.kyou.pack.param;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 
+import net.kyou.data.SchemaItem;
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.StyleItem;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprFactory;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
 import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteUtils;
+import net.kyou.util.KyouCharset;
 
 import org.w3c.dom.Element;
 
@@ -31,6 +38,9 @@ import org.w3c.dom.Element;
  * <p>
  * 将参数的计算结果以字符串形式输出到流中
  * </p>
+ * <p>
+ * 指定了len时按照align和filling补齐或截断。len默认按字符计算，unit='byte'时按编码后的字节计算，此时填充字符必须编码为一个字节。
+ * </p>
  * 
  * @author nuclearg
  */
@@ -49,10 +59,18 @@ class StringParam extends Param {
      * 该段采用的编码
      */
     private final Charset encoding;
+    /**
+     * 该段采用的编码对应的查表编码的字符集
+     */
+    private final KyouCharset charset;
     /**
      * 长度 该长度指的是字符串的长度
      */
     private final int len;
+    /**
+     * 长度的单位<li>true - 字节</li><li>false - 字符</li>
+     */
+    private final boolean unit;
     /**
      * 对齐方式<li>true - 左对齐</li><li>right - 右对齐</li>
      */
@@ -61,6 +79,10 @@ class StringParam extends Param {
      * 填充字符
      */
     private final char filling;
+    /**
+     * 填充字符编码后的字节（0~255），如果填充字符不能直接作为一个字节写入则为-1
+     */
+    private final int fillingByte;
     
     /**
      * 初始化一个字符串输出段
@@ -77,6 +99,7 @@ class StringParam extends Param {
             }
         else
             this.encoding = encoding;
+        this.charset = KyouCharset.of(this.encoding);
         
         // len
         if (e.hasAttribute("len"))
@@ -93,6 +116,17 @@ class StringParam extends Param {
         else
             this.len = LEN_AUTO;
         
+        // unit
+        if (e.hasAttribute("unit"))
+            if (e.getAttribute("unit").equals("byte"))
+                this.unit = true;
+            else if (e.getAttribute("unit").equals("char"))
+                this.unit = false;
+            else
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "unit: " + e.getAttribute("unit"));
+        else
+            this.unit = false;
+        
         // align
         if (e.hasAttribute("align"))
             if (e.getAttribute("align").equals("left"))
@@ -112,6 +146,15 @@ class StringParam extends Param {
                 throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "filling: " + e.getAttribute("filling"));
         else
             this.filling = ' ';
+        
+        // 按字节计算长度时，填充字符必须编码为一个字节，才能补齐到恰好len个字节
+        if (this.unit) {
+            byte[] filling = String.valueOf(this.filling).getBytes(this.encoding);
+            if (filling.length != 1)
+                throw new KyouException(KyouErr.StyleSpec.Style.InvalidSegmentParam, "filling: " + this.filling + ", unit: byte, encoding: " + this.encoding);
+            this.fillingByte = filling[0] & 0xFF;
+        } else
+            this.fillingByte = this.charset.map(this.filling);
     }
     
     @Override
@@ -121,32 +164,238 @@ class StringParam extends Param {
         // 如果长度为LEN_VALUE则取当前报文元素的len属性的值
         int len = this.len;
         if (len == LEN_VALUE)
-            try {
-                len = Integer.parseInt(context.schema.attr("len"));
-            } catch (NumberFormatException ex) {
-                len = LEN_AUTO;
-            }
+            len = valueLen(context.schema);
+        
+        if (len != LEN_AUTO && this.unit) {
+            this.export(str, len, s);
+            return;
+        }
         
-        // 判断是否需要考虑对齐和补位
+        // 判断是否需要考虑对齐和补位，只计算要输出的范围和补位的个数，不生成新的字符串
+        int start = 0;
+        int end = str.length();
+        int before = 0;
+        int after = 0;
         if (len != LEN_AUTO) {
-            // 如果字符串的长度大于len则截掉右边的部分
-            if (str.length() > this.len)
-                s.write(str.substring(0, this.len).getBytes(this.encoding));
-            else {
+            if (end > len) {
+                // 如果字符串的长度大于len则根据对齐方式截掉多余的部分
+                if (this.align)
+                    // 左对齐，截掉右边的部分
+                    end = len;
+                else
+                    // 右对齐，截掉左边的部分
+                    start = end - len;
+            } else if (end < len) {
                 // 如果字符串的长度小于len则根据对齐方式进行补位
-                char[] chars = new char[this.len - str.length()];
-                Arrays.fill(chars, this.filling);
-                
                 if (this.align)
                     // 左对齐，在右边补位
-                    str = str + new String(chars);
+                    after = len - end;
                 else
                     // 右对齐，在左边补位
-                    str = new String(chars) + str;
+                    before = len - end;
             }
         }
         
-        // 将字符串写到流里
-        s.write(str.getBytes(this.encoding));
+        if (before + after > 0 && this.fillingByte < 0) {
+            // 填充字符需要经过编码器，补位之后作为一个整体编码（如UTF-16只在开头输出一次BOM）
+            char[] chars = new char[len];
+            Arrays.fill(chars, this.filling);
+            str.getChars(start, end, chars, before);
+            str = new String(chars);
+            start = before = after = 0;
+            end = len;
+        }
+        
+        // 将字符串写到流里，能直接写入的字符不经过编码器
+        s.fill(this.fillingByte, before);
+        int i = s.writeChars(str, start, end, this.charset);
+        if (i < end)
+            s.write(str, i, end, this.encoding);
+        s.fill(this.fillingByte, after);
+    }
+    
+    /**
+     * 将字符串按字节补齐或截断到恰好len个字节并写到流里
+     * <p>
+     * 字符串只编码一次，超出len个字节时在字符的边界截断，不足的部分使用填充字符补齐。
+     * </p>
+     */
+    private void export(String str, int len, KyouByteOutputStream s) {
+        if (this.align) {
+            // 左对齐，截掉右边的部分，在右边补位
+            int start = s.size();
+            this.encode(str, 0, len, s);
+            s.fill(this.fillingByte, len - (s.size() - start));
+            return;
+        }
+        
+        // 右对齐，先预留len个字节，在流的末尾写入补位的字节和字符串，最后整体回填到预留的位置
+        int slot = s.reserve(len);
+        int tail = s.size();
+        s.fill(this.fillingByte, len);
+        int body = s.size();
+        
+        // 超出时截掉左边的部分，从右向左累加各个字符编码后的字节数，找到能放下的最长的后缀
+        int start = str.length();
+        int size = 0;
+        while (start > 0) {
+            int c = Character.codePointBefore(str, start);
+            int n = Character.charCount(c);
+            int width = n == 1 && this.charset.map((char) c) >= 0 ? 1 : str.substring(start - n, start).getBytes(this.encoding).length;
+            if (size + width > len)
+                break;
+            size += width;
+            start -= n;
+        }
+        
+        // 有状态的编码中各个字符的字节数不能简单相加，放不下时再逐个字符缩短
+        while (this.encode(str, start, len, s) != str.length()) {
+            s.backspace(s.size() - body);
+            start += Character.charCount(str.codePointAt(start));
+        }
+        
+        // 字符串移到补位的字节之后，再一起回填，预留的位置只在回填时释放一次
+        int written = s.size() - body;
+        s.patch(body - written, written, body);
+        s.patch(slot, len, tail);
+    }
+    
+    /**
+     * 将字符串从start开始的部分写到流里，最多写入max个字节
+     * 
+     * @return 停下来的位置，如果整个字符串都已写入则为字符串的长度
+     */
+    private int encode(String str, int start, int max, KyouByteOutputStream s) {
+        int end = str.length();
+        int i = s.writeChars(str, start, Math.min(end, start + max), this.charset);
+        if (i == end || i - start == max)
+            return i;
+        return s.write(str, i, end, this.encoding, max - (i - start));
+    }
+    
+    @Override
+    protected boolean write(Expr expr, PackContext context, KyouByteOutputStream s) {
+        // 只有长度不固定时才可以不经过字符串直接写入
+        int len = this.len;
+        if (len == LEN_VALUE)
+            len = valueLen(context.schema);
+        
+        return len == LEN_AUTO && expr.__write(s, this.encoding, context);
+    }
+    
+    @Override
+    protected boolean fixed(PackContext context) {
+        int len = this.len;
+        if (len == LEN_VALUE)
+            len = valueLen(context.schema);
+        
+        // 按字符补齐时，只有填充字符编码为一个字节，输出的字节数才与值无关（占位和回填的值都是数字）
+        return len != LEN_AUTO && (this.unit || this.fillingByte >= 0);
+    }
+    
+    @Override
+    protected String generateWrite(Expr expr, PackCodegen g) {
+        int len = this.len;
+        if (len == LEN_VALUE)
+            len = valueLen(g.schema());
+        
+        return len == LEN_AUTO ? expr.__generateWrite(this.encoding, g) : null;
+    }
+    
+    @Override
+    protected String generate(String v, PackCodegen g) {
+        // 报文元素的len属性在生成代码时即可确定
+        int len = this.len;
+        if (len == LEN_VALUE)
+            len = valueLen(g.schema());
+        
+        // 按字节补齐或截断时退化为解释执行
+        if (len != LEN_AUTO && this.unit)
+            return null;
+        
+        String str = g.local("String", v);
+        String encoding = g.constant(this.encoding, Charset.class);
+        String charset = g.constant(this.charset, KyouCharset.class);
+        
+        // 与export相同，只计算要输出的范围和补位的个数
+        StringBuilder code = new StringBuilder();
+        code.append("int b = 0, e = ").append(str).append(".length(), n = 0;");
+        if (len != LEN_AUTO) {
+            code.append("if (e > ").append(len).append(") ").append(this.align ? "e = " + len : "b = e - " + len).append(";");
+            code.append("else n = ").append(len).append(" - e;");
+            
+            if (this.fillingByte < 0) {
+                code.append("if (n > 0) {");
+                code.append("char[] t = new char[").append(len).append("];");
+                code.append("java.util.Arrays.fill(t, (char) ").append((int) this.filling).append(");");
+                code.append(str).append(".getChars(0, e, t, ").append(this.align ? "0" : "n").append(");");
+                code.append(str).append(" = new String(t); e = ").append(len).append("; n = 0;");
+                code.append("}");
+            }
+            if (!this.align)
+                code.append(g.stream()).append(".fill(").append(this.fillingByte).append(", n);");
+        }
+        code.append("int i = ").append(g.stream()).append(".writeChars(").append(str).append(", b, e, ").append(charset).append(");");
+        code.append("if (i < e) ").append(g.stream()).append(".write(").append(str).append(", i, e, ").append(encoding).append(");");
+        if (len != LEN_AUTO && this.align)
+            code.append(g.stream()).append(".fill(").append(this.fillingByte).append(", n);");
+        return code.toString();
+    }
+    
+    @Override
+    protected Object unpack(Expr expr, UnpackContext context, ByteBuffer buffer) {
+        int len = this.len;
+        if (len == LEN_VALUE)
+            len = valueLen(context.schema);
+        
+        if (len == LEN_AUTO) {
+            // 如果表达式可以直接从缓冲区中解析自身（如b2s m），则不必先把字符串切分出来
+            if (expr.__unpack(buffer, this.encoding, context))
+                return null;
+            
+            // 否则字符串一直延续到紧跟在后面的文本或缓冲区的末尾
+            byte[] delimiter = context.delimiter();
+            int end = delimiter == null ? buffer.limit() : KyouByteUtils.indexOf(buffer, delimiter);
+            if (end < 0)
+                throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", expect: " + new String(delimiter, this.encoding));
+            
+            return KyouByteUtils.readString(buffer, end, this.encoding);
+        }
+        
+        String str;
+        if (this.unit) {
+            // 按字节计算长度时直接取出len个字节
+            if (buffer.remaining() < len)
+                throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + len);
+            str = KyouByteUtils.readString(buffer, buffer.position() + len, this.encoding);
+        } else {
+            str = KyouByteUtils.readChars(buffer, len, this.encoding);
+            if (str == null)
+                throw new KyouException(KyouErr.Unpack.UnexpectedEnd, "position: " + buffer.position() + ", len: " + len);
+        }
+        
+        // 根据对齐方式去掉补位的字符
+        if (this.align) {
+            int end = str.length();
+            while (end > 0 && str.charAt(end - 1) == this.filling)
+                end--;
+            return str.substring(0, end);
+        } else {
+            int start = 0;
+            while (start < str.length() && str.charAt(start) == this.filling)
+                start++;
+            return str.substring(start);
+        }
+    }
+    
+    /**
+     * 取报文元素的len属性的值，如果未提供或无法解析则返回LEN_AUTO
+     */
+    private static int valueLen(SchemaItem schema) {
+        try {
+            return Integer.parseInt(schema.attr("len"));
+        } catch (NumberFormatException ex) {
+            return LEN_AUTO;
+        }
     }
 }
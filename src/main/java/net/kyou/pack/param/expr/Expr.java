@@ -13,14 +13,18 @@
  */
 package net.kyou.pack.param.expr;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.endpoint.EndpointExpr;
 import net.kyou.pack.param.expr.pipe.PipeExpr;
+import net.kyou.util.KyouByteOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -101,6 +105,11 @@ public abstract class Expr {
     
     /**
      * 计算该表达式
+     * <p>
+     * 计算结果的类型应当与表达式声明的类型一致：Integer为Long，String为String，Bytes为{@link ByteBuffer}。为兼容之前的版本，Bytes也可以为byte[]，
+     * 由{@link #evalBytes(PackContext)}包装为缓冲区。<br/>
+     * Bytes类型的结果可能是组包字节流末尾之后的字节的视图，只在下一次向该字节流写入之前有效，需要保留时应当复制下来。
+     * </p>
      * 
      * @param context
      *            组包上下文
@@ -108,6 +117,267 @@ public abstract class Expr {
      */
     protected abstract Object eval(PackContext context);
     
+    /**
+     * 判断该表达式的计算结果是否与组包上下文无关，即是否为常量
+     * 
+     * @return 是否为常量
+     */
+    public boolean __constant() {
+        return this.constant();
+    }
+    
+    /**
+     * 判断该表达式的计算结果是否与组包上下文无关，即是否为常量
+     * <p>
+     * 默认取决于{@link ExprTag#pure()}，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @return 是否为常量
+     */
+    protected boolean constant() {
+        return this.getClass().getAnnotation(ExprTag.class).pure();
+    }
+    
+    /**
+     * 计算结果类型为Integer的表达式
+     * 
+     * @param context
+     *            组包上下文
+     * @return 表达式的计算结果
+     */
+    public long __evalLong(PackContext context) {
+        return this.evalLong(context);
+    }
+    
+    /**
+     * 计算结果类型为Integer的表达式
+     * <p>
+     * 不需要把计算结果装箱成Long。默认将{@link #__eval(PackContext)}的结果拆箱，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param context
+     *            组包上下文
+     * @return 表达式的计算结果
+     */
+    protected long evalLong(PackContext context) {
+        return ((Number) this.__eval(context)).longValue();
+    }
+    
+    /**
+     * 计算结果类型为String的表达式
+     * 
+     * @param context
+     *            组包上下文
+     * @return 表达式的计算结果
+     */
+    public String __evalString(PackContext context) {
+        return this.evalString(context);
+    }
+    
+    /**
+     * 计算结果类型为String的表达式
+     * <p>
+     * 默认将{@link #__eval(PackContext)}的结果转型，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param context
+     *            组包上下文
+     * @return 表达式的计算结果
+     */
+    protected String evalString(PackContext context) {
+        return (String) this.__eval(context);
+    }
+    
+    /**
+     * 计算结果类型为Bytes的表达式
+     * 
+     * @param context
+     *            组包上下文
+     * @return 表达式的计算结果，可能是组包字节流的一个视图，只在下一次向该字节流写入之前有效
+     */
+    public ByteBuffer __evalBytes(PackContext context) {
+        return this.evalBytes(context);
+    }
+    
+    /**
+     * 计算结果类型为Bytes的表达式
+     * <p>
+     * 默认将{@link #__eval(PackContext)}的结果转型，结果为byte[]时包装为缓冲区。派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param context
+     *            组包上下文
+     * @return 表达式的计算结果，可能是组包字节流的一个视图，只在下一次向该字节流写入之前有效
+     */
+    protected ByteBuffer evalBytes(PackContext context) {
+        Object v = this.__eval(context);
+        return v instanceof byte[] ? ByteBuffer.wrap((byte[]) v) : (ByteBuffer) v;
+    }
+    
+    /**
+     * 根据当前元素的子元素组包出来的字节数计算该表达式
+     * 
+     * @param length
+     * @param context
+     * @return 表达式的计算结果。如果该表达式的结果不只取决于子元素的字节数则返回null
+     */
+    public Object __measure(long length, PackContext context) {
+        return this.measure(length, context);
+    }
+    
+    /**
+     * 根据当前元素的子元素组包出来的字节数计算该表达式
+     * <p>
+     * 用于回填长度：如果表达式的结果只取决于子元素的字节数（如lenb m），则参数可以先写入占位的字节，待子元素直接写入流中、长度确定后再回填，省去为了求长度而单独组包一次子元素。<br/>
+     * 默认不支持，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param length
+     *            子元素组包出来的字节数
+     * @param context
+     * @return 表达式的计算结果。如果该表达式的结果不只取决于子元素的字节数则返回null
+     */
+    protected Object measure(long length, PackContext context) {
+        return null;
+    }
+    
+    /**
+     * 尝试直接将该表达式的结果写入流中
+     * 
+     * @param s
+     * @param encoding
+     * @param context
+     * @return 是否已写入。如果返回false则流不会被改动
+     */
+    public boolean __write(KyouByteOutputStream s, Charset encoding, PackContext context) {
+        return this.write(s, encoding, context);
+    }
+    
+    /**
+     * 尝试直接将该表达式的结果写入流中
+     * <p>
+     * 用于长度不固定的参数：如果表达式自身可以直接输出字节（如m），则不必先计算出结果再由参数写入流中，省去中间的缓存和复制。<br/>
+     * 默认不支持，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param s
+     * @param encoding
+     *            参数采用的编码
+     * @param context
+     * @return 是否已写入。如果返回false则流不会被改动
+     */
+    protected boolean write(KyouByteOutputStream s, Charset encoding, PackContext context) {
+        return false;
+    }
+    
+    /**
+     * 生成计算该表达式的代码
+     * 
+     * @param g
+     *            组包代码生成器
+     * @return 计算该表达式的代码。如果不支持代码生成则返回null
+     */
+    public String __generate(PackCodegen g) {
+        return this.generate(g);
+    }
+    
+    /**
+     * 生成计算该表达式的代码
+     * <p>
+     * 默认不支持代码生成，派生类可以重写此方法以提供自身的实现。<br/>
+     * 生成的代码的类型应当与表达式声明的类型一致：Integer为long，String为String，Bytes为byte[]。
+     * </p>
+     * 
+     * @param g
+     *            组包代码生成器
+     * @return 计算该表达式的代码。如果不支持代码生成则返回null
+     */
+    protected String generate(PackCodegen g) {
+        return null;
+    }
+    
+    /**
+     * 生成直接将该表达式的结果写入流中的语句
+     * 
+     * @param encoding
+     *            参数采用的编码
+     * @param g
+     *            组包代码生成器
+     * @return 生成的语句。如果不支持则返回null
+     */
+    public String __generateWrite(Charset encoding, PackCodegen g) {
+        return this.generateWrite(encoding, g);
+    }
+    
+    /**
+     * 生成直接将该表达式的结果写入流中的语句
+     * <p>
+     * 与{@link #write(KyouByteOutputStream, Charset, PackContext)}相对应，生成的代码不必先计算出结果再由参数写入流中。<br/>
+     * 默认不支持，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param encoding
+     *            参数采用的编码
+     * @param g
+     *            组包代码生成器
+     * @return 生成的语句。如果不支持则返回null
+     */
+    protected String generateWrite(Charset encoding, PackCodegen g) {
+        return null;
+    }
+    
+    /**
+     * 将拆包时解析出的值反向赋给该表达式
+     * 
+     * @param value
+     * @param context
+     */
+    public void __assign(Object value, UnpackContext context) {
+        this.assign(value, context);
+    }
+    
+    /**
+     * 将拆包时解析出的值反向赋给该表达式
+     * <p>
+     * 默认忽略该值，适用于值不来自报文数据的表达式（如常量、报文元素的名称）。派生类可以重写此方法以提供自身的实现。<br/>
+     * 值的类型与表达式声明的类型一致：Integer为Long，String为String，Bytes为{@link ByteBuffer}。
+     * </p>
+     * 
+     * @param value
+     * @param context
+     */
+    protected void assign(Object value, UnpackContext context) {
+    }
+    
+    /**
+     * 尝试直接从缓冲区中解析该表达式的值
+     * 
+     * @param buffer
+     * @param encoding
+     * @param context
+     * @return 是否已解析。如果返回false则缓冲区不会被改动
+     */
+    public boolean __unpack(ByteBuffer buffer, Charset encoding, UnpackContext context) {
+        return this.unpack(buffer, encoding, context);
+    }
+    
+    /**
+     * 尝试直接从缓冲区中解析该表达式的值
+     * <p>
+     * 用于长度不固定的参数：如果表达式自身可以确定在缓冲区中占据的长度（如m），则不必先根据分隔符切分出参数的值。<br/>
+     * 默认不支持，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param buffer
+     * @param encoding
+     *            参数采用的编码
+     * @param context
+     * @return 是否已解析。如果返回false则缓冲区不会被改动
+     */
+    protected boolean unpack(ByteBuffer buffer, Charset encoding, UnpackContext context) {
+        return false;
+    }
+    
     /**
      * 派生类必须提供自定义的toString()实现
      */
@@ -99,6 +99,9 @@ public class ExprFactory {
                     throw new KyouException(KyouErr.StyleSpec.Expr.InitExprFail, "expr: " + exprs[i] + ", index: " + i, ex);
                 }
             
+            // 如果整个表达式与组包上下文无关，则直接计算出结果
+            e = this.pipeExorFactory.fold(e);
+            
             // 创建完毕，返回Param实例
             logger.debug("Expr created. expr: " + e);
             return e;
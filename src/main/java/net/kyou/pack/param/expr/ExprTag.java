@@ -49,6 +49,15 @@ public @interface ExprTag {
      */
     ExprType require() default ExprType.Irrelevant;
     
+    /**
+     * 参数的计算结果是否与组包上下文无关
+     * <p>
+     * 对于端点参数来说表示参数是字面量，对于管道参数来说表示计算结果只取决于前一个参数的计算结果。<br/>
+     * 如果整个表达式的各个参数都与组包上下文无关，则会在加载组包样式时直接计算出结果。
+     * </p>
+     */
+    boolean pure() default false;
+    
     /**
      * 定义了参数的后缀类型
      * 
@@ -13,10 +13,13 @@
  */
 package net.kyou.pack.param.expr.endpoint;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+import net.kyou.pack.PackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.Expr;
+import net.kyou.util.KyouByteUtils;
 
 /**
  * 端点参数 这种类型的参数不接受其它参数的计算结果
@@ -24,6 +27,15 @@ import net.kyou.pack.param.expr.Expr;
  * @author nuclearg
  */
 public abstract class EndpointExpr extends Expr {
+    /**
+     * 该表达式是否被所在样式单元中的多个参数引用，尚未判断时为null
+     */
+    private Boolean shared;
+    /**
+     * 在所在样式单元中分配到的编号，用于在组包上下文中缓存计算结果，不属于任何样式单元时为-1
+     */
+    private final int slot;
+    
     /**
      * 初始化一个端点参数实例
      * <p>
@@ -39,6 +51,58 @@ public abstract class EndpointExpr extends Expr {
      */
     protected EndpointExpr(String postfix, Param param, Charset encoding) {
         super(postfix, param, encoding);
+        
+        this.slot = param != null && param.style != null ? param.style.__endpoint(this.toString()) : -1;
+    }
+    
+    @Override
+    public Object __eval(PackContext context) {
+        if (context == null || !this.shared())
+            return super.__eval(context);
+        
+        // 同一个样式单元中的多个参数引用了该表达式，在当前报文元素内只计算一次
+        Object value = context.cached(this.slot);
+        if (value == null) {
+            value = super.__eval(context);
+            if (value instanceof ByteBuffer)
+                // 计算结果可能是字节流的视图，缓存之前需要复制下来
+                value = KyouByteUtils.copy((ByteBuffer) value);
+            context.cache(this.slot, value);
+        }
+        
+        return value instanceof ByteBuffer ? ((ByteBuffer) value).duplicate() : value;
+    }
+    
+    /**
+     * 判断该表达式的计算结果是否需要在同一个报文元素内缓存
+     * <p>
+     * 默认为false，适用于计算代价很小的表达式。派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @return 计算结果是否需要缓存
+     */
+    protected boolean cacheable() {
+        return false;
+    }
+    
+    /**
+     * 判断该表达式是否需要缓存并且被所在样式单元中的多个参数引用
+     * 
+     * @return 是否需要在当前报文元素内缓存计算结果
+     */
+    protected boolean shared() {
+        if (this.shared == null)
+            this.shared = this.cacheable() && this.param != null && this.slot >= 0 && this.param.style.__shared(this.slot);
+        return this.shared;
+    }
+    
+    /**
+     * 获取该表达式在所在样式单元中分配到的编号
+     * 
+     * @return 用于在组包上下文中缓存计算结果的编号，不属于任何样式单元时为-1
+     */
+    protected int slot() {
+        return this.slot;
     }
     
     @Override
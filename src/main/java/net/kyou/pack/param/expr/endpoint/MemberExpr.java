@@ -13,14 +13,20 @@
  */
 package net.kyou.pack.param.expr.endpoint;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.PackService;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.UnpackService;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.ExprTag;
 import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouByteUtils;
 
 /**
  * 计算当前报文元素的所有子元素组包的结果
@@ -38,4 +44,51 @@ class MemberExpr extends EndpointExpr {
     public Object eval(PackContext context) {
         return PackService.__member(context);
     }
+    
+    @Override
+    protected boolean write(KyouByteOutputStream s, Charset encoding, PackContext context) {
+        if (!this.shared()) {
+            PackService.__member(context, s);
+            return true;
+        }
+        
+        // 其它参数也引用了m，使用或缓存子元素组包出来的字节
+        ByteBuffer bytes = (ByteBuffer) context.cached(this.slot());
+        if (bytes != null)
+            s.write(bytes);
+        else {
+            int start = s.size();
+            s.hold(start);
+            PackService.__member(context, s);
+            context.cache(this.slot(), KyouByteUtils.copy(s.view(start)));
+            s.release(start);
+        }
+        return true;
+    }
+    
+    @Override
+    protected boolean cacheable() {
+        return true;
+    }
+    
+    @Override
+    protected String generate(PackCodegen g) {
+        return g.member();
+    }
+    
+    @Override
+    protected String generateWrite(Charset encoding, PackCodegen g) {
+        return g.writeMember();
+    }
+    
+    @Override
+    protected void assign(Object value, UnpackContext context) {
+        UnpackService.__member(context, (ByteBuffer) value, true);
+    }
+    
+    @Override
+    protected boolean unpack(ByteBuffer buffer, Charset encoding, UnpackContext context) {
+        UnpackService.__member(context, buffer, false);
+        return true;
+    }
 }
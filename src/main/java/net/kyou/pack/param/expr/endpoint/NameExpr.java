@@ -15,6 +15,7 @@ package net.kyou.pack.param.expr.endpoint;
 
 import java.nio.charset.Charset;
 
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.ExprTag;
@@ -40,4 +41,9 @@ class NameExpr extends EndpointExpr {
     public Object eval(PackContext context) {
         return context.schema.name();
     }
+    
+    @Override
+    protected String generate(PackCodegen g) {
+        return g.constant(g.schema().name(), String.class);
+    }
 }
@@ -15,6 +15,7 @@ package net.kyou.pack.param.expr.endpoint;
 
 import java.nio.charset.Charset;
 
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.ExprTag;
@@ -29,7 +30,7 @@ import net.kyou.pack.param.expr.ExprTag.ExprType;
  * 
  * @author nuclearg
  */
-@ExprTag(name = "", type = ExprType.Integer, postfix = ExprPostfix.Empty)
+@ExprTag(name = "", type = ExprType.Integer, postfix = ExprPostfix.Empty, pure = true)
 class PlainIntegerExpr extends EndpointExpr {
     /**
      * 字面量
@@ -55,4 +56,19 @@ class PlainIntegerExpr extends EndpointExpr {
     public Object eval(PackContext context) {
         return this.value;
     }
+    
+    @Override
+    protected long evalLong(PackContext context) {
+        return this.value;
+    }
+    
+    @Override
+    protected String generate(PackCodegen g) {
+        return this.value + "L";
+    }
+    
+    @Override
+    public String toString() {
+        return String.valueOf(this.value);
+    }
 }
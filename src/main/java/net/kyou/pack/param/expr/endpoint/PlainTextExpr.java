@@ -13,15 +13,18 @@
  */
 package net.kyou.pack.param.expr.endpoint;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.ExprTag;
 import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteOutputStream;
 import net.kyou.util.KyouFormatString;
 
 /**
@@ -33,7 +36,7 @@ import net.kyou.util.KyouFormatString;
  * @author nuclearg
  * 
  */
-@ExprTag(name = "text", type = ExprType.Bytes, postfix = ExprPostfix.Required)
+@ExprTag(name = "text", type = ExprType.Bytes, postfix = ExprPostfix.Required, pure = true)
 class PlainTextExpr extends EndpointExpr {
     /**
      * 文本字面量
@@ -50,6 +53,17 @@ class PlainTextExpr extends EndpointExpr {
     
     @Override
     protected Object eval(PackContext context) {
-        return this.text;
+        return ByteBuffer.wrap(this.text);
+    }
+    
+    @Override
+    protected boolean write(KyouByteOutputStream s, Charset encoding, PackContext context) {
+        s.write(this.text);
+        return true;
+    }
+    
+    @Override
+    protected String generate(PackCodegen g) {
+        return g.constant(this.text, byte[].class);
     }
 }
@@ -13,6 +13,7 @@
  */
 package net.kyou.pack.param.expr.endpoint;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.pack.PackContext;
@@ -52,6 +53,11 @@ class RefExpr extends EndpointExpr {
     public Object eval(PackContext context) {
         KyouByteOutputStream s = new KyouByteOutputStream();
         this.ref.export(context, s);
-        return s.export();
+        return ByteBuffer.wrap(s.export());
+    }
+    
+    @Override
+    protected boolean cacheable() {
+        return true;
     }
 }
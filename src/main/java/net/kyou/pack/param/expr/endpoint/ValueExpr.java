@@ -17,7 +17,9 @@ import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.ExprTag;
 import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
@@ -37,10 +39,22 @@ class ValueExpr extends EndpointExpr {
 
     @Override
     public Object eval(PackContext context) {
-        String value = context.data.get(context.path);
+        String value = context.value();
         if (value == null)
             throw new KyouException(KyouErr.Pack.FieldNotFound, context.path.toString());
 
         return value;
     }
+
+    @Override
+    protected void assign(Object value, UnpackContext context) {
+        context.value((String) value);
+    }
+
+    @Override
+    protected String generate(PackCodegen g) {
+        String value = g.local("String", g.data() + ".get(" + g.path() + ")");
+        g.statement("if (" + value + " == null) throw new " + KyouException.class.getName() + "(" + KyouErr.class.getName() + ".Pack.FieldNotFound, " + g.path() + ".toString());");
+        return value;
+    }
 }
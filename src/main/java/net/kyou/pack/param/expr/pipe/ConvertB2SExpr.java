@@ -13,23 +13,27 @@
  */
 package net.kyou.pack.param.expr.pipe;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprTag;
 import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteUtils;
 
 /**
  * 将字符串转为字节数组的表达式
  * 
  * @author nuclearg
  */
-@ExprTag(name = "b2s", postfix = ExprPostfix.Dual, type = ExprType.String, require = ExprType.Bytes)
+@ExprTag(name = "b2s", postfix = ExprPostfix.Dual, type = ExprType.String, require = ExprType.Bytes, pure = true)
 class ConvertB2SExpr extends PipeExpr {
     /**
      * 转换时使用的编码
@@ -69,6 +73,22 @@ class ConvertB2SExpr extends PipeExpr {
     
     @Override
     protected Object eval(Object result, PackContext context) {
-        return new String((byte[]) result, this.encoding);
+        ByteBuffer bytes = (ByteBuffer) result;
+        return KyouByteUtils.readString(bytes.duplicate(), bytes.limit(), this.encoding);
+    }
+    
+    @Override
+    protected String generate(String arg, PackCodegen g) {
+        return "new String(" + arg + ", " + g.constant(this.encoding, Charset.class) + ")";
+    }
+    
+    @Override
+    protected Object inverse(Object value, UnpackContext context) {
+        return ByteBuffer.wrap(((String) value).getBytes(this.encoding));
+    }
+    
+    @Override
+    protected boolean transparent(Charset encoding) {
+        return this.encoding.equals(encoding);
     }
 }
@@ -17,7 +17,9 @@ import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprTag;
@@ -29,7 +31,7 @@ import net.kyou.pack.param.expr.ExprTag.ExprType;
  * 
  * @author nuclearg
  */
-@ExprTag(name = "i2s", postfix = ExprPostfix.DualInt, type = ExprType.String, require = ExprType.Integer)
+@ExprTag(name = "i2s", postfix = ExprPostfix.DualInt, type = ExprType.String, require = ExprType.Integer, pure = true)
 class ConvertI2SExpr extends PipeExpr {
     /**
      * 进制
@@ -74,4 +76,23 @@ class ConvertI2SExpr extends PipeExpr {
     protected Object eval(Object result, PackContext context) {
         return Long.toString((Long) result, this.radix);
     }
+    
+    @Override
+    protected String evalString(PackContext context) {
+        return Long.toString(this.arg().__evalLong(context), this.radix);
+    }
+    
+    @Override
+    protected String generate(String arg, PackCodegen g) {
+        return "Long.toString(" + arg + ", " + this.radix + ")";
+    }
+    
+    @Override
+    protected Object inverse(Object value, UnpackContext context) {
+        try {
+            return Long.parseLong(((String) value).trim(), this.radix);
+        } catch (NumberFormatException ex) {
+            throw new KyouException(KyouErr.Unpack.ParseIntFail, "value: " + value + ", radix: " + this.radix);
+        }
+    }
 }
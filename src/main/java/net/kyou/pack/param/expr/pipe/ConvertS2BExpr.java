@@ -13,28 +13,35 @@
  */
 package net.kyou.pack.param.expr.pipe;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
 import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprTag;
 import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouCharset;
 
 /**
- * 将字节数组转为字符串的表达式
+ * 将字符串转为字节数组的表达式
  * 
  * @author nuclearg
  */
-@ExprTag(name = "s2b", postfix = ExprPostfix.Dual, type = ExprType.Bytes, require = ExprType.String)
+@ExprTag(name = "s2b", postfix = ExprPostfix.Dual, type = ExprType.Bytes, require = ExprType.String, pure = true)
 class ConvertS2BExpr extends PipeExpr {
     /**
      * 转换时使用的编码
      */
     private final Charset encoding;
+    /**
+     * 转换时使用的编码对应的查表编码的字符集
+     */
+    private final KyouCharset charset;
 
     ConvertS2BExpr(String expr, Param segment, Expr arg, Charset encoding) {
         super(expr, segment, arg, encoding);
@@ -47,10 +54,25 @@ class ConvertS2BExpr extends PipeExpr {
             }
         else
             this.encoding = encoding;
+        this.charset = KyouCharset.of(this.encoding);
     }
 
     @Override
     protected Object eval(Object result, PackContext context) {
-        return new String((byte[]) result, this.encoding);
+        return ByteBuffer.wrap(this.charset.encode((String) result));
+    }
+
+    @Override
+    protected Object inverse(Object value, UnpackContext context) {
+        return this.encoding.decode(((ByteBuffer) value).duplicate()).toString();
+    }
+
+    /**
+     * 获取转换时使用的编码
+     * 
+     * @return 转换时使用的编码
+     */
+    Charset encoding() {
+        return this.encoding;
     }
 }
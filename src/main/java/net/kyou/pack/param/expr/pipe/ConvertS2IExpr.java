@@ -18,6 +18,7 @@ import java.nio.charset.Charset;
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
 import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprTag;
@@ -29,7 +30,7 @@ import net.kyou.pack.param.expr.ExprTag.ExprType;
  * 
  * @author nuclearg
  */
-@ExprTag(name = "s2i", postfix = ExprPostfix.DualInt, type = ExprType.Integer, require = ExprType.String)
+@ExprTag(name = "s2i", postfix = ExprPostfix.DualInt, type = ExprType.Integer, require = ExprType.String, pure = true)
 class ConvertS2IExpr extends PipeExpr {
     /**
      * 进制 默认为十进制
@@ -52,4 +53,14 @@ class ConvertS2IExpr extends PipeExpr {
     protected Object eval(Object result, PackContext context) {
         return Integer.parseInt((String) result, radix);
     }
+
+    @Override
+    protected long evalLong(PackContext context) {
+        return Long.parseLong(this.arg().__evalString(context), this.radix);
+    }
+
+    @Override
+    protected Object inverse(Object value, UnpackContext context) {
+        return Long.toString(((Number) value).longValue(), this.radix);
+    }
 }
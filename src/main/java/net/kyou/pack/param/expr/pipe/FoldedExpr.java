@@ -0,0 +1,196 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param.expr.pipe;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.pack.param.expr.ExprTag;
+import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteOutputStream;
+
+/**
+ * 折叠后的常量管道表达式
+ * <p>
+ * 如果管道表达式及其参数都与组包上下文无关（{@link ExprTag#pure()}），如i2s 1、lenb text.abc，则在加载组包样式时计算一次，之后每次组包都直接使用计算结果。<br/>
+ * 原来的表达式作为参数保留下来，拆包时仍然交给它处理。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+abstract class FoldedExpr extends PipeExpr {
+    /**
+     * 原来的表达式的计算结果
+     */
+    private final Object value;
+    
+    private FoldedExpr(PipeExpr expr) {
+        super(null, ((Expr) expr).param, expr, null);
+        
+        this.value = expr.__eval(null);
+    }
+    
+    /**
+     * 折叠一个常量管道表达式
+     * 
+     * @param expr
+     *            常量管道表达式
+     * @return 折叠后的表达式
+     */
+    static FoldedExpr fold(PipeExpr expr) {
+        ExprType type = expr.getClass().getAnnotation(ExprTag.class).type();
+        switch (type) {
+            case Integer:
+                return new FoldedInteger(expr);
+            case String:
+                return new FoldedString(expr);
+            case Bytes:
+                return new FoldedBytes(expr);
+            default:
+                throw new KyouException(KyouErr.Unexpected, "type: " + type);
+        }
+    }
+    
+    @Override
+    protected Object eval(PackContext context) {
+        return this.value;
+    }
+    
+    @Override
+    protected Object eval(Object result, PackContext context) {
+        return result;
+    }
+    
+    @Override
+    protected Object inverse(Object value, UnpackContext context) {
+        return value;
+    }
+    
+    @Override
+    protected boolean transparent(Charset encoding) {
+        return true;
+    }
+    
+    @Override
+    public String toString() {
+        return this.arg().toString();
+    }
+    
+    /**
+     * 折叠后的整数
+     */
+    @ExprTag(name = "", postfix = ExprPostfix.Empty, type = ExprType.Integer, pure = true)
+    private static class FoldedInteger extends FoldedExpr {
+        private final long num;
+        
+        FoldedInteger(PipeExpr expr) {
+            super(expr);
+            
+            this.num = expr.__evalLong(null);
+        }
+        
+        @Override
+        protected long evalLong(PackContext context) {
+            return this.num;
+        }
+        
+        @Override
+        protected String generate(PackCodegen g) {
+            return this.num + "L";
+        }
+    }
+    
+    /**
+     * 折叠后的字符串
+     */
+    @ExprTag(name = "", postfix = ExprPostfix.Empty, type = ExprType.String, pure = true)
+    private static class FoldedString extends FoldedExpr {
+        private final String str;
+        /**
+         * 最近一次转换出的字节数组及其编码
+         */
+        private volatile Object[] bytes;
+        
+        FoldedString(PipeExpr expr) {
+            super(expr);
+            
+            this.str = expr.__evalString(null);
+        }
+        
+        @Override
+        protected String evalString(PackContext context) {
+            return this.str;
+        }
+        
+        @Override
+        protected boolean write(KyouByteOutputStream s, Charset encoding, PackContext context) {
+            // 参数的编码是固定的，缓存转换出的字节数组
+            Object[] bytes = this.bytes;
+            if (bytes == null || !bytes[0].equals(encoding))
+                this.bytes = bytes = new Object[] { encoding, this.str.getBytes(encoding) };
+            
+            s.write((byte[]) bytes[1]);
+            return true;
+        }
+        
+        @Override
+        protected String generate(PackCodegen g) {
+            return g.constant(this.str, String.class);
+        }
+    }
+    
+    /**
+     * 折叠后的字节数组
+     */
+    @ExprTag(name = "", postfix = ExprPostfix.Empty, type = ExprType.Bytes, pure = true)
+    private static class FoldedBytes extends FoldedExpr {
+        private final byte[] bytes;
+        
+        FoldedBytes(PipeExpr expr) {
+            super(expr);
+            
+            ByteBuffer bytes = expr.__evalBytes(null).duplicate();
+            this.bytes = new byte[bytes.remaining()];
+            bytes.get(this.bytes);
+        }
+        
+        @Override
+        protected Object eval(PackContext context) {
+            return ByteBuffer.wrap(this.bytes);
+        }
+        
+        @Override
+        protected ByteBuffer evalBytes(PackContext context) {
+            return ByteBuffer.wrap(this.bytes);
+        }
+        
+        @Override
+        protected boolean write(KyouByteOutputStream s, Charset encoding, PackContext context) {
+            s.write(this.bytes);
+            return true;
+        }
+        
+        @Override
+        protected String generate(PackCodegen g) {
+            return g.constant(this.bytes, byte[].class);
+        }
+    }
+}
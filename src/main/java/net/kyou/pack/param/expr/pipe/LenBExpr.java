@@ -13,8 +13,10 @@
  */
 package net.kyou.pack.param.expr.pipe;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.Expr;
@@ -27,7 +29,7 @@ import net.kyou.pack.param.expr.ExprTag.ExprType;
  * 
  * @author nuclearg
  */
-@ExprTag(name = "lenb", postfix = ExprPostfix.Empty, type = ExprType.Integer, require = ExprType.Bytes)
+@ExprTag(name = "lenb", postfix = ExprPostfix.Empty, type = ExprType.Integer, require = ExprType.Bytes, pure = true)
 class LenBExpr extends PipeExpr {
     LenBExpr(String expr, Param segment, Expr arg, Charset encoding) {
         super(expr, segment, arg, encoding);
@@ -35,6 +37,49 @@ class LenBExpr extends PipeExpr {
 
     @Override
     protected Object eval(Object result, PackContext context) {
-        return ((byte[]) result).length;
+        return (long) ((ByteBuffer) result).remaining();
+    }
+
+    @Override
+    protected long evalLong(PackContext context) {
+        return this.arg().__evalBytes(context).remaining();
+    }
+
+    @Override
+    PipeExpr fuse() {
+        // lenb s2b xxx 不需要真的生成字节数组，直接计算编码后的字节数
+        if (this.arg() instanceof ConvertS2BExpr) {
+            ConvertS2BExpr s2b = (ConvertS2BExpr) this.arg();
+            return new LenSBExpr(((Expr) this).param, s2b.arg(), s2b.encoding());
+        }
+        return this;
+    }
+
+    @Override
+    protected Object measure(long length, PackContext context) {
+        // 只有对子元素（m）求长度时才可以先占位后回填
+        if (!this.member())
+            return null;
+        return length;
+    }
+    
+    @Override
+    protected String generate(PackCodegen g) {
+        // 对子元素（m）求长度时不需要复制出子元素组包的字节
+        if (this.member())
+            return g.memberLength();
+        return super.generate(g);
+    }
+    
+    @Override
+    protected String generate(String arg, PackCodegen g) {
+        return "(long) " + arg + ".length";
+    }
+    
+    /**
+     * 判断是否是对子元素（m）求长度
+     */
+    private boolean member() {
+        return "m".equals(this.arg().getClass().getAnnotation(ExprTag.class).name());
     }
 }
@@ -0,0 +1,117 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param.expr.pipe;
+
+import java.nio.charset.Charset;
+
+import net.kyou.pack.PackCodegen;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.param.Param;
+import net.kyou.pack.param.expr.Expr;
+import net.kyou.pack.param.expr.ExprTag;
+import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
+
+/**
+ * 求字符串以指定编码转为字节数组后的长度
+ * <p>
+ * 由lenb s2b合并而来，不会真的生成字节数组。UTF-8和单字节编码直接根据字符计算字节数，其它编码仍然需要转换一次。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+@ExprTag(name = "lenb", postfix = ExprPostfix.Empty, type = ExprType.Integer, require = ExprType.String, pure = true)
+class LenSBExpr extends PipeExpr {
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    
+    /**
+     * 转换时使用的编码
+     */
+    private final Charset encoding;
+    /**
+     * 是否为UTF-8编码
+     */
+    private final boolean utf8;
+    /**
+     * 是否为每个字符都转为一个字节的编码
+     */
+    private final boolean single;
+    
+    /**
+     * 合并lenb s2b
+     * 
+     * @param param
+     *            该表达式隶属于的参数
+     * @param arg
+     *            s2b的参数
+     * @param encoding
+     *            s2b转换时使用的编码
+     */
+    LenSBExpr(Param param, Expr arg, Charset encoding) {
+        super(null, param, arg, encoding);
+        
+        this.encoding = encoding;
+        this.utf8 = UTF8.equals(encoding);
+        this.single = encoding != null && !this.utf8 && encoding.canEncode() && encoding.newEncoder().maxBytesPerChar() == 1.0f;
+    }
+    
+    @Override
+    protected Object eval(Object result, PackContext context) {
+        return this.length((String) result);
+    }
+    
+    @Override
+    protected long evalLong(PackContext context) {
+        return this.length(this.arg().__evalString(context));
+    }
+    
+    /**
+     * 计算字符串转为字节数组后的长度
+     */
+    private long length(String str) {
+        if (this.single)
+            // 代理对只会被替换为一个'?'
+            return str.codePointCount(0, str.length());
+        if (!this.utf8)
+            return str.getBytes(this.encoding).length;
+        
+        long len = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80)
+                len += 1;
+            else if (c < 0x800)
+                len += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+                // 不成对的代理字符会被替换为'?'
+                len += 1;
+            else
+                len += 3;
+        }
+        return len;
+    }
+    
+    @Override
+    protected String generate(String arg, PackCodegen g) {
+        return "(long) " + arg + ".getBytes(" + g.constant(this.encoding, Charset.class) + ").length";
+    }
+    
+    @Override
+    public String toString() {
+        return "lenb s2b." + this.encoding.name() + " " + this.arg().toString();
+    }
+}
@@ -27,7 +27,7 @@ import net.kyou.pack.param.expr.ExprTag.ExprType;
  * 
  * @author nuclearg
  */
-@ExprTag(name = "lens", postfix = ExprPostfix.Empty, type = ExprType.Integer, require = ExprType.String)
+@ExprTag(name = "lens", postfix = ExprPostfix.Empty, type = ExprType.Integer, require = ExprType.String, pure = true)
 class LenSExpr extends PipeExpr {
     LenSExpr(String expr, Param segment, Expr arg, Charset encoding) {
         super(expr, segment, arg, encoding);
@@ -37,4 +37,9 @@ class LenSExpr extends PipeExpr {
     protected Object eval(Object result, PackContext context) {
         return ((String) result).length();
     }
+
+    @Override
+    protected long evalLong(PackContext context) {
+        return this.arg().__evalString(context).length();
+    }
 }
@@ -13,15 +13,19 @@
  */
 package net.kyou.pack.param.expr.pipe;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackCodegen;
 import net.kyou.pack.PackContext;
+import net.kyou.pack.UnpackContext;
 import net.kyou.pack.param.Param;
 import net.kyou.pack.param.expr.Expr;
 import net.kyou.pack.param.expr.ExprTag;
 import net.kyou.pack.param.expr.ExprTag.ExprType;
+import net.kyou.util.KyouByteOutputStream;
 
 /**
  * 管道表达式
@@ -64,6 +68,9 @@ public abstract class PipeExpr extends Expr {
     @Override
     protected Object eval(PackContext context) {
         Object result = this.param.__eval(context);
+        if (result instanceof byte[])
+            // 兼容计算结果为byte[]的表达式
+            result = ByteBuffer.wrap((byte[]) result);
         return this.eval(result, context);
     }
     
@@ -78,6 +85,111 @@ public abstract class PipeExpr extends Expr {
      */
     protected abstract Object eval(Object result, PackContext context);
     
+    /**
+     * 获取作为该管道表达式的参数的表达式
+     * 
+     * @return 作为参数的表达式
+     */
+    protected Expr arg() {
+        return this.param;
+    }
+    
+    @Override
+    protected boolean constant() {
+        return super.constant() && this.param.__constant();
+    }
+    
+    /**
+     * 尝试将该管道表达式与作为参数的表达式合并成一个表达式
+     * <p>
+     * 在创建管道表达式之后调用。默认不合并，派生类可以重写此方法，在常见的表达式组合上以一个表达式完成整个计算，省去中间结果。
+     * </p>
+     * 
+     * @return 合并后的表达式，如果不合并则返回自身
+     */
+    PipeExpr fuse() {
+        return this;
+    }
+    
+    @Override
+    protected Object measure(long length, PackContext context) {
+        Object result = this.param.__measure(length, context);
+        if (result == null)
+            return null;
+        return this.eval(result, context);
+    }
+    
+    @Override
+    protected boolean write(KyouByteOutputStream s, Charset encoding, PackContext context) {
+        return this.transparent(encoding) && this.param.__write(s, encoding, context);
+    }
+    
+    @Override
+    protected String generate(PackCodegen g) {
+        String arg = this.param.__generate(g);
+        if (arg == null)
+            return null;
+        return this.generate(arg, g);
+    }
+    
+    @Override
+    protected String generateWrite(Charset encoding, PackCodegen g) {
+        return this.transparent(encoding) ? this.param.__generateWrite(encoding, g) : null;
+    }
+    
+    /**
+     * 生成计算该管道表达式的代码
+     * <p>
+     * 默认不支持代码生成，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param arg
+     *            计算参数表达式的代码
+     * @param g
+     *            组包代码生成器
+     * @return 计算该表达式的代码。如果不支持代码生成则返回null
+     */
+    protected String generate(String arg, PackCodegen g) {
+        return null;
+    }
+    
+    @Override
+    protected void assign(Object value, UnpackContext context) {
+        Object result = this.inverse(value, context);
+        if (result != null)
+            this.param.__assign(result, context);
+    }
+    
+    /**
+     * 根据该管道表达式的结果反推前一个参数的计算结果
+     * <p>
+     * 默认无法反推，派生类可以重写此方法以提供自身的实现。
+     * </p>
+     * 
+     * @param value
+     * @param context
+     * @return 前一个参数的计算结果，如果无法反推则返回null
+     */
+    protected Object inverse(Object value, UnpackContext context) {
+        return null;
+    }
+    
+    @Override
+    protected boolean unpack(ByteBuffer buffer, Charset encoding, UnpackContext context) {
+        return this.transparent(encoding) && this.param.__unpack(buffer, encoding, context);
+    }
+    
+    /**
+     * 判断该管道表达式在采用指定编码的参数中是否不改变字节，即前一个参数可以直接向流中输出自身或从缓冲区中解析自身
+     * 
+     * @param encoding
+     *            参数采用的编码
+     * @return 默认为false
+     */
+    protected boolean transparent(Charset encoding) {
+        return false;
+    }
+    
     @Override
     public String toString() {
         return (this.postfix == null ? this.body : this.body + "." + this.postfix) + " " + this.param.toString();
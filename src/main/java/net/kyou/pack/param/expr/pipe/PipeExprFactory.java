@@ -103,7 +103,7 @@ public class PipeExprFactory {
         try {
             logger.debug("Create pipe expr. body: " + body + ", postfix: " + postfix);
             
-            PipeExpr expr = this.factory.create(body, postfix, param, arg, encoding);
+            PipeExpr expr = this.factory.create(body, postfix, param, arg, encoding).fuse();
             
             logger.debug("Pipe expr created. name: " + param + ", expr: " + expr);
             return expr;
@@ -112,6 +112,28 @@ public class PipeExprFactory {
         }
     }
     
+    /**
+     * 如果表达式是常量管道表达式，则预先计算出结果
+     * 
+     * @param expr
+     *            创建好的表达式
+     * @return 折叠后的表达式。如果表达式不是常量管道表达式，或者计算失败，则返回原表达式，留待组包时处理
+     */
+    public Expr fold(Expr expr) {
+        if (!(expr instanceof PipeExpr) || !expr.__constant())
+            return expr;
+        
+        try {
+            Expr folded = FoldedExpr.fold((PipeExpr) expr);
+            
+            logger.debug("Pipe expr folded. expr: " + expr);
+            return folded;
+        } catch (RuntimeException ex) {
+            logger.debug("Pipe expr fold fail. expr: " + expr, ex);
+            return expr;
+        }
+    }
+    
     /**
      * 实际的管道表达式工厂
      * 
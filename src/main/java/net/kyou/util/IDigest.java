@@ -0,0 +1,48 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.util;
+
+/**
+ * 在字节流上逐步计算的校验和
+ * <p>
+ * 由{@link KyouByteOutputStream#tap(int, IDigest)}在字节写入流的过程中逐步更新，CRC32、LRC、MAC等算法都以字节数组的形式给出结果。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public interface IDigest {
+    /**
+     * 用一段字节更新校验和
+     * 
+     * @param b
+     *            字节数组
+     * @param off
+     *            起始下标
+     * @param len
+     *            字节数
+     */
+    public void update(byte[] b, int off, int len);
+    
+    /**
+     * 将校验和恢复到初始状态
+     */
+    public void reset();
+    
+    /**
+     * 取出校验和的结果
+     * 
+     * @return 校验和的各个字节
+     */
+    public byte[] digest();
+}
@@ -13,7 +13,15 @@
  */
 package net.kyou.util;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
@@ -23,24 +31,185 @@ import net.kyou.exception.KyouException;
  * <p>
  * 该流主要用于承载组包时组出来的字节
  * </p>
+ * <p>
+ * 如果在构造时指定了目标流，则在写入的过程中会把已经确定不再改变的字节分块输出到目标流中，缓存中只保留最后的一部分字节，使得组包大报文时占用的内存保持平稳。<br/>
+ * 以下几种字节不会被输出，直到它们确定下来为止：
+ * <li>通过{@link #hold(int)}保留的位置之后的字节，如等待回填的长度、正在临时组包的子元素</li>
+ * <li>最后的一块字节，以便{@link #backspace(int)}回退</li>
+ * 流中的位置（{@link #size()}、{@link #view(int)}、{@link #patch(int, int, int)}等使用的位置）总是从流的开头算起，包括已经输出到目标流中的字节。
+ * </p>
+ * <p>
+ * 如果在构造时指定了目标缓冲区，则从缓冲区的position开始写入：堆缓冲区直接使用其底层数组作为缓存，直接缓冲区则作为目标流分块写入。<br/>
+ * 超出缓冲区limit的字节不会写入缓冲区，此时{@link #size()}仍会给出完整的字节数，调用者可以据此得知还需要多少空间。缓冲区的position不会被修改。
+ * </p>
  * 
  * @author nuclearg
  */
 public class KyouByteOutputStream extends OutputStream {
+    /**
+     * 默认的分块大小
+     */
+    private static final int DEFAULT_CHUNK = 8192;
+    /**
+     * 写入直接缓冲区时的分块大小
+     */
+    private static final int BUFFER_CHUNK = 256;
+
     /**
      * 缓存
      */
     private byte[] buffer;
+    /**
+     * 缓存中第一个字节的下标
+     */
+    private int start;
+    /**
+     * 缓存中可以使用的空间的末尾
+     */
+    private int end;
     /**
      * 写入指针的当前位置
      */
     private int pos;
+    /**
+     * 缓存中下标为0的字节在流中的位置，通常即为已经输出到目标流中的字节数
+     */
+    private long offset;
+    /**
+     * 目标流，如果为null则所有字节都保留在缓存中
+     */
+    private final OutputStream sink;
+    /**
+     * 分块大小
+     */
+    private final int chunk;
+    /**
+     * 直接在其底层数组上写入的目标缓冲区
+     */
+    private final ByteBuffer target;
+    /**
+     * 保留的位置
+     */
+    private long[] holds = new long[4];
+    /**
+     * 保留的位置的数量
+     */
+    private int holdCount;
+    /**
+     * 正在计算的校验和
+     */
+    private IDigest[] taps;
+    /**
+     * 各个校验和已经计算到的位置
+     */
+    private long[] tapped;
+    /**
+     * 正在计算的校验和的数量
+     */
+    private int tapCount;
+    /**
+     * 最近一次使用的字符编码器，与String.getBytes()一样替换无法编码的字符
+     */
+    private CharsetEncoder encoder;
+    /**
+     * 编码时暂存字符的缓冲区
+     */
+    private CharBuffer chars;
+    /**
+     * 编码时包装缓存的缓冲区
+     */
+    private ByteBuffer window;
 
     /**
      * 初始化一个KyouByteOutputStream对象
      */
     public KyouByteOutputStream() {
-        this.buffer = new byte[32];
+        this(32);
+    }
+
+    /**
+     * 初始化一个KyouByteOutputStream对象
+     * 
+     * @param capacity
+     *            缓存的初始大小
+     */
+    public KyouByteOutputStream(int capacity) {
+        if (capacity <= 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalChunkSize, String.valueOf(capacity));
+
+        this.buffer = new byte[capacity];
+        this.end = this.buffer.length;
+        this.sink = null;
+        this.chunk = 0;
+        this.target = null;
+    }
+
+    /**
+     * 初始化一个向目标流分块输出的KyouByteOutputStream对象
+     * 
+     * @param sink
+     *            目标流
+     */
+    public KyouByteOutputStream(OutputStream sink) {
+        this(sink, DEFAULT_CHUNK);
+    }
+
+    /**
+     * 初始化一个向目标流分块输出的KyouByteOutputStream对象
+     * 
+     * @param sink
+     *            目标流
+     * @param chunk
+     *            分块大小，每次至少向目标流输出这么多字节，同时缓存中至少保留这么多字节以供回退
+     */
+    public KyouByteOutputStream(OutputStream sink, int chunk) {
+        if (sink == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        if (chunk <= 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalChunkSize, String.valueOf(chunk));
+
+        this.buffer = new byte[chunk * 4];
+        this.end = this.buffer.length;
+        this.sink = sink;
+        this.chunk = chunk;
+        this.target = null;
+    }
+
+    /**
+     * 初始化一个向目标缓冲区写入的KyouByteOutputStream对象
+     * 
+     * @param target
+     *            目标缓冲区，从其position开始写入，不能超过其limit
+     */
+    public KyouByteOutputStream(ByteBuffer target) {
+        this(target, target != null && target.hasArray() ? null : new BufferSink(target));
+    }
+
+    /**
+     * 初始化一个向目标缓冲区写入的KyouByteOutputStream对象
+     */
+    private KyouByteOutputStream(ByteBuffer target, BufferSink sink) {
+        if (target == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        if (target.isReadOnly())
+            throw new KyouException(KyouErr.Base.ByteStream.ReadOnlyTarget);
+
+        if (sink == null) {
+            // 堆缓冲区，直接在其底层数组上写入
+            this.buffer = target.array();
+            this.start = target.arrayOffset() + target.position();
+            this.end = target.arrayOffset() + target.limit();
+            this.pos = this.start;
+            this.offset = -this.start;
+            this.chunk = 0;
+            this.target = target;
+        } else {
+            this.buffer = new byte[BUFFER_CHUNK * 4];
+            this.end = this.buffer.length;
+            this.chunk = BUFFER_CHUNK;
+            this.target = null;
+        }
+        this.sink = sink;
     }
 
     @Override
@@ -64,6 +233,315 @@ public class KyouByteOutputStream extends OutputStream {
         this.pos += len;
     }
 
+    /**
+     * 将缓冲区中从position到limit的字节写入流中，不改变缓冲区的position
+     * 
+     * @param b
+     *            缓冲区
+     */
+    public void write(ByteBuffer b) {
+        this.write(b, 0, b.remaining());
+    }
+
+    /**
+     * 将缓冲区中从position+off开始的len个字节写入流中，不改变缓冲区的position
+     * <p>
+     * 基于数组的缓冲区（包括{@link #view(int)}返回的视图）直接从数组中复制，不需要创建缓冲区的副本。
+     * </p>
+     * 
+     * @param b
+     *            缓冲区
+     * @param off
+     *            相对于position的偏移量
+     * @param len
+     *            字节数
+     */
+    public void write(ByteBuffer b, int off, int len) {
+        this.ensure(len);
+
+        if (b.hasArray())
+            System.arraycopy(b.array(), b.arrayOffset() + b.position() + off, this.buffer, this.pos, len);
+        else {
+            ByteBuffer src = b.duplicate();
+            src.position(src.position() + off);
+            src.get(this.buffer, this.pos, len);
+        }
+
+        this.pos += len;
+    }
+
+    /**
+     * 将同一个字节重复写入流中
+     * 
+     * @param b
+     *            字节
+     * @param count
+     *            重复的次数
+     */
+    public void fill(int b, int count) {
+        if (count <= 0)
+            return;
+        this.ensure(count);
+
+        Arrays.fill(this.buffer, this.pos, this.pos + count, (byte) b);
+
+        this.pos += count;
+    }
+
+    /**
+     * 将16位整数按照指定的字节序写入流中
+     * 
+     * @param value
+     *            整数，只写入低16位
+     * @param endian
+     *            字节序 <li>true - 大尾</li><li>false - 小尾</li>
+     */
+    public void writeInt16(long value, boolean endian) {
+        this.writeInt(value, 2, endian);
+    }
+
+    /**
+     * 将32位整数按照指定的字节序写入流中
+     * 
+     * @param value
+     *            整数，只写入低32位
+     * @param endian
+     *            字节序 <li>true - 大尾</li><li>false - 小尾</li>
+     */
+    public void writeInt32(long value, boolean endian) {
+        this.writeInt(value, 4, endian);
+    }
+
+    /**
+     * 将64位整数按照指定的字节序写入流中
+     * 
+     * @param value
+     *            整数
+     * @param endian
+     *            字节序 <li>true - 大尾</li><li>false - 小尾</li>
+     */
+    public void writeInt64(long value, boolean endian) {
+        this.writeInt(value, 8, endian);
+    }
+
+    /**
+     * 将32位浮点数按照指定的字节序以IEEE 754格式写入流中
+     * 
+     * @param value
+     *            浮点数
+     * @param endian
+     *            字节序 <li>true - 大尾</li><li>false - 小尾</li>
+     */
+    public void writeFloat(float value, boolean endian) {
+        this.writeInt(Float.floatToIntBits(value), 4, endian);
+    }
+
+    /**
+     * 将64位浮点数按照指定的字节序以IEEE 754格式写入流中
+     * 
+     * @param value
+     *            浮点数
+     * @param endian
+     *            字节序 <li>true - 大尾</li><li>false - 小尾</li>
+     */
+    public void writeDouble(double value, boolean endian) {
+        this.writeInt(Double.doubleToLongBits(value), 8, endian);
+    }
+
+    /**
+     * 将整数的绝对值的十进制数字写入流中
+     * <p>
+     * 从最低位开始直接写入缓存，不生成临时的字符串。只写入最低的len位数字，不足len位时在左边补上表示0的字节。
+     * </p>
+     * 
+     * @param value
+     *            整数，可以为负数（包括{@link Long#MIN_VALUE}）
+     * @param len
+     *            数字的位数
+     * @param digits
+     *            0~9这10个数字编码后的字节
+     */
+    public void writeDigits(long value, int len, byte[] digits) {
+        if (len <= 0)
+            return;
+        this.ensure(len);
+
+        byte[] buffer = this.buffer;
+        int pos = this.pos + len;
+        // 按照负数计算，以免Long.MIN_VALUE取反后溢出
+        for (long n = value > 0 ? -value : value; pos > this.pos; n /= 10)
+            buffer[--pos] = digits[(int) -(n % 10)];
+
+        this.pos += len;
+    }
+
+    /**
+     * 将整数的低len个字节按照指定的字节序直接写入缓存，不生成临时的字节数组
+     */
+    void writeInt(long value, int len, boolean endian) {
+        this.ensure(len);
+
+        byte[] buffer = this.buffer;
+        int pos = this.pos;
+        if (endian)
+            for (int shift = (len - 1) * 8; shift >= 0; shift -= 8)
+                buffer[pos++] = (byte) (value >> shift);
+        else
+            for (int i = 0; i < len; i++, value >>= 8)
+                buffer[pos++] = (byte) value;
+
+        this.pos = pos;
+    }
+
+    /**
+     * 将字符串中的字符逐个查表编码为一个字节写入流中，直到遇到不能查表编码的字符为止
+     * <p>
+     * 用于不经过JDK的编码器的快速路径，剩下的字符可以通过{@link #write(String, int, int, Charset)}写入。
+     * </p>
+     * 
+     * @param str
+     *            字符串
+     * @param start
+     *            开始的位置
+     * @param end
+     *            结束的位置
+     * @param charset
+     *            查表编码的字符集
+     * @return 停下来的位置，如果所有字符都已写入则为end
+     */
+    public int writeChars(String str, int start, int end, KyouCharset charset) {
+        this.ensure(end - start);
+
+        byte[] buffer = this.buffer;
+        int pos = this.pos;
+        int i = start;
+        for (int b; i < end && (b = charset.map(str.charAt(i))) >= 0; i++)
+            buffer[pos++] = (byte) b;
+
+        this.pos = pos;
+        return i;
+    }
+
+    /**
+     * 将字符串按照指定的编码写入流中，与{@link String#getBytes(Charset)}的结果相同
+     * <p>
+     * 字符直接编码到缓存中，编码器在同一个流中重复使用，不需要生成临时的字节数组。
+     * </p>
+     * 
+     * @param str
+     *            字符串
+     * @param start
+     *            开始的位置
+     * @param end
+     *            结束的位置
+     * @param encoding
+     *            编码
+     */
+    public void write(String str, int start, int end, Charset encoding) {
+        CharBuffer in = this.chars(str, start, end);
+        CharsetEncoder encoder = this.encoder(encoding);
+
+        CoderResult result;
+        do {
+            this.ensure((int) (in.remaining() * encoder.maxBytesPerChar()) + 8);
+            ByteBuffer window = this.window(this.end);
+
+            result = encoder.encode(in, window, true);
+            if (result.isUnderflow())
+                result = encoder.flush(window);
+
+            this.pos = window.position();
+        } while (result.isOverflow());
+    }
+
+    /**
+     * 将字符串按照指定的编码写入流中，但最多写入max个字节
+     * <p>
+     * 超出时在字符的边界截断，不会写入半个字符。
+     * </p>
+     * 
+     * @param str
+     *            字符串
+     * @param start
+     *            开始的位置
+     * @param end
+     *            结束的位置
+     * @param encoding
+     *            编码
+     * @param max
+     *            最多写入的字节数
+     * @return 停下来的位置，如果所有字符都已写入则为end
+     */
+    public int write(String str, int start, int end, Charset encoding, int max) {
+        CharBuffer in = this.chars(str, start, end);
+        CharsetEncoder encoder = this.encoder(encoding);
+
+        this.ensure(max);
+        ByteBuffer window = this.window(this.pos + max);
+
+        if (encoder.encode(in, window, true).isUnderflow())
+            encoder.flush(window);
+
+        this.pos = window.position();
+        return start + in.position();
+    }
+
+    /**
+     * 获取包装缓存的缓冲区，从写入指针的当前位置开始，到指定的下标为止
+     */
+    private ByteBuffer window(int limit) {
+        if (this.window == null || this.window.array() != this.buffer)
+            this.window = ByteBuffer.wrap(this.buffer);
+        this.window.limit(limit).position(this.pos);
+        return this.window;
+    }
+
+    /**
+     * 获取编码器，使用前已经重置
+     */
+    CharsetEncoder encoder(Charset encoding) {
+        if (this.encoder == null || !this.encoder.charset().equals(encoding))
+            this.encoder = encoding.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return this.encoder.reset();
+    }
+
+    /**
+     * 将字符串中的一段复制到暂存字符的缓冲区中
+     */
+    CharBuffer chars(String str, int start, int end) {
+        if (this.chars == null || this.chars.capacity() < end - start)
+            this.chars = CharBuffer.allocate(Math.max(end - start, 64));
+
+        str.getChars(start, end, this.chars.array(), 0);
+        this.chars.limit(end - start).position(0);
+        return this.chars;
+    }
+
+    /**
+     * 将缓存中的所有字节输出到目标流中
+     * <p>
+     * 如果没有目标流则不进行任何操作。调用时不能有尚未释放的保留位置。<br/>
+     * 如果是在目标缓冲区上直接写入，但中途因临时写入的字节（如回填之前的实际内容）超出了缓冲区的容量而换用了自己的缓存，则在最终的字节数不超过缓冲区容量时将其写回缓冲区。
+     * </p>
+     */
+    @Override
+    public void flush() {
+        if (this.target != null && this.buffer != this.target.array() && this.size() <= this.target.remaining())
+            this.target.duplicate().put(this.buffer, this.start, this.pos - this.start);
+        if (this.sink == null)
+            return;
+        if (this.holdCount > 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalFlush, "hold: " + this.holds[0]);
+
+        this.drain(this.pos);
+
+        try {
+            this.sink.flush();
+        } catch (IOException ex) {
+            throw new KyouException(KyouErr.Base.Stream.WriteOutputStreamFail, ex);
+        }
+    }
+
     @Override
     public void close() {
     }
@@ -74,35 +552,344 @@ public class KyouByteOutputStream extends OutputStream {
      * @return 流中存储的字节的一个副本
      */
     public byte[] export() {
+        if (this.offset != 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalExport, "flushed: " + this.offset);
+
         byte[] bytes = new byte[this.pos];
         System.arraycopy(this.buffer, 0, bytes, 0, this.pos);
         return bytes;
     }
 
+    /**
+     * 将流中存储的字节写入指定的缓冲区，不复制出新的字节数组
+     * <p>
+     * 如果缓冲区的剩余空间足够，则从缓冲区的position开始写入，并将position移到写入的字节的末尾；否则不写入任何字节。
+     * </p>
+     * 
+     * @param target
+     *            目标缓冲区
+     * @return 0表示写入成功，大于0表示缓冲区的剩余空间不足，值为还需要的字节数
+     */
+    public int exportTo(ByteBuffer target) {
+        if (this.offset != 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalExport, "flushed: " + this.offset);
+        if (target == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+
+        int overflow = this.pos - target.remaining();
+        if (overflow > 0)
+            return overflow;
+
+        target.put(this.buffer, 0, this.pos);
+        return 0;
+    }
+
+    /**
+     * 将流中存储的字节写入指定的流，不复制出新的字节数组
+     * 
+     * @param out
+     *            输出流
+     */
+    public void exportTo(OutputStream out) {
+        if (this.offset != 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalExport, "flushed: " + this.offset);
+        if (out == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+
+        try {
+            out.write(this.buffer, 0, this.pos);
+        } catch (IOException ex) {
+            throw new KyouException(KyouErr.Base.Stream.WriteOutputStreamFail, ex);
+        }
+    }
+
+    /**
+     * 清空流中的所有字节及保留的位置，以便重新使用该流
+     * <p>
+     * 已经扩充过的缓存会被保留，重新使用时不必再逐步扩充。如果有目标流，则之后写入的字节将作为一段新的内容继续输出到目标流中。
+     * </p>
+     */
+    public void reset() {
+        this.pos = this.start;
+        this.offset = -this.start;
+        this.holdCount = 0;
+        this.tapCount = 0;
+    }
+
+    /**
+     * 获取缓存目前的大小
+     * 
+     * @return 缓存的大小
+     */
+    int capacity() {
+        return this.buffer.length;
+    }
+
+    /**
+     * 获取流中目前已有的字节数，包括已经输出到目标流中的字节
+     * 
+     * @return 流中目前已有的字节数
+     */
+    public int size() {
+        return (int) (this.offset + this.pos);
+    }
+
+    /**
+     * 获取流中从指定位置到末尾的字节的视图
+     * <p>
+     * 视图与流共享同一块缓存，不复制字节。之后对流的写入（包括回退之后的写入）可能会覆盖视图中的内容，因此视图只应在下一次写入之前使用。<br/>
+     * 如果流有目标流，则需要先通过{@link #hold(int)}保留start，以免这部分字节被输出。
+     * </p>
+     * 
+     * @param start
+     *            起始位置
+     * @return 从start到流的末尾的字节的视图
+     */
+    public ByteBuffer view(int start) {
+        int index = this.index(start);
+        return ByteBuffer.wrap(this.buffer, index, this.pos - index).slice();
+    }
+
+    /**
+     * 保留流中的某个位置，在释放之前该位置及之后的字节不会被输出到目标流中
+     * 
+     * @param position
+     *            要保留的位置
+     */
+    public void hold(int position) {
+        this.index(position);
+
+        if (this.holdCount == this.holds.length) {
+            long[] holds = new long[this.holds.length * 2];
+            System.arraycopy(this.holds, 0, holds, 0, this.holdCount);
+            this.holds = holds;
+        }
+        this.holds[this.holdCount++] = position;
+    }
+
+    /**
+     * 释放之前通过{@link #hold(int)}保留的位置
+     * 
+     * @param position
+     *            要释放的位置
+     */
+    public void release(int position) {
+        for (int i = this.holdCount - 1; i >= 0; i--)
+            if (this.holds[i] == position) {
+                System.arraycopy(this.holds, i + 1, this.holds, i, this.holdCount - i - 1);
+                this.holdCount--;
+                return;
+            }
+    }
+
+    /**
+     * 在流的末尾预留指定数量的字节，之后再通过{@link #patch(int, int, int)}回填
+     * <p>
+     * 预留的字节先以0占位，并通过{@link #hold(int)}保留，在回填之前不会被输出到目标流中。适用于先写入内容、再回填内容之前的长度等场合。
+     * </p>
+     * 
+     * @param len
+     *            预留的字节数
+     * @return 预留的位置
+     */
+    public int reserve(int len) {
+        int slot = this.size();
+        this.hold(slot);
+        this.fill(0, len);
+        return slot;
+    }
+
+    /**
+     * 从流中的某个位置开始计算校验和，直到调用{@link #untap(IDigest)}为止
+     * <p>
+     * 之后的字节在输出到目标流时顺便更新校验和，不需要在组包完毕后再遍历一遍这部分字节，也不会为此复制字节。
+     * 没有目标流时则在{@link #untap(IDigest)}时直接从缓存中计算。
+     * </p>
+     * 
+     * @param start
+     *            开始计算校验和的位置，不能早于已经输出到目标流中的字节
+     * @param checksum
+     *            校验和，可以包装{@link javax.crypto.Mac}等算法
+     */
+    public void tap(int start, IDigest checksum) {
+        if (start < this.offset + this.start || start > this.size())
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalPosition, "position: " + start + " flushed: " + (this.offset + this.start) + " total: " + this.size());
+
+        if (this.taps == null) {
+            this.taps = new IDigest[2];
+            this.tapped = new long[2];
+        } else if (this.tapCount == this.taps.length) {
+            this.taps = Arrays.copyOf(this.taps, this.tapCount * 2);
+            this.tapped = Arrays.copyOf(this.tapped, this.tapCount * 2);
+        }
+        this.taps[this.tapCount] = checksum;
+        this.tapped[this.tapCount] = start;
+        this.tapCount++;
+    }
+
+    /**
+     * 结束计算之前通过{@link #tap(int, IDigest)}开始的校验和
+     * <p>
+     * 校验和的范围为开始的位置到流的末尾，调用后校验和中即为这部分字节的结果。调用时这部分字节中不能有尚未回填的保留位置。
+     * </p>
+     * 
+     * @param checksum
+     *            校验和
+     */
+    public void untap(IDigest checksum) {
+        int index = -1;
+        for (int i = 0; i < this.tapCount; i++)
+            if (this.taps[i] == checksum)
+                index = i;
+        if (index < 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalDigest, "checksum: " + checksum);
+
+        int start = (int) this.tapped[index];
+        for (int i = 0; i < this.holdCount; i++)
+            if (this.holds[i] >= start)
+                throw new KyouException(KyouErr.Base.ByteStream.IllegalDigest, "hold: " + this.holds[i] + " start: " + start);
+
+        this.digest(checksum, start, this.size());
+
+        System.arraycopy(this.taps, index + 1, this.taps, index, this.tapCount - index - 1);
+        System.arraycopy(this.tapped, index + 1, this.tapped, index, this.tapCount - index - 1);
+        this.taps[--this.tapCount] = null;
+    }
+
+    /**
+     * 用流中从start到end的字节更新校验和
+     */
+    void digest(IDigest checksum, int start, int end) {
+        if (end > start)
+            checksum.update(this.buffer, this.index(start), end - start);
+    }
+
     /**
      * 回退掉最后放到流中的指定数量的字节
      * 
      * @param backspace
      *            要回退的字节数量<br/>
-     *            该值不能小于0，并且不能大于流中目前已有的字节数。
+     *            该值不能小于0，并且不能大于流中目前已有的字节数。如果流有目标流，则不能回退已经输出到目标流中的字节。
      */
     public void backspace(int backspace) {
         if (backspace < 0)
             throw new KyouException(KyouErr.Base.ByteStream.IllegalBackspaceNum, String.valueOf(backspace));
-        if (backspace > this.pos)
-            throw new KyouException(KyouErr.Base.ByteStream.IllegalBackspaceNum, "backspace: " + backspace + " total: " + this.pos);
+        if (backspace > this.pos - this.start)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalBackspaceNum, "backspace: " + backspace + " total: " + (this.pos - this.start));
 
         this.pos -= backspace;
     }
 
+    /**
+     * 将流末尾的字节移动到之前预留的位置，用于回填在写入时还无法确定的内容（如后面的子元素的长度）
+     * <p>
+     * 调用前先在slot处写入len个字节作为占位，之后在start处（即流的末尾）写入实际的内容，再调用此方法将其移回slot处。调用后流的长度恢复为start。<br/>
+     * 如果slot是通过{@link #hold(int)}保留的，则会同时释放该位置。
+     * </p>
+     * 
+     * @param slot
+     *            预留的位置
+     * @param len
+     *            预留的字节数
+     * @param start
+     *            实际内容在流中的起始位置，实际内容必须恰好为len个字节
+     */
+    public void patch(int slot, int len, int start) {
+        if (slot < this.offset + this.start || slot + len > start || start > this.size())
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalPatch, "slot: " + slot + " len: " + len + " start: " + start + " total: " + this.size());
+        if (this.size() - start != len)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalPatch, "len: " + len + " actual: " + (this.size() - start));
+
+        System.arraycopy(this.buffer, this.index(start), this.buffer, this.index(slot), len);
+
+        this.pos = this.index(start);
+        this.release(slot);
+    }
+
+    /**
+     * 将流中的位置换算为缓存中的下标
+     */
+    private int index(int position) {
+        if (position < this.offset + this.start || position > this.size())
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalPosition, "position: " + position + " flushed: " + (this.offset + this.start) + " total: " + this.size());
+        return (int) (position - this.offset);
+    }
+
     /**
      * 确保buffer中还有期望的空间
      */
     private void ensure(int space) {
-        if (this.buffer.length - this.pos < space) {
-            byte[] buffer = new byte[(this.buffer.length + space) * 2];
-            System.arraycopy(this.buffer, 0, buffer, 0, this.pos);
-            this.buffer = buffer;
+        if (this.end - this.pos >= space)
+            return;
+
+        // 先尝试把已经确定的字节输出到目标流中，腾出空间
+        if (this.sink != null) {
+            long limit = this.offset + this.pos - this.chunk;
+            for (int i = 0; i < this.holdCount; i++)
+                limit = Math.min(limit, this.holds[i]);
+
+            if (limit - this.offset >= this.chunk) {
+                this.drain((int) (limit - this.offset));
+                if (this.end - this.pos >= space)
+                    return;
+            }
+        }
+
+        // 如果是在目标缓冲区上直接写入，则此时已经超出了缓冲区的容量，之后的字节只用于计算完整的长度
+        byte[] buffer = new byte[(this.end - this.start + space) * 2];
+        System.arraycopy(this.buffer, this.start, buffer, 0, this.pos - this.start);
+        this.buffer = buffer;
+        this.offset += this.start;
+        this.pos -= this.start;
+        this.start = 0;
+        this.end = buffer.length;
+    }
+
+    /**
+     * 将缓存中前len个字节输出到目标流中，并将剩余的字节移到缓存的开头
+     */
+    private void drain(int len) {
+        // 即将输出的字节已经确定下来，顺便更新校验和
+        for (int i = 0; i < this.tapCount; i++)
+            if (this.offset + len > this.tapped[i]) {
+                int index = (int) (this.tapped[i] - this.offset);
+                this.taps[i].update(this.buffer, index, len - index);
+                this.tapped[i] = this.offset + len;
+            }
+
+        try {
+            this.sink.write(this.buffer, 0, len);
+        } catch (IOException ex) {
+            throw new KyouException(KyouErr.Base.Stream.WriteOutputStreamFail, ex);
+        }
+
+        System.arraycopy(this.buffer, len, this.buffer, 0, this.pos - len);
+        this.pos -= len;
+        this.offset += len;
+    }
+
+    /**
+     * 将字节写入目标缓冲区的目标流，超出缓冲区容量的字节会被丢弃
+     */
+    private static class BufferSink extends OutputStream {
+        /**
+         * 目标缓冲区
+         */
+        private final ByteBuffer target;
+
+        BufferSink(ByteBuffer target) {
+            this.target = target == null ? null : target.duplicate();
+        }
+
+        @Override
+        public void write(int b) {
+            if (this.target.hasRemaining())
+                this.target.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.target.put(b, off, Math.min(len, this.target.remaining()));
         }
     }
 }
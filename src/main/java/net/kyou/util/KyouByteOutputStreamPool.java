@@ -0,0 +1,113 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.util;
+
+/**
+ * {@link KyouByteOutputStream}的对象池
+ * <p>
+ * 通过{@link #borrow()}借出的流在用完后应通过{@link #release(KyouByteOutputStream)}归还。归还的流会被清空，但保留已经扩充过的缓存，下次借出时不必再逐步扩充。<br/>
+ * 缓存超过上限的流不会被放回池中，以免长期占用大块内存。
+ * </p>
+ * <p>
+ * 除了显式创建的对象池之外，每个线程还有一个只容纳一个流的对象池，可以通过{@link #local()}获取。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public class KyouByteOutputStreamPool {
+    /**
+     * 借出的新流的缓存初始大小
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * 默认的可以放回池中的流的缓存大小上限
+     */
+    private static final int DEFAULT_MAX_CAPACITY = 1024 * 1024;
+    
+    /**
+     * 各个线程的对象池
+     */
+    private static final ThreadLocal<KyouByteOutputStreamPool> local = new ThreadLocal<KyouByteOutputStreamPool>() {
+        @Override
+        protected KyouByteOutputStreamPool initialValue() {
+            return new KyouByteOutputStreamPool(1, DEFAULT_MAX_CAPACITY);
+        }
+    };
+    
+    /**
+     * 池中的流
+     */
+    private final KyouByteOutputStream[] streams;
+    /**
+     * 池中的流的数量
+     */
+    private int count;
+    /**
+     * 可以放回池中的流的缓存大小上限
+     */
+    private final int maxCapacity;
+    
+    /**
+     * 初始化一个对象池
+     * 
+     * @param size
+     *            池中最多保留的流的数量
+     * @param maxCapacity
+     *            可以放回池中的流的缓存大小上限
+     */
+    public KyouByteOutputStreamPool(int size, int maxCapacity) {
+        this.streams = new KyouByteOutputStream[size];
+        this.maxCapacity = maxCapacity;
+    }
+    
+    /**
+     * 获取当前线程的对象池
+     * <p>
+     * 该对象池只保留一个流。在借出的流归还之前再次借出（如嵌套的组包过程）会得到新创建的流。
+     * </p>
+     * 
+     * @return 当前线程的对象池
+     */
+    public static KyouByteOutputStreamPool local() {
+        return local.get();
+    }
+    
+    /**
+     * 从池中借出一个流，如果池中没有流则新建一个
+     * 
+     * @return 空的流
+     */
+    public synchronized KyouByteOutputStream borrow() {
+        if (this.count == 0)
+            return new KyouByteOutputStream(INITIAL_CAPACITY);
+        
+        KyouByteOutputStream s = this.streams[--this.count];
+        this.streams[this.count] = null;
+        return s;
+    }
+    
+    /**
+     * 将借出的流归还到池中
+     * 
+     * @param s
+     *            通过{@link #borrow()}借出的流，归还之后不能再使用
+     */
+    public synchronized void release(KyouByteOutputStream s) {
+        if (s == null || s.capacity() > this.maxCapacity || this.count == this.streams.length)
+            return;
+        
+        s.reset();
+        this.streams[this.count++] = s;
+    }
+}
@@ -13,6 +13,12 @@
  */
 package net.kyou.util;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
 public class KyouByteUtils {
     /**
      * 将8位整数写成字节
@@ -35,19 +41,7 @@ public class KyouByteUtils {
      * @return 表示该整数的字节
      */
     public static byte[] writeInteger16(long value, boolean endian) {
-        byte b0 = (byte) (value >> 8);
-        byte b1 = (byte) (value & 0xFF);
-
-        byte[] buff = new byte[2];
-        if (endian) {
-            buff[0] = b0;
-            buff[1] = b1;
-        } else {
-            buff[0] = b1;
-            buff[1] = b0;
-        }
-
-        return buff;
+        return writeInteger(value, 2, endian);
     }
 
     /**
@@ -60,26 +54,7 @@ public class KyouByteUtils {
      * @return 表示该整数的字节
      */
     public static byte[] writeInteger32(long value, boolean endian) {
-        byte b0 = (byte) (value >> 24);
-        byte b1 = (byte) ((value & 0xFF0000) >> 16);
-        byte b2 = (byte) ((value & 0xFF00) >> 8);
-        byte b3 = (byte) (value & 0xFF);
-
-        byte[] buff = new byte[4];
-
-        if (endian) {
-            buff[0] = b0;
-            buff[1] = b1;
-            buff[2] = b2;
-            buff[3] = b3;
-        } else {
-            buff[0] = b3;
-            buff[1] = b2;
-            buff[2] = b1;
-            buff[3] = b0;
-        }
-
-        return buff;
+        return writeInteger(value, 4, endian);
     }
 
     /**
@@ -92,19 +67,16 @@ public class KyouByteUtils {
      * @return 保存该整数的字节数组
      */
     public static byte[] writeInteger64(long value, boolean endian) {
-        int i1 = (int) (value >> 32);
-        int i2 = (int) (value & 0xFFFFFFFF);
-
-        byte[] buff = new byte[8];
-
-        if (endian) {
-            System.arraycopy(writeInteger32(i1, endian), 0, buff, 0, 4);
-            System.arraycopy(writeInteger32(i2, endian), 0, buff, 4, 4);
-        } else {
-            System.arraycopy(writeInteger32(i2, endian), 0, buff, 0, 4);
-            System.arraycopy(writeInteger32(i1, endian), 0, buff, 4, 4);
-        }
+        return writeInteger(value, 8, endian);
+    }
 
+    /**
+     * 将整数的低len个字节按照指定的字节序写成一个字节数组
+     */
+    private static byte[] writeInteger(long value, int len, boolean endian) {
+        byte[] buff = new byte[len];
+        for (int i = 0; i < len; i++)
+            buff[endian ? len - 1 - i : i] = (byte) (value >> (i * 8));
         return buff;
     }
 
@@ -135,4 +107,149 @@ public class KyouByteUtils {
         long val = Double.doubleToLongBits(value);
         return writeInteger64(val, endian);
     }
+
+    /**
+     * 复制缓冲区中从position到limit的字节
+     * 
+     * @param buffer
+     *            缓冲区
+     * @return 一个新的缓冲区，其内容与原缓冲区的剩余部分相同
+     */
+    public static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+    
+    /**
+     * 获取在指定编码下可以直接作为一个字节写入的字符的上限
+     * <p>
+     * ISO-8859-1中小于0x100的字符、兼容ASCII的编码（如UTF-8、GBK）中小于0x80的字符，编码后的字节都与字符的值相同，可以不经过编码器直接写入。
+     * </p>
+     * 
+     * @param encoding
+     *            编码
+     * @return 可以直接写入的字符的上限，如果所有字符都需要经过编码器则为0
+     */
+    public static int singleByteLimit(Charset encoding) {
+        if (encoding == null || !encoding.canEncode())
+            return 0;
+        if (encoding.name().equals("ISO-8859-1"))
+            return 0x100;
+        
+        char[] ascii = new char[0x80];
+        for (int i = 0; i < ascii.length; i++)
+            ascii[i] = (char) i;
+        
+        byte[] bytes = new String(ascii).getBytes(encoding);
+        if (bytes.length != ascii.length)
+            return 0;
+        for (int i = 0; i < bytes.length; i++)
+            if (bytes[i] != i)
+                return 0;
+        return 0x80;
+    }
+
+    /**
+     * 从缓冲区的当前位置读取一个无符号整数
+     * <p>
+     * 调用方需保证缓冲区中至少还有len个字节。8字节的整数按有符号数读取
+     * </p>
+     * 
+     * @param buffer
+     *            缓冲区
+     * @param len
+     *            整数的字节数
+     * @param endian
+     *            字节序 <li>true - 大尾</li><li>false - 小尾</li>
+     * @return 读取到的整数
+     */
+    public static long readInteger(ByteBuffer buffer, int len, boolean endian) {
+        int position = buffer.position();
+
+        long value = 0;
+        for (int i = 0; i < len; i++) {
+            int b = buffer.get(endian ? position + i : position + len - 1 - i) & 0xFF;
+            value = (value << 8) | b;
+        }
+
+        buffer.position(position + len);
+        return value;
+    }
+
+    /**
+     * 在缓冲区中从当前位置开始查找指定的字节序列
+     * 
+     * @param buffer
+     *            缓冲区
+     * @param pattern
+     *            要查找的字节序列
+     * @return 字节序列第一次出现的位置（相对于缓冲区的开头），如果未找到则返回-1
+     */
+    public static int indexOf(ByteBuffer buffer, byte[] pattern) {
+        int last = buffer.limit() - pattern.length;
+        for (int i = buffer.position(); i <= last; i++) {
+            int j = 0;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j])
+                j++;
+            if (j == pattern.length)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 将缓冲区中从当前位置到指定位置之间的字节解码为字符串，并将缓冲区的position移至该位置
+     * 
+     * @param buffer
+     *            缓冲区
+     * @param end
+     *            结束位置（相对于缓冲区的开头，不包含）
+     * @param encoding
+     *            编码
+     * @return 解码得到的字符串
+     */
+    public static String readString(ByteBuffer buffer, int end, Charset encoding) {
+        int position = buffer.position();
+
+        String str;
+        if (buffer.hasArray())
+            // 直接使用缓冲区背后的数组，不复制
+            str = new String(buffer.array(), buffer.arrayOffset() + position, end - position, encoding);
+        else {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(end);
+            str = encoding.decode(view).toString();
+        }
+
+        buffer.position(end);
+        return str;
+    }
+
+    /**
+     * 从缓冲区的当前位置开始解码指定个数的字符，缓冲区的position移至最后一个字符之后
+     * 
+     * @param buffer
+     *            缓冲区
+     * @param count
+     *            字符个数
+     * @param encoding
+     *            编码
+     * @return 解码得到的字符串，如果缓冲区中的字节不足以解码出count个字符则返回null，此时缓冲区的position不变
+     */
+    public static String readChars(ByteBuffer buffer, int count, Charset encoding) {
+        CharsetDecoder decoder = encoding.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(count);
+
+        int position = buffer.position();
+        decoder.decode(buffer, chars, true);
+        if (chars.hasRemaining()) {
+            buffer.position(position);
+            return null;
+        }
+
+        chars.flip();
+        return chars.toString();
+    }
 }
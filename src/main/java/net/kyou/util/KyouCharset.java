@@ -0,0 +1,161 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 查表编码的字符集
+ * <p>
+ * 对于可以直接查表编码的字符，组包时不经过JDK的编码器，逐个字符查表写入流中：
+ * <li>兼容ASCII的编码（如UTF-8、GBK）中小于0x80的字符、ISO-8859-1中小于0x100的字符，编码后的字节与字符的值相同</li>
+ * <li>单字节编码（如EBCDIC的Cp037、windows-1252），在首次使用时预先计算出一个从字符到字节的对照表</li>
+ * 其它字符（包括无法编码的字符）仍然交给JDK的编码器处理，结果与{@link String#getBytes(Charset)}相同。
+ * </p>
+ * <p>
+ * 每种编码只会创建一个实例，可以在多个线程之间共享。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public class KyouCharset {
+    /**
+     * 已经创建的实例
+     */
+    private static final ConcurrentMap<Charset, KyouCharset> charsets = new ConcurrentHashMap<Charset, KyouCharset>();
+    /**
+     * 表示字节没有对应的字符，任何单字节编码都不会编码这个字符
+     */
+    private static final char NONE = '\uffff';
+    
+    /**
+     * 编码
+     */
+    private final Charset encoding;
+    /**
+     * 小于该值的字符编码后的字节与字符的值相同
+     */
+    final int limit;
+    /**
+     * 从字符到字节的对照表，如果不是单字节编码则为null
+     */
+    final byte[] table;
+    /**
+     * 从字节到字符的对照表，用于判断字符是否确实可以查表编码
+     */
+    final char[] chars;
+    
+    private KyouCharset(Charset encoding) {
+        this.encoding = encoding;
+        this.limit = KyouByteUtils.singleByteLimit(encoding);
+        
+        if (this.limit < 0x100 && encoding.canEncode() && encoding.newEncoder().maxBytesPerChar() == 1.0f) {
+            this.table = new byte[0x10000];
+            this.chars = new char[0x100];
+            
+            // 解码出各个字节对应的字符，再编码回去，只保留能够原样还原的字符
+            byte[] bytes = new byte[0x100];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = (byte) i;
+            String decoded = new String(bytes, encoding);
+            byte[] encoded = decoded.length() == bytes.length ? decoded.getBytes(encoding) : null;
+            
+            Arrays.fill(this.chars, NONE);
+            for (int i = 0; i < bytes.length; i++) {
+                char c = encoded != null && encoded[i] == bytes[i] ? decoded.charAt(i) : NONE;
+                
+                // 一个字符只对应一个字节，同一个字符对应多个字节时保留第一个
+                if (c != NONE && this.map(c) < 0) {
+                    this.table[c] = bytes[i];
+                    this.chars[i] = c;
+                }
+            }
+        } else {
+            this.table = null;
+            this.chars = null;
+        }
+    }
+    
+    /**
+     * 获取指定编码对应的实例
+     * 
+     * @param encoding
+     *            编码
+     * @return 查表编码的字符集
+     */
+    public static KyouCharset of(Charset encoding) {
+        KyouCharset charset = charsets.get(encoding);
+        if (charset == null) {
+            charsets.putIfAbsent(encoding, new KyouCharset(encoding));
+            charset = charsets.get(encoding);
+        }
+        return charset;
+    }
+    
+    /**
+     * 获取编码
+     * 
+     * @return 编码
+     */
+    public Charset encoding() {
+        return this.encoding;
+    }
+    
+    /**
+     * 查表获取一个字符编码后的字节
+     * 
+     * @param c
+     *            字符
+     * @return 编码后的字节（0~255），如果该字符不能查表编码则为-1
+     */
+    public int map(char c) {
+        if (c < this.limit)
+            return c;
+        if (this.table == null || c == NONE)
+            return -1;
+        
+        byte b = this.table[c];
+        return this.chars[b & 0xFF] == c ? b & 0xFF : -1;
+    }
+    
+    /**
+     * 将字符串编码为字节数组，与{@link String#getBytes(Charset)}的结果相同
+     * 
+     * @param str
+     *            字符串
+     * @return 编码后的字节数组
+     */
+    public byte[] encode(String str) {
+        if (this.limit == 0 && this.table == null)
+            return str.getBytes(this.encoding);
+        
+        byte[] bytes = new byte[str.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = this.map(str.charAt(i));
+            if (b < 0)
+                // 遇到不能查表编码的字符，整个交给JDK的编码器
+                return str.getBytes(this.encoding);
+            bytes[i] = (byte) b;
+        }
+        return bytes;
+    }
+    
+    @Override
+    public String toString() {
+        return this.encoding.name();
+    }
+}
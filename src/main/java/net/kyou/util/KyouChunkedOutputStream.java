@@ -0,0 +1,423 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+/**
+ * 基于一组固定大小的块的输出流
+ * <p>
+ * 与{@link KyouByteOutputStream}不同，缓存不足时只会追加一个新的块，不会复制之前已经写入的字节，适用于组包很大的报文。<br/>
+ * 回退后不再使用的块会被保留下来，之后的写入会重新使用这些块。
+ * </p>
+ * <p>
+ * 跨越块边界的{@link #view(int)}需要把这部分字节复制到一起，{@link #export()}也需要把所有的块复制到一起。
+ * 如果是要输出到流或通道中，应使用{@link #exportTo(OutputStream)}或{@link #writeTo(GatheringByteChannel)}逐块输出。
+ * </p>
+ * 
+ * @author nuclearg
+ */
+public class KyouChunkedOutputStream extends KyouByteOutputStream {
+    /**
+     * 默认的块大小
+     */
+    private static final int DEFAULT_CHUNK = 65536;
+    
+    /**
+     * 块
+     */
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    /**
+     * 块大小
+     */
+    private final int chunk;
+    /**
+     * 流中的字节数
+     */
+    private int size;
+    /**
+     * 编码时暂存字节的缓冲区
+     */
+    private ByteBuffer encoded;
+    /**
+     * 写入十进制数字时暂存字节的缓冲区
+     */
+    private byte[] scratch;
+    
+    /**
+     * 初始化一个KyouChunkedOutputStream对象
+     */
+    public KyouChunkedOutputStream() {
+        this(DEFAULT_CHUNK);
+    }
+    
+    /**
+     * 初始化一个KyouChunkedOutputStream对象
+     * 
+     * @param chunk
+     *            块大小
+     */
+    public KyouChunkedOutputStream(int chunk) {
+        // 不使用父类的缓存
+        super(1);
+        
+        if (chunk <= 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalChunkSize, String.valueOf(chunk));
+        
+        this.chunk = chunk;
+    }
+    
+    @Override
+    public void write(int b) {
+        byte[] chunk = this.chunk(this.size);
+        
+        chunk[this.size % this.chunk] = (byte) b;
+        this.size++;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            byte[] chunk = this.chunk(this.size);
+            int index = this.size % this.chunk;
+            int count = Math.min(len, this.chunk - index);
+            
+            System.arraycopy(b, off, chunk, index, count);
+            
+            this.size += count;
+            off += count;
+            len -= count;
+        }
+    }
+    
+    @Override
+    public void write(ByteBuffer b, int off, int len) {
+        if (b.hasArray()) {
+            this.write(b.array(), b.arrayOffset() + b.position() + off, len);
+            return;
+        }
+        
+        ByteBuffer src = b.duplicate();
+        src.position(src.position() + off);
+        src.limit(src.position() + len);
+        while (src.hasRemaining()) {
+            byte[] chunk = this.chunk(this.size);
+            int index = this.size % this.chunk;
+            int count = Math.min(src.remaining(), this.chunk - index);
+            
+            src.get(chunk, index, count);
+            
+            this.size += count;
+        }
+    }
+    
+    @Override
+    public void fill(int b, int count) {
+        while (count > 0) {
+            byte[] chunk = this.chunk(this.size);
+            int index = this.size % this.chunk;
+            int len = Math.min(count, this.chunk - index);
+            
+            Arrays.fill(chunk, index, index + len, (byte) b);
+            
+            this.size += len;
+            count -= len;
+        }
+    }
+    
+    @Override
+    void writeInt(long value, int len, boolean endian) {
+        // 跨越块边界时逐个字节写入，否则直接写入当前块
+        int index = this.size % this.chunk;
+        if (index + len > this.chunk) {
+            for (int i = 0; i < len; i++)
+                this.write((int) (value >> (endian ? (len - 1 - i) * 8 : i * 8)));
+            return;
+        }
+        
+        byte[] chunk = this.chunk(this.size);
+        if (endian)
+            for (int shift = (len - 1) * 8; shift >= 0; shift -= 8)
+                chunk[index++] = (byte) (value >> shift);
+        else
+            for (int i = 0; i < len; i++, value >>= 8)
+                chunk[index++] = (byte) value;
+        
+        this.size += len;
+    }
+    
+    @Override
+    public void writeDigits(long value, int len, byte[] digits) {
+        // long最多19位，更高的位都是0
+        if (len > 19) {
+            this.fill(digits[0], len - 19);
+            len = 19;
+        }
+        
+        // 先在暂存区中从最低位开始写，再整体写入块中
+        if (this.scratch == null)
+            this.scratch = new byte[19];
+        int pos = len;
+        for (long n = value > 0 ? -value : value; pos > 0; n /= 10)
+            this.scratch[--pos] = digits[(int) -(n % 10)];
+        this.write(this.scratch, 0, len);
+    }
+    
+    @Override
+    public int writeChars(String str, int start, int end, KyouCharset charset) {
+        int i = start;
+        for (int b; i < end && (b = charset.map(str.charAt(i))) >= 0; i++)
+            this.write(b);
+        return i;
+    }
+    
+    /**
+     * 将字符串按照指定的编码写入流中
+     * <p>
+     * 先编码到一个固定大小的缓冲区中，再逐段写入块中。
+     * </p>
+     */
+    @Override
+    public void write(String str, int start, int end, Charset encoding) {
+        CharBuffer in = this.chars(str, start, end);
+        CharsetEncoder encoder = this.encoder(encoding);
+        if (this.encoded == null)
+            this.encoded = ByteBuffer.allocate(256);
+        
+        CoderResult result;
+        do {
+            this.encoded.clear();
+            
+            result = encoder.encode(in, this.encoded, true);
+            if (result.isUnderflow())
+                result = encoder.flush(this.encoded);
+            
+            this.write(this.encoded.array(), 0, this.encoded.position());
+        } while (result.isOverflow());
+    }
+    
+    @Override
+    public int write(String str, int start, int end, Charset encoding, int max) {
+        CharBuffer in = this.chars(str, start, end);
+        CharsetEncoder encoder = this.encoder(encoding);
+        if (this.encoded == null || this.encoded.capacity() < max)
+            this.encoded = ByteBuffer.allocate(Math.max(max, 256));
+        
+        this.encoded.clear();
+        this.encoded.limit(max);
+        if (encoder.encode(in, this.encoded, true).isUnderflow())
+            encoder.flush(this.encoded);
+        
+        this.write(this.encoded.array(), 0, this.encoded.position());
+        return start + in.position();
+    }
+    
+    @Override
+    public void flush() {
+    }
+    
+    @Override
+    public byte[] export() {
+        byte[] bytes = new byte[this.size];
+        this.copy(0, bytes, 0, this.size);
+        return bytes;
+    }
+    
+    @Override
+    public int exportTo(ByteBuffer target) {
+        if (target == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        
+        int overflow = this.size - target.remaining();
+        if (overflow > 0)
+            return overflow;
+        
+        for (int i = 0; i * this.chunk < this.size; i++)
+            target.put(this.chunks.get(i), 0, Math.min(this.chunk, this.size - i * this.chunk));
+        return 0;
+    }
+    
+    @Override
+    public void exportTo(OutputStream out) {
+        if (out == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        
+        try {
+            for (int i = 0; i * this.chunk < this.size; i++)
+                out.write(this.chunks.get(i), 0, Math.min(this.chunk, this.size - i * this.chunk));
+        } catch (IOException ex) {
+            throw new KyouException(KyouErr.Base.Stream.WriteOutputStreamFail, ex);
+        }
+    }
+    
+    /**
+     * 将流中存储的字节以聚集写的方式写入指定的通道
+     * <p>
+     * 对于阻塞的通道会一直写到全部字节写出为止。对于非阻塞的通道，如果某次写入没有写出任何字节则停止写入，返回已写出的字节数，剩余的字节需要调用者自行处理。
+     * </p>
+     * 
+     * @param channel
+     *            输出通道
+     * @return 写入的字节数，小于{@link #size()}表示通道暂时无法写入更多的字节
+     */
+    public long writeTo(GatheringByteChannel channel) {
+        if (channel == null)
+            throw new KyouException(KyouErr.Base.Stream.NullOutputStream);
+        
+        ByteBuffer[] buffers = new ByteBuffer[(this.size + this.chunk - 1) / this.chunk];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = ByteBuffer.wrap(this.chunks.get(i), 0, Math.min(this.chunk, this.size - i * this.chunk));
+        
+        long written = 0;
+        try {
+            while (written < this.size) {
+                long n = channel.write(buffers);
+                if (n == 0)
+                    break;
+                written += n;
+            }
+        } catch (IOException ex) {
+            throw new KyouException(KyouErr.Base.Stream.WriteOutputStreamFail, ex);
+        }
+        return written;
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        this.size = 0;
+    }
+    
+    @Override
+    int capacity() {
+        return this.chunks.size() * this.chunk;
+    }
+    
+    @Override
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * 获取流中从指定位置到末尾的字节的视图
+     * <p>
+     * 如果这部分字节位于同一个块中，则视图与流共享这个块；否则会把这部分字节复制到一起。
+     * </p>
+     */
+    @Override
+    public ByteBuffer view(int start) {
+        this.check(start);
+        
+        if (start == this.size)
+            return ByteBuffer.allocate(0);
+        if (start / this.chunk == (this.size - 1) / this.chunk)
+            return ByteBuffer.wrap(this.chunks.get(start / this.chunk), start % this.chunk, this.size - start).slice();
+        
+        byte[] bytes = new byte[this.size - start];
+        this.copy(start, bytes, 0, bytes.length);
+        return ByteBuffer.wrap(bytes);
+    }
+    
+    @Override
+    public void hold(int position) {
+        // 没有目标流，不需要保留位置
+        this.check(position);
+    }
+    
+    @Override
+    public void release(int position) {
+    }
+    
+    @Override
+    public void backspace(int backspace) {
+        if (backspace < 0)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalBackspaceNum, String.valueOf(backspace));
+        if (backspace > this.size)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalBackspaceNum, "backspace: " + backspace + " total: " + this.size);
+        
+        this.size -= backspace;
+    }
+    
+    @Override
+    public void patch(int slot, int len, int start) {
+        if (slot < 0 || slot + len > start || start > this.size)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalPatch, "slot: " + slot + " len: " + len + " start: " + start + " total: " + this.size);
+        if (this.size - start != len)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalPatch, "len: " + len + " actual: " + (this.size - start));
+        
+        for (int i = 0; i < len; i++)
+            this.chunks.get((slot + i) / this.chunk)[(slot + i) % this.chunk] = this.chunks.get((start + i) / this.chunk)[(start + i) % this.chunk];
+        
+        this.size = start;
+    }
+    
+    @Override
+    void digest(IDigest checksum, int start, int end) {
+        // 逐块更新校验和，不把字节复制到一起
+        while (start < end) {
+            int index = start % this.chunk;
+            int count = Math.min(end - start, this.chunk - index);
+            
+            checksum.update(this.chunks.get(start / this.chunk), index, count);
+            start += count;
+        }
+    }
+    
+    /**
+     * 获取流中指定位置所在的块，如果该块尚不存在则追加一个新的块
+     */
+    private byte[] chunk(int position) {
+        int index = position / this.chunk;
+        if (index == this.chunks.size())
+            this.chunks.add(new byte[this.chunk]);
+        return this.chunks.get(index);
+    }
+    
+    /**
+     * 将流中从指定位置开始的字节复制到数组中
+     */
+    private void copy(int position, byte[] dest, int off, int len) {
+        while (len > 0) {
+            int index = position % this.chunk;
+            int count = Math.min(len, this.chunk - index);
+            
+            System.arraycopy(this.chunks.get(position / this.chunk), index, dest, off, count);
+            
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+    
+    /**
+     * 检查流中的位置是否合法
+     */
+    private void check(int position) {
+        if (position < 0 || position > this.size)
+            throw new KyouException(KyouErr.Base.ByteStream.IllegalPosition, "position: " + position + " total: " + this.size);
+    }
+}
@@ -80,6 +80,49 @@ public class DPathTest {
         Assert.assertTrue(dpath1.equals(dpath3));
     }
     
+    @Test
+    public void testIntern() {
+        // 子路径被缓存
+        DPath a = DPath.root.child("a");
+        Assert.assertSame(a, DPath.root.child("a"));
+        Assert.assertSame(a.child(3), a.child("3"));
+        Assert.assertSame(a.child("3"), a.child(3));
+        Assert.assertEquals("#.a.100000", a.child(100000).toString());
+        
+        // 超出上限的子路径不缓存，但仍然相等
+        Assert.assertNotSame(a.child(100000), a.child(100000));
+        Assert.assertEquals(a.child(100000), a.child("100000"));
+        DPath c = DPath.root.child("c");
+        for (int i = 0; i < 2000; i++)
+            c.child("x" + i);
+        Assert.assertSame(c.child("x0"), c.child("x0"));
+        Assert.assertNotSame(c.child("x1999"), c.child("x1999"));
+        Assert.assertEquals(new DPath("#.c.x1999"), c.child("x1999"));
+        
+        // 与解析出的路径相等
+        DPath b = new DPath("#.a.3.b");
+        Assert.assertNotSame(b, a.child(3).child("b"));
+        Assert.assertEquals(b, a.child(3).child("b"));
+        Assert.assertEquals(b.hashCode(), a.child(3).child("b").hashCode());
+        Assert.assertSame(a.child(3), b.parent());
+        Assert.assertFalse(b.equals(a.child(4).child("b")));
+        Assert.assertFalse(new DPath("x.a").equals(a));
+        
+        // 只有被缓存的子路径才计入整个进程的上限
+        DPath d = DPath.root.child("d");
+        int cached = DPath.cached();
+        d.child("x");
+        d.child("x");
+        d.child(5);
+        d.child(5);
+        d.child(100000);
+        Assert.assertEquals(cached + 2, DPath.cached());
+        for (int i = 0; i < 2000; i++)
+            d.child("y" + i);
+        // 1个下标，加上最多1024个名称
+        Assert.assertEquals(cached + 1 + 1024, DPath.cached());
+    }
+    
     @Test
     public void testToString() {
         Assert.assertEquals("123", new DPath("123").toString());
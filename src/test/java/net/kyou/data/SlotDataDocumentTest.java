@@ -0,0 +1,152 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import net.kyou.Kyou;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.StyleSpecification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlotDataDocumentTest {
+    private static SchemaDocument schema() throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='a'/><struct name='s'><field name='b'/><struct name='arr' array='true'><field name='c'/><field name='d'/></struct></struct><field name='e'/></schema>";
+        return Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+    }
+    
+    @Test
+    public void testFreeze() throws UnsupportedEncodingException {
+        SchemaDocument schema = schema();
+        Assert.assertEquals(-1, schema.<SchemaItem> get("a").slot());
+        
+        schema.freeze();
+        SchemaStruct s = schema.get("s");
+        SchemaStruct arr = s.get("arr");
+        Assert.assertEquals(0, schema.<SchemaItem> get("a").slot());
+        Assert.assertEquals(1, s.slot());
+        Assert.assertEquals(2, s.<SchemaItem> get("b").slot());
+        Assert.assertEquals(3, arr.slot());
+        Assert.assertEquals(4, schema.<SchemaItem> get("e").slot());
+        Assert.assertEquals(5, schema.blockSize);
+        
+        // 数组元素有各自的数据块
+        Assert.assertEquals(0, arr.<SchemaItem> get("c").slot());
+        Assert.assertEquals(1, arr.<SchemaItem> get("d").slot());
+        Assert.assertEquals(2, arr.blockSize);
+        
+        try {
+            schema.remove("a");
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Schema.SchemaFrozen, ex.err);
+        }
+    }
+    
+    @Test
+    public void testGetSet() throws UnsupportedEncodingException {
+        SchemaDocument schema = schema();
+        SlotDataDocument doc = new SlotDataDocument(schema);
+        Assert.assertTrue(schema.frozen());
+        
+        DataBuilder builder = new DataBuilder(schema, doc);
+        builder.value(new DPath("#.a"), "1");
+        builder.value(new DPath("#.s.arr"), "2");
+        builder.value(new DPath("#.s.arr.1.d"), "x");
+        builder.value(new DPath("#.e"), "3");
+        
+        Assert.assertEquals("1", doc.get(new DPath("#.a")));
+        Assert.assertEquals("x", doc.get(new DPath("#.s.arr.1.d")));
+        Assert.assertNull(doc.get(new DPath("#.s.arr.0.d")));
+        Assert.assertNull(doc.get(new DPath("#.s.arr.5.d")));
+        Assert.assertNull(doc.get(new DPath("#.s.b")));
+        Assert.assertNull(doc.get(new DPath("#.f")));
+        Assert.assertNull(doc.get(new DPath("#.s.arr.x.d")));
+        
+        // 按位置取值
+        SchemaStruct arr = schema.<SchemaStruct> get("s").get("arr");
+        Assert.assertEquals("1", doc.root().get(schema.<SchemaItem> get("a")));
+        Assert.assertEquals("2", doc.root().get(arr));
+        Assert.assertEquals("x", doc.root().element(arr, 1).get(arr.<SchemaItem> get("d")));
+        Assert.assertNull(doc.root().element(arr, 2));
+        
+        Assert.assertArrayEquals(new DPath[] { new DPath("#.s.arr.0"), new DPath("#.s.arr.1") }, doc.elements(new DPath("#.s.arr")));
+        Assert.assertNull(doc.elements(new DPath("#.a")));
+        
+        // export仍然给出以路径为键的报文数据
+        Assert.assertSame(doc, builder.document());
+        DataDocument data = builder.export();
+        Assert.assertEquals("x", data.get(new DPath("#.s.arr.1.d")));
+        Assert.assertEquals(doc.toString(), data.toString());
+        
+        try {
+            builder.value(new DPath("#.f"), "1");
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Data.PathNotExist, ex.err);
+        }
+        try {
+            builder.value(new DPath("#.s.arr.0"), "1");
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Data.PathNotEditable, ex.err);
+        }
+    }
+    
+    @Test
+    public void testConvert() throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><data><a>1</a><s.arr>1</s.arr><s.arr.0.c>x</s.arr.0.c><e>3</e></data>";
+        DataDocument data = Kyou.instance.loadData(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        
+        SlotDataDocument doc = new SlotDataDocument(schema(), data);
+        Assert.assertEquals("x", doc.get(new DPath("#.s.arr.0.c")));
+        
+        // 按照报文结构的顺序列出所有值
+        Assert.assertArrayEquals(data.entries().keySet().toArray(), doc.entries().keySet().toArray());
+        Assert.assertEquals(data.toString(), doc.toString());
+    }
+    
+    @Test
+    public void testFieldArray() throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='f' array='true'/><field name='z'/></schema>";
+        SchemaDocument schema = Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        xml = "<?xml version='1.0' encoding='utf-8'?><data><f>2</f><f.0>x</f.0><f.1>y</f.1><z>z</z></data>";
+        DataDocument data = Kyou.instance.loadData(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        
+        // 字段数组的各个数组元素的值存放在各自的数据块中
+        SlotDataDocument doc = new SlotDataDocument(schema, data);
+        Assert.assertEquals("2", doc.get(new DPath("#.f")));
+        Assert.assertEquals("y", doc.get(new DPath("#.f.1")));
+        Assert.assertNull(doc.get(new DPath("#.f.2")));
+        Assert.assertNull(doc.get(new DPath("#.f.0.x")));
+        Assert.assertEquals("x", doc.root().element(schema.<SchemaItem> get("f"), 0).value());
+        Assert.assertArrayEquals(new DPath[] { new DPath("#.f.0"), new DPath("#.f.1") }, doc.elements(new DPath("#.f")));
+        Assert.assertNull(doc.elements(new DPath("#.f.0")));
+        Assert.assertEquals(data.toString(), doc.toString());
+        
+        xml = "<?xml version='1.0' encoding='utf-8'?><spec><config><encoding>utf-8</encoding></config>"
+                + "<style target='#'><format>[%]</format><str>b2s m</str></style>"
+                + "<style target='f'><format>(%)</format><str>b2s m</str></style>"
+                + "<style target='*[FIELD]'><format>%;</format><str>v</str></style></spec>";
+        StyleSpecification style = Kyou.instance.loadStyle(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        Assert.assertArrayEquals("[(x;y;)z;]".getBytes("utf-8"), Kyou.instance.pack(data, schema, style));
+        Assert.assertArrayEquals("[(x;y;)z;]".getBytes("utf-8"), Kyou.instance.pack(doc, schema, style));
+        Assert.assertArrayEquals("[(x;y;)z;]".getBytes("utf-8"), Kyou.instance.prepare(schema, style).pack(doc));
+        Assert.assertArrayEquals("[(x;y;)z;]".getBytes("utf-8"), Kyou.instance.prepare(schema, style, true).pack(doc));
+    }
+}
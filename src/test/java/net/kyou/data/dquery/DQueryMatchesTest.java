@@ -78,4 +78,24 @@ public class DQueryMatchesTest {
         path = DPathUtils.dpath("#.a.b.0.c.1");
         Assert.assertTrue(query.matches(c, path));
     }
+    
+    @Test
+    public void testStatic() {
+        SchemaBuilder builder = new SchemaBuilder();
+        builder.beginStruct(Attrs.NAME, "b", Attrs.ARRAY, "true");
+        builder.field(Attrs.NAME, "c");
+        builder.endStruct();
+        
+        SchemaDocument schema = builder.result();
+        SchemaStruct b = schema.get("b");
+        
+        Assert.assertTrue(new DQuery("#.b.*").isStatic());
+        Assert.assertTrue(new DQuery("b[STRU]").isStatic());
+        Assert.assertFalse(new DQuery("b.*[1]").isStatic());
+        
+        DQuery query = new DQuery("b.*[1]");
+        Assert.assertFalse(query.matches(b, DPathUtils.dpath("#.b.0")));
+        Assert.assertTrue(query.mayMatch(b, DPathUtils.dpath("#.b.0")));
+        Assert.assertFalse(query.mayMatch(b, DPathUtils.dpath("#.b")));
+    }
 }
@@ -0,0 +1,250 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import static net.kyou.ERR.assertError;
+import static net.kyou.pack.PreparedPackerTest.data;
+import static net.kyou.pack.PreparedPackerTest.schema;
+import static net.kyou.pack.PreparedPackerTest.style;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import net.kyou.Kyou;
+import net.kyou.data.DPath;
+import net.kyou.data.DataBuilder;
+import net.kyou.data.DataDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackCodegenTest {
+    @Test
+    public void testPack() throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'><format>[%]</format><str>b2s m</str></style>",
+                "<style target='a.*[0]'><format>first(%)</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='a'><format>a=%;</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%=%;</format><str>n</str><str>v</str></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        DataDocument data = data("1", "2", "3");
+        Assert.assertArrayEquals("[a=first(x=1;)(x=2;);b=3;]".getBytes("utf-8"), packer.pack(data));
+        
+        data = data("x", "y", "z", "w");
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+    }
+    
+    @Test
+    public void testParams() throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'><format>%%%%%%%</format><int len='1'>258</int><int len='2'>258</int><int len='2' endian='big'>258</int><int len='4' endian='big'>-2</int><int len='8'>72623859790382856</int><str>b2s text.abc</str><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>%</format><str>b2s m</str></style>",
+                "<style target='x'><format>%|</format><str len='5' align='right' filling='0'>v</str></style>",
+                "<style target='b'><format>%|%</format><str len='3'>v</str><str len='4' align='left' filling='_'>i2s.16 255</str></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        DataDocument data = data("12", "1234567", "abcdef");
+        byte[] bytes = packer.pack(data);
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), bytes);
+        Assert.assertArrayEquals(new byte[] { 2, 2, 1, 1, 2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE, 8, 7, 6, 5, 4, 3, 2, 1 }, java.util.Arrays.copyOf(bytes, 17));
+        Assert.assertEquals("abc00012|34567|abc|ff__", new String(bytes, 17, bytes.length - 17, "utf-8"));
+    }
+    
+    @Test
+    public void testEncoding() throws IOException {
+        // 各种编码的补位、截断，与解释执行的结果相同
+        StyleSpecification style = style(
+                "<style target='#'><format>%|%|%|%</format>"
+                        + "<str encoding='gbk' len='4' align='right' filling='\u4e2d'>i2s 1</str>"
+                        + "<str encoding='utf-16' len='3' filling='*'>i2s 1</str>"
+                        + "<str encoding='iso-8859-1' len='3' align='right'>b2s text.x\u00e9\u4e2d\u6587</str>"
+                        + "<str encoding='gbk'>b2s text.x\u00e9\u4e2d\u6587</str></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        DataDocument data = data("1", "2", "3");
+        byte[] bytes = packer.pack(data);
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), bytes);
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write("\u4e2d\u4e2d\u4e2d1|".getBytes("gbk"));
+        expected.write("1**".getBytes("utf-16"));
+        expected.write("|\u00e9\u4e2d\u6587|".getBytes("iso-8859-1"));
+        expected.write("x\u00e9\u4e2d\u6587".getBytes("gbk"));
+        Assert.assertArrayEquals(expected.toByteArray(), bytes);
+    }
+    
+    @Test
+    public void testNumeric() throws UnsupportedEncodingException {
+        // 整数直接生成代码，小数字符串退化为解释执行
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>%</format><str>b2s m</str></style>",
+                "<style target='x'><format>%|</format><num len='6' sign='lead'>s2i v</num></style>",
+                "<style target='b'><format>%</format><num len='8' scale='2'>v</num></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        DataDocument data = data("12", "-34", "5.6");
+        Assert.assertArrayEquals("+00012|-00034|00000560".getBytes("utf-8"), packer.pack(data));
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+        
+        try {
+            packer.pack(data("123456", "1"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.PackFail, KyouErr.Pack.NumberOutOfRange);
+        }
+    }
+    
+    @Test
+    public void testBinary() throws UnsupportedEncodingException {
+        // 子元素组包出的字节直接写入或截断，与解释执行的结果相同
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><bytes>m</bytes></style>",
+                "<style target='a'><format>%</format><bytes len='6'>m</bytes></style>",
+                "<style target='a.*'><format>%</format><bytes>m</bytes></style>",
+                "<style target='x'><format>%</format><float len='4' endian='big'>s2i v</float></style>",
+                "<style target='b'><format>%</format><bytes len='4' align='right' filling='2e'>s2b v</bytes></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        DataDocument data = data("1", "2", "xy");
+        Assert.assertArrayEquals(new byte[] { 0x3f, (byte) 0x80, 0, 0, 0x40, 0, '.', '.', 'x', 'y' }, packer.pack(data));
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+    }
+    
+    @Test
+    public void testVariable() throws UnsupportedEncodingException {
+        // 变长域的长度前缀在值写入流之后回填，与解释执行的结果相同
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><lllvar prefix='binary'>m</lllvar></style>",
+                "<style target='a'><format>%</format><bytes>m</bytes></style>",
+                "<style target='a.*'><format>%</format><bytes>m</bytes></style>",
+                "<style target='x'><format>%</format><llvar prefix='bcd'>v</llvar></style>",
+                "<style target='b'><format>%</format><llvar>s2i v</llvar></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        DataDocument data = data("1", "22", "333");
+        Assert.assertArrayEquals(new byte[] { 0, 10, 0x01, '1', 0x02, '2', '2', '0', '3', '3', '3', '3' }, packer.pack(data));
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+    }
+    
+    @Test
+    public void testMember() throws UnsupportedEncodingException {
+        // 子元素直接组包到同一个字节流中，lenb m只取字节数，与解释执行的结果相同
+        StyleSpecification style = style(
+                "<style target='#'><format>%|%</format><int len='1'>lenb m</int><bytes len='14'>m</bytes></style>",
+                "<style target='a'><format>%</format><llvar>m</llvar></style>",
+                "<style target='a.*'><format>%</format><bytes len='3'>m</bytes></style>",
+                "<style target='*[FIELD]'><format>%=%;</format><str>n</str><str>v</str></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        DataDocument data = data("1", "22", "3");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(12);
+        expected.write('|');
+        expected.write("06x=1x=2b=3;".getBytes("utf-8"), 0, 12);
+        expected.write(0);
+        expected.write(0);
+        Assert.assertArrayEquals(expected.toByteArray(), packer.pack(data));
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+    }
+    
+    @Test
+    public void testCache() throws UnsupportedEncodingException {
+        // 多个参数引用m时子元素只组包一次，与解释执行相同
+        assertLookups("(1;)(2;)3;__|(1;)(2;)3;|10", "<format>%|%|%</format><str len='12' filling='_'>b2s m</str><str>b2s m</str><str>i2s lenb m</str>");
+        assertLookups("\n|(1;)(2;)3;", "<format>%|%</format><int len='1'>lenb m</int><bytes>m</bytes>");
+        
+        // 退化为解释执行的参数等待回填子元素的长度时，直接使用生成的代码中组包出来的子元素
+        assertLookups("001000|(1;)(2;)3;", "<format>%|%</format><num len='6' scale='2'>i2s lenb m</num><str>b2s m</str>");
+    }
+    
+    /**
+     * 检查生成的代码组包出的字节，以及报文数据中的x被取出的次数
+     */
+    private static void assertLookups(String expected, String root) throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'>" + root + "</style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        final int[] count = new int[1];
+        DataDocument data = new DataDocument() {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public String get(DPath path) {
+                if (path.name().equals("x"))
+                    count[0]++;
+                return super.get(path);
+            }
+        };
+        DataBuilder builder = new DataBuilder(schema(), data);
+        builder.value(DPath.root.child("a"), "2");
+        builder.value(DPath.root.child("a").child("0").child("x"), "1");
+        builder.value(DPath.root.child("a").child("1").child("x"), "2");
+        builder.value(DPath.root.child("b"), "3");
+        
+        Assert.assertArrayEquals(expected.getBytes("utf-8"), Kyou.instance.prepare(schema(), style, true).pack(data));
+        Assert.assertEquals(2, count[0]);
+    }
+    
+    @Test
+    public void testFallback() throws UnsupportedEncodingException {
+        // bk和null不支持代码生成，退化为解释执行
+        StyleSpecification style = style(
+                "<style target='#'><format>%%%</format><str>i2s 5</str><str>b2s m</str><null>m</null></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>%</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;;%</format><str>v</str><bk>1</bk></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        DataDocument data = data("1", "2", "3");
+        
+        Assert.assertArrayEquals("51;2;3;".getBytes("utf-8"), packer.pack(data));
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+    }
+    
+    @Test
+    public void testEx() throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>%</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;%</format><str>v</str><str>b2s m</str></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style, true);
+        
+        try {
+            packer.pack(data("1", "2"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.PackFail, KyouErr.Pack.RequireSchemaStruct);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import java.io.UnsupportedEncodingException;
+
+import net.kyou.data.AbstractDataDocument;
+import net.kyou.data.DPath;
+import net.kyou.data.SchemaDocument;
+import net.kyou.data.SchemaItem;
+import net.kyou.data.SchemaStruct;
+import net.kyou.data.SlotDataDocument;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackContextTest {
+    @Test
+    public void testEnterLeave() throws UnsupportedEncodingException {
+        SchemaDocument schema = PreparedPackerTest.schema();
+        AbstractDataDocument data = new SlotDataDocument(schema, PreparedPackerTest.data("x", "y", "z"));
+        SchemaStruct a = schema.get("a");
+        SchemaItem x = a.get("x");
+        
+        PackContext context = new PackContext(DPath.root, schema, data, null, null, null);
+        context.cache(0, "root");
+        context.resolve(10);
+        
+        // 进入子元素后是一个全新的状态
+        context.enter(DPath.root.child("a"), a, null);
+        Assert.assertEquals("2", context.value());
+        Assert.assertNull(context.cached(0));
+        Assert.assertEquals(-1, context.length());
+        context.cache(0, "a");
+        
+        for (int i = 0; i < 2; i++) {
+            context.enter(i, a, null);
+            Assert.assertSame(DPath.root.child("a").child(i), context.path);
+            Assert.assertNull(context.value());
+            
+            context.enter(context.path.child("x"), x, null);
+            Assert.assertEquals(i == 0 ? "x" : "y", context.value());
+            context.leave();
+            
+            context.leave();
+        }
+        
+        // 离开后恢复原来的状态
+        Assert.assertEquals("a", context.cached(0));
+        context.leave();
+        Assert.assertSame(DPath.root, context.path);
+        Assert.assertSame(schema, context.schema);
+        Assert.assertEquals("root", context.cached(0));
+        Assert.assertEquals(10, context.length());
+    }
+}
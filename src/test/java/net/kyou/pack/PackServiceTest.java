@@ -16,13 +16,21 @@ package net.kyou.pack;
 import static net.kyou.ERR.assertError;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 
 import net.kyou.Kyou;
+import net.kyou.data.DPath;
+import net.kyou.data.DataBuilder;
 import net.kyou.data.DataDocument;
 import net.kyou.data.SchemaDocument;
+import net.kyou.data.SlotDataDocument;
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouChunkedOutputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -49,6 +57,233 @@ public class PackServiceTest {
         Assert.assertArrayEquals("我人有的和123主产不为这".getBytes("gb2312"), bytes);
     }
     
+    @Test
+    public void testMember() throws UnsupportedEncodingException {
+        // 变长的b2s m直接写入上级的字节流，定长的b2s m使用字节流末尾的视图
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>[%]</format><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str len='12' filling='_'>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        DataDocument data = PreparedPackerTest.data("1", "2", "3");
+        byte[] expected = "[(1;)(2;)____3;]".getBytes("utf-8");
+        
+        Assert.assertArrayEquals(expected, Kyou.instance.pack(data, PreparedPackerTest.schema(), style));
+        Assert.assertArrayEquals(expected, Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data));
+        
+        // m的结果是字节流末尾之后的视图，右对齐时在左边补位不能覆盖它
+        String[][] cases = { { "<bytes len='12' align='right' filling='5f'>m</bytes>", "[__(1;)(2;)3;]" }, { "<bytes len='4' align='right'>m</bytes>", "[;)3;]" },
+                { "<llvar>m</llvar>", "[10(1;)(2;)3;]" } };
+        for (String[] c : cases) {
+            style = PreparedPackerTest.style(
+                    "<style target='#'><format>[%]</format>" + c[0] + "</style>",
+                    "<style target='a'><format>%</format><str>b2s m</str></style>",
+                    "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                    "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+            Assert.assertArrayEquals(c[1].getBytes("utf-8"), Kyou.instance.pack(data, PreparedPackerTest.schema(), style));
+            Assert.assertArrayEquals(c[1].getBytes("utf-8"), Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data));
+            Assert.assertArrayEquals(c[1].getBytes("utf-8"), Kyou.instance.prepare(PreparedPackerTest.schema(), style, true).pack(data));
+        }
+    }
+    
+    @Test
+    public void testPatch() throws UnsupportedEncodingException {
+        // lenb m先占位，待后面的m直接写入流中之后再回填
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>%%|%</format><int len='2' endian='big'>lenb m</int><str>b2s m</str><str len='4' align='right' filling='0'>i2s lenb m</str></style>",
+                "<style target='a'><format>%%</format><int len='1'>lenb m</int><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        DataDocument data = PreparedPackerTest.data("1", "2", "3");
+        KyouByteOutputStream expected = new KyouByteOutputStream();
+        expected.write(new byte[] { 0, 11, 8 });
+        expected.write("(1;)(2;)3;|0011".getBytes("utf-8"));
+        
+        Assert.assertArrayEquals(expected.export(), Kyou.instance.pack(data, PreparedPackerTest.schema(), style));
+        Assert.assertArrayEquals(expected.export(), Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data));
+        Assert.assertArrayEquals(expected.export(), Kyou.instance.prepare(PreparedPackerTest.schema(), style, true).pack(data));
+        
+        // 没有直接输出子元素的参数时单独对子元素组包以求长度
+        style = PreparedPackerTest.style(
+                "<style target='#'><format>%</format><int len='1'>lenb m</int></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        Assert.assertArrayEquals(new byte[] { 10 }, Kyou.instance.pack(data, PreparedPackerTest.schema(), style));
+        
+        // 填充字符编码为多个字节时，字节数取决于值，不能先占位
+        style = PreparedPackerTest.style(
+                "<style target='#'><format>%|%</format><str len='3' align='right' filling='\u4e2d'>i2s lenb m</str><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        byte[] bytes = "\u4e2d10|(1;)(2;)3;".getBytes("utf-8");
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, PreparedPackerTest.schema(), style));
+        Assert.assertArrayEquals(bytes, Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data));
+        Assert.assertArrayEquals(bytes, Kyou.instance.prepare(PreparedPackerTest.schema(), style, true).pack(data));
+    }
+    
+    @Test
+    public void testCache() throws UnsupportedEncodingException {
+        // 多个参数引用m时子元素只组包一次
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>%|%|%</format><str len='12' filling='_'>b2s m</str><str>b2s m</str><str>i2s lenb m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        final int[] count = new int[1];
+        DataDocument data = new DataDocument() {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public String get(DPath path) {
+                if (path.name().equals("x"))
+                    count[0]++;
+                return super.get(path);
+            }
+        };
+        DataBuilder builder = new DataBuilder(PreparedPackerTest.schema(), data);
+        builder.value(DPath.root.child("a"), "2");
+        builder.value(DPath.root.child("a").child("0").child("x"), "1");
+        builder.value(DPath.root.child("a").child("1").child("x"), "2");
+        builder.value(DPath.root.child("b"), "3");
+        
+        Assert.assertArrayEquals("(1;)(2;)3;__|(1;)(2;)3;|10".getBytes("utf-8"), Kyou.instance.pack(data, PreparedPackerTest.schema(), style));
+        Assert.assertEquals(2, count[0]);
+        
+        count[0] = 0;
+        Assert.assertArrayEquals("(1;)(2;)3;__|(1;)(2;)3;|10".getBytes("utf-8"), Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data));
+        Assert.assertEquals(2, count[0]);
+    }
+    
+    @Test
+    public void testFold() throws UnsupportedEncodingException {
+        // 常量表达式在加载时计算，lenb s2b直接计算编码后的字节数
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>%%%</format><str>i2s.16 255</str><int len='1'>lens i2s 12345</int><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>%</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%%%</format><int len='1'>lenb s2b v</int><int len='1'>lenb s2b.iso-8859-1 v</int><str>v</str></style>");
+        
+        DataDocument data = PreparedPackerTest.data("\u4e2d", "a\ud834\udd1e", "xy");
+        KyouByteOutputStream expected = new KyouByteOutputStream();
+        expected.write("ff".getBytes("utf-8"));
+        expected.write(5);
+        expected.write(new byte[] { 3, 1 });
+        expected.write("\u4e2d".getBytes("utf-8"));
+        expected.write(new byte[] { 5, 2 });
+        expected.write("a\ud834\udd1e".getBytes("utf-8"));
+        expected.write(new byte[] { 2, 2 });
+        expected.write("xy".getBytes("utf-8"));
+        
+        Assert.assertArrayEquals(expected.export(), Kyou.instance.pack(data, PreparedPackerTest.schema(), style));
+        Assert.assertArrayEquals(expected.export(), Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data));
+    }
+    
+    @Test
+    public void testStream() throws UnsupportedEncodingException {
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>%%</format><int len='4' endian='big'>lenb m</int><str>b2s m</str></style>",
+                "<style target='a'><format>%%</format><int len='2' endian='big'>lenb m</int><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        String[] values = new String[5001];
+        for (int i = 0; i < values.length; i++)
+            values[i] = String.valueOf(i);
+        DataDocument data = PreparedPackerTest.data(values);
+        byte[] expected = Kyou.instance.pack(data, PreparedPackerTest.schema(), style);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Kyou.instance.pack(data, PreparedPackerTest.schema(), style, out);
+        Assert.assertArrayEquals(expected, out.toByteArray());
+        
+        out = new ByteArrayOutputStream();
+        Kyou.instance.pack(data, PreparedPackerTest.schema(), style, Channels.newChannel(out));
+        Assert.assertArrayEquals(expected, out.toByteArray());
+        
+        out = new ByteArrayOutputStream();
+        Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data, out);
+        Assert.assertArrayEquals(expected, out.toByteArray());
+        
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(64);
+        Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data, s);
+        Assert.assertArrayEquals(expected, s.export());
+    }
+    
+    @Test
+    public void testStreamTruncate() throws UnsupportedEncodingException {
+        // 左对齐截断直接写入流中的m时，被截掉的字节不能先输出到目标流中
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>%</format><bytes len='4'>m</bytes></style>",
+                "<style target='a'><format>%</format><bytes>m</bytes></style>",
+                "<style target='a.*'><format>%</format><bytes>m</bytes></style>",
+                "<style target='*[FIELD]'><format>%</format><str>v</str></style>");
+        
+        String[] values = new String[50001];
+        for (int i = 0; i < values.length; i++)
+            values[i] = String.valueOf(i);
+        DataDocument data = PreparedPackerTest.data(values);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Kyou.instance.pack(data, PreparedPackerTest.schema(), style, out);
+        Assert.assertArrayEquals("0123".getBytes("utf-8"), out.toByteArray());
+        
+        out = new ByteArrayOutputStream();
+        Kyou.instance.prepare(PreparedPackerTest.schema(), style, true).pack(data, out);
+        Assert.assertArrayEquals("0123".getBytes("utf-8"), out.toByteArray());
+    }
+    
+    @Test
+    public void testTarget() throws UnsupportedEncodingException {
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>%%</format><int len='4' endian='big'>lenb m</int><str>b2s m</str></style>",
+                "<style target='a'><format>%%</format><int len='2' endian='big'>lenb m</int><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        DataDocument data = PreparedPackerTest.data("x", "y", "z", "w");
+        byte[] expected = Kyou.instance.pack(data, PreparedPackerTest.schema(), style);
+        
+        for (ByteBuffer target : new ByteBuffer[] { ByteBuffer.allocate(expected.length + 2), ByteBuffer.allocateDirect(expected.length + 2) }) {
+            target.position(1);
+            Assert.assertEquals(0, Kyou.instance.pack(data, PreparedPackerTest.schema(), style, target));
+            Assert.assertEquals(expected.length + 1, target.position());
+            
+            byte[] bytes = new byte[expected.length];
+            target.position(1);
+            target.get(bytes);
+            Assert.assertArrayEquals(expected, bytes);
+            
+            // 剩余空间不足时返回还需要的字节数，position保持不变
+            target.position(4);
+            Assert.assertEquals(2, Kyou.instance.prepare(PreparedPackerTest.schema(), style).pack(data, target));
+            Assert.assertEquals(4, target.position());
+        }
+    }
+    
+    @Test
+    public void testSlot() throws UnsupportedEncodingException {
+        StyleSpecification style = PreparedPackerTest.style(
+                "<style target='#'><format>[%]</format><str>b2s m</str></style>",
+                "<style target='a'><format>%%</format><int len='2' endian='big'>lenb m</int><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%=%;</format><str>n</str><str>v</str></style>");
+        SchemaDocument schema = PreparedPackerTest.schema();
+        DataDocument data = PreparedPackerTest.data("x", "y", "z", "w");
+        byte[] expected = Kyou.instance.pack(data, schema, style);
+        
+        SlotDataDocument slot = new SlotDataDocument(schema, data);
+        Assert.assertArrayEquals(expected, Kyou.instance.pack(slot, schema, style));
+        Assert.assertArrayEquals(expected, Kyou.instance.prepare(schema, style).pack(slot));
+        Assert.assertArrayEquals(expected, Kyou.instance.prepare(schema, style, true).pack(slot));
+        
+        // 与报文结构不是同一个对象时按照路径取值
+        Assert.assertArrayEquals(expected, Kyou.instance.pack(slot, PreparedPackerTest.schema(), style));
+    }
+    
     @Test
     public void testExBasic() throws UnsupportedEncodingException {
         try {
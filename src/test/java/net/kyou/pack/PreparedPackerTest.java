@@ -0,0 +1,149 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import static net.kyou.ERR.assertError;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import net.kyou.Kyou;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PreparedPackerTest {
+    static SchemaDocument schema() throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><struct name='a' array='true'><field name='x'/></struct><field name='b'/></schema>";
+        return Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+    }
+    
+    static DataDocument data(String... values) throws UnsupportedEncodingException {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='utf-8'?><data>");
+        xml.append("<a>").append(values.length - 1).append("</a>");
+        for (int i = 0; i < values.length - 1; i++)
+            xml.append("<a.").append(i).append(".x>").append(values[i]).append("</a.").append(i).append(".x>");
+        xml.append("<b>").append(values[values.length - 1]).append("</b>");
+        xml.append("</data>");
+        return Kyou.instance.loadData(new ByteArrayInputStream(xml.toString().getBytes("utf-8")));
+    }
+    
+    static StyleSpecification style(String... styles) throws UnsupportedEncodingException {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version='1.0' encoding='utf-8'?>");
+        xml.append("<spec>");
+        xml.append("<config><encoding>utf-8</encoding></config>");
+        for (String style : styles)
+            xml.append(style);
+        xml.append("</spec>");
+        return Kyou.instance.loadStyle(new ByteArrayInputStream(xml.toString().getBytes("utf-8")));
+    }
+    
+    @Test
+    public void testPack() throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'><format>[%]</format><str>b2s m</str></style>",
+                "<style target='a.*[0]'><format>first(%)</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='a'><format>a=%;</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%=%;</format><str>n</str><str>v</str></style>");
+        
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style);
+        
+        DataDocument data = data("1", "2", "3");
+        Assert.assertArrayEquals("[a=first(x=1;)(x=2;);b=3;]".getBytes("utf-8"), packer.pack(data));
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+        
+        // 同一个组包器可以反复使用
+        data = data("x", "y", "z", "w");
+        Assert.assertArrayEquals("[a=first(x=x;)(x=y;)(x=z;);b=w;]".getBytes("utf-8"), packer.pack(data));
+        Assert.assertArrayEquals(Kyou.instance.pack(data, schema(), style), packer.pack(data));
+        
+        // 报文结构在生成执行计划时被冻结
+        SchemaDocument schema = schema();
+        Kyou.instance.prepare(schema, style);
+        Assert.assertTrue(schema.frozen());
+        try {
+            schema.remove("b");
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Schema.SchemaFrozen);
+        }
+    }
+    
+    @Test
+    public void testConcurrent() throws Exception {
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>%</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        final PreparedPacker packer = Kyou.instance.prepare(schema(), style);
+        final boolean[] results = new boolean[8];
+        
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        DataDocument data = data(String.valueOf(id), "b");
+                        byte[] expected = (id + ";b;").getBytes("utf-8");
+                        
+                        boolean result = true;
+                        for (int j = 0; j < 1000; j++)
+                            result &= java.util.Arrays.equals(expected, packer.pack(data));
+                        results[id] = result;
+                    } catch (Exception ex) {
+                        results[id] = false;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        for (boolean result : results)
+            Assert.assertTrue(result);
+    }
+    
+    @Test
+    public void testEx() throws UnsupportedEncodingException {
+        try {
+            Kyou.instance.prepare(null, null);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.EmptySchema);
+        }
+        try {
+            Kyou.instance.prepare(schema(), null);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.EmptySpecifcation);
+        }
+        try {
+            Kyou.instance.prepare(schema(), style("<style target='#'><format>%</format><str>b2s m</str></style>")).pack(data("1", "2"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.PackFail);
+        }
+    }
+}
@@ -54,6 +54,19 @@ public class StyleItemTest {
         Assert.assertEquals(7, style.segments.size());
     }
     
+    @Test
+    public void testEndpoint() {
+        String xml = "<style target=\"#\"><format>%%%</format><str>b2s m</str><int len='2'>lenb m</int><str>v</str></style>";
+        
+        StyleItem style = new StyleItem(UTILS.prepareElement(xml), spec, new ParamFactory(null), new ExprFactory(null,null));
+        
+        // 相同的端点表达式分配到同一个编号，之后再登记的得到新的编号
+        Assert.assertEquals(0, style.__endpoint("m"));
+        Assert.assertEquals(2, style.__endpoint("x"));
+        Assert.assertTrue(style.__shared(0));
+        Assert.assertFalse(style.__shared(1));
+    }
+    
     @Test
     public void testEx() {
         
@@ -0,0 +1,358 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack;
+
+import static net.kyou.ERR.assertError;
+import static net.kyou.pack.PreparedPackerTest.data;
+import static net.kyou.pack.PreparedPackerTest.schema;
+import static net.kyou.pack.PreparedPackerTest.style;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import net.kyou.Kyou;
+import net.kyou.data.DPath;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UnpackServiceTest {
+    @Test
+    public void testUnpack() throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'><format>[%]</format><str>b2s m</str></style>",
+                "<style target='a.*[0]'><format>first(%)</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='a'><format>a=%;</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%=%;</format><str>n</str><str>v</str></style>");
+        
+        DataDocument data = Kyou.instance.unpack("[a=first(x=1;)(x=2;);b=3;]".getBytes("utf-8"), schema(), style);
+        Assert.assertEquals("2", data.get(DPath.root.child("a")));
+        Assert.assertEquals("1", data.get(DPath.root.child("a").child("0").child("x")));
+        Assert.assertEquals("2", data.get(DPath.root.child("a").child("1").child("x")));
+        Assert.assertEquals("3", data.get(DPath.root.child("b")));
+        
+        // 拆包得到的数据可以组包回原来的报文
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style);
+        byte[] bytes = packer.pack(data("x", "y", "z", "w"));
+        Assert.assertArrayEquals(bytes, packer.pack(packer.unpack(bytes)));
+        
+        // 没有元素的数组
+        data = packer.unpack("[a=;b=3;]".getBytes("utf-8"));
+        Assert.assertEquals("0", data.get(DPath.root.child("a")));
+        Assert.assertEquals("3", data.get(DPath.root.child("b")));
+    }
+    
+    @Test
+    public void testBuffer() throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        PreparedPacker packer = Kyou.instance.prepare(schema(), style);
+        
+        // 只解析缓冲区中position到limit之间的部分
+        byte[] bytes = "??(1;)(2;)b;??".getBytes("utf-8");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, 10).slice();
+        
+        DataDocument data = packer.unpack(buffer);
+        Assert.assertEquals("2", data.get(DPath.root.child("a")));
+        Assert.assertEquals("b", data.get(DPath.root.child("b")));
+        Assert.assertFalse(buffer.hasRemaining());
+        
+        // 非堆缓冲区
+        buffer = ByteBuffer.allocateDirect(10);
+        buffer.put("(1;)(2;)b;".getBytes("utf-8")).flip();
+        Assert.assertArrayEquals("(1;)(2;)b;".getBytes("utf-8"), packer.pack(Kyou.instance.unpack(buffer, schema(), style)));
+    }
+    
+    @Test
+    public void testFixed() throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='c'/><field name='d' len='4'/><field name='e'/></schema>";
+        SchemaDocument schema = Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='c'><format>%</format><int len='2' endian='big'>s2i v</int></style>",
+                "<style target='d'><format>%|</format><str len='value' align='right' filling='0'>v</str></style>",
+                "<style target='e'><format>%</format><int len='4'>s2i.16 v</int></style>");
+        
+        byte[] bytes = new byte[] { 0x01, 0x02, '0', '0', '4', '2', '|', 0x78, 0x56, 0x34, 0x12 };
+        DataDocument data = Kyou.instance.unpack(bytes, schema, style);
+        Assert.assertEquals("258", data.get(DPath.root.child("c")));
+        Assert.assertEquals("42", data.get(DPath.root.child("d")));
+        Assert.assertEquals("12345678", data.get(DPath.root.child("e")));
+    }
+    
+    @Test
+    public void testFixedBytes() throws IOException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='c'/><field name='d' len='4'/><field name='e'/></schema>";
+        SchemaDocument schema = Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='c'><format>%|</format><str encoding='gbk' len='5' unit='byte'>v</str></style>",
+                "<style target='d'><format>%|</format><str len='value' unit='byte' align='right' filling='0'>v</str></style>",
+                "<style target='e'><format>%</format><str>v</str></style>");
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write("\u4e2d\u6587 |".getBytes("gbk"));
+        bytes.write("0\u4e2d|x".getBytes("utf-8"));
+        
+        DataDocument data = Kyou.instance.unpack(bytes.toByteArray(), schema, style);
+        Assert.assertEquals("\u4e2d\u6587", data.get(DPath.root.child("c")));
+        Assert.assertEquals("\u4e2d", data.get(DPath.root.child("d")));
+        Assert.assertEquals("x", data.get(DPath.root.child("e")));
+        
+        Assert.assertArrayEquals(bytes.toByteArray(), Kyou.instance.pack(data, schema, style));
+    }
+    
+    @Test
+    public void testNumeric() throws IOException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='c'/><field name='d'/><field name='e'/></schema>";
+        SchemaDocument schema = Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='c'><format>%</format><num len='5' sign='trail'>s2i v</num></style>",
+                "<style target='d'><format>%</format><num len='6' scale='2' sign='lead'>v</num></style>",
+                "<style target='e'><format>%</format><num len='4' scale='3'>v</num></style>");
+        
+        byte[] bytes = "0012--000050012".getBytes("utf-8");
+        
+        // 字符串按照scale还原出小数点
+        DataDocument data = Kyou.instance.unpack(bytes, schema, style);
+        Assert.assertEquals("-12", data.get(DPath.root.child("c")));
+        Assert.assertEquals("-0.05", data.get(DPath.root.child("d")));
+        Assert.assertEquals("0.012", data.get(DPath.root.child("e")));
+        
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, schema, style));
+        
+        try {
+            Kyou.instance.unpack("0012x-00005".getBytes("utf-8"), schema, style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.ParseIntFail);
+        }
+    }
+    
+    @Test
+    public void testBCD() throws IOException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='c'/><field name='d'/><field name='e'/></schema>";
+        SchemaDocument schema = Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='c'><format>%</format><bcd len='3' sign='trail'>s2i v</bcd></style>",
+                "<style target='d'><format>%</format><bcd len='4' align='left' filling='F'>v</bcd></style>",
+                "<style target='e'><format>%</format><bcd len='3' form='unpacked'>v</bcd></style>");
+        
+        byte[] bytes = { 0x00, 0x12, 0x3d, 0x62, 0x22, 0x02, (byte) 0xff, 0x00, 0x00, 0x07 };
+        
+        // 左对齐时去掉右边的补位，右对齐时去掉左边的补位
+        DataDocument data = Kyou.instance.unpack(bytes, schema, style);
+        Assert.assertEquals("-123", data.get(DPath.root.child("c")));
+        Assert.assertEquals("622202", data.get(DPath.root.child("d")));
+        Assert.assertEquals("7", data.get(DPath.root.child("e")));
+        
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, schema, style));
+        
+        for (byte[] invalid : new byte[][] { { 0x00, 0x12, 0x3a, 0x62, 0x22, 0x02, (byte) 0xff, 0x00, 0x00, 0x07 }, { 0x00, 0x12, 0x3d, 0x62, 0x2f, 0x02, (byte) 0xff, 0x00, 0x00, 0x07 } })
+            try {
+                Kyou.instance.unpack(invalid, schema, style);
+                Assert.fail();
+            } catch (KyouException ex) {
+                assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.ParseIntFail);
+            }
+    }
+    
+    @Test
+    public void testBinary() throws IOException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='c'/><field name='d'/><field name='e'/></schema>";
+        SchemaDocument schema = Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><bytes>m</bytes></style>",
+                "<style target='c'><format>%</format><float len='4' endian='big'>v</float></style>",
+                "<style target='d'><format>%</format><float>s2i v</float></style>",
+                "<style target='e'><format>%|</format><bytes len='4' align='right' filling='20'>s2b v</bytes></style>");
+        
+        byte[] bytes = { 0x3f, (byte) 0xc0, 0, 0, 0, 0, 0, 0, 0, 0, 0x24, (byte) 0xc0, ' ', ' ', 'x', 'y', '|' };
+        
+        DataDocument data = Kyou.instance.unpack(bytes, schema, style);
+        Assert.assertEquals("1.5", data.get(DPath.root.child("c")));
+        Assert.assertEquals("-10", data.get(DPath.root.child("d")));
+        Assert.assertEquals("xy", data.get(DPath.root.child("e")));
+        
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, schema, style));
+    }
+    
+    @Test
+    public void testVariable() throws IOException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='c'/><field name='d'/><field name='e'/></schema>";
+        SchemaDocument schema = Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><lllvar>m</lllvar></style>",
+                "<style target='c'><format>%</format><llvar prefix='bcd'>v</llvar></style>",
+                "<style target='d'><format>%</format><lllvar prefix='binary'>s2i v</lllvar></style>",
+                "<style target='e'><format>%|</format><llvar>s2b v</llvar></style>");
+        
+        byte[] bytes = { '0', '1', '2', 0x02, 'a', 'b', 0x00, 0x02, '4', '2', '0', '2', 'x', 'y', '|' };
+        
+        DataDocument data = Kyou.instance.unpack(bytes, schema, style);
+        Assert.assertEquals("ab", data.get(DPath.root.child("c")));
+        Assert.assertEquals("42", data.get(DPath.root.child("d")));
+        Assert.assertEquals("xy", data.get(DPath.root.child("e")));
+        
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, schema, style));
+    }
+    
+    @Test
+    public void testChecksum() throws UnsupportedEncodingException {
+        // 每个数组元素各有一个校验和，对b字段的尝试在开始计算校验和之后才失败
+        String element = "<style target='a.*'><format>%(%)%</format><checksum-start algorithm='lrc'>2</checksum-start><str>b2s m</str><checksum form='hex'>2</checksum></style>";
+        StyleSpecification style = style(
+                "<style target='#'><format>%%%</format><checksum-start algorithm='lrc'>1</checksum-start><str>b2s m</str><checksum form='hex'>1</checksum></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                element,
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        byte[] bytes = Kyou.instance.pack(data("1", "2", "3"), schema(), style);
+        DataDocument data = Kyou.instance.unpack(bytes, schema(), style);
+        Assert.assertEquals("2", data.get(DPath.root.child("a")));
+        Assert.assertEquals("1", data.get(DPath.root.child("a").child("0").child("x")));
+        Assert.assertEquals("2", data.get(DPath.root.child("a").child("1").child("x")));
+        Assert.assertEquals("3", data.get(DPath.root.child("b")));
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, schema(), style));
+        
+        // 失败的尝试中开始的校验和被一同撤销
+        style = style(
+                "<style target='#'><format>%%%</format><checksum-start algorithm='lrc'>1</checksum-start><str>b2s m</str><checksum form='hex'>2</checksum></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                element,
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        try {
+            Kyou.instance.unpack(bytes, schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.ChecksumUnavailable);
+        }
+        
+        // 同一个编号的校验和不能重复开始
+        style = style(
+                "<style target='#'><format>%%%%</format><checksum-start algorithm='lrc'>1</checksum-start><checksum-start algorithm='lrc'>1</checksum-start><str>b2s m</str><checksum form='hex'>1</checksum></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        try {
+            Kyou.instance.unpack("(1;)b;00".getBytes("utf-8"), schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.ChecksumUnavailable);
+        }
+    }
+    
+    @Test
+    public void testCount() throws UnsupportedEncodingException {
+        // 数组的值先于数组元素解析出来时，只解析该个数的数组元素
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='a'><format>%%</format><int len='1'>s2i v</int><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        byte[] bytes = "\u0002(1;)(2;)(3;".getBytes("utf-8");
+        DataDocument data = Kyou.instance.unpack(bytes, schema(), style);
+        Assert.assertEquals("2", data.get(DPath.root.child("a")));
+        Assert.assertEquals("2", data.get(DPath.root.child("a").child("1").child("x")));
+        Assert.assertEquals("(3", data.get(DPath.root.child("b")));
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, schema(), style));
+        
+        // 个数不足时不会提前结束数组
+        try {
+            Kyou.instance.unpack("\u0003(1;)(2;)3;".getBytes("utf-8"), schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.TextMismatch);
+        }
+        
+        // 没有个数时，只有文本不匹配或报文提前结束才会结束数组，其它错误直接抛出
+        style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='b'><format>%;</format><str>v</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><num len='1'>v</num></style>");
+        
+        data = Kyou.instance.unpack("(1;)(2;)b;".getBytes("utf-8"), schema(), style);
+        Assert.assertEquals("2", data.get(DPath.root.child("a")));
+        Assert.assertEquals("b", data.get(DPath.root.child("b")));
+        try {
+            Kyou.instance.unpack("(1;)(x;)b;".getBytes("utf-8"), schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.ParseIntFail);
+        }
+    }
+    
+    @Test
+    public void testEx() throws UnsupportedEncodingException {
+        StyleSpecification style = style(
+                "<style target='#'><format>%</format><str>b2s m</str></style>",
+                "<style target='a'><format>%</format><str>b2s m</str></style>",
+                "<style target='a.*'><format>(%)</format><str>b2s m</str></style>",
+                "<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        
+        try {
+            Kyou.instance.unpack((byte[]) null, schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.EmptyBuffer);
+        }
+        try {
+            Kyou.instance.unpack(new byte[0], null, style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.EmptySchema);
+        }
+        try {
+            // b字段后面缺少分号
+            Kyou.instance.unpack("(1;)b".getBytes("utf-8"), schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.UnexpectedEnd);
+        }
+        try {
+            Kyou.instance.unpack("(1;)b;c".getBytes("utf-8"), schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.TrailingBytes);
+        }
+        try {
+            Kyou.instance.unpack("x".getBytes("utf-8"), schema(), style("<style target='#'><format>[%</format><str>b2s m</str></style>"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.TextMismatch);
+        }
+        try {
+            Kyou.instance.unpack("x".getBytes("utf-8"), schema(), style("<style target='#'><format>%</format><bk>1</bk></style>"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.UnsupportedParam);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.UTILS;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.util.KyouByteOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BCDParamTest {
+    @Test
+    public void testPacked() {
+        TEST.test("<bcd len='3'>12345</bcd>", "\\01\\23\\45");
+        TEST.test("<bcd len='2'>0</bcd>", "\\00\\00");
+        TEST.test("<bcd len='12'>9223372036854775807</bcd>", "\\00\\00\\09\\22\\33\\72\\03\\68\\54\\77\\58\\07");
+        TEST.test("<bcd len='3' sign='trail'>12345</bcd>", "\\12\\34\\5c");
+        TEST.test("<bcd len='3' sign='trail'>-123</bcd>", "\\00\\12\\3d");
+        TEST.test("<bcd len='10' sign='trail'>-9223372036854775808</bcd>", "\\92\\23\\37\\20\\36\\85\\47\\75\\80\\8d");
+        
+        // 左对齐或补位不是0时逐个半字节输出
+        TEST.test("<bcd len='3' filling='F'>123</bcd>", "\\ff\\f1\\23");
+        TEST.test("<bcd len='3' align='left'>123</bcd>", "\\12\\30\\00");
+        TEST.test("<bcd len='3' align='left' filling='f' sign='trail'>-12</bcd>", "\\12\\ff\\fd");
+        
+        // 管道表达式的计算结果直接以整数输出
+        TEST.test("<bcd len='2'>lens i2s 123456</bcd>", "\\00\\06");
+    }
+    
+    @Test
+    public void testUnpacked() {
+        TEST.test("<bcd len='4' form='unpacked'>123</bcd>", "\\00\\01\\02\\03");
+        TEST.test("<bcd len='4' form='unpacked' filling='F'>123</bcd>", "\\0f\\01\\02\\03");
+        TEST.test("<bcd len='4' form='unpacked' align='left'>b2s text.123</bcd>", "\\01\\02\\03\\00");
+    }
+    
+    @Test
+    public void testString() {
+        // 超出long的范围的卡号
+        TEST.test("<bcd len='11' align='left' filling='F'>b2s text.62220212345678901234</bcd>", "\\62\\22\\02\\12\\34\\56\\78\\90\\12\\34\\ff");
+        TEST.test("<bcd len='3'>b2s text.123</bcd>", "\\00\\01\\23");
+        TEST.test("<bcd len='3' sign='trail'>b2s text.-123</bcd>", "\\00\\12\\3d");
+        TEST.test("<bcd len='2' align='left' filling='F'>b2s text.5</bcd>", "\\5f\\ff");
+    }
+    
+    @Test
+    public void testEx() {
+        TEST.testEx("<bcd>123</bcd>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bcd len='0'>123</bcd>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bcd len='2' form='zoned'>123</bcd>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bcd len='2' align='center'>123</bcd>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bcd len='2' filling='G'>123</bcd>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bcd len='2' form='unpacked' sign='trail'>123</bcd>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        
+        testEx("<bcd len='2'>12345</bcd>", KyouErr.Pack.NumberOutOfRange);
+        testEx("<bcd len='2' sign='trail'>1234</bcd>", KyouErr.Pack.NumberOutOfRange);
+        testEx("<bcd len='2'>-1</bcd>", KyouErr.Pack.NumberOutOfRange);
+        testEx("<bcd len='2'>b2s text.12a</bcd>", KyouErr.Pack.ParseStringToIntFail);
+        testEx("<bcd len='2'>b2s text.-12</bcd>", KyouErr.Pack.ParseStringToIntFail);
+        testEx("<bcd len='2'>b2s text.12345</bcd>", KyouErr.Pack.NumberOutOfRange);
+    }
+    
+    private static void testEx(String xml, KyouErr err) {
+        Param param = new ParamFactory(new ArrayList<Class<? extends Param>>()).create(UTILS.prepareElement(xml), Charset.forName("utf-8"), null, new ExprFactory(null, null));
+        try {
+            param.export(null, new KyouByteOutputStream());
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(err, ex.err);
+        }
+    }
+}
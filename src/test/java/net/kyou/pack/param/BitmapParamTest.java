@@ -0,0 +1,114 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import static net.kyou.ERR.assertError;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import net.kyou.Kyou;
+import net.kyou.data.DPath;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.StyleSpecification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BitmapParamTest {
+    private static SchemaDocument schema() throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='mti'/><struct name='fields'><field name='f2'/><field name='f3'/><field name='f11'/><field name='f70'/></struct></schema>";
+        return Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+    }
+    
+    private static DataDocument data(String f3, String f70) throws UnsupportedEncodingException {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='utf-8'?><data><mti>0200</mti><fields.f2>1234</fields.f2><fields.f11>000001</fields.f11>");
+        if (f3 != null)
+            xml.append("<fields.f3>").append(f3).append("</fields.f3>");
+        if (f70 != null)
+            xml.append("<fields.f70>").append(f70).append("</fields.f70>");
+        xml.append("</data>");
+        return Kyou.instance.loadData(new ByteArrayInputStream(xml.toString().getBytes("utf-8")));
+    }
+    
+    private static StyleSpecification style(String bitmap) throws UnsupportedEncodingException {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version='1.0' encoding='utf-8'?><spec><config><encoding>utf-8</encoding></config>");
+        xml.append("<style target='#'><format>%</format><bytes>m</bytes></style>");
+        xml.append("<style target='mti'><format>%</format><str len='4'>v</str></style>");
+        xml.append("<style target='fields'><format>%%</format>").append(bitmap).append("<bytes>m</bytes></style>");
+        xml.append("<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        xml.append("</spec>");
+        return Kyou.instance.loadStyle(new ByteArrayInputStream(xml.toString().getBytes("utf-8")));
+    }
+    
+    @Test
+    public void test() throws IOException {
+        // 没有值的域被跳过，位图在子元素组包完毕后回填
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write("0200".getBytes());
+        expected.write(new byte[] { (byte) 0xc0, 0x20, 0, 0, 0, 0, 0, 0, 0x04, 0, 0, 0, 0, 0, 0, 0 });
+        expected.write("1234;000001;301;".getBytes());
+        
+        StyleSpecification style = style("<iso8583-bitmap len='16'>m</iso8583-bitmap>");
+        Assert.assertArrayEquals(expected.toByteArray(), Kyou.instance.pack(data(null, "301"), schema(), style));
+        Assert.assertArrayEquals(expected.toByteArray(), Kyou.instance.prepare(schema(), style).pack(data(null, "301")));
+        // 使用了位图的元素在生成的代码中退化为解释执行
+        Assert.assertArrayEquals(expected.toByteArray(), Kyou.instance.prepare(schema(), style, true).pack(data(null, "301")));
+        
+        // 十六进制形式
+        style = style("<iso8583-bitmap form='hex'>m</iso8583-bitmap>");
+        Assert.assertArrayEquals("020060200000000000001234;00;000001;".getBytes(), Kyou.instance.pack(data("00", null), schema(), style));
+        Assert.assertArrayEquals("020040200000000000001234;000001;".getBytes(), Kyou.instance.pack(data(null, null), schema(), style));
+    }
+    
+    @Test
+    public void testUnpack() throws UnsupportedEncodingException {
+        // 只拆包位图中出现的域
+        StyleSpecification style = style("<iso8583-bitmap len='16' form='hex'>m</iso8583-bitmap>");
+        byte[] bytes = Kyou.instance.pack(data("00", "301"), schema(), style);
+        Assert.assertArrayEquals("0200E0200000000000000400000000000000".getBytes(), Arrays.copyOf(bytes, 36));
+        
+        DataDocument data = Kyou.instance.unpack(bytes, schema(), style);
+        Assert.assertEquals("00", data.get(DPath.root.child("fields").child("f3")));
+        Assert.assertEquals("301", data.get(DPath.root.child("fields").child("f70")));
+        Assert.assertArrayEquals(bytes, Kyou.instance.pack(data, schema(), style));
+        
+        data = Kyou.instance.unpack("0200402000000000000012;34;".getBytes(), schema(), style("<iso8583-bitmap form='hex'>m</iso8583-bitmap>"));
+        Assert.assertEquals("12", data.get(DPath.root.child("fields").child("f2")));
+        Assert.assertNull(data.get(DPath.root.child("fields").child("f3")));
+        Assert.assertEquals("34", data.get(DPath.root.child("fields").child("f11")));
+    }
+    
+    @Test
+    public void testEx() throws UnsupportedEncodingException {
+        TEST.testEx("<iso8583-bitmap len='4'>m</iso8583-bitmap>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<iso8583-bitmap form='bcd'>m</iso8583-bitmap>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<iso8583-bitmap>i2s 1</iso8583-bitmap>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Expr.InvalidExprResultType);
+        
+        // 只有主位图时不能出现65~128域
+        try {
+            Kyou.instance.pack(data(null, "301"), schema(), style("<iso8583-bitmap>m</iso8583-bitmap>"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.PackFail, KyouErr.Pack.InvalidBitmapField);
+        }
+    }
+}
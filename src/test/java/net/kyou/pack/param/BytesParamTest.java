@@ -0,0 +1,43 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import net.kyou.exception.KyouErr;
+
+import org.junit.Test;
+
+public class BytesParamTest {
+    @Test
+    public void test() {
+        TEST.test("<bytes>text.abc</bytes>", "abc");
+        TEST.test("<bytes>s2b i2s 123</bytes>", "123");
+        TEST.test("<bytes>s2b.gbk b2s text.中</bytes>", "中", "gbk");
+        
+        // 按照对齐方式补齐或截断
+        TEST.test("<bytes len='5'>text.abc</bytes>", "abc\\00\\00");
+        TEST.test("<bytes len='5' align='right' filling='ff'>text.abc</bytes>", "\\ff\\ffabc");
+        TEST.test("<bytes len='2'>text.abc</bytes>", "ab");
+        TEST.test("<bytes len='2' align='right'>s2b i2s 123</bytes>", "23");
+        TEST.test("<bytes len='3'>s2b i2s 123</bytes>", "123");
+    }
+    
+    @Test
+    public void testEx() {
+        TEST.testEx("<bytes len='0'>text.abc</bytes>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bytes align='center'>text.abc</bytes>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bytes filling='f'>text.abc</bytes>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bytes filling='zz'>text.abc</bytes>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<bytes>i2s 1</bytes>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Expr.InvalidExprResultType);
+    }
+}
@@ -0,0 +1,161 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import static net.kyou.ERR.assertError;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.kyou.Kyou;
+import net.kyou.data.DPath;
+import net.kyou.data.DataDocument;
+import net.kyou.data.SchemaDocument;
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.StyleSpecification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChecksumParamTest {
+    private static SchemaDocument schema() throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><schema><field name='h'/><struct name='body'><field name='a'/><field name='b'/></struct></schema>";
+        return Kyou.instance.loadSchema(new ByteArrayInputStream(xml.getBytes("utf-8")));
+    }
+    
+    private static DataDocument data(String a) throws UnsupportedEncodingException {
+        String xml = "<?xml version='1.0' encoding='utf-8'?><data><h>0200</h><body.a>" + a + "</body.a><body.b>34</body.b></data>";
+        return Kyou.instance.loadData(new ByteArrayInputStream(xml.getBytes("utf-8")));
+    }
+    
+    private static StyleSpecification style(String root, String body) throws UnsupportedEncodingException {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version='1.0' encoding='utf-8'?><spec><config><encoding>utf-8</encoding></config>");
+        xml.append("<style target='#'>").append(root).append("</style>");
+        xml.append("<style target='h'><format>%</format><str len='4'>v</str></style>");
+        xml.append("<style target='body'>").append(body).append("</style>");
+        xml.append("<style target='*[FIELD]'><format>%;</format><str>v</str></style>");
+        xml.append("</spec>");
+        return Kyou.instance.loadStyle(new ByteArrayInputStream(xml.toString().getBytes("utf-8")));
+    }
+    
+    private static void assertPack(byte[] expected, DataDocument data, StyleSpecification style) throws UnsupportedEncodingException {
+        Assert.assertArrayEquals(expected, Kyou.instance.pack(data, schema(), style));
+        Assert.assertArrayEquals(expected, Kyou.instance.prepare(schema(), style).pack(data));
+        Assert.assertArrayEquals(expected, Kyou.instance.prepare(schema(), style, true).pack(data));
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Kyou.instance.pack(data, schema(), style, out);
+        Assert.assertArrayEquals(expected, out.toByteArray());
+    }
+    
+    @Test
+    public void test() throws Exception {
+        // CRC32只覆盖起始标记之后的字节
+        StyleSpecification style = style("<format>%</format><bytes>m</bytes>", "<format>%%%</format><checksum-start>1</checksum-start><bytes>m</bytes><checksum>1</checksum>");
+        
+        CRC32 crc = new CRC32();
+        crc.update("12;34;".getBytes());
+        long v = crc.getValue();
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write("020012;34;".getBytes());
+        expected.write(new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v });
+        assertPack(expected.toByteArray(), data("12"), style);
+        
+        // 起始标记与校验和可以位于不同的元素中，编号不同的校验和可以嵌套
+        style = style("<format>%%%</format><checksum-start algorithm='lrc'>2</checksum-start><bytes>m</bytes><checksum form='hex'>2</checksum>",
+                "<format>%%%</format><checksum-start algorithm='adler32'>1</checksum-start><bytes>m</bytes><checksum len='2'>1</checksum>");
+        byte[] bytes = Kyou.instance.pack(data("12"), schema(), style);
+        Assert.assertEquals(14, bytes.length);
+        int lrc = 0;
+        for (int i = 0; i < 12; i++)
+            lrc ^= bytes[i];
+        Assert.assertEquals(String.format("%02X", lrc & 0xFF), new String(bytes, 12, 2));
+        assertPack(bytes, data("12"), style);
+    }
+    
+    @Test
+    public void testMac() throws Exception {
+        StyleSpecification style = style("<format>%</format><bytes>m</bytes>",
+                "<format>%%%</format><checksum-start algorithm='HmacSHA256' key='0123456789abcdef'>1</checksum-start><bytes>m</bytes><checksum len='8' form='hex'>1</checksum>");
+        
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(new byte[] { 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef }, "HmacSHA256"));
+        byte[] digest = mac.doFinal("12;34;".getBytes());
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 8; i++)
+            hex.append(String.format("%02X", digest[i] & 0xFF));
+        
+        // 每次组包使用一份新的MAC
+        assertPack(("020012;34;" + hex).getBytes(), data("12"), style);
+        assertPack(("020012;34;" + hex).getBytes(), data("12"), style);
+    }
+    
+    @Test
+    public void testUnpack() throws IOException {
+        StyleSpecification style = style("<format>%%%</format><checksum-start algorithm='lrc'>2</checksum-start><bytes>m</bytes><checksum form='hex'>2</checksum>",
+                "<format>%%%</format><checksum-start>1</checksum-start><bytes>m</bytes><checksum>1</checksum>");
+        byte[] bytes = Kyou.instance.pack(data("12"), schema(), style);
+        
+        DataDocument data = Kyou.instance.unpack(bytes, schema(), style);
+        Assert.assertEquals("0200", data.get(DPath.root.child("h")));
+        Assert.assertEquals("12", data.get(DPath.root.child("body").child("a")));
+        Assert.assertEquals("34", data.get(DPath.root.child("body").child("b")));
+        
+        // 报文中的校验和与实际的字节不吻合
+        byte[] corrupted = Arrays.copyOf(bytes, bytes.length);
+        corrupted[4] = '9';
+        try {
+            Kyou.instance.unpack(corrupted, schema(), style);
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Unpack.UnpackFail, KyouErr.Unpack.ChecksumMismatch);
+        }
+    }
+    
+    @Test
+    public void testEx() throws UnsupportedEncodingException {
+        TEST.testEx("<checksum-start algorithm='HmacSHA256'>1</checksum-start>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<checksum-start algorithm='HmacSHA256' key='0g'>1</checksum-start>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<checksum-start algorithm='md7' key='00'>1</checksum-start>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<checksum form='bcd'>1</checksum>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<checksum len='0'>1</checksum>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<checksum>text.1</checksum>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Expr.InvalidExprResultType);
+        
+        // 没有起始标记
+        try {
+            Kyou.instance.pack(data("12"), schema(), style("<format>%</format><bytes>m</bytes>", "<format>%%</format><bytes>m</bytes><checksum>1</checksum>"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.PackFail, KyouErr.Pack.ChecksumUnavailable);
+        }
+        
+        // 校验和的字节数不足
+        try {
+            Kyou.instance.pack(data("12"), schema(), style("<format>%</format><bytes>m</bytes>", "<format>%%%</format><checksum-start>1</checksum-start><bytes>m</bytes><checksum len='8'>1</checksum>"));
+            Assert.fail();
+        } catch (KyouException ex) {
+            assertError(ex, KyouErr.Pack.PackFail, KyouErr.Pack.ChecksumUnavailable);
+        }
+    }
+}
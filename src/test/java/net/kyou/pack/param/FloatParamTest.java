@@ -0,0 +1,53 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.UTILS;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.util.KyouByteOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FloatParamTest {
+    @Test
+    public void test() {
+        // 236.71463f = 0x436cb6f2
+        TEST.test("<float len='4' endian='big'>b2s text.236.71463</float>", "\\43\\6c\\b6\\f2");
+        TEST.test("<float len='4'>b2s text.236.71463</float>", "\\f2\\b6\\6c\\43");
+        
+        // 1.0 = 0x3ff0000000000000
+        TEST.test("<float endian='big'>b2s text.1.0</float>", "\\3f\\f0\\00\\00\\00\\00\\00\\00");
+        TEST.test("<float len='8'>1</float>", "\\00\\00\\00\\00\\00\\00\\f0\\3f");
+        TEST.test("<float len='4' endian='big'>-2</float>", "\\c0\\00\\00\\00");
+    }
+    
+    @Test
+    public void testEx() {
+        TEST.testEx("<float len='2'>1</float>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        
+        Param param = new ParamFactory(new ArrayList<Class<? extends Param>>()).create(UTILS.prepareElement("<float>b2s text.1.2.3</float>"), Charset.forName("utf-8"), null, new ExprFactory(null, null));
+        try {
+            param.export(null, new KyouByteOutputStream());
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Pack.ParseStringToFloatFail, ex.err);
+        }
+    }
+}
@@ -40,6 +40,10 @@ public class IntegerParamTest {
         
         // 1234(10) = 04d2(16)
         test(1234L, "\\00\\00\\00\\00\\00\\00\\04\\d2", "\\d2\\04\\00\\00\\00\\00\\00\\00");
+        
+        // 管道表达式的计算结果直接以整数输出
+        TEST.test("<int len='2'>lens i2s 123456</int>", "\\06\\00");
+        TEST.test("<int len='2' endian='big'>s2i.16 i2s.16 1234</int>", "\\04\\d2");
     }
     
     @Test
@@ -0,0 +1,79 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.UTILS;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.util.KyouByteOutputStream;
+import net.kyou.util.KyouChunkedOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LlvarParamTest {
+    @Test
+    public void test() {
+        TEST.test("<llvar>text.abc</llvar>", "03abc");
+        TEST.test("<llvar>b2s text.abc</llvar>", "03abc");
+        TEST.test("<llvar>12345</llvar>", "0512345");
+        TEST.test("<llvar>b2s text.中文</llvar>", "06中文");
+        TEST.test("<lllvar>b2s text.abc</lllvar>", "003abc");
+        
+        // 长度前缀的各种形式
+        TEST.test("<llvar prefix='bcd'>b2s text.abcdefghijkl</llvar>", "\\12abcdefghijkl");
+        TEST.test("<lllvar prefix='bcd'>b2s text.abc</lllvar>", "\\00\\03abc");
+        TEST.test("<llvar prefix='binary'>b2s text.abcdefghijkl</llvar>", "\\0cabcdefghijkl");
+        TEST.test("<lllvar prefix='binary'>b2s text.abc</lllvar>", "\\00\\03abc");
+        
+        // 长度前缀按照该段的编码输出
+        TEST.test("<llvar encoding='Cp037'>b2s text.a1</llvar>", "02a1", "Cp037");
+    }
+    
+    @Test
+    public void testChunked() {
+        // 长度前缀和值跨越块边界
+        Param param = new ParamFactory(new ArrayList<Class<? extends Param>>()).create(UTILS.prepareElement("<lllvar>b2s text.abcdef</lllvar>"), Charset.forName("utf-8"), null, new ExprFactory(null, null));
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(2);
+        s.write('x');
+        param.export(null, s);
+        Assert.assertArrayEquals("x006abcdef".getBytes(), s.export());
+    }
+    
+    @Test
+    public void testEx() {
+        TEST.testEx("<llvar prefix='hex'>text.abc</llvar>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<llvar max='100'>text.abc</llvar>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<lllvar max='0'>text.abc</lllvar>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<llvar encoding='utf-16'>text.abc</llvar>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        
+        // 在写入值的同时检查最大长度
+        testEx("<llvar max='2'>b2s text.abc</llvar>", KyouErr.Pack.ValueTooLong);
+        testEx("<llvar max='2'>text.abc</llvar>", KyouErr.Pack.ValueTooLong);
+    }
+    
+    private static void testEx(String xml, KyouErr err) {
+        Param param = new ParamFactory(new ArrayList<Class<? extends Param>>()).create(UTILS.prepareElement(xml), Charset.forName("utf-8"), null, new ExprFactory(null, null));
+        try {
+            param.export(null, new KyouByteOutputStream());
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(err, ex.err);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.pack.param;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+import net.kyou.pack.UTILS;
+import net.kyou.pack.param.expr.ExprFactory;
+import net.kyou.util.KyouByteOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NumericParamTest {
+    @Test
+    public void test() {
+        TEST.test("<num len='12'>12345</num>", "000000012345");
+        TEST.test("<num len='1'>0</num>", "0");
+        TEST.test("<num len='6' sign='lead'>-123</num>", "-00123");
+        TEST.test("<num len='6' sign='lead'>123</num>", "+00123");
+        TEST.test("<num len='6' sign='trail'>-123</num>", "00123-");
+        TEST.test("<num len='20' sign='lead'>-9223372036854775808</num>", "-9223372036854775808");
+        TEST.test("<num len='22'>9223372036854775807</num>", "0009223372036854775807");
+        
+        // 超出时只保留最低的几位数字
+        TEST.test("<num len='3' overflow='truncate'>12345</num>", "345");
+        TEST.test("<num len='4' sign='lead' overflow='truncate'>-12345</num>", "-345");
+        
+        // 管道表达式的计算结果直接以整数输出
+        TEST.test("<num len='4'>lens i2s 123456</num>", "0006");
+        
+        // 单字节编码
+        TEST.test("<num len='5' sign='trail' encoding='Cp037'>-12</num>", "0012-", "Cp037");
+    }
+    
+    @Test
+    public void testDecimal() {
+        TEST.test("<num len='8'>b2s text.12345</num>", "00012345");
+        TEST.test("<num len='8' scale='2'>b2s text.123.4</num>", "00012340");
+        TEST.test("<num len='8' scale='2'>b2s text.123.450</num>", "00012345");
+        TEST.test("<num len='8' scale='2'>b2s text..5</num>", "00000050");
+        TEST.test("<num len='8' scale='2'>b2s text.7.</num>", "00000700");
+        TEST.test("<num len='8' scale='2' sign='lead'>b2s text.-0.01</num>", "-0000001");
+        TEST.test("<num len='8' scale='2' sign='lead'>b2s text.+12</num>", "+0001200");
+    }
+    
+    @Test
+    public void testEx() {
+        TEST.testEx("<num>123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<num len='0'>123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<num len='1' sign='lead'>123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<num len='3' sign='both'>123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<num len='3' scale='-1'>123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<num len='3' overflow='wrap'>123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<num len='3' encoding='utf-16'>123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<num len='3'>text.123</num>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Expr.InvalidExprResultType);
+        
+        testEx("<num len='3'>1234</num>", KyouErr.Pack.NumberOutOfRange);
+        testEx("<num len='4' sign='lead'>-1234</num>", KyouErr.Pack.NumberOutOfRange);
+        testEx("<num len='3' overflow='truncate'>-1</num>", KyouErr.Pack.NumberOutOfRange);
+        testEx("<num len='8' scale='2'>b2s text.1.234</num>", KyouErr.Pack.ParseStringToIntFail);
+        testEx("<num len='8'>b2s text.1a</num>", KyouErr.Pack.ParseStringToIntFail);
+        testEx("<num len='8'>b2s text.-</num>", KyouErr.Pack.ParseStringToIntFail);
+        testEx("<num len='30'>b2s text.9223372036854775808</num>", KyouErr.Pack.ParseStringToIntFail);
+    }
+    
+    private static void testEx(String xml, KyouErr err) {
+        Param param = new ParamFactory(new ArrayList<Class<? extends Param>>()).create(UTILS.prepareElement(xml), Charset.forName("utf-8"), null, new ExprFactory(null, null));
+        try {
+            param.export(null, new KyouByteOutputStream());
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(err, ex.err);
+        }
+    }
+}
@@ -13,6 +13,13 @@
  */
 package net.kyou.pack.param;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.util.KyouByteOutputStream;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 public class StringSegmentTest {
@@ -24,13 +31,61 @@ public class StringSegmentTest {
         // TODO fixme
 //        TEST.test("<str len='10' align='left' padding='_'>i2s 123</str>", "123_______");
 //        TEST.test("<str len='10' align='right' padding='0'>i2s 123</str>", "0000000123");
-//        TEST.test("<str len='5' align='right'>i2s 1234567890</str>", "67890");
-//        TEST.test("<str len='5' align='left'>i2s 1234567890</str>", "12345");
+        TEST.test("<str len='5' align='right'>i2s 1234567890</str>", "67890");
+        TEST.test("<str len='5' align='left'>i2s 1234567890</str>", "12345");
+        TEST.test("<str len='6' align='right' filling='0'>i2s 123</str>", "000123");
+        TEST.test("<str len='6' filling='_'>i2s 123</str>", "123___");
+        
+        // 不能直接写入的字符经过编码器
+        TEST.test("<str encoding='gbk' len='3' align='right'>b2s text.我人有的和</str>", "有的和", "gbk");
+        TEST.test("<str encoding='gbk' len='4' align='right' filling='中'>i2s 12</str>", "中中12", "gbk");
+        TEST.test("<str encoding='iso-8859-1' len='4' filling='é'>i2s 12</str>", "12éé", "iso-8859-1");
+        TEST.test("<str encoding='utf-16' len='5' filling='*'>i2s 123</str>", "123**", "utf-16");
+        
+        // 单字节编码查表写入，包括填充字符
+        TEST.test("<str encoding='Cp037' len='6'>i2s 123</str>", "123   ", "Cp037");
+        TEST.test("<str encoding='Cp037' len='6' align='right' filling='0'>i2s 123</str>", "000123", "Cp037");
+        TEST.test("<str encoding='Cp037' len='4'>b2s text.aé中</str>", "aé中 ", "Cp037");
+    }
+    
+    @Test
+    public void testBytes() {
+        // 按字节补齐或截断，截断时不会留下半个字符
+        TEST.test("<str encoding='gbk' len='6' unit='byte'>b2s text.我人有的和</str>", "我人有", "gbk");
+        TEST.test("<str encoding='gbk' len='5' unit='byte'>b2s text.我人有的和</str>", "我人 ", "gbk");
+        TEST.test("<str encoding='gbk' len='5' unit='byte' align='right' filling='0'>b2s text.a我人有</str>", "0人有", "gbk");
+        TEST.test("<str encoding='gbk' len='8' unit='byte' align='right' filling='_'>b2s text.a我</str>", "_____a我", "gbk");
+        TEST.test("<str len='8' unit='byte'>b2s text.a中文字</str>", "a中文 ");
+        TEST.test("<str len='4' unit='byte' align='right'>b2s text.中文</str>", " 文");
+        TEST.test("<str len='3' unit='byte' align='right'>b2s text.abcd</str>", "bcd");
+        TEST.test("<str len='6' unit='byte' align='right'>b2s text.ab\ud83d\ude00c</str>", "b\ud83d\ude00c");
+        TEST.test("<str len='4' unit='byte' align='right'>b2s text.\ud83d\ude00\ud83d\ude00</str>", "\ud83d\ude00");
+        TEST.test("<str len='3' unit='char'>b2s text.中文</str>", "中文 ");
 
     }
     
     @Test
-    public void testEx() throws SecurityException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+    public void testHold() throws UnsupportedEncodingException {
+        // 右对齐且恰好写满时，不能释放外层保留的位置（如子元素的起始位置）
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KyouByteOutputStream s = new KyouByteOutputStream(out, 16);
+        s.hold(0);
+        
+        TEST.create("<str len='4' unit='byte' align='right'>b2s text.abcd</str>").export(null, s);
+        TEST.create("<str len='4' unit='byte' align='right'>b2s text.ab</str>").export(null, s);
+        for (int i = 0; i < 200; i++)
+            s.write('x');
+        Assert.assertEquals(0, out.size());
+        Assert.assertEquals(208, s.view(0).remaining());
         
+        s.release(0);
+        s.flush();
+        Assert.assertEquals("abcd  ab", new String(out.toByteArray(), 0, 8, "utf-8"));
+    }
+    
+    @Test
+    public void testEx() throws SecurityException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
+        TEST.testEx("<str len='3' unit='word'>i2s 1</str>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
+        TEST.testEx("<str len='3' unit='byte' filling='中'>i2s 1</str>", KyouErr.StyleSpec.Style.ParamCreateFail, KyouErr.StyleSpec.Style.InvalidSegmentParam);
     }
 }
\ No newline at end of file
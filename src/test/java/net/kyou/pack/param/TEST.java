@@ -46,6 +46,10 @@ class TEST {
         Assert.assertArrayEquals(new KyouFormatString(expect, Charset.forName(encoding)).segment(0), s.export());
     }
     
+    public static Param create(String xml) {
+        return new ParamFactory(new ArrayList<Class<? extends Param>>()).create(UTILS.prepareElement(xml), Charset.forName("utf-8"), null, new ExprFactory(null, null));
+    }
+    
     public static void testEx(String xml, KyouErr... errs) {
         try {
             new ParamFactory(new ArrayList<Class<? extends Param>>()).create(UTILS.prepareElement(xml), Charset.forName("utf-8"), null, new ExprFactory(null, null));
@@ -13,9 +13,18 @@
  */
 package net.kyou.pack.param.expr;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
 import net.kyou.ERR;
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
+import net.kyou.pack.PackContext;
+import net.kyou.pack.param.Param;
+import net.kyou.pack.param.expr.ExprTag.ExprPostfix;
+import net.kyou.pack.param.expr.ExprTag.ExprType;
 import net.kyou.pack.param.expr.endpoint.EndpointExpr;
 import net.kyou.pack.param.expr.pipe.PipeExpr;
 
@@ -52,6 +61,41 @@ public class ExprTest {
         Assert.assertEquals(6, param.__eval(null));
     }
     
+    @Test
+    public void testFold() {
+        Expr param;
+        
+        param = new ExprFactory(null, null).create("lens i2s 123456", null, null);
+        Assert.assertTrue(param.__constant());
+        Assert.assertEquals("lens i2s 123456", param.toString());
+        Assert.assertEquals(6L, param.__evalLong(null));
+        
+        param = new ExprFactory(null, null).create("lenb s2b.utf-8 v", null, null);
+        Assert.assertFalse(param.__constant());
+        Assert.assertEquals("lenb s2b.UTF-8 v", param.toString());
+        
+        param = new ExprFactory(null, null).create("lenb s2b.utf-8 i2s 1234", null, null);
+        Assert.assertTrue(param instanceof PipeExpr);
+        Assert.assertEquals(4L, param.__evalLong(null));
+    }
+    
+    @Test
+    public void testTyped() {
+        Expr param;
+        
+        param = new ExprFactory(null, null).create("123", null, null);
+        Assert.assertEquals(123L, param.__evalLong(null));
+        
+        param = new ExprFactory(null, null).create("lens i2s 123456", null, null);
+        Assert.assertEquals(6L, param.__evalLong(null));
+        
+        param = new ExprFactory(null, null).create("s2i.16 i2s.16 255", null, null);
+        Assert.assertEquals(255L, param.__evalLong(null));
+        
+        param = new ExprFactory(null, null).create("i2s.16 s2i i2s 15", null, null);
+        Assert.assertEquals("f", param.__evalString(null));
+    }
+    
     @Test
     public void testEx() {
         try {
@@ -85,4 +129,28 @@ public class ExprTest {
             ERR.assertError(ex, KyouErr.StyleSpec.Expr.InitExprFail);
         }
     }
+    
+    @Test
+    public void testLegacyBytes() {
+        // 计算结果为byte[]的表达式仍然可以使用
+        List<Class<? extends EndpointExpr>> classes = new ArrayList<Class<? extends EndpointExpr>>();
+        classes.add(LegacyExpr.class);
+        ExprFactory factory = new ExprFactory(classes, null);
+        
+        ByteBuffer bytes = factory.create("legacy", null, null).__evalBytes(null);
+        Assert.assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), bytes);
+        Assert.assertEquals(3L, factory.create("lenb legacy", null, null).__evalLong(null));
+    }
+    
+    @ExprTag(name = "legacy", type = ExprType.Bytes, postfix = ExprPostfix.Empty)
+    public static class LegacyExpr extends EndpointExpr {
+        public LegacyExpr(String expr, Param param, Charset encoding) {
+            super(expr, param, encoding);
+        }
+        
+        @Override
+        protected Object eval(PackContext context) {
+            return new byte[] { 1, 2, 3 };
+        }
+    }
 }
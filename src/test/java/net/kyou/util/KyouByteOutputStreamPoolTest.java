@@ -0,0 +1,67 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KyouByteOutputStreamPoolTest {
+    @Test
+    public void testBorrow() {
+        KyouByteOutputStreamPool pool = new KyouByteOutputStreamPool(2, 4096);
+        
+        KyouByteOutputStream s = pool.borrow();
+        s.write("asdfjkl;".getBytes());
+        pool.release(s);
+        
+        // 归还的流被清空后再次借出
+        Assert.assertSame(s, pool.borrow());
+        Assert.assertEquals(0, s.size());
+        
+        // 池中没有流时新建
+        Assert.assertNotSame(s, pool.borrow());
+        
+        // 缓存超过上限的流不会被放回池中
+        for (int i = 0; i < 1000; i++)
+            s.write("asdfjkl;".getBytes());
+        pool.release(s);
+        Assert.assertNotSame(s, pool.borrow());
+    }
+    
+    @Test
+    public void testLocal() throws Exception {
+        KyouByteOutputStreamPool pool = KyouByteOutputStreamPool.local();
+        Assert.assertSame(pool, KyouByteOutputStreamPool.local());
+        
+        // 尚未归还时再次借出得到新的流
+        KyouByteOutputStream s = pool.borrow();
+        KyouByteOutputStream s2 = pool.borrow();
+        Assert.assertNotSame(s, s2);
+        pool.release(s);
+        pool.release(s2);
+        Assert.assertSame(s, pool.borrow());
+        
+        // 各个线程有各自的对象池
+        final KyouByteOutputStreamPool[] other = new KyouByteOutputStreamPool[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other[0] = KyouByteOutputStreamPool.local();
+            }
+        };
+        thread.start();
+        thread.join();
+        Assert.assertNotSame(pool, other[0]);
+    }
+}
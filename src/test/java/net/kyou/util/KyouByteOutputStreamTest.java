@@ -13,6 +13,11 @@
  */
 package net.kyou.util;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
 import net.kyou.exception.KyouErr;
 import net.kyou.exception.KyouException;
 
@@ -60,6 +65,315 @@ public class KyouByteOutputStreamTest {
         Assert.assertEquals("asdfj", new String(bytes));
     }
 
+    @Test
+    public void testView() {
+        KyouByteOutputStream s = new KyouByteOutputStream();
+        s.write("asdf".getBytes());
+        s.write("jkl;".getBytes());
+
+        ByteBuffer view = s.view(4);
+        Assert.assertEquals(4, view.remaining());
+        Assert.assertEquals("jkl;", new String(view.array(), view.arrayOffset() + view.position(), view.remaining()));
+
+        // 视图与流共享缓存
+        s.backspace(4);
+        s.write("qwer".getBytes());
+        Assert.assertEquals('q', view.get(0));
+        Assert.assertEquals(8, s.size());
+    }
+
+    @Test
+    public void testPatch() {
+        KyouByteOutputStream s = new KyouByteOutputStream();
+        s.write("??".getBytes());
+        s.write("asdf".getBytes());
+
+        s.write("jk".getBytes());
+        s.patch(0, 2, 6);
+
+        Assert.assertEquals("jkasdf", new String(s.export()));
+
+        try {
+            s.write("jkl".getBytes());
+            s.patch(0, 2, 6);
+
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Base.ByteStream.IllegalPatch, ex.err);
+        }
+    }
+
+    @Test
+    public void testSink() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KyouByteOutputStream s = new KyouByteOutputStream(out, 4);
+
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            s.write("asdfjkl;".getBytes());
+            buffer.append("asdfjkl;");
+        }
+
+        // 已经分块输出，缓存中只保留最后的一部分
+        Assert.assertTrue(out.size() > 0);
+        Assert.assertEquals(800, s.size());
+
+        // 保留的位置之后的字节不会被输出
+        int slot = s.size();
+        s.hold(slot);
+        s.write("??".getBytes());
+        for (int i = 0; i < 100; i++) {
+            s.write("asdfjkl;".getBytes());
+            buffer.append("asdfjkl;");
+        }
+        Assert.assertTrue(out.size() <= slot);
+
+        s.write("ok".getBytes());
+        s.patch(slot, 2, s.size() - 2);
+        s.backspace(3);
+        s.flush();
+
+        Assert.assertEquals("ok" + buffer.substring(800, buffer.length() - 3), new String(out.toByteArray(), 800, out.size() - 800));
+        Assert.assertEquals(buffer.substring(0, 800), new String(out.toByteArray(), 0, 800));
+
+        try {
+            s.export();
+
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Base.ByteStream.IllegalExport, ex.err);
+        }
+        try {
+            s.view(0);
+
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Base.ByteStream.IllegalPosition, ex.err);
+        }
+    }
+
+    @Test
+    public void testTap() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KyouByteOutputStream s = new KyouByteOutputStream(out, 4);
+        s.write("head".getBytes());
+
+        // 校验和在字节输出到目标流时逐步更新，结果与一次性计算的相同
+        Crc crc = new Crc();
+        s.tap(s.size(), crc);
+        for (int i = 0; i < 100; i++)
+            s.write("asdfjkl;".getBytes());
+        Assert.assertTrue(out.size() > 4);
+
+        int slot = s.reserve(2);
+        s.write("xyz".getBytes());
+        s.write("ok".getBytes());
+        s.patch(slot, 2, s.size() - 2);
+        s.backspace(1);
+        s.untap(crc);
+        s.flush();
+
+        CRC32 expected = new CRC32();
+        expected.update(out.toByteArray(), 4, out.size() - 4);
+        Assert.assertEquals(expected.getValue(), crc.getValue());
+
+        // 没有目标流时直接从缓存中计算
+        s = new KyouByteOutputStream();
+        s.write("head".getBytes());
+        crc = new Crc();
+        s.tap(2, crc);
+        s.write("body".getBytes());
+        s.untap(crc);
+
+        expected = new CRC32();
+        expected.update("adbody".getBytes());
+        Assert.assertEquals(expected.getValue(), crc.getValue());
+
+        // 范围内有尚未回填的位置
+        s.tap(s.size(), crc);
+        s.reserve(2);
+        try {
+            s.untap(crc);
+
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Base.ByteStream.IllegalDigest, ex.err);
+        }
+    }
+
+    /**
+     * 用{@link CRC32}计算的校验和
+     */
+    static class Crc implements IDigest {
+        private final CRC32 crc = new CRC32();
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            this.crc.update(b, off, len);
+        }
+
+        @Override
+        public void reset() {
+            this.crc.reset();
+        }
+
+        @Override
+        public byte[] digest() {
+            long v = this.crc.getValue();
+            return new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v };
+        }
+
+        long getValue() {
+            return this.crc.getValue();
+        }
+    }
+
+    @Test
+    public void testTarget() {
+        // 堆缓冲区，直接在其底层数组上写入
+        ByteBuffer target = ByteBuffer.wrap("????????????".getBytes(), 1, 10).slice();
+        target.position(2);
+        KyouByteOutputStream s = new KyouByteOutputStream(target);
+        s.write("ab".getBytes());
+        s.write("xx".getBytes());
+        s.write("cd".getBytes());
+        s.patch(2, 2, 4);
+        s.backspace(1);
+        Assert.assertEquals(3, s.size());
+        Assert.assertEquals("???abcdcd???", new String(target.array()));
+        Assert.assertEquals(2, target.position());
+
+        // 超出缓冲区的容量
+        s.write("0123456789".getBytes());
+        Assert.assertEquals(13, s.size());
+        Assert.assertEquals("abc0123456789", new String(s.export()));
+
+        // 临时超出缓冲区的容量，最终的字节数没有超出时会写回缓冲区
+        target = ByteBuffer.allocate(4);
+        s = new KyouByteOutputStream(target);
+        s.write("ab".getBytes());
+        s.write("0123456789".getBytes());
+        s.backspace(10);
+        s.write("cd".getBytes());
+        s.flush();
+        Assert.assertEquals("abcd", new String(target.array()));
+
+        // 直接缓冲区
+        target = ByteBuffer.allocateDirect(8);
+        s = new KyouByteOutputStream(target);
+        for (int i = 0; i < 200; i++)
+            s.write("asdfjkl;".getBytes());
+        s.flush();
+        Assert.assertEquals(1600, s.size());
+        byte[] bytes = new byte[8];
+        target.get(bytes);
+        Assert.assertEquals("asdfjkl;", new String(bytes));
+
+        try {
+            new KyouByteOutputStream(ByteBuffer.allocate(8).asReadOnlyBuffer());
+
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Base.ByteStream.ReadOnlyTarget, ex.err);
+        }
+    }
+
+    @Test
+    public void testReset() {
+        KyouByteOutputStream s = new KyouByteOutputStream(4);
+        for (int i = 0; i < 100; i++)
+            s.write("asdfjkl;".getBytes());
+        int capacity = s.capacity();
+
+        // 清空之后保留已经扩充过的缓存
+        s.hold(8);
+        s.reset();
+        Assert.assertEquals(0, s.size());
+        Assert.assertEquals(capacity, s.capacity());
+        s.write("ok".getBytes());
+        Assert.assertEquals("ok", new String(s.export()));
+
+        // 导出到缓冲区
+        ByteBuffer target = ByteBuffer.allocate(3);
+        target.put((byte) '?');
+        Assert.assertEquals(0, s.exportTo(target));
+        Assert.assertEquals("?ok", new String(target.array()));
+        Assert.assertEquals(3, target.position());
+        target.position(2);
+        Assert.assertEquals(1, s.exportTo(target));
+        Assert.assertEquals(2, target.position());
+
+        // 导出到流
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.exportTo(out);
+        Assert.assertEquals("ok", new String(out.toByteArray()));
+    }
+
+    @Test
+    public void testChars() throws Exception {
+        Assert.assertEquals(0x80, KyouByteUtils.singleByteLimit(Charset.forName("utf-8")));
+        Assert.assertEquals(0x80, KyouByteUtils.singleByteLimit(Charset.forName("gbk")));
+        Assert.assertEquals(0x100, KyouByteUtils.singleByteLimit(Charset.forName("iso-8859-1")));
+        Assert.assertEquals(0, KyouByteUtils.singleByteLimit(Charset.forName("utf-16")));
+
+        // 包含不成对的代理字符，与String.getBytes()的结果相同
+        String str = "ab\u00e9\u4e2d\ud834\udd1e\ud834c";
+        for (String encoding : new String[] { "utf-8", "gbk", "iso-8859-1", "us-ascii", "utf-16", "Cp037", "windows-1252" }) {
+            Charset charset = Charset.forName(encoding);
+
+            KyouByteOutputStream s = new KyouByteOutputStream(2);
+            s.fill('_', 3);
+            int i = s.writeChars(str, 1, str.length(), KyouCharset.of(charset));
+            s.write(str, i, str.length(), charset);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write("___".getBytes());
+            expected.write(str.substring(1, i).getBytes(charset));
+            expected.write(str.substring(i).getBytes(charset));
+            Assert.assertArrayEquals(encoding, expected.toByteArray(), s.export());
+        }
+
+        // 编码的过程中扩充缓存
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            buffer.append("\u4e2d");
+        KyouByteOutputStream s = new KyouByteOutputStream(2);
+        s.write(buffer.toString(), 0, buffer.length(), Charset.forName("utf-8"));
+        Assert.assertArrayEquals(buffer.toString().getBytes("utf-8"), s.export());
+
+        // 最多写入指定的字节数，在字符的边界截断
+        s = new KyouByteOutputStream(2);
+        Assert.assertEquals(2, s.write("a\u4e2d\u6587", 0, 3, Charset.forName("utf-8"), 6));
+        Assert.assertEquals(3, s.write("a\u4e2d\u6587", 0, 3, Charset.forName("utf-8"), 7));
+        Assert.assertArrayEquals("a\u4e2da\u4e2d\u6587".getBytes("utf-8"), s.export());
+    }
+
+    @Test
+    public void testInt() throws Exception {
+        long value = 0x0102030405060708L;
+        for (boolean endian : new boolean[] { true, false }) {
+            KyouByteOutputStream s = new KyouByteOutputStream(1);
+            s.writeInt16(value, endian);
+            s.writeInt32(value, endian);
+            s.writeInt64(value, endian);
+            s.writeInt32(-2, endian);
+            s.writeDigits(Long.MIN_VALUE, 20, "0123456789".getBytes());
+            s.writeDigits(1234, 2, "0123456789".getBytes());
+            s.writeFloat(236.71463f, endian);
+            s.writeDouble(123.4567, endian);
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(KyouByteUtils.writeInteger16(value, endian));
+            expected.write(KyouByteUtils.writeInteger32(value, endian));
+            expected.write(KyouByteUtils.writeInteger64(value, endian));
+            expected.write(KyouByteUtils.writeInteger32(-2, endian));
+            expected.write("0922337203685477580834".getBytes());
+            expected.write(KyouByteUtils.writeFloat(236.71463f, endian));
+            expected.write(KyouByteUtils.writeDouble(123.4567, endian));
+            Assert.assertArrayEquals(expected.toByteArray(), s.export());
+        }
+    }
+
     @Test
     public void testBackspaceEx() {
         try {
@@ -0,0 +1,64 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.util;
+
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KyouCharsetTest {
+    @Test
+    public void testMap() {
+        KyouCharset ebcdic = KyouCharset.of(Charset.forName("Cp037"));
+        Assert.assertSame(ebcdic, KyouCharset.of(Charset.forName("Cp037")));
+        Assert.assertEquals(0x40, ebcdic.map(' '));
+        Assert.assertEquals(0xF0, ebcdic.map('0'));
+        Assert.assertEquals(0xC1, ebcdic.map('A'));
+        Assert.assertEquals(-1, ebcdic.map('中'));
+        Assert.assertEquals(-1, ebcdic.map('\uffff'));
+        
+        // 兼容ASCII的编码只能查表编码小于0x80的字符
+        KyouCharset gbk = KyouCharset.of(Charset.forName("gbk"));
+        Assert.assertEquals('a', gbk.map('a'));
+        Assert.assertEquals(-1, gbk.map('中'));
+        
+        // 多字节编码不能查表编码
+        Assert.assertEquals(-1, KyouCharset.of(Charset.forName("utf-16")).map('a'));
+    }
+    
+    @Test
+    public void testEncode() throws Exception {
+        // 所有字符（包括无法编码的字符和代理字符）的编码结果都与String.getBytes()相同
+        StringBuilder buffer = new StringBuilder();
+        for (int c = 0; c < 0x10000; c++)
+            buffer.append((char) c);
+        String all = buffer.toString();
+        
+        for (String encoding : new String[] { "Cp037", "windows-1252", "iso-8859-1", "us-ascii", "gbk", "utf-8", "utf-16" }) {
+            Charset charset = Charset.forName(encoding);
+            KyouCharset kc = KyouCharset.of(charset);
+            
+            for (int c = 0; c < 0x10000; c++) {
+                int b = kc.map((char) c);
+                if (b >= 0)
+                    Assert.assertArrayEquals(encoding + ": " + c, String.valueOf((char) c).getBytes(charset), new byte[] { (byte) b });
+            }
+            
+            Assert.assertArrayEquals(encoding, all.getBytes(charset), kc.encode(all));
+            Assert.assertArrayEquals(encoding, "abé€".getBytes(charset), kc.encode("abé€"));
+            Assert.assertArrayEquals(encoding, "a\ud834\udd1eb\ud834".getBytes(charset), kc.encode("a\ud834\udd1eb\ud834"));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/* Copyright - Apache License 2.0
+ * 
+ * The project "kyou" is
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.kyou.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import net.kyou.exception.KyouErr;
+import net.kyou.exception.KyouException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KyouChunkedOutputStreamTest {
+    @Test
+    public void testWrite() {
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(5);
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            s.write("asdfjkl;".getBytes());
+            buffer.append("asdfjkl;");
+        }
+        s.write('x');
+        s.write(ByteBuffer.wrap("yz".getBytes()));
+        buffer.append("xyz");
+        
+        Assert.assertEquals(803, s.size());
+        Assert.assertEquals(buffer.toString(), new String(s.export()));
+        
+        // 跨越块边界回退，之后的写入重新使用已有的块
+        int capacity = s.capacity();
+        s.backspace(13);
+        s.write("0123456789".getBytes());
+        Assert.assertEquals(capacity, s.capacity());
+        Assert.assertEquals(buffer.substring(0, 790) + "0123456789", new String(s.export()));
+    }
+    
+    @Test
+    public void testChars() throws Exception {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            buffer.append(i % 2 == 0 ? "a" : "\u4e2d");
+        String str = buffer.toString();
+        
+        for (String encoding : new String[] { "utf-8", "gbk", "utf-16", "Cp037" }) {
+            Charset charset = Charset.forName(encoding);
+            
+            KyouChunkedOutputStream s = new KyouChunkedOutputStream(7);
+            s.fill('_', 10);
+            int i = s.writeChars(str, 0, str.length(), KyouCharset.of(charset));
+            s.write(str, i, str.length(), charset);
+            
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write("__________".getBytes());
+            expected.write(str.substring(0, i).getBytes(charset));
+            expected.write(str.substring(i).getBytes(charset));
+            Assert.assertArrayEquals(encoding, expected.toByteArray(), s.export());
+        }
+        
+        // 最多写入指定的字节数，在字符的边界截断
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(2);
+        Assert.assertEquals(2, s.write("a\u4e2d\u6587", 0, 3, Charset.forName("utf-8"), 6));
+        Assert.assertArrayEquals("a\u4e2d".getBytes("utf-8"), s.export());
+    }
+    
+    @Test
+    public void testInt() throws Exception {
+        // 有的整数跨越块边界
+        long value = 0x0102030405060708L;
+        for (boolean endian : new boolean[] { true, false }) {
+            KyouChunkedOutputStream s = new KyouChunkedOutputStream(5);
+            s.writeInt16(value, endian);
+            s.writeInt32(value, endian);
+            s.writeInt64(value, endian);
+            s.writeInt16(value, endian);
+            s.writeDigits(-1234567, 22, "0123456789".getBytes());
+            s.writeDouble(-0.125, endian);
+            
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(KyouByteUtils.writeInteger16(value, endian));
+            expected.write(KyouByteUtils.writeInteger32(value, endian));
+            expected.write(KyouByteUtils.writeInteger64(value, endian));
+            expected.write(KyouByteUtils.writeInteger16(value, endian));
+            expected.write("0000000000000001234567".getBytes());
+            expected.write(KyouByteUtils.writeDouble(-0.125, endian));
+            Assert.assertArrayEquals(expected.toByteArray(), s.export());
+        }
+    }
+    
+    @Test
+    public void testBufferSlice() {
+        // 只写入缓冲区的一段，不改变缓冲区的position
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        direct.put("01234567".getBytes());
+        direct.flip();
+        
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(3);
+        s.write(direct, 1, 6);
+        s.write(ByteBuffer.wrap("abcdef".getBytes()), 2, 3);
+        Assert.assertArrayEquals("123456cde".getBytes(), s.export());
+        Assert.assertEquals(0, direct.position());
+    }
+    
+    @Test
+    public void testTap() {
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(4);
+        s.write("head".getBytes());
+        
+        // 逐块计算校验和
+        KyouByteOutputStreamTest.Crc crc = new KyouByteOutputStreamTest.Crc();
+        s.tap(2, crc);
+        s.write("0123456789".getBytes());
+        s.untap(crc);
+        
+        CRC32 expected = new CRC32();
+        expected.update("ad0123456789".getBytes());
+        Assert.assertEquals(expected.getValue(), crc.getValue());
+        
+        // 重置后不再计算
+        s.tap(0, crc);
+        s.reset();
+        try {
+            s.untap(crc);
+            
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Base.ByteStream.IllegalDigest, ex.err);
+        }
+    }
+    
+    @Test
+    public void testViewPatch() {
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(4);
+        s.write("0123456789".getBytes());
+        
+        // 同一个块中的视图与流共享缓存
+        ByteBuffer view = s.view(8);
+        Assert.assertEquals("89", new String(view.array(), view.arrayOffset(), view.remaining()));
+        
+        // 跨越块边界的视图
+        view = s.view(2);
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        Assert.assertEquals("23456789", new String(bytes));
+        
+        Assert.assertEquals(0, s.view(10).remaining());
+        
+        // 跨越块边界回填
+        s.write("ab".getBytes());
+        s.patch(3, 2, 10);
+        Assert.assertEquals("012ab56789", new String(s.export()));
+        
+        try {
+            s.view(11);
+            
+            Assert.fail();
+        } catch (KyouException ex) {
+            Assert.assertEquals(KyouErr.Base.ByteStream.IllegalPosition, ex.err);
+        }
+    }
+    
+    @Test
+    public void testExport() throws Exception {
+        KyouChunkedOutputStream s = new KyouChunkedOutputStream(3);
+        s.write("0123456789".getBytes());
+        
+        ByteBuffer target = ByteBuffer.allocate(10);
+        Assert.assertEquals(0, s.exportTo(target));
+        Assert.assertEquals("0123456789", new String(target.array()));
+        Assert.assertEquals(10, s.exportTo(target));
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.exportTo(out);
+        Assert.assertEquals("0123456789", new String(out.toByteArray()));
+        
+        File file = File.createTempFile("kyou", null);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                Assert.assertEquals(10, s.writeTo(channel));
+                
+                bytes(channel, "0123456789");
+            } finally {
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+        
+        // 非阻塞的通道写不进去时返回已写出的字节数
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        GatheringByteChannel channel = new GatheringByteChannel() {
+            @Override
+            public long write(ByteBuffer[] srcs, int offset, int length) {
+                int n = 0;
+                for (int i = offset; i < offset + length && written.size() < 4; i++)
+                    while (srcs[i].hasRemaining() && written.size() < 4) {
+                        written.write(srcs[i].get());
+                        n++;
+                    }
+                return n;
+            }
+            
+            @Override
+            public long write(ByteBuffer[] srcs) {
+                return this.write(srcs, 0, srcs.length);
+            }
+            
+            @Override
+            public int write(ByteBuffer src) {
+                return (int) this.write(new ByteBuffer[] { src });
+            }
+            
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+            
+            @Override
+            public void close() {
+            }
+        };
+        Assert.assertEquals(4, s.writeTo(channel));
+        Assert.assertEquals("0123", new String(written.toByteArray()));
+    }
+    
+    private static void bytes(FileChannel channel, String expected) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.read(buffer, 0);
+        Assert.assertEquals(expected, new String(buffer.array()));
+    }
+}